@@ -263,15 +263,7 @@ public class JahiaLDAPConfig {
             ldapUserGroupProvider.register();
 
             if (userConfig.isMinimalSettingsOk() && groupConfig.isPreload()) {
-                new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-                        List<String> l = ldapUserGroupProvider.searchGroups(new Properties(), 0, -1);
-                        for (String s : l) {
-                            ldapUserGroupProvider.getGroupMembers(s);
-                        }
-                    }
-                }, "LDAP Preload").start();
+                ldapUserGroupProvider.startPreload();
             }
         } catch (IllegalAccessException | InvocationTargetException e) {
             logger.error("Invalid LDAP configuration:" + fileName + ", please refer to the LDAP configuration documentation", e);
@@ -44,6 +44,7 @@
 package org.jahia.services.usermanager.ldap;
 
 import org.jahia.services.cache.CacheHelper;
+import org.jahia.services.usermanager.ldap.cache.LDAPCacheManager;
 import org.osgi.service.cm.Configuration;
 import org.osgi.service.cm.ConfigurationAdmin;
 import org.osgi.service.cm.ConfigurationException;
@@ -67,6 +68,8 @@ public class JahiaLDAPConfigFactory implements ManagedServiceFactory, Applicatio
 
     private ApplicationContext context;
 
+    private LDAPCacheManager ldapCacheManager;
+
     private Map<String, JahiaLDAPConfig> ldapConfigs = new HashMap<String, JahiaLDAPConfig>();
     private Map<String, String> pidsByProviderKey = new HashMap<String, String>();
 
@@ -74,6 +77,10 @@ public class JahiaLDAPConfigFactory implements ManagedServiceFactory, Applicatio
         this.configurationAdmin = configurationAdmin;
     }
 
+    public void setLdapCacheManager(LDAPCacheManager ldapCacheManager) {
+        this.ldapCacheManager = ldapCacheManager;
+    }
+
     public void start() {
         // do nothing
     }
@@ -142,7 +149,6 @@ public class JahiaLDAPConfigFactory implements ManagedServiceFactory, Applicatio
         CacheHelper.flushEhcacheByName("org.jahia.services.usermanager.JahiaUserManagerService.userPathByUserNameCache", true);
         CacheHelper.flushEhcacheByName("org.jahia.services.usermanager.JahiaGroupManagerService.groupPathByGroupNameCache", true);
         CacheHelper.flushEhcacheByName("org.jahia.services.usermanager.JahiaGroupManagerService.membershipCache", true);
-        CacheHelper.flushEhcacheByName("LDAPUsersCache", true);
-        CacheHelper.flushEhcacheByName("LDAPGroupsCache", true);
+        ldapCacheManager.flush();
     }
 }
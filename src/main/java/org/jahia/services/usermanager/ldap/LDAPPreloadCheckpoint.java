@@ -0,0 +1,177 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Where the preloads of the cache of a provider stopped, kept as long as the caches they filled so that a preload
+ * started again resumes instead of starting over. The scan of each base is checkpointed by the last entry read in the
+ * order of a sort attribute, the groups scanned are kept until their members are loaded.
+ */
+public class LDAPPreloadCheckpoint {
+
+    /**
+     * The last entry read by the scan of a base
+     */
+    static class Position {
+        private final String dn;
+        private final String value;
+
+        private Position(String dn, String value) {
+            this.dn = dn;
+            this.value = value;
+        }
+
+        /**
+         * @return the DN of the entry
+         */
+        String getDn() {
+            return dn;
+        }
+
+        /**
+         * @return the value of the sort attribute of the entry
+         */
+        String getValue() {
+            return value;
+        }
+    }
+
+    private static class Scan {
+        private final long startTime = System.currentTimeMillis();
+        private volatile Position position;
+        private volatile boolean complete;
+    }
+
+    private final Map<String, Scan> scans = new ConcurrentHashMap<String, Scan>();
+    private final Set<String> pendingGroups = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * The scan of a base starts from its first entry
+     *
+     * @param scanName identifies the scanned base
+     */
+    void start(String scanName) {
+        scans.put(scanName, new Scan());
+    }
+
+    /**
+     * @param scanName identifies the scanned base
+     * @param dn the DN of the last entry handled
+     * @param value the value of the sort attribute of the entry
+     */
+    void setPosition(String scanName, String dn, String value) {
+        Scan scan = scans.get(scanName);
+        if (scan != null) {
+            scan.position = new Position(dn, value);
+        }
+    }
+
+    /**
+     * The entries of the base are not read in a known order any more, the scan cannot be resumed
+     *
+     * @param scanName identifies the scanned base
+     */
+    void clearPosition(String scanName) {
+        Scan scan = scans.get(scanName);
+        if (scan != null) {
+            scan.position = null;
+        }
+    }
+
+    /**
+     * @param scanName identifies the scanned base
+     */
+    void complete(String scanName) {
+        Scan scan = scans.get(scanName);
+        if (scan != null) {
+            scan.position = null;
+            scan.complete = true;
+        }
+    }
+
+    /**
+     * @param scanName identifies the scanned base
+     * @param cacheTtl the time to live of the cached entries, in seconds
+     * @return the last entry read by an unfinished scan, null if none or if the entries read before may have expired
+     */
+    Position getPosition(String scanName, int cacheTtl) {
+        Scan scan = scans.get(scanName);
+        return scan != null && !scan.complete && !isExpired(scan, cacheTtl) ? scan.position : null;
+    }
+
+    /**
+     * @param scanName identifies the scanned base
+     * @param cacheTtl the time to live of the cached entries, in seconds
+     * @return true if the whole base has been read and the entries read may still be cached
+     */
+    boolean isComplete(String scanName, int cacheTtl) {
+        Scan scan = scans.get(scanName);
+        return scan != null && scan.complete && !isExpired(scan, cacheTtl);
+    }
+
+    void groupScanned(String groupName) {
+        pendingGroups.add(groupName);
+    }
+
+    void groupResolved(String groupName) {
+        pendingGroups.remove(groupName);
+    }
+
+    /**
+     * @return the names of the groups scanned whose members have not been loaded yet
+     */
+    Set<String> getPendingGroups() {
+        return new HashSet<String>(pendingGroups);
+    }
+
+    private static boolean isExpired(Scan scan, int cacheTtl) {
+        return cacheTtl > 0 && System.currentTimeMillis() - scan.startTime > cacheTtl * 1000L;
+    }
+}
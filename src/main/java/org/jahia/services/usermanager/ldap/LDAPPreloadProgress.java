@@ -0,0 +1,170 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of a preload of the cache of a provider, updated by the preload threads and read over JMX.
+ * Cancelling the progress stops the preload at the end of the current page or group.
+ */
+public class LDAPPreloadProgress {
+
+    public enum State {
+        SCANNING, RESOLVING, DONE, CANCELLED,
+        /**
+         * A scan could not be completed, the entries read are cached
+         */
+        FAILED,
+        /**
+         * Nothing to load, the entries of the previous preload are kept up to date by the synchronization
+         */
+        SKIPPED
+    }
+
+    private final long expectedEntryCount;
+    private final long startTime = System.currentTimeMillis();
+    private final AtomicLong scannedEntryCount = new AtomicLong();
+    private final AtomicInteger resolvedGroupCount = new AtomicInteger();
+    private volatile State state = State.SCANNING;
+    private volatile long resolutionStartTime;
+    private volatile int groupCount;
+    private volatile long endTime;
+    private volatile boolean cancelled;
+
+    /**
+     * @param expectedEntryCount number of entries scanned by the previous preload, 0 if not known
+     */
+    public LDAPPreloadProgress(long expectedEntryCount) {
+        this.expectedEntryCount = expectedEntryCount;
+    }
+
+    void entryScanned() {
+        scannedEntryCount.incrementAndGet();
+    }
+
+    void startResolution(int groupCount) {
+        this.groupCount = groupCount;
+        resolutionStartTime = System.currentTimeMillis();
+        state = State.RESOLVING;
+    }
+
+    void groupResolved() {
+        resolvedGroupCount.incrementAndGet();
+    }
+
+    void end(State state) {
+        endTime = System.currentTimeMillis();
+        this.state = state;
+    }
+
+    /**
+     * Ask the preload to stop
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getScannedEntryCount() {
+        return scannedEntryCount.get();
+    }
+
+    public int getResolvedGroupCount() {
+        return resolvedGroupCount.get();
+    }
+
+    public int getGroupCount() {
+        return groupCount;
+    }
+
+    /**
+     * @return the time spent so far, or by the whole preload once ended, in milliseconds
+     */
+    public long getElapsedTime() {
+        return (endTime > 0 ? endTime : System.currentTimeMillis()) - startTime;
+    }
+
+    /**
+     * @return entries scanned per second while scanning, groups resolved per second while resolving the members
+     */
+    public double getRate() {
+        if (state == State.SCANNING) {
+            return perSecond(scannedEntryCount.get(), System.currentTimeMillis() - startTime);
+        } else if (state == State.RESOLVING) {
+            return perSecond(resolvedGroupCount.get(), System.currentTimeMillis() - resolutionStartTime);
+        }
+        return perSecond(scannedEntryCount.get(), getElapsedTime());
+    }
+
+    /**
+     * The scan is estimated from the number of entries of the previous preload, the resolution from the number of
+     * groups scanned
+     *
+     * @return estimated number of seconds left in the current phase, -1 if not known
+     */
+    public long getEta() {
+        double rate = getRate();
+        if (state == State.SCANNING && expectedEntryCount > 0 && rate > 0) {
+            return (long) (Math.max(expectedEntryCount - scannedEntryCount.get(), 0) / rate);
+        } else if (state == State.RESOLVING && rate > 0) {
+            return (long) (Math.max(groupCount - resolvedGroupCount.get(), 0) / rate);
+        } else if (state == State.SCANNING || state == State.RESOLVING) {
+            return -1;
+        }
+        return 0;
+    }
+
+    private static double perSecond(long count, long time) {
+        return time > 0 ? count * 1000.0 / time : 0;
+    }
+}
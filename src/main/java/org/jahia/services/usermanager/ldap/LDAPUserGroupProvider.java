@@ -48,48 +48,88 @@ import com.sun.jndi.ldap.LdapURL;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
 import org.apache.commons.lang.reflect.FieldUtils;
+import org.apache.commons.pool.impl.GenericKeyedObjectPool;
 import org.apache.jackrabbit.util.Text;
 import org.jahia.modules.external.users.*;
 import org.jahia.services.content.decorator.JCRMountPointNode;
 import org.jahia.services.usermanager.*;
 import org.jahia.services.usermanager.ldap.cache.LDAPAbstractCacheEntry;
 import org.jahia.services.usermanager.ldap.cache.LDAPCacheManager;
+import org.jahia.services.usermanager.ldap.cache.LDAPCacheRefresher;
 import org.jahia.services.usermanager.ldap.cache.LDAPGroupCacheEntry;
+import org.jahia.services.usermanager.ldap.cache.LDAPGroupGraph;
+import org.jahia.services.usermanager.ldap.cache.LDAPMemberBitmap;
+import org.jahia.services.usermanager.ldap.cache.LDAPMemberIdRegistry;
+import org.jahia.services.usermanager.ldap.cache.LDAPMemberPageOrder;
+import org.jahia.services.usermanager.ldap.cache.LDAPLoadCoalescer;
+import org.jahia.services.usermanager.ldap.cache.LDAPOffHeapBudget;
+import org.jahia.services.usermanager.ldap.cache.LDAPOffHeapMemberList;
 import org.jahia.services.usermanager.ldap.cache.LDAPUserCacheEntry;
+import org.jahia.services.usermanager.ldap.communication.LdapParallelExecutor;
 import org.jahia.services.usermanager.ldap.communication.LdapTemplateCallback;
 import org.jahia.services.usermanager.ldap.communication.LdapTemplateWrapper;
 import org.jahia.services.usermanager.ldap.config.AbstractConfig;
 import org.jahia.services.usermanager.ldap.config.GroupConfig;
 import org.jahia.services.usermanager.ldap.config.UserConfig;
+import org.jahia.services.usermanager.ldap.control.VirtualListViewDirContextProcessor;
+import org.jahia.services.usermanager.ldap.control.VirtualListViewRequestControl;
+import org.jahia.services.usermanager.ldap.dn.LDAPDnCanonicalizer;
+import org.jahia.services.usermanager.ldap.filter.LDAPDynamicGroupFilter;
+import org.jahia.services.usermanager.ldap.dn.LDAPDnClassifier;
+import org.jahia.services.usermanager.ldap.sync.LDAPChangeListener;
+import org.jahia.services.usermanager.ldap.sync.LDAPDirSyncClient;
+import org.jahia.services.usermanager.ldap.sync.LDAPSyncClient;
+import org.jahia.services.usermanager.ldap.sync.LDAPSyncCookieStore;
+import org.jahia.services.usermanager.ldap.sync.LDAPSyncListener;
+import org.jahia.services.usermanager.ldap.sync.LDAPSyncSession;
+import org.jahia.services.usermanager.ldap.sync.LDAPTimestampSyncClient;
+import org.jahia.settings.SettingsBean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ldap.CommunicationException;
 import org.springframework.ldap.InsufficientResourcesException;
 import org.springframework.ldap.ServiceUnavailableException;
+import org.springframework.ldap.control.PagedResultsCookie;
+import org.springframework.ldap.control.PagedResultsDirContextProcessor;
+import org.springframework.ldap.control.SortControlDirContextProcessor;
 import org.springframework.ldap.core.AttributesMapper;
+import org.springframework.ldap.core.ContextExecutor;
+import org.springframework.ldap.core.DirContextProcessor;
+import org.springframework.ldap.core.LdapOperations;
 import org.springframework.ldap.core.LdapTemplate;
 import org.springframework.ldap.core.NameClassPairCallbackHandler;
-import org.springframework.ldap.core.support.DefaultIncrementalAttributesMapper;
+import org.springframework.ldap.core.support.AggregateDirContextProcessor;
 import org.springframework.ldap.core.support.LdapContextSource;
+import org.springframework.ldap.core.support.LdapOperationsCallback;
+import org.springframework.ldap.core.support.SingleContextSource;
+import org.springframework.ldap.filter.AndFilter;
+import org.springframework.ldap.filter.GreaterThanOrEqualsFilter;
 import org.springframework.ldap.query.ConditionCriteria;
 import org.springframework.ldap.query.ContainerCriteria;
+import org.springframework.ldap.query.LdapQuery;
 import org.springframework.ldap.query.SearchScope;
 import org.springframework.ldap.support.LdapUtils;
 
 import javax.jcr.RepositoryException;
-import javax.naming.InvalidNameException;
 import javax.naming.NameClassPair;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.SortControl;
 import javax.naming.ldap.LdapName;
-import javax.naming.ldap.Rdn;
+import java.io.File;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.springframework.ldap.query.LdapQueryBuilder.query;
@@ -103,6 +143,35 @@ public class LDAPUserGroupProvider extends BaseUserGroupProvider {
 
     public static final int CONNECTION_ERROR_CACHE_TTL = 5;
     protected static final String OBJECTCLASS_ATTRIBUTE = "objectclass";
+
+    // Kinds of LDAP loads shared between concurrent callers
+    private static final String LOAD_USER = "user";
+    private static final String LOAD_USER_DN = "userDn";
+    private static final String LOAD_GROUP = "group";
+    private static final String LOAD_GROUP_DN = "groupDn";
+    private static final String LOAD_DYNAMIC_GROUP_DN = "dynamicGroupDn";
+    // loads by DN that do not cache their result are kept apart from the ones that do
+    private static final String LOAD_UNCACHED_USER_DN = "uncachedUserDn";
+    private static final String LOAD_UNCACHED_GROUP_DN = "uncachedGroupDn";
+    private static final String LOAD_UNCACHED_DYNAMIC_GROUP_DN = "uncachedDynamicGroupDn";
+    private static final String LOAD_GROUP_MEMBERS = "groupMembers";
+    private static final String LOAD_USER_MEMBERSHIP = "userMembership";
+    private static final String LOAD_GROUP_MEMBERSHIP = "groupMembership";
+    private static final String LOAD_DYNAMIC_GROUP_FILTERS = "dynamicGroupFilters";
+    private static final String LOAD_TRANSITIVE_GROUP_MEMBERS = "transitiveGroupMembers";
+    private static final String LOAD_USER_TRANSITIVE_MEMBERSHIP = "userTransitiveMembership";
+    private static final String LOAD_GROUP_TRANSITIVE_MEMBERSHIP = "groupTransitiveMembership";
+    private static final String LDAP_MATCHING_RULE_IN_CHAIN = "1.2.840.113556.1.4.1941";
+    private static final String DEFAULT_MEMBEROF_ATTRIBUTE = "memberOf";
+    private static final String SYNC_USERS = "users";
+    private static final String SYNC_GROUPS = "groups";
+    private static final String PRELOAD_USERS = "users";
+    private static final String PRELOAD_GROUPS = "groups";
+    private static final String PRELOAD_DYNAMIC_GROUPS = "dynamic groups";
+    private static final int PRELOAD_GROUPS_PER_TASK = 100;
+    private static final int PRELOAD_SCAN_ATTEMPTS = 3;
+    // maximum number of results of a search that reads all the matching entries
+    private static final long NO_LIMIT = -1;
     private static Logger logger = LoggerFactory.getLogger(LDAPUserGroupProvider.class);
 
     private LdapContextSource contextSource;
@@ -115,6 +184,25 @@ public class LDAPUserGroupProvider extends BaseUserGroupProvider {
 
     // Cache
     private LDAPCacheManager ldapCacheManager;
+    private final LDAPLoadCoalescer loadCoalescer = new LDAPLoadCoalescer();
+    private LDAPUserGroupProviderStatistics statistics;
+    private volatile LDAPPreloadProgress preloadProgress;
+    // where the preloads stopped, for the caches of the current registration
+    private volatile LDAPPreloadCheckpoint preloadCheckpoint = new LDAPPreloadCheckpoint();
+    private Thread preloadThread;
+    // number of entries of the last complete preload, to estimate the duration of the next one
+    private long lastPreloadEntryCount;
+    private LDAPCacheRefresher cacheRefresher;
+    private LDAPSyncClient syncClient;
+    private LDAPDirSyncClient dirSyncClient;
+    private LDAPTimestampSyncClient timestampSyncClient;
+    private LDAPDnClassifier dnClassifier;
+    private LdapParallelExecutor memberResolutionExecutor;
+    private volatile boolean memberBatchResolutionDisabled = false;
+    private volatile boolean memberBatchResolutionVerified = false;
+    private volatile Set<String> supportedControls;
+    private volatile boolean virtualListViewDisabled = false;
+    private volatile DynamicGroupFilters dynamicGroupFilters;
     private ContainerCriteria searchGroupCriteria;
     private ContainerCriteria searchGroupDynamicCriteria;
 
@@ -156,7 +244,7 @@ public class LDAPUserGroupProvider extends BaseUserGroupProvider {
 
     @Override
     public JahiaUser getUser(String name) throws UserNotFoundException {
-        LDAPUserCacheEntry userCacheEntry = getUserCacheEntry(name, true);
+        LDAPUserCacheEntry userCacheEntry = getUserCacheEntry(name);
         if (!userCacheEntry.getExist()) {
             throw new UserNotFoundException("unable to find user " + name + " on provider " + getKey());
         } else {
@@ -166,7 +254,7 @@ public class LDAPUserGroupProvider extends BaseUserGroupProvider {
 
     @Override
     public JahiaGroup getGroup(String name) throws GroupNotFoundException {
-        LDAPGroupCacheEntry groupCacheEntry = getGroupCacheEntry(name, true);
+        LDAPGroupCacheEntry groupCacheEntry = getGroupCacheEntry(name);
         if (!groupCacheEntry.getExist()) {
             throw new GroupNotFoundException("unable to find group " + name + " on provider " + getKey());
         } else {
@@ -174,206 +262,219 @@ public class LDAPUserGroupProvider extends BaseUserGroupProvider {
         }
     }
 
-    @Override
-    public List<Member> getGroupMembers(String groupName) {
-
-        LDAPGroupCacheEntry groupCacheEntry = getGroupCacheEntry(groupName, false);
-        if (!groupCacheEntry.getExist()) {
-            return Collections.emptyList();
-        }
-        if (groupCacheEntry.getMembers() != null) {
-            return new ArrayList<Member>(groupCacheEntry.getMembers());
-        }
-
-        List<Member> members = null;
-        if (groupCacheEntry.isDynamic() && StringUtils.isNotEmpty(groupCacheEntry.getDynamicMembersURL())) {
-            members = loadMembersFromUrl(groupCacheEntry.getDynamicMembersURL());
-        } else {
-            members = loadMembersFromDN(groupCacheEntry.getDn());
+    /**
+     * Get several users at once. The cached users are read in one access to the cache, the others are searched by
+     * batches of names OR-ed in one filter, and the users found as well as the names not found are cached. The names
+     * of a batch are not cached as missing when the search found a user none of them matches.
+     *
+     * @param names the user names
+     * @return the users found, by name
+     */
+    public Map<String, JahiaUser> getUsers(Collection<String> names) {
+        Map<String, JahiaUser> users = new LinkedHashMap<String, JahiaUser>();
+        List<String> missingNames = new ArrayList<String>();
+        Map<String, LDAPUserCacheEntry> cacheEntries = ldapCacheManager.getUserCacheEntriesByName(getKey(), names);
+        for (String name : new LinkedHashSet<String>(names)) {
+            LDAPUserCacheEntry userCacheEntry = cacheEntries.get(name);
+            if (userCacheEntry == null || userCacheEntry.getExist() == null || (userCacheEntry.getExist() && userCacheEntry.getUser() == null)) {
+                missingNames.add(name);
+            } else if (userCacheEntry.getExist()) {
+                users.put(name, userCacheEntry.getUser());
+            }
         }
 
-        if (CollectionUtils.isNotEmpty(members)) {
-            groupCacheEntry.setMembers(members);
-            ldapCacheManager.cacheGroup(getKey(), groupCacheEntry);
-            return new ArrayList<Member>(groupCacheEntry.getMembers());
-        } else {
-            return Collections.emptyList();
+        for (List<String> batch : Lists.partition(missingNames, Math.max(userConfig.getLookupBatchSize(), 1))) {
+            Map<String, LDAPUserCacheEntry> foundEntries = searchUserCacheEntries(batch);
+            if (foundEntries == null) {
+                // communication error, nothing to cache
+                continue;
+            }
+            List<String> notFoundNames = new ArrayList<String>();
+            Set<String> matchedKeys = new HashSet<String>();
+            for (String name : batch) {
+                String nameKey = getNameKey(name);
+                LDAPUserCacheEntry userCacheEntry = foundEntries.get(nameKey);
+                if (userCacheEntry != null) {
+                    users.put(name, userCacheEntry.getUser());
+                    matchedKeys.add(nameKey);
+                } else {
+                    notFoundNames.add(name);
+                }
+            }
+            if (matchedKeys.size() < foundEntries.size()) {
+                // the server matched an entry that none of the names matches here, it may be one of them
+                logger.debug("Users {} not matched with the entries found, not cached as missing", notFoundNames);
+                continue;
+            }
+            for (String name : notFoundNames) {
+                LDAPUserCacheEntry userCacheEntry = new LDAPUserCacheEntry(name);
+                userCacheEntry.setExist(false);
+                ldapCacheManager.cacheUser(getKey(), userCacheEntry);
+            }
         }
+        return users;
     }
 
-    @Override
-    public List<String> getMembership(final Member member) {
-
-        boolean isGroup = member.getType().equals(Member.MemberType.GROUP);
-
-        if (isGroup && !userConfig.isCanGroupContainSubGroups()) {
-            return Collections.emptyList();
-        }
-        LDAPAbstractCacheEntry cacheEntry = isGroup ? getGroupCacheEntry(member.getName(), false) : getUserCacheEntry(member.getName(), false);
-        if (cacheEntry.getMemberships() != null) {
-            return new ArrayList<String>(cacheEntry.getMemberships());
-        }
-        if (!cacheEntry.getExist()) {
-            return null;
-        }
-
-        final String dn = cacheEntry.getDn();
-        long startTime = System.currentTimeMillis();
-        List<String> memberships = ldapTemplateWrapper.execute(new BaseLdapActionCallback<List<String>>(getExternalUserGroupService(), getKey()) {
-
-            @Override
-            public List<String> doInLdap(LdapTemplate ldapTemplate) {
-                return ldapTemplate.search(
-                        applyPredefinedGroupFilter(query().base(groupConfig.getSearchName())
-                                .attributes(groupConfig.getSearchAttribute())
-                                .where(OBJECTCLASS_ATTRIBUTE)
-                                .is(groupConfig.getSearchObjectclass())
-                                .and(groupConfig.getMembersAttribute())
-                                .like(dn)),
-                        new AttributesMapper<String>() {
-
-                            @Override
-                            public String mapFromAttributes(Attributes attrs) throws NamingException {
-                                return encode(attrs.get(groupConfig.getSearchAttribute()).get().toString());
-                            }
-                        });
+    /**
+     * Get several groups at once. The cached groups are read in one access to the cache, the others are searched by
+     * batches of names OR-ed in one filter, static groups first then dynamic groups, and the groups found as well as
+     * the names not found are cached. The names of a batch are not cached as missing when the search found a group none
+     * of them matches.
+     *
+     * @param names the group names
+     * @return the groups found, by name
+     */
+    public Map<String, JahiaGroup> getGroups(Collection<String> names) {
+        Map<String, JahiaGroup> groups = new LinkedHashMap<String, JahiaGroup>();
+        List<String> missingNames = new ArrayList<String>();
+        Map<String, LDAPGroupCacheEntry> cacheEntries = ldapCacheManager.getGroupCacheEntriesByName(getKey(), names);
+        for (String name : new LinkedHashSet<String>(names)) {
+            LDAPGroupCacheEntry groupCacheEntry = cacheEntries.get(name);
+            if (groupCacheEntry == null || groupCacheEntry.getExist() == null || (groupCacheEntry.getExist() && groupCacheEntry.getGroup() == null)) {
+                missingNames.add(name);
+            } else if (groupCacheEntry.getExist()) {
+                groups.put(name, groupCacheEntry.getGroup());
             }
-        });
-        if (logger.isDebugEnabled()) {
-            logger.debug("Query getMembership for {} / {} dn={} in {} ms", new Object[] {
-                member.getName(),
-                groupConfig.getSearchAttribute(),
-                dn,
-                System.currentTimeMillis() - startTime
-            });
-        }
-
-        // in case of communication error, the result may be null
-        if (memberships == null) {
-            memberships = new ArrayList<String>();
         }
 
-        if (groupConfig.isDynamicEnabled()) {
-            Properties searchCriteria = new Properties();
-            searchCriteria.put("*", "*");
-            List<String> dynGroups = searchGroups(searchCriteria, true);
-            for (String dynGroup : dynGroups) {
-                List<Member> members = getGroupMembers(dynGroup);
-                if (members.contains(member)) {
-                    memberships.add(dynGroup);
+        for (List<String> batch : Lists.partition(missingNames, Math.max(groupConfig.getLookupBatchSize(), 1))) {
+            Map<String, LDAPGroupCacheEntry> foundEntries = searchGroupCacheEntries(batch, false);
+            if (foundEntries != null && groupConfig.isDynamicEnabled()) {
+                List<String> remainingNames = new ArrayList<String>();
+                for (String name : batch) {
+                    if (!foundEntries.containsKey(getNameKey(name))) {
+                        remainingNames.add(name);
+                    }
+                }
+                Map<String, LDAPGroupCacheEntry> dynamicEntries = remainingNames.isEmpty() ? null : searchGroupCacheEntries(remainingNames, true);
+                if (dynamicEntries != null) {
+                    foundEntries.putAll(dynamicEntries);
+                } else if (!remainingNames.isEmpty()) {
+                    foundEntries = null;
                 }
             }
+            if (foundEntries == null) {
+                // communication error, nothing to cache
+                continue;
+            }
+            List<String> notFoundNames = new ArrayList<String>();
+            Set<String> matchedKeys = new HashSet<String>();
+            for (String name : batch) {
+                String nameKey = getNameKey(name);
+                LDAPGroupCacheEntry groupCacheEntry = foundEntries.get(nameKey);
+                if (groupCacheEntry != null) {
+                    groups.put(name, groupCacheEntry.getGroup());
+                    matchedKeys.add(nameKey);
+                } else {
+                    notFoundNames.add(name);
+                }
+            }
+            if (matchedKeys.size() < foundEntries.size()) {
+                // the server matched an entry that none of the names matches here, it may be one of them
+                logger.debug("Groups {} not matched with the entries found, not cached as missing", notFoundNames);
+                continue;
+            }
+            for (String name : notFoundNames) {
+                LDAPGroupCacheEntry groupCacheEntry = new LDAPGroupCacheEntry(name);
+                groupCacheEntry.setExist(false);
+                ldapCacheManager.cacheGroup(getKey(), groupCacheEntry);
+            }
         }
-
-        cacheEntry.setMemberships(memberships);
-        if (isGroup) {
-            ldapCacheManager.cacheGroup(getKey(), (LDAPGroupCacheEntry) cacheEntry);
-        } else {
-            ldapCacheManager.cacheUser(getKey(), (LDAPUserCacheEntry) cacheEntry);
-        }
-
-        return new ArrayList<String>(cacheEntry.getMemberships());
+        return groups;
     }
 
-    @Override
-    public List<String> searchUsers(final Properties searchCriteria, long offset, long limit) {
-
-        if (searchCriteria.containsKey("username") && searchCriteria.size() == 1 && !searchCriteria.getProperty("username").contains("*")) {
-            try {
-                JahiaUser user = getUser((String) searchCriteria.get("username"));
-                return Collections.singletonList(user.getUsername());
-            } catch (UserNotFoundException e) {
-                return Collections.emptyList();
+    /**
+     * Search a batch of users by name in one search, and cache the users found
+     *
+     * @param names the user names
+     * @return the entries found by name key, see {@link #getNameKey(String)}, null on error
+     */
+    private Map<String, LDAPUserCacheEntry> searchUserCacheEntries(List<String> names) {
+        ContainerCriteria nameCriteria = null;
+        for (String name : names) {
+            if (nameCriteria == null) {
+                nameCriteria = query().where(userConfig.getUidSearchAttribute()).is(decode(name));
+            } else {
+                nameCriteria.or(userConfig.getUidSearchAttribute()).is(decode(name));
             }
         }
-        final ContainerCriteria query = buildUserQuery(searchCriteria);
-        if (query == null) {
-            return Collections.emptyList();
-        }
-
-        final UsersNameClassPairCallbackHandler searchNameClassPairCallbackHandler = new UsersNameClassPairCallbackHandler();
+        final List<String> userAttrs = getUserAttributes();
+        final ContainerCriteria query = query().base(userConfig.getUidSearchName())
+                .attributes(userAttrs.toArray(new String[userAttrs.size()]))
+                .where(OBJECTCLASS_ATTRIBUTE).is(userConfig.getSearchObjectclass())
+                .and(nameCriteria);
+        final Map<String, LDAPUserCacheEntry> entries = new HashMap<String, LDAPUserCacheEntry>();
         long startTime = System.currentTimeMillis();
-        ldapTemplateWrapper.execute(new BaseLdapActionCallback<Object>(getExternalUserGroupService(), getKey()) {
+        boolean validLdapCall = ldapTemplateWrapper.execute(new BaseLdapActionCallback<Boolean>(getExternalUserGroupService(), getKey()) {
 
             @Override
-            public Object doInLdap(LdapTemplate ldapTemplate) {
-                ldapTemplate.search(query, searchNameClassPairCallbackHandler);
-                return null;
-            }
-        });
-        List<String> names = searchNameClassPairCallbackHandler.getNames();
-
-        if (logger.isDebugEnabled()) {
-            logger.debug("Search users for criteria {} using filter {} done in {} ms. Found {} entries.", new Object[] {
-                    searchCriteria, query.filter(), System.currentTimeMillis() - startTime, names.size() });
-        }
-
-        return names.subList(Math.min((int) offset, names.size()), limit < 0 ? names.size() : Math.min((int) (offset + limit), names.size()));
-    }
-
-    @Override
-    public List<String> searchGroups(Properties searchCriteria, long offset, long limit) {
+            public Boolean doInLdap(LdapTemplate ldapTemplate) {
+                ldapTemplate.search(applyPredefinedUserFilter(query, false), new NameClassPairCallbackHandler() {
 
-        if (searchCriteria.containsKey("groupname") && searchCriteria.size() == 1 && !searchCriteria.getProperty("groupname").contains("*")) {
-            try {
-                JahiaGroup group = getGroup((String) searchCriteria.get("groupname"));
-                return Arrays.asList(group.getGroupname());
-            } catch (GroupNotFoundException e) {
-                return Collections.emptyList();
+                    @Override
+                    public void handleNameClassPair(NameClassPair nameClassPair) throws NamingException {
+                        UserNameClassPairCallbackHandler userNameClassPairCallbackHandler = new UserNameClassPairCallbackHandler(null);
+                        userNameClassPairCallbackHandler.handleNameClassPair(nameClassPair);
+                        LDAPUserCacheEntry userCacheEntry = userNameClassPairCallbackHandler.getCacheEntry();
+                        if (userCacheEntry != null) {
+                            ldapCacheManager.cacheUser(getKey(), userCacheEntry);
+                            entries.put(getNameKey(userCacheEntry.getUser().getName()), userCacheEntry);
+                        }
+                    }
+                });
+                return true;
             }
-        }
-
-        List<String> groups = searchGroups(searchCriteria, false);
 
-        // handle dynamics
-        if (groupConfig.isDynamicEnabled()) {
-            groups.addAll(searchGroups(searchCriteria, true));
+            @Override
+            public Boolean onError(Exception e) {
+                super.onError(e);
+                return false;
+            }
+        });
+        if (logger.isDebugEnabled()) {
+            logger.debug("Search batch of {} users in {} ms", names.size(), System.currentTimeMillis() - startTime);
         }
-
-        return groups.subList(Math.min((int) offset, groups.size()), limit < 0 ? groups.size() : Math.min((int) (offset + limit), groups.size()));
+        return validLdapCall ? entries : null;
     }
 
-    @Override
-    public boolean verifyPassword(String userName, String userPassword) {
-        logger.debug("Verifying password for {}...", userName);
-        DirContext ctx = null;
-        try {
-            LDAPUserCacheEntry userCacheEntry = getUserCacheEntry(userName, true);
-            if (userCacheEntry.getExist()) {
-                long startTime = System.currentTimeMillis();
-                ctx = contextSource.getContext(userCacheEntry.getDn(), userPassword);
-                // Take care here - if a base was specified on the ContextSource
-                // that needs to be removed from the user DN for the lookup to succeed.
-                ctx.lookup(LdapUtils.newLdapName(userCacheEntry.getDn()));
-                logger.debug("Password verified for {} in {} ms", userName, System.currentTimeMillis() - startTime);
-                return true;
+    /**
+     * Search a batch of groups by name in one search, and cache the groups found
+     *
+     * @param names the group names
+     * @param isDynamic true to search dynamic groups
+     * @return the entries found by name key, see {@link #getNameKey(String)}, null on error
+     */
+    private Map<String, LDAPGroupCacheEntry> searchGroupCacheEntries(List<String> names, final boolean isDynamic) {
+        ContainerCriteria nameCriteria = null;
+        for (String name : names) {
+            if (nameCriteria == null) {
+                nameCriteria = query().where(groupConfig.getSearchAttribute()).is(decode(name));
+            } else {
+                nameCriteria.or(groupConfig.getSearchAttribute()).is(decode(name));
             }
-        } catch (NamingException | org.springframework.ldap.NamingException e) {
-            // Context creation failed - authentication did not succeed
-            logger.warn("Login failed for user " + userName + ": " + e.getMessage() + " (enable debug for full stacktrace)");
-            logger.debug(e.getMessage(), e);
-        } finally {
-            LdapUtils.closeContext(ctx);
         }
-        return false;
-    }
-
-    @Override
-    public boolean isAvailable() throws RepositoryException {
-
-        // do a simple search on users to check the availability
+        final List<String> groupAttrs = getGroupAttributes(isDynamic);
+        final ContainerCriteria query = query().base(groupConfig.getSearchName())
+                .attributes(groupAttrs.toArray(new String[groupAttrs.size()]))
+                .where(OBJECTCLASS_ATTRIBUTE).is(isDynamic ? groupConfig.getDynamicSearchObjectclass() : groupConfig.getSearchObjectclass())
+                .and(nameCriteria);
+        final Map<String, LDAPGroupCacheEntry> entries = new HashMap<String, LDAPGroupCacheEntry>();
         long startTime = System.currentTimeMillis();
-        final Exception[] exception = new Exception[1];
-        boolean available = ldapTemplateWrapper.execute(new BaseLdapActionCallback<Boolean>(getExternalUserGroupService(), getKey()) {
+        boolean validLdapCall = ldapTemplateWrapper.execute(new BaseLdapActionCallback<Boolean>(getExternalUserGroupService(), getKey()) {
 
             @Override
             public Boolean doInLdap(LdapTemplate ldapTemplate) {
-
-                ldapTemplate.search(buildUserQuery(new Properties()), new NameClassPairCallbackHandler() {
+                ldapTemplate.search(applyPredefinedGroupFilter(query), new NameClassPairCallbackHandler() {
 
                     @Override
                     public void handleNameClassPair(NameClassPair nameClassPair) throws NamingException {
-
+                        GroupNameClassPairCallbackHandler groupNameClassPairCallbackHandler = new GroupNameClassPairCallbackHandler(null, isDynamic);
+                        groupNameClassPairCallbackHandler.handleNameClassPair(nameClassPair);
+                        LDAPGroupCacheEntry groupCacheEntry = groupNameClassPairCallbackHandler.getCacheEntry();
+                        if (groupCacheEntry != null) {
+                            ldapCacheManager.cacheGroup(getKey(), groupCacheEntry);
+                            entries.put(getNameKey(groupCacheEntry.getGroup().getName()), groupCacheEntry);
+                        }
                     }
                 });
                 return true;
@@ -382,245 +483,1741 @@ public class LDAPUserGroupProvider extends BaseUserGroupProvider {
             @Override
             public Boolean onError(Exception e) {
                 super.onError(e);
-                exception[0] = e;
-                return timeoutCount.get() < maxLdapTimeoutCountBeforeDisconnect;
+                return false;
             }
         });
-        logger.debug("Is available in {} ms", System.currentTimeMillis() - startTime);
-
-        if (!available) {
-            // throw an exception instead of return false to display a custom message with the ldap server url.
-            throw new RepositoryException("LDAP Server '" + userConfig.getUrl() + "' is not reachable", exception[0]);
-        } else {
-            return true;
+        if (logger.isDebugEnabled()) {
+            logger.debug("Search batch of {} groups in {} ms", names.size(), System.currentTimeMillis() - startTime);
         }
+        return validLdapCall ? entries : null;
     }
 
-    private List<String> searchGroups(final Properties searchCriteria, boolean isDynamics) {
+    @Override
+    public List<Member> getGroupMembers(String groupName) {
 
-        final ContainerCriteria query = getGroupQuery(searchCriteria, isDynamics);
-        final GroupsNameClassPairCallbackHandler searchNameClassPairCallbackHandler = new GroupsNameClassPairCallbackHandler(isDynamics);
-        long startTime = System.currentTimeMillis();
-        ldapTemplateWrapper.execute(new BaseLdapActionCallback<Object>(getExternalUserGroupService(), getKey()) {
+        final LDAPGroupCacheEntry groupCacheEntry = getGroupCacheEntry(groupName);
+        if (!groupCacheEntry.getExist()) {
+            return Collections.emptyList();
+        }
+        boolean fresh = !isExpired(groupCacheEntry.getMembersTimestamp(), groupConfig.getCacheMembershipTtl());
+        if (groupCacheEntry.getOffHeapMembers() != null && fresh) {
+            return groupCacheEntry.getOffHeapMembers().toMembers();
+        }
+        LDAPMemberIdRegistry memberIdRegistry = ldapCacheManager.getMemberIdRegistry(getKey());
+        List<Member> cachedMembers = memberIdRegistry != null && groupCacheEntry.getMemberIds() != null && fresh
+                ? memberIdRegistry.getMembers(groupCacheEntry.getMemberIds()) : null;
+        if (cachedMembers != null) {
+            return cachedMembers;
+        }
+
+        List<Member> members = loadCoalescer.load(LOAD_GROUP_MEMBERS, groupName, new Callable<List<Member>>() {
 
             @Override
-            public Object doInLdap(LdapTemplate ldapTemplate) {
-                ldapTemplate.search(query, searchNameClassPairCallbackHandler);
-                return null;
+            public List<Member> call() {
+                return loadGroupMembers(groupCacheEntry);
             }
         });
 
-        List<String> names = searchNameClassPairCallbackHandler.getNames();
-
-        if (logger.isDebugEnabled()) {
-            logger.debug("Search groups for criteria {} using filter {} done in {} ms. Found {} entries.", new Object[] {
-                    searchCriteria, query.filter(), System.currentTimeMillis() - startTime, names.size() });
+        if (CollectionUtils.isNotEmpty(members)) {
+            return new ArrayList<Member>(members);
+        } else {
+            return Collections.emptyList();
         }
-
-        return names;
     }
 
     /**
-     * get the members from a ldap URL used for dynamic groups
+     * Read a window of the members of a group. The members are paged in the order of the canonical form of their DNs,
+     * see {@link #getPageDns(List)}, and the total is the number of distinct DNs of the members attribute, so that the
+     * pages of a group do not change when it gets cached between two of them; a DN that does not resolve keeps its
+     * position and the window holding it comes back shorter. Cached members are read through the page order kept with
+     * them. Otherwise the members attribute is read in one lookup, only the DNs of the window are resolved, and the
+     * whole list is loaded in the background. Dynamic groups and groups read by range have no members attribute to
+     * order: they are loaded whole and paged in the order of {@link LDAPOffHeapMemberList#MEMBER_ORDER}.
      *
-     * @param url
-     * @return
+     * @param groupName the group name
+     * @param offset index of the first member returned
+     * @param limit maximum number of members returned
+     * @return the members of the window and the total number of members
      */
-    private List<Member> loadMembersFromUrl(String url) {
-
-        try {
-
-            final LdapURL ldapURL = new LdapURL(url);
-            final DynMembersNameClassPairCallbackHandler nameClassPairCallbackHandler = new DynMembersNameClassPairCallbackHandler();
-
-            final Set<String> attrs = new HashSet<String>(getUserAttributes());
-            attrs.addAll(getGroupAttributes(true));
-            if (groupConfig.isDynamicEnabled()) {
-                attrs.add(groupConfig.getDynamicSearchObjectclass());
+    public LDAPGroupMembersPage getGroupMembers(final String groupName, int offset, int limit) {
+        offset = Math.max(offset, 0);
+        limit = Math.max(limit, 0);
+        final LDAPGroupCacheEntry groupCacheEntry = getGroupCacheEntry(groupName);
+        if (!groupCacheEntry.getExist()) {
+            return new LDAPGroupMembersPage(Collections.<Member>emptyList(), 0);
+        }
+        boolean pagedByDn = !groupCacheEntry.isDynamic() && groupConfig.getAdRangeStep() == 0;
+        boolean fresh = !isExpired(groupCacheEntry.getMembersTimestamp(), groupConfig.getCacheMembershipTtl());
+        LDAPGroupMembersPage cachedPage = fresh ? getCachedGroupMembers(groupCacheEntry, offset, limit, pagedByDn) : null;
+        if (cachedPage != null) {
+            return cachedPage;
+        }
+        if (!pagedByDn) {
+            // the members are only known once all of them are read
+            List<Member> members = getGroupMembers(groupName);
+            cachedPage = getCachedGroupMembers(groupCacheEntry, offset, limit, false);
+            if (cachedPage != null) {
+                return cachedPage;
             }
-            attrs.add(OBJECTCLASS_ATTRIBUTE);
+            Set<Member> sortedMembers = new TreeSet<Member>(LDAPOffHeapMemberList.MEMBER_ORDER);
+            sortedMembers.addAll(members);
+            members = new ArrayList<Member>(sortedMembers);
+            int start = Math.min(offset, members.size());
+            int end = (int) Math.min((long) offset + limit, members.size());
+            return new LDAPGroupMembersPage(new ArrayList<Member>(members.subList(start, end)), members.size());
+        }
 
-            final SearchScope searchScope;
-            if ("one".equalsIgnoreCase(ldapURL.getScope())) {
-                searchScope = SearchScope.ONELEVEL;
-            } else if ("base".equalsIgnoreCase(ldapURL.getScope())) {
-                searchScope = SearchScope.OBJECT;
-            } else {
-                searchScope = SearchScope.SUBTREE;
-            }
+        List<String> memberDns = lookupMemberDns(groupCacheEntry.getDn());
+        if (memberDns == null) {
+            return new LDAPGroupMembersPage(Collections.<Member>emptyList(), 0);
+        }
+        List<String> pageDns = getPageDns(memberDns);
+        int start = Math.min(offset, pageDns.size());
+        int end = (int) Math.min((long) offset + limit, pageDns.size());
+        if (start == 0 && end == pageDns.size()) {
+            // the window holds the whole group
+            List<Member> pageMembers = resolveMemberDns(pageDns);
+            List<Member> members = new ArrayList<Member>(pageMembers);
+            members.removeAll(Collections.singleton(null));
+            cacheGroupMembers(groupCacheEntry, members, pageMembers);
+            return new LDAPGroupMembersPage(members, pageDns.size());
+        }
+        List<Member> members = loadMembers(pageDns.subList(start, end));
+        LDAPCacheRefresher refresher = cacheRefresher;
+        if (refresher != null) {
+            refresher.submit(LOAD_GROUP_MEMBERS + groupName, new Runnable() {
+                @Override
+                public void run() {
+                    // the members may be cached without their page order, they are loaded again then
+                    loadCoalescer.load(LOAD_GROUP_MEMBERS, groupName, new Callable<List<Member>>() {
+
+                        @Override
+                        public List<Member> call() {
+                            return loadGroupMembers(groupCacheEntry);
+                        }
+                    });
+                }
+            });
+        }
+        return new LDAPGroupMembersPage(members, pageDns.size());
+    }
+
+    /**
+     * @param groupCacheEntry the group entry, with fresh members
+     * @param offset index of the first member returned
+     * @param limit maximum number of members returned
+     * @param pagedByDn true if the group is paged in the order of its member DNs, false in the order of its members
+     * @return the page read from the cached members, null if they are not cached or not in the page order
+     */
+    private LDAPGroupMembersPage getCachedGroupMembers(LDAPGroupCacheEntry groupCacheEntry, int offset, int limit, boolean pagedByDn) {
+        LDAPOffHeapMemberList offHeapMembers = groupCacheEntry.getOffHeapMembers();
+        if (offHeapMembers != null) {
+            // without a page order an off-heap list is sorted as MEMBER_ORDER
+            return offHeapMembers.hasPageOrder() || !pagedByDn
+                    ? new LDAPGroupMembersPage(offHeapMembers.toPage(offset, limit), offHeapMembers.getPageSize()) : null;
+        }
+        LDAPMemberIdRegistry memberIdRegistry = ldapCacheManager.getMemberIdRegistry(getKey());
+        LDAPMemberBitmap memberIds = groupCacheEntry.getMemberIds();
+        if (memberIdRegistry == null || memberIds == null) {
+            return null;
+        }
+        LDAPMemberPageOrder pageOrder = groupCacheEntry.getMemberPageOrder();
+        if (pageOrder == null || !pageOrder.isOrderOf(memberIds)) {
+            if (pagedByDn) {
+                return null;
+            }
+            // computed once per member list
+            pageOrder = memberIdRegistry.getPageOrder(memberIds, LDAPOffHeapMemberList.MEMBER_ORDER);
+            if (pageOrder == null) {
+                return null;
+            }
+            groupCacheEntry.setMemberPageOrder(pageOrder);
+        }
+        List<Member> members = memberIdRegistry.getMembers(memberIds, pageOrder.getIds(offset, limit));
+        return members != null ? new LDAPGroupMembersPage(new ArrayList<Member>(members), pageOrder.size()) : null;
+    }
+
+    /**
+     * Tell whether a user is a direct member of a group. The member bitmap of the group answers when it is cached,
+     * otherwise a single search on the group entry tests the user DN, and its result is cached on its own.
+     *
+     * @param userName the user name
+     * @param groupName the group name
+     * @return true if the user is listed in the members of the group
+     */
+    public boolean isMember(String userName, String groupName) {
+        LDAPGroupCacheEntry groupCacheEntry = getGroupCacheEntry(groupName);
+        if (!groupCacheEntry.getExist()) {
+            return false;
+        }
+        boolean fresh = !isExpired(groupCacheEntry.getMembersTimestamp(), groupConfig.getCacheMembershipTtl());
+        LDAPOffHeapMemberList offHeapMembers = groupCacheEntry.getOffHeapMembers();
+        if (offHeapMembers != null && fresh) {
+            return offHeapMembers.contains(userName, false);
+        }
+        LDAPMemberIdRegistry memberIdRegistry = ldapCacheManager.getMemberIdRegistry(getKey());
+        LDAPMemberBitmap memberIds = groupCacheEntry.getMemberIds();
+        Boolean isCachedMember = memberIdRegistry != null && memberIds != null && fresh
+                ? memberIdRegistry.contains(memberIds, LDAPGroupGraph.node(userName, false)) : null;
+        if (isCachedMember != null) {
+            return isCachedMember;
+        }
+        if (groupCacheEntry.isDynamic()) {
+            return getGroupMembers(groupName).contains(new Member(userName, Member.MemberType.USER));
+        }
+
+        Boolean isMember = ldapCacheManager.getMembershipTest(getKey(), groupName, userName);
+        if (isMember != null) {
+            return isMember;
+        }
+        LDAPUserCacheEntry userCacheEntry = getUserCacheEntry(userName);
+        if (!userCacheEntry.getExist()) {
+            return false;
+        }
+        isMember = searchMember(groupCacheEntry.getDn(), userCacheEntry.getDn());
+        if (isMember == null) {
+            // communication error, nothing to cache
+            return false;
+        }
+        ldapCacheManager.cacheMembershipTest(getKey(), groupName, userName, isMember, groupConfig.getCacheIsMemberTtl());
+        return isMember;
+    }
+
+    /**
+     * Search the group entry with an equality filter on the members attribute
+     *
+     * @param groupDn the DN of the group
+     * @param memberDn the DN of the member
+     * @return true if the group lists the member, null on error
+     */
+    private Boolean searchMember(final String groupDn, final String memberDn) {
+        long startTime = System.currentTimeMillis();
+        Boolean isMember = ldapTemplateWrapper.execute(new BaseLdapActionCallback<Boolean>(getExternalUserGroupService(), getKey()) {
+
+            @Override
+            public Boolean doInLdap(LdapTemplate ldapTemplate) {
+                List<String> groups = ldapTemplate.search(query().base(groupDn)
+                                .attributes(OBJECTCLASS_ATTRIBUTE)
+                                .searchScope(SearchScope.OBJECT)
+                                .where(OBJECTCLASS_ATTRIBUTE).is(groupConfig.getSearchObjectclass())
+                                .and(groupConfig.getMembersAttribute()).is(memberDn),
+                        new AttributesMapper<String>() {
+
+                            @Override
+                            public String mapFromAttributes(Attributes attrs) throws NamingException {
+                                return groupDn;
+                            }
+                        });
+                return !groups.isEmpty();
+            }
+        });
+        if (logger.isDebugEnabled()) {
+            logger.debug("Membership test of {} in {} in {} ms", new Object[]{memberDn, groupDn, System.currentTimeMillis() - startTime});
+        }
+        return isMember;
+    }
+
+    @Override
+    public List<String> getMembership(final Member member) {
+
+        final boolean isGroup = member.getType().equals(Member.MemberType.GROUP);
+
+        if (isGroup && !userConfig.isCanGroupContainSubGroups()) {
+            return Collections.emptyList();
+        }
+        final LDAPAbstractCacheEntry cacheEntry = isGroup ? getGroupCacheEntry(member.getName()) : getUserCacheEntry(member.getName());
+        if (cacheEntry.getMemberships() != null
+                && !isExpired(cacheEntry.getMembershipsTimestamp(), (isGroup ? groupConfig : userConfig).getCacheMembershipTtl())) {
+            return new ArrayList<String>(cacheEntry.getMemberships());
+        }
+        if (!cacheEntry.getExist()) {
+            return null;
+        }
+        LDAPGroupGraph groupGraph = ldapCacheManager.getGroupGraph(getKey());
+        List<String> knownMemberships = groupGraph != null ? groupGraph.getParents(LDAPGroupGraph.node(member.getName(), isGroup),
+                (isGroup ? groupConfig : userConfig).getCacheMembershipTtl()) : null;
+        if (knownMemberships != null) {
+            return knownMemberships;
+        }
+
+        List<String> memberships = loadCoalescer.load(isGroup ? LOAD_GROUP_MEMBERSHIP : LOAD_USER_MEMBERSHIP, member.getName(), new Callable<List<String>>() {
+
+            @Override
+            public List<String> call() {
+                return loadMembership(member, cacheEntry, isGroup);
+            }
+        });
+
+        return new ArrayList<String>(memberships);
+    }
+
+    /**
+     * Returns all the groups the member belongs to, directly or through nested groups. The walk is done on the
+     * membership graph of the provider, only the groups it does not know yet are read from the LDAP.
+     * With the Active Directory matching rule in chain, they are read in one query instead.
+     *
+     * @param member the user or group
+     * @return the names of the groups, null if the member does not exist
+     */
+    public List<String> getTransitiveMembership(Member member) {
+        List<String> directMemberships = getMembership(member);
+        LDAPGroupGraph groupGraph = ldapCacheManager.getGroupGraph(getKey());
+        if (directMemberships == null || groupGraph == null || !userConfig.isCanGroupContainSubGroups()) {
+            return directMemberships;
+        }
+        if (groupConfig.isAdMatchingRuleInChain()) {
+            return getMembershipInChain(member, directMemberships);
+        }
+        return groupGraph.getTransitiveParents(directMemberships, groupConfig.getMembershipMaxDepth(), groupConfig.getCacheMembershipTtl(),
+                new LDAPGroupGraph.ParentLoader() {
+
+                    @Override
+                    public List<String> loadParents(String groupName) {
+                        return getMembership(new Member(groupName, Member.MemberType.GROUP));
+                    }
+                });
+    }
+
+    /**
+     * Get the groups the member belongs to, directly or not, with the Active Directory matching rule in chain. They
+     * are cached apart from the direct memberships, which keep feeding the membership graph.
+     *
+     * @param member the user or group
+     * @param directMemberships the groups the member directly belongs to
+     * @return the names of the groups
+     */
+    private List<String> getMembershipInChain(Member member, final List<String> directMemberships) {
+        final boolean isGroup = member.getType().equals(Member.MemberType.GROUP);
+        final LDAPAbstractCacheEntry cacheEntry = isGroup ? getGroupCacheEntry(member.getName()) : getUserCacheEntry(member.getName());
+        if (cacheEntry.getTransitiveMemberships() != null
+                && !isExpired(cacheEntry.getTransitiveMembershipsTimestamp(), (isGroup ? groupConfig : userConfig).getCacheMembershipTtl())) {
+            return new ArrayList<String>(cacheEntry.getTransitiveMemberships());
+        }
+        List<String> memberships = loadCoalescer.load(isGroup ? LOAD_GROUP_TRANSITIVE_MEMBERSHIP : LOAD_USER_TRANSITIVE_MEMBERSHIP,
+                member.getName(), new Callable<List<String>>() {
+
+                    @Override
+                    public List<String> call() {
+                        return loadMembershipInChain(cacheEntry, directMemberships, isGroup);
+                    }
+                });
+        return new ArrayList<String>(memberships);
+    }
+
+    /**
+     * Search the groups the member belongs to in chain and cache them in the transitive memberships of its entry
+     */
+    private List<String> loadMembershipInChain(LDAPAbstractCacheEntry cacheEntry, List<String> directMemberships, boolean isGroup) {
+        long startTime = System.currentTimeMillis();
+        List<String> memberships = searchMembershipInChain(cacheEntry.getDn());
+        logger.debug("Load memberships in chain of {} in {} ms", cacheEntry.getDn(), System.currentTimeMillis() - startTime);
+        // in case of communication error only the direct memberships are known, nothing is cached
+        if (memberships == null) {
+            return directMemberships;
+        }
+        // the dynamic groups are not found by the matching rule
+        Set<String> transitiveMemberships = new LinkedHashSet<String>(memberships);
+        transitiveMemberships.addAll(directMemberships);
+        cacheEntry.setTransitiveMemberships(new ArrayList<String>(transitiveMemberships));
+        if (isGroup) {
+            ldapCacheManager.cacheGroup(getKey(), (LDAPGroupCacheEntry) cacheEntry);
+        } else {
+            ldapCacheManager.cacheUser(getKey(), (LDAPUserCacheEntry) cacheEntry);
+        }
+        return cacheEntry.getTransitiveMemberships();
+    }
+
+    /**
+     * Returns the users member of a group, directly or through nested groups. With the Active Directory matching rule
+     * in chain they are read in one query, otherwise the nested groups are walked with {@link #getGroupMembers(String)}
+     * up to the configured depth.
+     *
+     * @param groupName the group name
+     * @return the users of the group and of its nested groups
+     */
+    public List<Member> getTransitiveGroupMembers(String groupName) {
+        final LDAPGroupCacheEntry groupCacheEntry = getGroupCacheEntry(groupName);
+        LDAPMemberIdRegistry memberIdRegistry = ldapCacheManager.getMemberIdRegistry(getKey());
+        if (!groupCacheEntry.getExist() || memberIdRegistry == null) {
+            return Collections.emptyList();
+        }
+        if (!groupConfig.isAdMatchingRuleInChain() || groupCacheEntry.isDynamic()) {
+            return walkGroupMembers(groupName);
+        }
+        List<Member> cachedMembers = groupCacheEntry.getTransitiveMemberIds() != null
+                && !isExpired(groupCacheEntry.getTransitiveMembersTimestamp(), groupConfig.getCacheMembershipTtl())
+                ? memberIdRegistry.getMembers(groupCacheEntry.getTransitiveMemberIds()) : null;
+        if (cachedMembers != null) {
+            return cachedMembers;
+        }
+        List<Member> members = loadCoalescer.load(LOAD_TRANSITIVE_GROUP_MEMBERS, groupName, new Callable<List<Member>>() {
+
+            @Override
+            public List<Member> call() {
+                return loadTransitiveGroupMembers(groupCacheEntry);
+            }
+        });
+        return members != null ? new ArrayList<Member>(members) : Collections.<Member>emptyList();
+    }
+
+    /**
+     * Search the users member of the group in chain and cache them in the group entry
+     */
+    private List<Member> loadTransitiveGroupMembers(LDAPGroupCacheEntry groupCacheEntry) {
+        final List<String> userAttrs = getUserAttributes();
+        final String memberOfAttribute = StringUtils.defaultIfEmpty(userConfig.getMemberofAttribute(), DEFAULT_MEMBEROF_ATTRIBUTE);
+        final ContainerCriteria query = applyPredefinedUserFilter(query().base(userConfig.getUidSearchName())
+                .attributes(userAttrs.toArray(new String[userAttrs.size()]))
+                .where(OBJECTCLASS_ATTRIBUTE).is(userConfig.getSearchObjectclass())
+                .and(memberOfAttribute + ":" + LDAP_MATCHING_RULE_IN_CHAIN + ":").is(groupCacheEntry.getDn()), false);
+        final UsersNameClassPairCallbackHandler usersNameClassPairCallbackHandler = new UsersNameClassPairCallbackHandler();
+        long startTime = System.currentTimeMillis();
+        Boolean validLdapCall = ldapTemplateWrapper.execute(new BaseLdapActionCallback<Boolean>(getExternalUserGroupService(), getKey()) {
+
+            @Override
+            public Boolean doInLdap(LdapTemplate ldapTemplate) {
+                search(ldapTemplate, query, usersNameClassPairCallbackHandler, usersNameClassPairCallbackHandler.getNames(),
+                        NO_LIMIT, userConfig.getSearchPageSize());
+                return true;
+            }
+        });
+        logger.debug("Load transitive members of {} in {} ms", groupCacheEntry.getDn(), System.currentTimeMillis() - startTime);
+        if (validLdapCall == null) {
+            return null;
+        }
+
+        List<Member> members = new ArrayList<Member>(usersNameClassPairCallbackHandler.getNames().size());
+        for (String userName : usersNameClassPairCallbackHandler.getNames()) {
+            members.add(new Member(userName, Member.MemberType.USER));
+        }
+        LDAPMemberIdRegistry memberIdRegistry = ldapCacheManager.getMemberIdRegistry(getKey());
+        if (memberIdRegistry != null) {
+            groupCacheEntry.setTransitiveMemberIds(memberIdRegistry.toBitmap(members));
+            ldapCacheManager.cacheGroup(getKey(), groupCacheEntry);
+        }
+        return members;
+    }
+
+    /**
+     * Walk the nested groups breadth first, each group once, up to the configured depth
+     */
+    private List<Member> walkGroupMembers(String groupName) {
+        Set<String> visitedGroups = new HashSet<String>();
+        Set<Member> users = new LinkedHashSet<Member>();
+        List<String> level = Collections.singletonList(groupName);
+        visitedGroups.add(groupName);
+        for (int depth = 0; depth < groupConfig.getMembershipMaxDepth() && !level.isEmpty(); depth++) {
+            List<String> nextLevel = new ArrayList<String>();
+            for (String group : level) {
+                for (Member member : getGroupMembers(group)) {
+                    if (member.getType() == Member.MemberType.USER) {
+                        users.add(member);
+                    } else if (userConfig.isCanGroupContainSubGroups() && visitedGroups.add(member.getName())) {
+                        nextLevel.add(member.getName());
+                    }
+                }
+            }
+            level = nextLevel;
+        }
+        return new ArrayList<Member>(users);
+    }
+
+    /**
+     * The member URLs of all the dynamic groups, compiled by the first membership load. Once older than the membership
+     * time to live they are still used while they are compiled again in the background.
+     */
+    private DynamicGroupFilters getDynamicGroupFilters() {
+        DynamicGroupFilters current = dynamicGroupFilters;
+        if (current != null && !isExpired(current.timestamp, groupConfig.getCacheMembershipTtl())) {
+            return current;
+        }
+        LDAPCacheRefresher refresher = cacheRefresher;
+        if (current != null && refresher != null) {
+            refresher.submit(LOAD_DYNAMIC_GROUP_FILTERS, new Runnable() {
+                @Override
+                public void run() {
+                    loadDynamicGroupFilters();
+                }
+            });
+            return current;
+        }
+        return loadDynamicGroupFilters();
+    }
+
+    private DynamicGroupFilters loadDynamicGroupFilters() {
+        return loadCoalescer.load(LOAD_DYNAMIC_GROUP_FILTERS, getKey(), new Callable<DynamicGroupFilters>() {
+
+            @Override
+            public DynamicGroupFilters call() {
+                Properties searchCriteria = new Properties();
+                searchCriteria.put("*", "*");
+                List<String> dynGroups = searchGroups(searchCriteria, true, NO_LIMIT);
+                DynamicGroupFilters compiled = new DynamicGroupFilters();
+                for (String dynGroup : dynGroups) {
+                    LDAPGroupCacheEntry groupCacheEntry = getGroupCacheEntry(dynGroup);
+                    LDAPDynamicGroupFilter filter = LDAPDynamicGroupFilter.compile(dynGroup,
+                            groupCacheEntry.getExist() ? groupCacheEntry.getDynamicMembersURL() : null, ldapCacheManager.getDnCanonicalizer());
+                    compiled.filters.add(filter);
+                    compiled.attributeIds.addAll(filter.getAttributeIds());
+                }
+                dynamicGroupFilters = compiled;
+                return compiled;
+            }
+        });
+    }
+
+    /**
+     * @return the lower case ids of the user attributes read by the dynamic group filters, empty until the filters are
+     * compiled by a membership load
+     */
+    private Set<String> getFilterAttributeIds() {
+        if (!groupConfig.isDynamicEnabled()) {
+            return Collections.emptySet();
+        }
+        DynamicGroupFilters current = dynamicGroupFilters;
+        return current != null ? current.attributeIds : Collections.<String>emptySet();
+    }
+
+    /**
+     * Load the members of the group from the LDAP and cache them in the group entry
+     *
+     * @param groupCacheEntry
+     * @return the members, null on error, in which case neither the cache nor the group graph are changed
+     */
+    private List<Member> loadGroupMembers(LDAPGroupCacheEntry groupCacheEntry) {
+
+        if (groupCacheEntry.isDynamic() && StringUtils.isNotEmpty(groupCacheEntry.getDynamicMembersURL())) {
+            return cacheGroupMembers(groupCacheEntry, loadMembersFromUrl(groupCacheEntry.getDynamicMembersURL()));
+        }
+        if (groupConfig.getAdRangeStep() != 0) {
+            return cacheGroupMembers(groupCacheEntry, loadMembersFromDN(groupCacheEntry.getDn()));
+        }
+        List<Member> pageMembers = loadPageMembers(groupCacheEntry.getDn());
+        if (pageMembers == null) {
+            return null;
+        }
+        List<Member> members = new ArrayList<Member>(pageMembers);
+        members.removeAll(Collections.singleton(null));
+        return cacheGroupMembers(groupCacheEntry, members, pageMembers);
+    }
+
+    /**
+     * Cache the members of a group in the group entry, and in the group graph
+     *
+     * @param groupCacheEntry the group entry
+     * @param members the members loaded, null on error
+     * @return the members
+     */
+    private List<Member> cacheGroupMembers(LDAPGroupCacheEntry groupCacheEntry, List<Member> members) {
+        return cacheGroupMembers(groupCacheEntry, members, null);
+    }
+
+    /**
+     * Cache the members of a group in the group entry, with the order of their pages, and in the group graph
+     *
+     * @param groupCacheEntry the group entry
+     * @param members the members loaded, null on error
+     * @param pageMembers the members in the order of the pages, null at the position of a DN that did not resolve,
+     * null if the DNs are not known
+     * @return the members
+     */
+    private List<Member> cacheGroupMembers(LDAPGroupCacheEntry groupCacheEntry, List<Member> members, List<Member> pageMembers) {
+        if (members == null) {
+            return null;
+        }
+        int offHeapThreshold = groupConfig.getMembersOffHeapThreshold();
+        LDAPOffHeapBudget offHeapBudget = ldapCacheManager.getOffHeapBudget(getKey());
+        if (offHeapThreshold > 0 && members.size() >= offHeapThreshold && offHeapBudget != null) {
+            LDAPOffHeapMemberList offHeapMembers = LDAPOffHeapMemberList.of(members, pageMembers, offHeapBudget);
+            // large groups are kept out of the heap and out of the id registry and group graph, as long as the
+            // direct memory budget allows it
+            if (offHeapMembers != null) {
+                groupCacheEntry.setOffHeapMembers(offHeapMembers);
+                ldapCacheManager.cacheGroup(getKey(), groupCacheEntry);
+                return members;
+            }
+            logger.debug("Direct memory budget exceeded, the {} members of {} are kept on the heap", members.size(), groupCacheEntry.getName());
+        }
+        LDAPMemberIdRegistry memberIdRegistry = ldapCacheManager.getMemberIdRegistry(getKey());
+        if (memberIdRegistry == null) {
+            return members;
+        }
+        LDAPMemberBitmap memberIds = memberIdRegistry.toBitmap(members);
+        if (!members.isEmpty()) {
+            groupCacheEntry.setMemberIds(memberIds);
+            if (pageMembers != null) {
+                groupCacheEntry.setMemberPageOrder(memberIdRegistry.getPageOrder(memberIds, pageMembers));
+            }
+            ldapCacheManager.cacheGroup(getKey(), groupCacheEntry);
+        }
+        LDAPGroupGraph groupGraph = ldapCacheManager.getGroupGraph(getKey());
+        if (groupGraph != null) {
+            groupGraph.setGroupMembers(groupCacheEntry.getName(), memberIds);
+        }
+        return members;
+    }
+
+    /**
+     * Load the groups the member belongs to from the LDAP and cache them in the member entry
+     *
+     * @param member
+     * @param cacheEntry
+     * @param isGroup
+     * @return
+     */
+    private List<String> loadMembership(Member member, LDAPAbstractCacheEntry cacheEntry, boolean isGroup) {
+
+        final String dn = cacheEntry.getDn();
+        long startTime = System.currentTimeMillis();
+        List<String> memberships;
+        if (!isGroup && ((LDAPUserCacheEntry) cacheEntry).getMemberOfDns() != null) {
+            memberships = getMembershipFromMemberOf(((LDAPUserCacheEntry) cacheEntry).getMemberOfDns());
+        } else {
+            memberships = searchMembership(dn);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Query getMembership for {} / {} dn={} in {} ms", new Object[] {
+                member.getName(),
+                groupConfig.getSearchAttribute(),
+                dn,
+                System.currentTimeMillis() - startTime
+            });
+        }
+
+        // in case of communication error the memberships are not known, nothing is cached
+        if (memberships == null) {
+            return new ArrayList<String>();
+        }
+
+        if (groupConfig.isDynamicEnabled()) {
+            DynamicGroupFilters dynamicGroupFilters = getDynamicGroupFilters();
+            // the attributes read by the filters are loaded with the user entry
+            Map<String, List<String>> filterAttributes = isGroup ? null
+                    : ((LDAPUserCacheEntry) cacheEntry).getFilterAttributes();
+            if (!isGroup && filterAttributes == null) {
+                filterAttributes = Collections.emptyMap();
+            }
+            for (LDAPDynamicGroupFilter dynamicGroupFilter : dynamicGroupFilters.filters) {
+                Boolean isMember = filterAttributes != null ? dynamicGroupFilter.matches(dn, filterAttributes) : null;
+                if (isMember == null) {
+                    // the member URL cannot be evaluated locally, or the entry was read before the filter was known,
+                    // ask the LDAP for the members
+                    isMember = getGroupMembers(dynamicGroupFilter.getGroupName()).contains(member);
+                }
+                if (isMember) {
+                    memberships.add(dynamicGroupFilter.getGroupName());
+                }
+            }
+        }
+
+        cacheEntry.setMemberships(memberships);
+        LDAPGroupGraph groupGraph = ldapCacheManager.getGroupGraph(getKey());
+        if (groupGraph != null) {
+            groupGraph.setParents(LDAPGroupGraph.node(member.getName(), isGroup), memberships, cacheEntry.getMembershipsTimestamp());
+        }
+        if (isGroup) {
+            ldapCacheManager.cacheGroup(getKey(), (LDAPGroupCacheEntry) cacheEntry);
+        } else {
+            ldapCacheManager.cacheUser(getKey(), (LDAPUserCacheEntry) cacheEntry);
+        }
+
+        return memberships;
+    }
+
+    /**
+     * Search the groups listing the DN in their members attribute
+     *
+     * @param dn the DN of the member
+     * @return the names of the groups, null on error
+     */
+    private List<String> searchMembership(final String dn) {
+        return ldapTemplateWrapper.execute(new BaseLdapActionCallback<List<String>>(getExternalUserGroupService(), getKey()) {
+
+            @Override
+            public List<String> doInLdap(LdapTemplate ldapTemplate) {
+                return ldapTemplate.search(
+                        applyPredefinedGroupFilter(query().base(groupConfig.getSearchName())
+                                .attributes(groupConfig.getSearchAttribute())
+                                .where(OBJECTCLASS_ATTRIBUTE)
+                                .is(groupConfig.getSearchObjectclass())
+                                .and(groupConfig.getMembersAttribute())
+                                .like(dn)),
+                        new AttributesMapper<String>() {
+
+                            @Override
+                            public String mapFromAttributes(Attributes attrs) throws NamingException {
+                                return encode(attrs.get(groupConfig.getSearchAttribute()).get().toString());
+                            }
+                        });
+            }
+        });
+    }
+
+    /**
+     * Search the groups the DN belongs to, directly or through nested groups, with the Active Directory
+     * LDAP_MATCHING_RULE_IN_CHAIN matching rule on the members attribute
+     *
+     * @param dn the DN of the member
+     * @return the names of the groups, null on error
+     */
+    private List<String> searchMembershipInChain(final String dn) {
+        return ldapTemplateWrapper.execute(new BaseLdapActionCallback<List<String>>(getExternalUserGroupService(), getKey()) {
+
+            @Override
+            public List<String> doInLdap(LdapTemplate ldapTemplate) {
+                return ldapTemplate.search(
+                        applyPredefinedGroupFilter(query().base(groupConfig.getSearchName())
+                                .attributes(groupConfig.getSearchAttribute())
+                                .where(OBJECTCLASS_ATTRIBUTE)
+                                .is(groupConfig.getSearchObjectclass())
+                                .and(groupConfig.getMembersAttribute() + ":" + LDAP_MATCHING_RULE_IN_CHAIN + ":")
+                                .is(dn)),
+                        new AttributesMapper<String>() {
+
+                            @Override
+                            public String mapFromAttributes(Attributes attrs) throws NamingException {
+                                return encode(attrs.get(groupConfig.getSearchAttribute()).get().toString());
+                            }
+                        });
+            }
+        });
+    }
+
+    /**
+     * Get the names of the groups listed in the member of attribute of a user, from the DN index of the group cache,
+     * the naming attribute of the DN, or a lookup of the group as last resort
+     *
+     * @param memberOfDns the DNs of the groups
+     * @return the names of the groups under the group base
+     */
+    private List<String> getMembershipFromMemberOf(List<String> memberOfDns) {
+        List<String> memberships = new ArrayList<String>(memberOfDns.size());
+        for (String groupDn : memberOfDns) {
+            if (!dnClassifier.isInGroupBase(groupDn)) {
+                continue;
+            }
+            // the names of the cache entries are already encoded
+            LDAPGroupCacheEntry groupCacheEntry = ldapCacheManager.getGroupCacheEntryByDn(getKey(), groupDn);
+            if (groupCacheEntry != null) {
+                if (groupCacheEntry.getExist()) {
+                    memberships.add(groupCacheEntry.getName());
+                }
+                continue;
+            }
+            String groupName = dnClassifier.getName(groupDn, false);
+            if (groupName != null) {
+                try {
+                    memberships.add(encode(groupName));
+                } catch (NamingException e) {
+                    logger.warn("Unable to encode group name " + groupName, e);
+                }
+                continue;
+            }
+            groupCacheEntry = getGroupCacheEntryByDN(groupDn, true, false);
+            if (groupCacheEntry != null) {
+                memberships.add(groupCacheEntry.getName());
+            }
+        }
+        return memberships;
+    }
+
+    @Override
+    public List<String> searchUsers(final Properties searchCriteria, long offset, long limit) {
+
+        if (limit == 0) {
+            return Collections.emptyList();
+        }
+        if (searchCriteria.containsKey("username") && searchCriteria.size() == 1 && !searchCriteria.getProperty("username").contains("*")) {
+            try {
+                JahiaUser user = getUser((String) searchCriteria.get("username"));
+                return Collections.singletonList(user.getUsername());
+            } catch (UserNotFoundException e) {
+                return Collections.emptyList();
+            }
+        }
+        final ContainerCriteria query = buildUserQuery(searchCriteria);
+        if (query == null) {
+            return Collections.emptyList();
+        }
+
+        if (limit > 0 && isVirtualListViewEnabled(userConfig)) {
+            UsersNameClassPairCallbackHandler windowNameClassPairCallbackHandler = new UsersNameClassPairCallbackHandler();
+            if (searchWindow(query, windowNameClassPairCallbackHandler, userConfig.getSearchSortAttribute(), offset, limit)) {
+                return windowNameClassPairCallbackHandler.getNames();
+            }
+        }
+
+        final UsersNameClassPairCallbackHandler searchNameClassPairCallbackHandler = new UsersNameClassPairCallbackHandler();
+        // without paging, the count limit of the query still bounds a search without limit
+        final long maxResults = limit < 0 ? NO_LIMIT : offset + limit;
+        long startTime = System.currentTimeMillis();
+        ldapTemplateWrapper.execute(new BaseLdapActionCallback<Object>(getExternalUserGroupService(), getKey()) {
+
+            @Override
+            public Object doInLdap(LdapTemplate ldapTemplate) {
+                search(ldapTemplate, query, searchNameClassPairCallbackHandler, searchNameClassPairCallbackHandler.getNames(),
+                        maxResults, userConfig.getSearchPageSize());
+                return null;
+            }
+        });
+        List<String> names = searchNameClassPairCallbackHandler.getNames();
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Search users for criteria {} using filter {} done in {} ms. Found {} entries.", new Object[] {
+                    searchCriteria, query.filter(), System.currentTimeMillis() - startTime, names.size() });
+        }
+
+        return names.subList(Math.min((int) offset, names.size()), limit < 0 ? names.size() : Math.min((int) (offset + limit), names.size()));
+    }
+
+    @Override
+    public List<String> searchGroups(Properties searchCriteria, long offset, long limit) {
+
+        if (limit == 0) {
+            return Collections.emptyList();
+        }
+        if (searchCriteria.containsKey("groupname") && searchCriteria.size() == 1 && !searchCriteria.getProperty("groupname").contains("*")) {
+            try {
+                JahiaGroup group = getGroup((String) searchCriteria.get("groupname"));
+                return Arrays.asList(group.getGroupname());
+            } catch (GroupNotFoundException e) {
+                return Collections.emptyList();
+            }
+        }
+
+        // dynamic groups are a second search, a window over both cannot be asked to the server
+        if (limit > 0 && !groupConfig.isDynamicEnabled() && isVirtualListViewEnabled(groupConfig)) {
+            GroupsNameClassPairCallbackHandler windowNameClassPairCallbackHandler = new GroupsNameClassPairCallbackHandler(false);
+            if (searchWindow(getGroupQuery(searchCriteria, false), windowNameClassPairCallbackHandler, groupConfig.getSearchSortAttribute(), offset, limit)) {
+                return windowNameClassPairCallbackHandler.getNames();
+            }
+        }
+
+        // without paging, the count limit of the query still bounds a search without limit
+        long maxResults = limit < 0 ? NO_LIMIT : offset + limit;
+        List<String> groups = searchGroups(searchCriteria, false, maxResults);
+
+        // handle dynamics
+        if (groupConfig.isDynamicEnabled() && (maxResults == NO_LIMIT || groups.size() < maxResults)) {
+            groups.addAll(searchGroups(searchCriteria, true, maxResults == NO_LIMIT ? NO_LIMIT : maxResults - groups.size()));
+        }
+
+        return groups.subList(Math.min((int) offset, groups.size()), limit < 0 ? groups.size() : Math.min((int) (offset + limit), groups.size()));
+    }
+
+    @Override
+    public boolean verifyPassword(String userName, String userPassword) {
+        logger.debug("Verifying password for {}...", userName);
+        DirContext ctx = null;
+        try {
+            LDAPUserCacheEntry userCacheEntry = getUserCacheEntry(userName);
+            if (userCacheEntry.getExist()) {
+                long startTime = System.currentTimeMillis();
+                ctx = contextSource.getContext(userCacheEntry.getDn(), userPassword);
+                // Take care here - if a base was specified on the ContextSource
+                // that needs to be removed from the user DN for the lookup to succeed.
+                ctx.lookup(LdapUtils.newLdapName(userCacheEntry.getDn()));
+                logger.debug("Password verified for {} in {} ms", userName, System.currentTimeMillis() - startTime);
+                return true;
+            }
+        } catch (NamingException | org.springframework.ldap.NamingException e) {
+            // Context creation failed - authentication did not succeed
+            logger.warn("Login failed for user " + userName + ": " + e.getMessage() + " (enable debug for full stacktrace)");
+            logger.debug(e.getMessage(), e);
+        } finally {
+            LdapUtils.closeContext(ctx);
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isAvailable() throws RepositoryException {
+
+        // do a simple search on users to check the availability
+        long startTime = System.currentTimeMillis();
+        final Exception[] exception = new Exception[1];
+        boolean available = ldapTemplateWrapper.execute(new BaseLdapActionCallback<Boolean>(getExternalUserGroupService(), getKey()) {
+
+            @Override
+            public Boolean doInLdap(LdapTemplate ldapTemplate) {
+
+                ldapTemplate.search(buildUserQuery(new Properties()), new NameClassPairCallbackHandler() {
+
+                    @Override
+                    public void handleNameClassPair(NameClassPair nameClassPair) throws NamingException {
+
+                    }
+                });
+                return true;
+            }
+
+            @Override
+            public Boolean onError(Exception e) {
+                super.onError(e);
+                exception[0] = e;
+                return timeoutCount.get() < maxLdapTimeoutCountBeforeDisconnect;
+            }
+        });
+        logger.debug("Is available in {} ms", System.currentTimeMillis() - startTime);
+
+        if (!available) {
+            // throw an exception instead of return false to display a custom message with the ldap server url.
+            throw new RepositoryException("LDAP Server '" + userConfig.getUrl() + "' is not reachable", exception[0]);
+        } else {
+            return true;
+        }
+    }
+
+    private List<String> searchGroups(final Properties searchCriteria, boolean isDynamics, final long maxResults) {
+
+        final ContainerCriteria query = getGroupQuery(searchCriteria, isDynamics);
+        final GroupsNameClassPairCallbackHandler searchNameClassPairCallbackHandler = new GroupsNameClassPairCallbackHandler(isDynamics);
+        long startTime = System.currentTimeMillis();
+        ldapTemplateWrapper.execute(new BaseLdapActionCallback<Object>(getExternalUserGroupService(), getKey()) {
+
+            @Override
+            public Object doInLdap(LdapTemplate ldapTemplate) {
+                search(ldapTemplate, query, searchNameClassPairCallbackHandler, searchNameClassPairCallbackHandler.getNames(),
+                        maxResults, groupConfig.getSearchPageSize());
+                return null;
+            }
+        });
+
+        List<String> names = searchNameClassPairCallbackHandler.getNames();
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Search groups for criteria {} using filter {} done in {} ms. Found {} entries.", new Object[] {
+                    searchCriteria, query.filter(), System.currentTimeMillis() - startTime, names.size() });
+        }
+
+        return names;
+    }
+
+    /**
+     * Execute the query, page by page with the paged results control (RFC 2696) if a page size is set.
+     * When paging, the pages are read on a single connection and the search stops as soon as enough entries are handled,
+     * the count limit of the query is not applied.
+     *
+     * @param ldapTemplate the LDAP template
+     * @param query the query
+     * @param handler the handler of the entries
+     * @param results the results collected by the handler
+     * @param maxResults the number of results after which the search stops, {@link #NO_LIMIT} to read all the entries
+     * @param pageSize the page size, 0 to search without paging
+     */
+    private void search(LdapTemplate ldapTemplate, final LdapQuery query, final NameClassPairCallbackHandler handler,
+                        final Collection<?> results, long maxResults, final int pageSize) {
+        if (maxResults == 0) {
+            return;
+        }
+        if (pageSize <= 0) {
+            ldapTemplate.search(query, handler);
+            return;
+        }
+        final long max = maxResults != NO_LIMIT ? maxResults : Long.MAX_VALUE;
+        final SearchControls searchControls = getSearchControls(query);
+        final String filter = query.filter().encode();
+
+        SingleContextSource.doWithSingleContext(ldapTemplate.getContextSource(), new LdapOperationsCallback<Object>() {
+
+            @Override
+            public Object doWithLdapOperations(LdapOperations operations) {
+                PagedResultsCookie cookie = null;
+                try {
+                    do {
+                        PagedResultsDirContextProcessor processor = new PagedResultsDirContextProcessor((int) Math.min(pageSize, max - results.size()), cookie);
+                        operations.search(query.base(), filter, searchControls, handler, processor);
+                        cookie = processor.getCookie();
+                    } while (cookie != null && cookie.getCookie() != null && results.size() < max);
+
+                    if (cookie != null && cookie.getCookie() != null) {
+                        abandonPagedSearch(operations, query, filter, searchControls, handler, cookie);
+                    }
+                } finally {
+                    resetRequestControls(operations);
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Search controls of a query, without count limit
+     */
+    private static SearchControls getSearchControls(LdapQuery query) {
+        SearchControls searchControls = new SearchControls();
+        searchControls.setSearchScope(query.searchScope() != null ? query.searchScope().getId() : SearchControls.SUBTREE_SCOPE);
+        searchControls.setReturningAttributes(query.attributes());
+        if (query.timeLimit() != null) {
+            searchControls.setTimeLimit(query.timeLimit());
+        }
+        return searchControls;
+    }
+
+    /**
+     * Ask the server for a window of the sorted result of the query, with the sort and Virtual List View controls
+     *
+     * @param query the query
+     * @param handler the handler of the entries of the window
+     * @param sortAttribute the attribute to sort on
+     * @param offset the number of entries to skip
+     * @param limit the size of the window
+     * @return true if the server returned the window, false if the regular search has to be used
+     */
+    private boolean searchWindow(final LdapQuery query, final NameClassPairCallbackHandler handler, String sortAttribute, long offset, long limit) {
+        final SearchControls searchControls = getSearchControls(query);
+        final String filter = query.filter().encode();
+        final VirtualListViewDirContextProcessor processor = new VirtualListViewDirContextProcessor(new String[]{sortAttribute},
+                (int) Math.min(offset, Integer.MAX_VALUE - 1), (int) Math.min(limit, Integer.MAX_VALUE));
+        long startTime = System.currentTimeMillis();
+        boolean validLdapCall = ldapTemplateWrapper.execute(new BaseLdapActionCallback<Boolean>(getExternalUserGroupService(), getKey()) {
+
+            @Override
+            public Boolean doInLdap(LdapTemplate ldapTemplate) {
+                ldapTemplate.search(query.base(), filter, searchControls, handler, processor);
+                return true;
+            }
+
+            @Override
+            public Boolean onError(Exception e) {
+                if (e instanceof org.springframework.ldap.OperationNotSupportedException || e.getCause() instanceof javax.naming.OperationNotSupportedException) {
+                    // critical control refused, typically no index matching the sort attribute
+                    disableVirtualListView(e.getMessage());
+                } else {
+                    super.onError(e);
+                }
+                return false;
+            }
+        });
+        if (!validLdapCall || !processor.isSuccess()) {
+            if (validLdapCall) {
+                logger.debug("Virtual list view not honored for filter {}, result code {}", filter,
+                        processor.getResponse() != null ? processor.getResponse().getResult() : "none");
+            }
+            return false;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Search window {}-{} of {} using filter {} done in {} ms", new Object[]{
+                    offset, offset + limit, processor.getResponse().getContentCount(), filter, System.currentTimeMillis() - startTime});
+        }
+        return true;
+    }
+
+    /**
+     * @param config the user or group configuration
+     * @return true if windows of sorted results can be asked to the server
+     */
+    private boolean isVirtualListViewEnabled(AbstractConfig config) {
+        return StringUtils.isNotEmpty(config.getSearchSortAttribute()) && !virtualListViewDisabled
+                && isControlSupported(SortControl.OID) && isControlSupported(VirtualListViewRequestControl.OID);
+    }
+
+    private void disableVirtualListView(String reason) {
+        if (!virtualListViewDisabled) {
+            virtualListViewDisabled = true;
+            logger.warn("Virtual list view disabled on provider {}: {}", getKey(), reason);
+        }
+    }
+
+    /**
+     * Check the controls advertised in the root DSE of the server, read once per registration
+     *
+     * @param oid the OID of the control
+     * @return true if the server supports the control
+     */
+    private boolean isControlSupported(String oid) {
+        Set<String> controls = supportedControls;
+        if (controls == null) {
+            controls = ldapTemplateWrapper.execute(new BaseLdapActionCallback<Set<String>>(getExternalUserGroupService(), getKey()) {
+
+                @Override
+                public Set<String> doInLdap(LdapTemplate ldapTemplate) {
+                    return ldapTemplate.executeReadOnly(new ContextExecutor<Set<String>>() {
+
+                        @Override
+                        public Set<String> executeWithContext(DirContext ctx) throws NamingException {
+                            Set<String> oids = new HashSet<String>();
+                            Attribute supportedControl = ctx.getAttributes("", new String[]{"supportedControl"}).get("supportedControl");
+                            if (supportedControl != null) {
+                                NamingEnumeration<?> values = supportedControl.getAll();
+                                while (values.hasMore()) {
+                                    oids.add(values.next().toString());
+                                }
+                            }
+                            return oids;
+                        }
+                    });
+                }
+            });
+            if (controls == null) {
+                // not known yet, the server will be asked again next time
+                return false;
+            }
+            supportedControls = controls;
+        }
+        return controls.contains(oid);
+    }
+
+    /**
+     * Tell the server that the remaining pages will not be read, a page size of 0 releases the search
+     */
+    private void abandonPagedSearch(LdapOperations operations, LdapQuery query, String filter, SearchControls searchControls,
+                                    NameClassPairCallbackHandler handler, PagedResultsCookie cookie) {
+        try {
+            operations.search(query.base(), filter, searchControls, handler, new PagedResultsDirContextProcessor(0, cookie));
+        } catch (org.springframework.ldap.NamingException e) {
+            logger.debug("Unable to abandon paged search " + filter, e);
+        }
+    }
+
+    /**
+     * The request controls stay on the connection, remove them before it goes back to the pool
+     */
+    private void resetRequestControls(LdapOperations operations) {
+        try {
+            operations.executeReadOnly(new ContextExecutor<Object>() {
+
+                @Override
+                public Object executeWithContext(DirContext ctx) throws NamingException {
+                    if (ctx instanceof LdapContext) {
+                        ((LdapContext) ctx).setRequestControls(null);
+                    }
+                    return null;
+                }
+            });
+        } catch (org.springframework.ldap.NamingException e) {
+            logger.debug("Unable to reset the request controls", e);
+        }
+    }
+
+    /**
+     * get the members from a ldap URL used for dynamic groups
+     *
+     * @param url
+     * @return the members, null on error
+     */
+    private List<Member> loadMembersFromUrl(String url) {
+
+        try {
+
+            final LdapURL ldapURL = new LdapURL(url);
+            final DynMembersNameClassPairCallbackHandler nameClassPairCallbackHandler = new DynMembersNameClassPairCallbackHandler();
+
+            final Set<String> attrs = new HashSet<String>(getUserAttributes());
+            attrs.addAll(getGroupAttributes(true));
+            if (groupConfig.isDynamicEnabled()) {
+                attrs.add(groupConfig.getDynamicSearchObjectclass());
+            }
+            attrs.add(OBJECTCLASS_ATTRIBUTE);
+
+            final SearchScope searchScope;
+            if ("one".equalsIgnoreCase(ldapURL.getScope())) {
+                searchScope = SearchScope.ONELEVEL;
+            } else if ("base".equalsIgnoreCase(ldapURL.getScope())) {
+                searchScope = SearchScope.OBJECT;
+            } else {
+                searchScope = SearchScope.SUBTREE;
+            }
 
             long startTime = System.currentTimeMillis();
-            ldapTemplateWrapper.execute(new BaseLdapActionCallback<Object>(getExternalUserGroupService(), getKey()) {
+            Boolean validLdapCall = ldapTemplateWrapper.execute(new BaseLdapActionCallback<Boolean>(getExternalUserGroupService(), getKey()) {
+
+                @Override
+                public Boolean doInLdap(LdapTemplate ldapTemplate) {
+                    ldapTemplate.search(query()
+                                    .base(ldapURL.getDN())
+                                    .attributes(attrs.toArray(new String[attrs.size()]))
+                                    .searchScope(searchScope)
+                                    .filter(ldapURL.getFilter()),
+                            nameClassPairCallbackHandler);
+                    return true;
+                }
+            });
+            logger.debug("Load members from url {} in ms", url, System.currentTimeMillis() - startTime);
+
+            return validLdapCall != null ? nameClassPairCallbackHandler.getMembers() : null;
+        } catch (NamingException e) {
+            logger.error("Error trying to get dynamic members from url: " + url);
+        }
+        return null;
+    }
+
+    /**
+     * get the members from a group DN, by AD range search
+     *
+     * @param groupDN
+     * @return the members, null if the members attribute could not be read
+     */
+    private List<Member> loadMembersFromDN(final String groupDN) {
+
+        long startTime = System.currentTimeMillis();
+        final LdapName groupName = LdapUtils.newLdapName(groupDN);
+
+        List<Member> members = loadMembersByRange(groupName);
+        logger.debug("Load group members {} by range in {} ms", groupDN, System.currentTimeMillis() - startTime);
+        return members;
+    }
+
+    /**
+     * Get the members of a group from its DN in the order of its pages
+     *
+     * @param groupDN the DN of the group
+     * @return the members in the order of their page DNs, see {@link #getPageDns(List)}, null at the position of a DN
+     * that did not resolve, null if the members attribute could not be read
+     */
+    private List<Member> loadPageMembers(String groupDN) {
+        long startTime = System.currentTimeMillis();
+        List<String> memberDns = lookupMemberDns(groupDN);
+        logger.debug("Load group members {} in {} ms", groupDN, System.currentTimeMillis() - startTime);
+
+        return memberDns != null ? resolveMemberDns(getPageDns(memberDns)) : null;
+    }
+
+    /**
+     * The members of a group are paged in the order of the canonical form of their DNs, which is known as soon as the
+     * members attribute is read, before any member is resolved
+     *
+     * @param memberDns the values of the members attribute
+     * @return the DNs without the duplicates, in the order of their canonical form
+     */
+    private List<String> getPageDns(List<String> memberDns) {
+        LDAPDnCanonicalizer dnCanonicalizer = ldapCacheManager.getDnCanonicalizer();
+        TreeMap<String, String> dnsByCanonicalDn = new TreeMap<String, String>();
+        for (String memberDn : memberDns) {
+            String canonicalDn = dnCanonicalizer.canonicalize(memberDn);
+            if (!dnsByCanonicalDn.containsKey(canonicalDn)) {
+                dnsByCanonicalDn.put(canonicalDn, memberDn);
+            }
+        }
+        return new ArrayList<String>(dnsByCanonicalDn.values());
+    }
+
+    /**
+     * Read the values of the members attribute of a group
+     *
+     * @param groupDN the DN of the group
+     * @return the DNs of the members, null on error
+     */
+    private List<String> lookupMemberDns(String groupDN) {
+        final LdapName groupName = LdapUtils.newLdapName(groupDN);
+        return ldapTemplateWrapper.execute(new BaseLdapActionCallback<List<String>>(getExternalUserGroupService(), getKey()) {
+
+            @Override
+            public List<String> doInLdap(LdapTemplate ldapTemplate) {
+                return ldapTemplate.lookup(groupName, new String[]{groupConfig.getMembersAttribute()}, new AttributesMapper<List<String>>() {
+
+                    @Override
+                    public List<String> mapFromAttributes(Attributes attributes) throws NamingException {
+                        return getStringValues(attributes.get(groupConfig.getMembersAttribute()));
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Read the members attribute range by range (Active Directory range retrieval). Each range is resolved as soon as
+     * it is read and only the ids of its members are kept, so that the DNs of one range at most are in memory.
+     * With a negative step the ranges are open ended and their size is the MaxValRange of the server.
+     *
+     * @param groupName the DN of the group
+     * @return the members, null if a range could not be read
+     */
+    private List<Member> loadMembersByRange(final LdapName groupName) {
+        LDAPMemberIdRegistry memberIdRegistry = ldapCacheManager.getMemberIdRegistry(getKey());
+        if (memberIdRegistry == null) {
+            return null;
+        }
+        LDAPMemberBitmap memberIds = loadMemberIdsByRange(groupName, memberIdRegistry);
+        List<Member> members = memberIds != null ? memberIdRegistry.getMembers(memberIds) : null;
+        if (memberIds != null && members == null) {
+            // a new generation of the registry started during the read, the ids read are not valid anymore
+            memberIds = loadMemberIdsByRange(groupName, memberIdRegistry);
+            members = memberIds != null ? memberIdRegistry.getMembers(memberIds) : null;
+        }
+        return members;
+    }
+
+    /**
+     * @param groupName the DN of the group
+     * @param memberIdRegistry the registry assigning the ids
+     * @return the ids of the members, in the generation of the registry in which the read started, null if a range
+     * could not be read
+     */
+    private LDAPMemberBitmap loadMemberIdsByRange(final LdapName groupName, LDAPMemberIdRegistry memberIdRegistry) {
+        int generation = memberIdRegistry.getGeneration();
+        int step = groupConfig.getAdRangeStep();
+        int[] memberIds = new int[Math.max(step, 16)];
+        int memberCount = 0;
+        int start = 0;
+        while (true) {
+            final String rangeAttribute = groupConfig.getMembersAttribute() + ";range=" + start + "-" + (step > 0 ? String.valueOf(start + step - 1) : "*");
+            MembersRange range = ldapTemplateWrapper.execute(new BaseLdapActionCallback<MembersRange>(getExternalUserGroupService(), getKey()) {
+
+                @Override
+                public MembersRange doInLdap(LdapTemplate ldapTemplate) {
+                    return ldapTemplate.lookup(groupName, new String[]{rangeAttribute}, new AttributesMapper<MembersRange>() {
+
+                        @Override
+                        public MembersRange mapFromAttributes(Attributes attributes) throws NamingException {
+                            return MembersRange.of(attributes, groupConfig.getMembersAttribute());
+                        }
+                    });
+                }
+            });
+            if (range == null) {
+                return null;
+            }
+
+            List<Member> rangeMembers = loadMembers(range.values);
+            if (memberCount + rangeMembers.size() > memberIds.length) {
+                memberIds = Arrays.copyOf(memberIds, Math.max(memberIds.length * 2, memberCount + rangeMembers.size()));
+            }
+            for (Member member : rangeMembers) {
+                memberIds[memberCount++] = memberIdRegistry.getOrCreateId(member);
+            }
+            if (range.last) {
+                break;
+            }
+            start = range.end + 1;
+        }
+        return LDAPMemberBitmap.of(memberIds, memberCount, generation);
+    }
+
+    private List<Member> loadMembers(NamingEnumeration<?> members) {
+        List<String> memberDns = new ArrayList<String>();
+        try {
+            while (members != null && members.hasMore()) {
+                memberDns.add((String) members.next());
+            }
+        } catch (NamingException e) {
+            logger.error("Error retrieving LDAP group members for group", e);
+        }
+        return loadMembers(memberDns);
+    }
 
-                @Override
-                public Object doInLdap(LdapTemplate ldapTemplate) {
-                    ldapTemplate.search(query()
-                                    .base(ldapURL.getDN())
-                                    .attributes(attrs.toArray(new String[attrs.size()]))
-                                    .searchScope(searchScope)
-                                    .filter(ldapURL.getFilter()),
-                            nameClassPairCallbackHandler);
-                    return null;
+    /**
+     * Resolve member DNs to users and groups, from the cache first
+     *
+     * @param memberDns the DNs of the members
+     * @return the members found
+     */
+    private List<Member> loadMembers(List<String> memberDns) {
+        List<Member> memberList = resolveMemberDns(memberDns);
+        memberList.removeAll(Collections.singleton(null));
+        return memberList;
+    }
+
+    /**
+     * Resolve member DNs to users and groups, from the cache first
+     *
+     * @param memberDns the DNs of the members
+     * @return the members, at the position of their DN, null for a DN that did not resolve
+     */
+    private List<Member> resolveMemberDns(List<String> memberDns) {
+
+        List<Member> memberList = new ArrayList<Member>();
+        Map<Integer, String> unresolvedMembers = new LinkedHashMap<Integer, String>();
+        for (String memberNaming : memberDns) {
+            // try to know if we deal with a group or a user
+            Boolean isUser = null;
+            if (userConfig.isCanGroupContainSubGroups()) {
+                isUser = dnClassifier.isUser(memberNaming);
+            } else {
+                isUser = true;
+            }
+
+            // try to retrieve the object from the cache
+            LDAPAbstractCacheEntry cacheEntry;
+            if (isUser != null) {
+                if (isUser) {
+                    cacheEntry = ldapCacheManager.getUserCacheEntryByDn(getKey(), memberNaming);
+                } else {
+                    cacheEntry = ldapCacheManager.getGroupCacheEntryByDn(getKey(), memberNaming);
                 }
-            });
-            logger.debug("Load members from url {} in ms", url, System.currentTimeMillis() - startTime);
+            } else {
+                // look in all cache
+                cacheEntry = ldapCacheManager.getUserCacheEntryByDn(getKey(), memberNaming);
+                if (cacheEntry == null) {
+                    cacheEntry = ldapCacheManager.getGroupCacheEntryByDn(getKey(), memberNaming);
+                    isUser = cacheEntry != null ? false : null;
+                } else {
+                    isUser = true;
+                }
+            }
+            if (cacheEntry != null) {
+                if (isUser) {
+                    memberList.add(new Member(cacheEntry.getName(), Member.MemberType.USER));
+                } else {
+                    memberList.add(new Member(cacheEntry.getName(), Member.MemberType.GROUP));
+                }
+                continue;
+            }
 
-            return nameClassPairCallbackHandler.getMembers();
-        } catch (NamingException e) {
-            logger.error("Error trying to get dynamic members from url: " + url);
+            // try to retrieve
+            if (isUser != null && userConfig.isSearchAttributeInDn()) {
+                String name = dnClassifier.getName(memberNaming, isUser);
+                if (StringUtils.isNotEmpty(name)) {
+                    memberList.add(isUser ? new Member(name, Member.MemberType.USER) : new Member(name, Member.MemberType.GROUP));
+                    continue;
+                }
+            }
+
+            // resolved by queries once all the members are known
+            memberList.add(null);
+            unresolvedMembers.put(memberList.size() - 1, memberNaming);
         }
-        return null;
+
+        if (!unresolvedMembers.isEmpty()) {
+            resolveMembers(memberList, unresolvedMembers);
+        }
+        return memberList;
     }
 
     /**
-     * get the members from a group DN
+     * Resolve the members not found in cache, by batches if a DN attribute is configured, one by one otherwise
      *
-     * @param groupDN
-     * @return
+     * @param memberList the member list, holding null at the position of the unresolved members
+     * @param unresolvedMembers the DNs of the unresolved members by position
      */
-    private List<Member> loadMembersFromDN(final String groupDN) {
+    private void resolveMembers(List<Member> memberList, Map<Integer, String> unresolvedMembers) {
+        Map<Integer, String> remainingMembers = unresolvedMembers;
+        if (StringUtils.isNotEmpty(groupConfig.getMembersDnAttribute()) && groupConfig.getMembersBatchSize() > 1 && !memberBatchResolutionDisabled) {
+            remainingMembers = resolveMembersByBatch(memberList, unresolvedMembers);
+        }
+        if (remainingMembers.isEmpty()) {
+            return;
+        }
 
-        long startTime = System.currentTimeMillis();
-        final LdapName groupName = LdapUtils.newLdapName(groupDN);
+        LdapParallelExecutor executor = memberResolutionExecutor;
+        if (executor == null) {
+            for (Map.Entry<Integer, String> unresolvedMember : remainingMembers.entrySet()) {
+                memberList.set(unresolvedMember.getKey(), resolveMember(unresolvedMember.getValue()));
+            }
+            return;
+        }
+        List<Integer> positions = new ArrayList<Integer>(remainingMembers.size());
+        List<Callable<Member>> lookups = new ArrayList<Callable<Member>>(remainingMembers.size());
+        for (Map.Entry<Integer, String> unresolvedMember : remainingMembers.entrySet()) {
+            final String memberNaming = unresolvedMember.getValue();
+            positions.add(unresolvedMember.getKey());
+            lookups.add(new Callable<Member>() {
 
-        NamingEnumeration<?> members = ldapTemplateWrapper.execute(new BaseLdapActionCallback<NamingEnumeration<?>>(getExternalUserGroupService(), getKey()) {
+                @Override
+                public Member call() {
+                    return resolveMember(memberNaming);
+                }
+            });
+        }
+        List<Member> resolvedMembers = executor.invokeAll(lookups);
+        for (int i = 0; i < positions.size(); i++) {
+            memberList.set(positions.get(i), resolvedMembers.get(i));
+        }
+    }
 
-            @Override
-            public NamingEnumeration<?> doInLdap(LdapTemplate ldapTemplate) {
+    /**
+     * @param parallelism the number of threads configured
+     * @return the number of LDAP requests run in parallel, leaving at least half of a bounded connection pool to the other requests
+     */
+    private int getLdapParallelism(int parallelism) {
+        int maxConnections = 0;
+        if (JahiaLDAPConfig.POOL_APACHE_COMMONS.equalsIgnoreCase(userConfig.getLdapConnectPool())) {
+            maxConnections = userConfig.getLdapConnectPoolMaxActive() != null ? userConfig.getLdapConnectPoolMaxActive() : GenericKeyedObjectPool.DEFAULT_MAX_ACTIVE;
+        } else if (JahiaLDAPConfig.POOL_LDAP.equalsIgnoreCase(userConfig.getLdapConnectPool()) || Boolean.valueOf(userConfig.getLdapConnectPool())) {
+            maxConnections = NumberUtils.toInt(userConfig.getLdapConnectPoolMaxSize(), 0);
+        }
+        if (maxConnections > 0) {
+            parallelism = Math.min(parallelism, Math.max(1, maxConnections / 2));
+        }
+        return Math.max(parallelism, 1);
+    }
 
-                // use AD range search if a range is specify in the conf
-                if (groupConfig.getAdRangeStep() > 0) {
+    /**
+     * Resolve the members under the user and group bases with OR-ed DN filters, one search per batch and per kind
+     *
+     * @param memberList the member list, holding null at the position of the unresolved members
+     * @param unresolvedMembers the DNs of the unresolved members by position
+     * @return the members that still have to be resolved one by one
+     */
+    private Map<Integer, String> resolveMembersByBatch(List<Member> memberList, Map<Integer, String> unresolvedMembers) {
+        LDAPDnCanonicalizer dnCanonicalizer = ldapCacheManager.getDnCanonicalizer();
+        Map<Integer, String> remainingMembers = new LinkedHashMap<Integer, String>();
+        Map<String, String> dnsByCanonicalDn = new LinkedHashMap<String, String>();
+        Map<String, List<Integer>> positionsByCanonicalDn = new HashMap<String, List<Integer>>();
+        for (Map.Entry<Integer, String> unresolvedMember : unresolvedMembers.entrySet()) {
+            String dn = unresolvedMember.getValue();
+            if (!dnClassifier.isInUserBase(dn) && !dnClassifier.isInGroupBase(dn)) {
+                // a search on the bases cannot find it
+                remainingMembers.put(unresolvedMember.getKey(), dn);
+                continue;
+            }
+            String canonicalDn = dnCanonicalizer.canonicalize(dn);
+            dnsByCanonicalDn.put(canonicalDn, dn);
+            List<Integer> positions = positionsByCanonicalDn.get(canonicalDn);
+            if (positions == null) {
+                positions = new ArrayList<Integer>(1);
+                positionsByCanonicalDn.put(canonicalDn, positions);
+            }
+            positions.add(unresolvedMember.getKey());
+        }
 
-                    DefaultIncrementalAttributesMapper incrementalAttributesMapper = new DefaultIncrementalAttributesMapper(groupConfig.getAdRangeStep(), groupConfig.getMembersAttribute());
-                    while (incrementalAttributesMapper.hasMore()) {
-                        ldapTemplate.lookup(groupName, incrementalAttributesMapper.getAttributesForLookup(), incrementalAttributesMapper);
+        List<String> canonicalDns = new ArrayList<String>(dnsByCanonicalDn.keySet());
+        for (List<String> batch : Lists.partition(canonicalDns, groupConfig.getMembersBatchSize())) {
+            Map<String, Member> resolvedMembers = memberBatchResolutionDisabled ? null : searchMembersByDn(batch, dnsByCanonicalDn);
+            if (resolvedMembers == null) {
+                // fall back on the per member resolution
+                for (String canonicalDn : batch) {
+                    for (Integer position : positionsByCanonicalDn.get(canonicalDn)) {
+                        remainingMembers.put(position, dnsByCanonicalDn.get(canonicalDn));
                     }
-                    Attributes attributes = incrementalAttributesMapper.getCollectedAttributes();
-                    try {
-                        return attributes.get(groupConfig.getMembersAttribute()).getAll();
-                    } catch (NamingException e) {
-                        logger.error("Error retrieving the LDAP members using range on group: " + groupDN, e);
+                }
+                continue;
+            }
+            for (Map.Entry<String, Member> resolvedMember : resolvedMembers.entrySet()) {
+                List<Integer> positions = positionsByCanonicalDn.get(resolvedMember.getKey());
+                if (positions != null) {
+                    for (Integer position : positions) {
+                        memberList.set(position, resolvedMember.getValue());
                     }
-                } else {
-                    return ldapTemplate.lookup(groupName, new String[]{groupConfig.getMembersAttribute()}, new AttributesMapper<NamingEnumeration<?>>() {
+                }
+            }
+        }
+        return remainingMembers;
+    }
 
-                        @Override
-                        public NamingEnumeration<?> mapFromAttributes(Attributes attributes) throws NamingException {
-                            return attributes.get(groupConfig.getMembersAttribute()) != null ? attributes.get(groupConfig.getMembersAttribute()).getAll() : null;
-                        }
-                    });
+    /**
+     * Search a batch of members: users first, then static groups, then dynamic groups for the DNs not found yet
+     *
+     * @param batch the canonical DNs of the batch
+     * @param dnsByCanonicalDn the DNs as returned by the server, by canonical DN
+     * @return the members found by canonical DN, null if the batch resolution is not supported by the server
+     */
+    private Map<String, Member> searchMembersByDn(List<String> batch, Map<String, String> dnsByCanonicalDn) {
+        MembersByDnNameClassPairCallbackHandler handler = new MembersByDnNameClassPairCallbackHandler();
+        if (!searchMembersByDn(batch, dnsByCanonicalDn, handler, true, false)
+                || !searchMembersByDn(batch, dnsByCanonicalDn, handler, false, false)
+                || (groupConfig.isDynamicEnabled() && !searchMembersByDn(batch, dnsByCanonicalDn, handler, false, true))) {
+            // resolved one by one, the batches are only disabled if the server refused the DN attribute
+            return null;
+        }
+        if (!memberBatchResolutionVerified) {
+            if (handler.getMembers().isEmpty()) {
+                // a DN attribute that is not searchable silently matches nothing, which cannot be told apart from
+                // a batch of stale DNs without checking a DN that exists
+                Boolean searchable = isMemberDnSearchable(dnsByCanonicalDn.get(batch.get(0)));
+                if (searchable == null) {
+                    return null;
+                }
+                if (!searchable) {
+                    disableMemberBatchResolution("an existing entry is not found by " + groupConfig.getMembersDnAttribute());
+                    return null;
+                }
+            }
+            memberBatchResolutionVerified = true;
+        }
+        return handler.getMembers();
+    }
+
+    /**
+     * Search an entry by its own DN with the DN attribute
+     *
+     * @param dn the DN of the entry
+     * @return true if the entry is found by the DN attribute, false if it exists but is not found by it, null if the
+     * entry does not exist or cannot be read
+     */
+    private Boolean isMemberDnSearchable(final String dn) {
+        final AttributesMapper<String> dnMapper = new AttributesMapper<String>() {
+
+            @Override
+            public String mapFromAttributes(Attributes attrs) throws NamingException {
+                return dn;
+            }
+        };
+        return ldapTemplateWrapper.execute(new BaseLdapActionCallback<Boolean>(getExternalUserGroupService(), getKey()) {
+
+            @Override
+            public Boolean doInLdap(LdapTemplate ldapTemplate) {
+                if (!ldapTemplate.search(query().base(dn)
+                                .attributes(OBJECTCLASS_ATTRIBUTE)
+                                .searchScope(SearchScope.OBJECT)
+                                .where(groupConfig.getMembersDnAttribute()).is(dn),
+                        dnMapper).isEmpty()) {
+                    return true;
+                }
+                return ldapTemplate.search(query().base(dn)
+                                .attributes(OBJECTCLASS_ATTRIBUTE)
+                                .searchScope(SearchScope.OBJECT)
+                                .where(OBJECTCLASS_ATTRIBUTE).isPresent(),
+                        dnMapper).isEmpty() ? null : false;
+            }
+
+            @Override
+            public Boolean onError(Exception e) {
+                if (isUnsupportedSearch(e)) {
+                    return false;
+                }
+                if (!hasCause(e, javax.naming.NameNotFoundException.class)) {
+                    super.onError(e);
                 }
+                // a stale DN tells nothing about the attribute
                 return null;
             }
         });
-        logger.debug("Load group members {} in {} ms", groupDN, System.currentTimeMillis() - startTime);
-
-        return loadMembers(members);
     }
 
-    private List<Member> loadMembers(NamingEnumeration<?> members) {
+    private boolean searchMembersByDn(List<String> batch, Map<String, String> dnsByCanonicalDn, final MembersByDnNameClassPairCallbackHandler handler,
+                                      final boolean isUser, final boolean isDynamic) {
+        ContainerCriteria dnCriteria = null;
+        for (String canonicalDn : batch) {
+            String dn = dnsByCanonicalDn.get(canonicalDn);
+            if (handler.getMembers().containsKey(canonicalDn) || !(isUser ? dnClassifier.isInUserBase(dn) : dnClassifier.isInGroupBase(dn))) {
+                continue;
+            }
+            if (dnCriteria == null) {
+                dnCriteria = query().where(groupConfig.getMembersDnAttribute()).is(dn);
+            } else {
+                dnCriteria.or(groupConfig.getMembersDnAttribute()).is(dn);
+            }
+        }
+        if (dnCriteria == null) {
+            return true;
+        }
 
-        List<Member> memberList = new ArrayList<Member>();
-        try {
+        final List<String> attrs = isUser ? getUserAttributes() : getGroupAttributes(isDynamic);
+        final ContainerCriteria query = query().base(isUser ? userConfig.getUidSearchName() : groupConfig.getSearchName())
+                .attributes(attrs.toArray(new String[attrs.size()]))
+                .where(OBJECTCLASS_ATTRIBUTE).is(isUser ? userConfig.getSearchObjectclass() :
+                        (isDynamic ? groupConfig.getDynamicSearchObjectclass() : groupConfig.getSearchObjectclass()))
+                .and(dnCriteria);
+        long startTime = System.currentTimeMillis();
+        handler.setKind(isUser, isDynamic);
+        boolean validLdapCall = ldapTemplateWrapper.execute(new BaseLdapActionCallback<Boolean>(getExternalUserGroupService(), getKey()) {
 
-            while (members != null && members.hasMore()) {
+            @Override
+            public Boolean doInLdap(LdapTemplate ldapTemplate) {
+                ldapTemplate.search(isUser ? applyPredefinedUserFilter(query, false) : applyPredefinedGroupFilter(query), handler);
+                return true;
+            }
 
-                final String memberNaming = (String) members.next();
-                // try to know if we deal with a group or a user
-                Boolean isUser = null;
-                if (userConfig.isCanGroupContainSubGroups()) {
-                    isUser = guessUserOrGroupFromDN(memberNaming);
+            @Override
+            public Boolean onError(Exception e) {
+                if (isUnsupportedSearch(e)) {
+                    disableMemberBatchResolution(e.getMessage());
                 } else {
-                    isUser = true;
+                    super.onError(e);
                 }
+                return false;
+            }
+        });
+        if (logger.isDebugEnabled()) {
+            logger.debug("Search batch of {} member DNs in {} ms", batch.size(), System.currentTimeMillis() - startTime);
+        }
+        return validLdapCall;
+    }
 
-                // try to retrieve the object from the cache
-                LDAPAbstractCacheEntry cacheEntry;
-                if (isUser != null) {
-                    if (isUser) {
-                        cacheEntry = ldapCacheManager.getUserCacheEntryByDn(getKey(), memberNaming);
-                    } else {
-                        cacheEntry = ldapCacheManager.getGroupCacheEntryByDn(getKey(), memberNaming);
-                    }
-                } else {
-                    // look in all cache
-                    cacheEntry = ldapCacheManager.getUserCacheEntryByDn(getKey(), memberNaming);
-                    if (cacheEntry == null) {
-                        cacheEntry = ldapCacheManager.getGroupCacheEntryByDn(getKey(), memberNaming);
-                        isUser = cacheEntry != null ? false : null;
-                    } else {
-                        isUser = true;
-                    }
-                }
-                if (cacheEntry != null) {
-                    if (isUser) {
-                        memberList.add(new Member(cacheEntry.getName(), Member.MemberType.USER));
-                    } else {
-                        memberList.add(new Member(cacheEntry.getName(), Member.MemberType.GROUP));
-                    }
-                    continue;
-                }
+    /**
+     * @param e an error of a search
+     * @return true if the server refused the filter itself: attribute not defined, no equality matching rule for it,
+     * or search unwilling to be performed
+     */
+    private static boolean isUnsupportedSearch(Exception e) {
+        return hasCause(e, javax.naming.directory.InvalidAttributeIdentifierException.class)
+                || hasCause(e, javax.naming.directory.InvalidSearchFilterException.class)
+                || hasCause(e, javax.naming.OperationNotSupportedException.class);
+    }
 
-                // try to retrieve
-                if (isUser != null && userConfig.isSearchAttributeInDn()) {
-                    String name = getNameFromDn(memberNaming, isUser);
-                    if (StringUtils.isNotEmpty(name)) {
-                        memberList.add(isUser ? new Member(name, Member.MemberType.USER) : new Member(name, Member.MemberType.GROUP));
-                        continue;
-                    }
-                }
+    private static boolean hasCause(Throwable e, Class<? extends Throwable> causeClass) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause() != cause ? cause.getCause() : null) {
+            if (causeClass.isInstance(cause)) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-                // do queries
-                // and cache the result
-                Member member = null;
-                LDAPUserCacheEntry userCacheEntry = getUserCacheEntryByDN(memberNaming, true);
-                if (userCacheEntry == null) {
-                    // look in groups
-                    LDAPGroupCacheEntry groupCacheEntry = getGroupCacheEntryByDN(memberNaming, true, false);
-                    if (groupCacheEntry == null) {
-                        if (groupConfig.isDynamicEnabled()) {
-                            // look in dynamic groups
-                            groupCacheEntry = getGroupCacheEntryByDN(memberNaming, true, true);
-                            if (groupCacheEntry != null) {
-                                member = new Member(groupCacheEntry.getName(), Member.MemberType.GROUP);
-                            }
-                        }
-                    } else {
+    private void disableMemberBatchResolution(String reason) {
+        if (!memberBatchResolutionDisabled) {
+            memberBatchResolutionDisabled = true;
+            logger.warn("Batch resolution of the group members by {} disabled on provider {}: {}. Members will be resolved one by one",
+                    new Object[]{groupConfig.getMembersDnAttribute(), getKey(), reason});
+        }
+    }
+
+    /**
+     * Resolve a member from its DN, looking for a user, then a group, then a dynamic group, and cache the result
+     *
+     * @param memberNaming the member DN
+     * @return the member, null if not found
+     */
+    private Member resolveMember(String memberNaming) {
+        Member member = null;
+        LDAPUserCacheEntry userCacheEntry = getUserCacheEntryByDN(memberNaming, true);
+        if (userCacheEntry == null) {
+            // look in groups
+            LDAPGroupCacheEntry groupCacheEntry = getGroupCacheEntryByDN(memberNaming, true, false);
+            if (groupCacheEntry == null) {
+                if (groupConfig.isDynamicEnabled()) {
+                    // look in dynamic groups
+                    groupCacheEntry = getGroupCacheEntryByDN(memberNaming, true, true);
+                    if (groupCacheEntry != null) {
                         member = new Member(groupCacheEntry.getName(), Member.MemberType.GROUP);
                     }
-                } else {
-                    member = new Member(userCacheEntry.getName(), Member.MemberType.USER);
-                }
-
-                if (member != null) {
-                    memberList.add(member);
                 }
+            } else {
+                member = new Member(groupCacheEntry.getName(), Member.MemberType.GROUP);
             }
-        } catch (NamingException e) {
-            logger.error("Error retrieving LDAP group members for group", e);
+        } else {
+            member = new Member(userCacheEntry.getName(), Member.MemberType.USER);
         }
 
-        return memberList;
+        return member;
     }
 
     /**
-     * Retrieve the cache entry for a given username, if not found create a new one, and cache it if the param "cache" set to true
+     * Retrieve the cache entry for a given username, if not found create a new one and cache it.
+     * Concurrent lookups of the same username share a single LDAP search.
      *
      * @param userName
-     * @param cache
      * @return
      */
-    private LDAPUserCacheEntry getUserCacheEntry(final String userName, boolean cache) {
+    private LDAPUserCacheEntry getUserCacheEntry(final String userName) {
 
-        LDAPUserCacheEntry userCacheEntry = ldapCacheManager.getUserCacheEntryByName(getKey(), userName);
+        final LDAPUserCacheEntry userCacheEntry = ldapCacheManager.getUserCacheEntryByName(getKey(), userName);
         if (userCacheEntry != null) {
             if (userCacheEntry.getExist() != null && userCacheEntry.getExist() && userCacheEntry.getUser() != null) {
+                LDAPCacheRefresher refresher = cacheRefresher;
+                if (refresher != null && userCacheEntry.getDn() != null) {
+                    refresher.hit(userCacheEntry, userConfig, LOAD_USER_DN + userCacheEntry.getDn(), new Runnable() {
+                        @Override
+                        public void run() {
+                            refreshUserCacheEntry(userCacheEntry);
+                        }
+                    });
+                }
                 return userCacheEntry;
             } else if (userCacheEntry.getExist() != null && !userCacheEntry.getExist()) {
                 return userCacheEntry;
             }
         }
 
+        return loadCoalescer.load(LOAD_USER, userName, new Callable<LDAPUserCacheEntry>() {
+
+            @Override
+            public LDAPUserCacheEntry call() {
+                return loadUserCacheEntry(userName, userCacheEntry);
+            }
+        });
+    }
+
+    /**
+     * Search the user in the LDAP, populating the given cache entry if any, and cache the result
+     *
+     * @param userName
+     * @param userCacheEntry
+     * @return
+     */
+    private LDAPUserCacheEntry loadUserCacheEntry(final String userName, LDAPUserCacheEntry userCacheEntry) {
+
         final List<String> userAttrs = getUserAttributes();
         final UserNameClassPairCallbackHandler nameClassPairCallbackHandler = new UserNameClassPairCallbackHandler(userCacheEntry);
         long startTime = System.currentTimeMillis();
@@ -654,7 +2251,7 @@ public class LDAPUserGroupProvider extends BaseUserGroupProvider {
             userCacheEntry.setExist(false);
         }
 
-        if (cache && validLdapCall) {
+        if (validLdapCall) {
             ldapCacheManager.cacheUser(getKey(), userCacheEntry);
         }
 
@@ -662,41 +2259,113 @@ public class LDAPUserGroupProvider extends BaseUserGroupProvider {
     }
 
     /**
-     * Retrieve the cache entry for a given groupname, if not found create a new one, and cache it if the param "cache" set to true
+     * Retrieve the cache entry for a given groupname, if not found create a new one and cache it.
+     * Concurrent lookups of the same groupname share a single LDAP search.
+     *
+     * @param groupName
+     * @return
+     */
+    private LDAPGroupCacheEntry getGroupCacheEntry(final String groupName) {
+
+        final LDAPGroupCacheEntry groupCacheEntry = ldapCacheManager.getGroupCacheEntryName(getKey(), groupName);
+        if (groupCacheEntry != null) {
+            if (groupCacheEntry.getExist() != null && groupCacheEntry.getExist() && groupCacheEntry.getGroup() != null) {
+                LDAPCacheRefresher refresher = cacheRefresher;
+                if (refresher != null && groupCacheEntry.getDn() != null) {
+                    refresher.hit(groupCacheEntry, groupConfig, LOAD_GROUP_DN + groupCacheEntry.getDn(), new Runnable() {
+                        @Override
+                        public void run() {
+                            refreshGroupCacheEntry(groupCacheEntry);
+                        }
+                    });
+                }
+                return groupCacheEntry;
+            } else if (groupCacheEntry.getExist() != null && !groupCacheEntry.getExist()) {
+                return groupCacheEntry;
+            }
+        }
+
+        return loadCoalescer.load(LOAD_GROUP, groupName, new Callable<LDAPGroupCacheEntry>() {
+
+            @Override
+            public LDAPGroupCacheEntry call() {
+                return loadGroupCacheEntry(groupName);
+            }
+        });
+    }
+
+    /**
+     * Reload the attributes of a cached user from its DN, keeping the memberships already loaded.
+     * If the user cannot be read the cached entry is left as is and expires normally.
+     *
+     * @param staleEntry the cached entry
+     */
+    private void refreshUserCacheEntry(LDAPUserCacheEntry staleEntry) {
+        LDAPUserCacheEntry userCacheEntry = getUserCacheEntryByDN(staleEntry.getDn(), false);
+        if (userCacheEntry != null) {
+            if (staleEntry.getMemberships() != null) {
+                userCacheEntry.setMemberships(staleEntry.getMemberships(), staleEntry.getMembershipsTimestamp());
+            }
+            if (staleEntry.getTransitiveMemberships() != null) {
+                userCacheEntry.setTransitiveMemberships(staleEntry.getTransitiveMemberships(), staleEntry.getTransitiveMembershipsTimestamp());
+            }
+            ldapCacheManager.cacheUser(getKey(), userCacheEntry);
+        }
+    }
+
+    /**
+     * Reload the attributes of a cached group from its DN, keeping the members and memberships already loaded.
+     * If the group cannot be read the cached entry is left as is and expires normally.
+     *
+     * @param staleEntry the cached entry
+     */
+    private void refreshGroupCacheEntry(LDAPGroupCacheEntry staleEntry) {
+        LDAPGroupCacheEntry groupCacheEntry = getGroupCacheEntryByDN(staleEntry.getDn(), false, staleEntry.isDynamic());
+        if (groupCacheEntry != null) {
+            if (staleEntry.getMemberIds() != null) {
+                groupCacheEntry.setMemberIds(staleEntry.getMemberIds(), staleEntry.getMembersTimestamp());
+                groupCacheEntry.setMemberPageOrder(staleEntry.getMemberPageOrder());
+            }
+            if (staleEntry.getOffHeapMembers() != null) {
+                groupCacheEntry.setOffHeapMembers(staleEntry.getOffHeapMembers(), staleEntry.getMembersTimestamp());
+            }
+            if (staleEntry.getTransitiveMemberIds() != null) {
+                groupCacheEntry.setTransitiveMemberIds(staleEntry.getTransitiveMemberIds(), staleEntry.getTransitiveMembersTimestamp());
+            }
+            if (staleEntry.getMemberships() != null) {
+                groupCacheEntry.setMemberships(staleEntry.getMemberships(), staleEntry.getMembershipsTimestamp());
+            }
+            if (staleEntry.getTransitiveMemberships() != null) {
+                groupCacheEntry.setTransitiveMemberships(staleEntry.getTransitiveMemberships(), staleEntry.getTransitiveMembershipsTimestamp());
+            }
+            ldapCacheManager.cacheGroup(getKey(), groupCacheEntry);
+        }
+    }
+
+    /**
+     * Search the group in the LDAP, static groups first then dynamic ones if enabled, and cache the result
      *
      * @param groupName
-     * @param cache
      * @return
      */
-    private LDAPGroupCacheEntry getGroupCacheEntry(String groupName, boolean cache) {
-
-        LDAPGroupCacheEntry groupCacheEntry = ldapCacheManager.getGroupCacheEntryName(getKey(), groupName);
-        if (groupCacheEntry != null) {
-            if (groupCacheEntry.getExist() != null && groupCacheEntry.getExist() && groupCacheEntry.getGroup() != null) {
-                return groupCacheEntry;
-            } else if (groupCacheEntry.getExist() != null && !groupCacheEntry.getExist()) {
-                return groupCacheEntry;
-            }
-        }
+    private LDAPGroupCacheEntry loadGroupCacheEntry(String groupName) {
 
+        LDAPGroupCacheEntry groupCacheEntry;
         try {
             groupCacheEntry = getGroupCacheEntryByName(groupName, false, false);
+            if (groupCacheEntry == null && groupConfig.isDynamicEnabled()) {
+                groupCacheEntry = getGroupCacheEntryByName(groupName, false, true);
+            }
             if (groupCacheEntry == null) {
-                if (groupConfig.isDynamicEnabled()) {
-                    groupCacheEntry = getGroupCacheEntryByName(groupName, false, true);
-                } else {
-                    groupCacheEntry = new LDAPGroupCacheEntry(groupName);
-                    groupCacheEntry.setExist(false);
-                }
+                groupCacheEntry = new LDAPGroupCacheEntry(groupName);
+                groupCacheEntry.setExist(false);
             }
         } catch (Exception e) {
             // Exception already logged, skip cache and return null
             return null;
         }
 
-        if (cache) {
-            ldapCacheManager.cacheGroup(getKey(), groupCacheEntry);
-        }
+        ldapCacheManager.cacheGroup(getKey(), groupCacheEntry);
 
         return groupCacheEntry;
     }
@@ -754,7 +2423,24 @@ public class LDAPUserGroupProvider extends BaseUserGroupProvider {
      * @param isDynamic
      * @return
      */
-    private LDAPGroupCacheEntry getGroupCacheEntryByDN(final String dn, boolean cache, final boolean isDynamic) {
+    private LDAPGroupCacheEntry getGroupCacheEntryByDN(final String dn, final boolean cache, final boolean isDynamic) {
+
+        String loadType;
+        if (cache) {
+            loadType = isDynamic ? LOAD_DYNAMIC_GROUP_DN : LOAD_GROUP_DN;
+        } else {
+            loadType = isDynamic ? LOAD_UNCACHED_DYNAMIC_GROUP_DN : LOAD_UNCACHED_GROUP_DN;
+        }
+        return loadCoalescer.load(loadType, dn, new Callable<LDAPGroupCacheEntry>() {
+
+            @Override
+            public LDAPGroupCacheEntry call() {
+                return loadGroupCacheEntryByDN(dn, cache, isDynamic);
+            }
+        });
+    }
+
+    private LDAPGroupCacheEntry loadGroupCacheEntryByDN(final String dn, boolean cache, final boolean isDynamic) {
 
         final List<String> groupAttrs = getGroupAttributes(isDynamic);
         final GroupNameClassPairCallbackHandler nameClassPairCallbackHandler = new GroupNameClassPairCallbackHandler(null, isDynamic);
@@ -796,7 +2482,18 @@ public class LDAPUserGroupProvider extends BaseUserGroupProvider {
      * @param cache
      * @return
      */
-    private LDAPUserCacheEntry getUserCacheEntryByDN(final String dn, boolean cache) {
+    private LDAPUserCacheEntry getUserCacheEntryByDN(final String dn, final boolean cache) {
+
+        return loadCoalescer.load(cache ? LOAD_USER_DN : LOAD_UNCACHED_USER_DN, dn, new Callable<LDAPUserCacheEntry>() {
+
+            @Override
+            public LDAPUserCacheEntry call() {
+                return loadUserCacheEntryByDN(dn, cache);
+            }
+        });
+    }
+
+    private LDAPUserCacheEntry loadUserCacheEntryByDN(final String dn, boolean cache) {
 
         final List<String> userAttrs = getUserAttributes();
         final UserNameClassPairCallbackHandler nameClassPairCallbackHandler = new UserNameClassPairCallbackHandler(null);
@@ -827,23 +2524,6 @@ public class LDAPUserGroupProvider extends BaseUserGroupProvider {
         return null;
     }
 
-    /**
-     * Retrieve the search attribute from a dn. If the dn does'nt contains the search attribute null is returned
-     *
-     * @param dn
-     * @param isUser
-     * @return
-     */
-    private String getNameFromDn(String dn, boolean isUser) {
-        LdapName ln = LdapUtils.newLdapName(dn);
-        for (Rdn rdn : ln.getRdns()) {
-            if (rdn.getType().equalsIgnoreCase(isUser ? userConfig.getUidSearchAttribute() : groupConfig.getSearchAttribute())) {
-                return rdn.getValue().toString();
-            }
-        }
-        return null;
-    }
-
     /**
      * Callback handler for a single user, create the corresponding cache entry
      */
@@ -881,102 +2561,567 @@ public class LDAPUserGroupProvider extends BaseUserGroupProvider {
         private LDAPGroupCacheEntry cacheEntry;
         private boolean isDynamic;
 
-        public LDAPGroupCacheEntry getCacheEntry() {
-            return cacheEntry;
+        public LDAPGroupCacheEntry getCacheEntry() {
+            return cacheEntry;
+        }
+
+        private GroupNameClassPairCallbackHandler(LDAPGroupCacheEntry cacheEntry, boolean isDynamic) {
+            this.cacheEntry = cacheEntry;
+            this.isDynamic = isDynamic;
+        }
+
+        @Override
+        public void handleNameClassPair(NameClassPair nameClassPair) throws NamingException {
+            if (nameClassPair instanceof SearchResult) {
+                SearchResult searchResult = (SearchResult) nameClassPair;
+                cacheEntry = attributesToGroupCacheEntry(searchResult.getAttributes(), cacheEntry);
+                cacheEntry.setDynamic(isDynamic);
+                if (isDynamic && searchResult.getAttributes().get(groupConfig.getDynamicMembersAttribute()) != null) {
+                    cacheEntry.setDynamicMembersURL(searchResult.getAttributes().get(groupConfig.getDynamicMembersAttribute()).get().toString());
+                }
+                cacheEntry.setDn(searchResult.getNameInNamespace());
+            } else {
+                logger.error("Unexpected NameClassPair " + nameClassPair + " in " + getClass().getName());
+            }
+        }
+    }
+
+    /**
+     * Callback handler for users, retrieve the list of usernames
+     */
+    private class UsersNameClassPairCallbackHandler implements NameClassPairCallbackHandler {
+
+        private List<String> names = new ArrayList<String>();
+
+        public List<String> getNames() {
+            return names;
+        }
+
+        @Override
+        public void handleNameClassPair(NameClassPair nameClassPair) throws NamingException {
+            if (nameClassPair instanceof SearchResult) {
+                SearchResult searchResult = (SearchResult) nameClassPair;
+                LDAPUserCacheEntry cacheEntry = ldapCacheManager.getUserCacheEntryByDn(getKey(), searchResult.getNameInNamespace());
+                if (cacheEntry == null || cacheEntry.getExist() ==  null || !cacheEntry.getExist()) {
+                    UserNameClassPairCallbackHandler nameClassPairCallbackHandler = new UserNameClassPairCallbackHandler(cacheEntry);
+                    nameClassPairCallbackHandler.handleNameClassPair(nameClassPair);
+                    cacheEntry = nameClassPairCallbackHandler.getCacheEntry();
+                    if (cacheEntry != null) {
+                        ldapCacheManager.cacheUser(getKey(), cacheEntry);
+                    }
+                }
+                if (cacheEntry != null) {
+                    names.add(cacheEntry.getName());
+                }
+            } else {
+                logger.error("Unexpected NameClassPair " + nameClassPair + " in " + getClass().getName());
+            }
+        }
+    }
+
+    /**
+     * Callback handler for groups, retrieve the list of groupnames
+     */
+    private class GroupsNameClassPairCallbackHandler implements NameClassPairCallbackHandler {
+
+        private List<String> names = new LinkedList<>();
+        private boolean isDynamic;
+
+        public List<String> getNames() {
+            return names;
+        }
+
+        private GroupsNameClassPairCallbackHandler(boolean isDynamic) {
+            this.isDynamic = isDynamic;
+        }
+
+        @Override
+        public void handleNameClassPair(NameClassPair nameClassPair) throws NamingException {
+            if (nameClassPair instanceof SearchResult) {
+                SearchResult searchResult = (SearchResult) nameClassPair;
+                LDAPGroupCacheEntry cacheEntry = ldapCacheManager.getGroupCacheEntryByDn(getKey(), searchResult.getNameInNamespace());
+                if (cacheEntry == null || cacheEntry.getExist() == null || !cacheEntry.getExist().booleanValue()) {
+                    GroupNameClassPairCallbackHandler nameClassPairCallbackHandler = new GroupNameClassPairCallbackHandler(cacheEntry, isDynamic);
+                    nameClassPairCallbackHandler.handleNameClassPair(nameClassPair);
+                    cacheEntry = nameClassPairCallbackHandler.getCacheEntry();
+                    if (cacheEntry != null) {
+                        ldapCacheManager.cacheGroup(getKey(), cacheEntry);
+                    }
+                }
+                if (cacheEntry != null) {
+                    names.add(cacheEntry.getName());
+                }
+            } else {
+                logger.error("Unexpected NameClassPair " + nameClassPair + " in " + getClass().getName());
+            }
+        }
+    }
+
+    /**
+     * Callback handler for members searched by DN, cache the entries and map the members by canonical DN
+     */
+    private class MembersByDnNameClassPairCallbackHandler implements NameClassPairCallbackHandler {
+
+        private Map<String, Member> members = new HashMap<String, Member>();
+        private boolean isUser;
+        private boolean isDynamic;
+
+        public Map<String, Member> getMembers() {
+            return members;
+        }
+
+        public void setKind(boolean isUser, boolean isDynamic) {
+            this.isUser = isUser;
+            this.isDynamic = isDynamic;
+        }
+
+        @Override
+        public void handleNameClassPair(NameClassPair nameClassPair) throws NamingException {
+            if (!(nameClassPair instanceof SearchResult)) {
+                logger.error("Unexpected NameClassPair " + nameClassPair + " in " + getClass().getName());
+                return;
+            }
+            SearchResult searchResult = (SearchResult) nameClassPair;
+            String canonicalDn = ldapCacheManager.getDnCanonicalizer().canonicalize(searchResult.getNameInNamespace());
+            if (isUser) {
+                UserNameClassPairCallbackHandler userNameClassPairCallbackHandler = new UserNameClassPairCallbackHandler(null);
+                userNameClassPairCallbackHandler.handleNameClassPair(nameClassPair);
+                LDAPUserCacheEntry userCacheEntry = userNameClassPairCallbackHandler.getCacheEntry();
+                if (userCacheEntry != null) {
+                    ldapCacheManager.cacheUser(getKey(), userCacheEntry);
+                    members.put(canonicalDn, new Member(userCacheEntry.getName(), Member.MemberType.USER));
+                }
+            } else {
+                GroupNameClassPairCallbackHandler groupNameClassPairCallbackHandler = new GroupNameClassPairCallbackHandler(null, isDynamic);
+                groupNameClassPairCallbackHandler.handleNameClassPair(nameClassPair);
+                LDAPGroupCacheEntry groupCacheEntry = groupNameClassPairCallbackHandler.getCacheEntry();
+                if (groupCacheEntry != null) {
+                    ldapCacheManager.cacheGroup(getKey(), groupCacheEntry);
+                    members.put(canonicalDn, new Member(groupCacheEntry.getName(), Member.MemberType.GROUP));
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies the changes read by the content synchronization to the cached entries. Cached entries are replaced or
+     * removed and negative entries are replaced by the added entries; the other entries are not cached and will be
+     * read when first needed. A changed group invalidates the cached memberships of its former and new members.
+     * The changes read by the Active Directory change tracker only give the DNs: the modified entries that are cached
+     * are read again, and the members of a cached group are patched with the members added and removed.
+     */
+    private class SyncListener implements LDAPSyncListener, LDAPChangeListener {
+
+        @Override
+        public void entryChanged(LDAPSyncSession session, SearchResult entry) throws NamingException {
+            if (SYNC_USERS.equals(session.getName())) {
+                userChanged(entry);
+            } else {
+                groupChanged(entry);
+            }
+        }
+
+        @Override
+        public void entryDeleted(LDAPSyncSession session, String dn) {
+            if (SYNC_USERS.equals(session.getName())) {
+                ldapCacheManager.removeUser(getKey(), dn);
+                return;
+            }
+            LDAPGroupCacheEntry previous = ldapCacheManager.getGroupCacheEntryByDn(getKey(), dn);
+            if (previous != null) {
+                invalidateMemberships(previous.getName(), previous, Collections.<String>emptyList());
+                ldapCacheManager.removeGroup(getKey(), dn);
+                groupsChanged(previous.isDynamic());
+            }
+        }
+
+        @Override
+        public void entriesPresent(LDAPSyncSession session, Set<String> dns) {
+            LDAPDnCanonicalizer dnCanonicalizer = ldapCacheManager.getDnCanonicalizer();
+            Set<String> canonicalDns = new HashSet<String>(dns.size());
+            for (String dn : dns) {
+                canonicalDns.add(dnCanonicalizer.canonicalize(dn));
+            }
+            boolean isUser = SYNC_USERS.equals(session.getName());
+            for (String cachedDn : isUser ? ldapCacheManager.getUserDns(getKey()) : ldapCacheManager.getGroupDns(getKey())) {
+                if (!canonicalDns.contains(cachedDn)) {
+                    entryDeleted(session, cachedDn);
+                }
+            }
+        }
+
+        @Override
+        public void entryModified(LDAPSyncSession session, String dn) {
+            if (SYNC_USERS.equals(session.getName())) {
+                LDAPUserCacheEntry previous = ldapCacheManager.getUserCacheEntryByDn(getKey(), dn);
+                LDAPUserCacheEntry userCacheEntry = previous != null ? getUserCacheEntryByDN(dn, false) : null;
+                if (userCacheEntry == null) {
+                    return;
+                }
+                // memberOf is not changed on the user when a group changes, the memberships stay valid
+                if (previous.getMemberships() != null) {
+                    userCacheEntry.setMemberships(previous.getMemberships(), previous.getMembershipsTimestamp());
+                }
+                if (previous.getTransitiveMemberships() != null) {
+                    userCacheEntry.setTransitiveMemberships(previous.getTransitiveMemberships(), previous.getTransitiveMembershipsTimestamp());
+                }
+                if (!previous.getName().equals(userCacheEntry.getName())) {
+                    ldapCacheManager.removeUser(getKey(), previous.getDn());
+                }
+                ldapCacheManager.cacheUser(getKey(), userCacheEntry);
+                return;
+            }
+            LDAPGroupCacheEntry previous = ldapCacheManager.getGroupCacheEntryByDn(getKey(), dn);
+            LDAPGroupCacheEntry groupCacheEntry = previous != null ? getGroupCacheEntryByDN(dn, false, previous.isDynamic()) : null;
+            if (groupCacheEntry == null) {
+                return;
+            }
+            // the members are patched or dropped by membersChanged
+            if (previous.getMemberIds() != null) {
+                groupCacheEntry.setMemberIds(previous.getMemberIds(), previous.getMembersTimestamp());
+                groupCacheEntry.setMemberPageOrder(previous.getMemberPageOrder());
+            }
+            if (previous.getOffHeapMembers() != null) {
+                groupCacheEntry.setOffHeapMembers(previous.getOffHeapMembers(), previous.getMembersTimestamp());
+            }
+            if (previous.getMemberships() != null) {
+                groupCacheEntry.setMemberships(previous.getMemberships(), previous.getMembershipsTimestamp());
+            }
+            if (previous.getTransitiveMemberships() != null) {
+                groupCacheEntry.setTransitiveMemberships(previous.getTransitiveMemberships(), previous.getTransitiveMembershipsTimestamp());
+            }
+            if (!previous.getName().equals(groupCacheEntry.getName())) {
+                ldapCacheManager.removeGroup(getKey(), previous.getDn());
+            }
+            ldapCacheManager.cacheGroup(getKey(), groupCacheEntry);
+            groupsChanged(previous.isDynamic());
+        }
+
+        @Override
+        public void membersChanged(LDAPSyncSession session, String dn, List<String> addedDns, List<String> removedDns) {
+            LDAPGroupCacheEntry previous = ldapCacheManager.getGroupCacheEntryByDn(getKey(), dn);
+            String groupName = previous != null ? previous.getName() : getGroupName(dn);
+            if (addedDns == null) {
+                // the changes are not known, the members are loaded again when first needed
+                List<String> memberDns = lookupMemberDns(dn);
+                invalidateMemberships(groupName, previous, memberDns != null ? memberDns : Collections.<String>emptyList());
+                if (previous != null) {
+                    dropMembers(previous);
+                }
+            } else {
+                List<String> changedDns = new ArrayList<String>(addedDns);
+                changedDns.addAll(removedDns);
+                invalidateMemberships(groupName, null, changedDns);
+                if (previous != null && !patchMembers(previous, addedDns, removedDns)) {
+                    dropMembers(previous);
+                }
+            }
+            groupsChanged(previous != null && previous.isDynamic());
+        }
+
+        /**
+         * Apply the members added and removed to the members cached in a group entry
+         *
+         * @return true if the members have been patched or are not cached, false if they have to be dropped
+         */
+        private boolean patchMembers(LDAPGroupCacheEntry groupCacheEntry, List<String> addedDns, List<String> removedDns) {
+            List<Member> members;
+            LDAPMemberIdRegistry memberIdRegistry = ldapCacheManager.getMemberIdRegistry(getKey());
+            if (groupCacheEntry.isDynamic()) {
+                return false;
+            } else if (groupCacheEntry.getOffHeapMembers() != null) {
+                members = groupCacheEntry.getOffHeapMembers().toMembers();
+            } else if (groupCacheEntry.getMemberIds() != null && memberIdRegistry != null) {
+                members = memberIdRegistry.getMembers(groupCacheEntry.getMemberIds());
+                if (members == null) {
+                    // ids of a previous generation of the registry, the members are loaded again
+                    return false;
+                }
+            } else {
+                return true;
+            }
+            List<Member> removedMembers = loadMembers(removedDns);
+            if (removedMembers.size() < removedDns.size()) {
+                // a removed member that cannot be read any more has an unknown name
+                return false;
+            }
+            Set<String> removedNodes = new HashSet<String>(removedMembers.size());
+            for (Member member : removedMembers) {
+                removedNodes.add(LDAPGroupGraph.node(member.getName(), member.getType() == Member.MemberType.GROUP));
+            }
+            List<Member> patchedMembers = new ArrayList<Member>(members.size() + addedDns.size());
+            for (Member member : members) {
+                if (!removedNodes.contains(LDAPGroupGraph.node(member.getName(), member.getType() == Member.MemberType.GROUP))) {
+                    patchedMembers.add(member);
+                }
+            }
+            patchedMembers.addAll(loadMembers(addedDns));
+            if (patchedMembers.isEmpty()) {
+                return false;
+            }
+            groupCacheEntry.setTransitiveMemberIds(null, 0);
+            cacheGroupMembers(groupCacheEntry, patchedMembers);
+            return true;
+        }
+
+        private void dropMembers(LDAPGroupCacheEntry groupCacheEntry) {
+            groupCacheEntry.setMemberIds(null, 0);
+            groupCacheEntry.setOffHeapMembers(null, 0);
+            groupCacheEntry.setTransitiveMemberIds(null, 0);
+            ldapCacheManager.cacheGroup(getKey(), groupCacheEntry);
+        }
+
+        /**
+         * @return the name of a group that is not cached, null if it cannot be read
+         */
+        private String getGroupName(String dn) {
+            String groupName = dnClassifier.getName(dn, false);
+            if (StringUtils.isEmpty(groupName)) {
+                LDAPGroupCacheEntry groupCacheEntry = getGroupCacheEntryByDN(dn, false, false);
+                groupName = groupCacheEntry != null ? groupCacheEntry.getName() : null;
+            }
+            return groupName;
+        }
+
+        private void userChanged(SearchResult entry) throws NamingException {
+            UserNameClassPairCallbackHandler handler = new UserNameClassPairCallbackHandler(null);
+            handler.handleNameClassPair(entry);
+            LDAPUserCacheEntry userCacheEntry = handler.getCacheEntry();
+            if (userCacheEntry == null) {
+                return;
+            }
+            LDAPUserCacheEntry previous = ldapCacheManager.getUserCacheEntryByDn(getKey(), userCacheEntry.getDn());
+            if (previous == null) {
+                LDAPUserCacheEntry negative = ldapCacheManager.getUserCacheEntryByName(getKey(), userCacheEntry.getName());
+                if (negative == null || negative.getExist() == null || negative.getExist()) {
+                    return;
+                }
+            } else {
+                if (previous.getMemberships() != null && Objects.equals(previous.getMemberOfDns(), userCacheEntry.getMemberOfDns())) {
+                    userCacheEntry.setMemberships(previous.getMemberships(), previous.getMembershipsTimestamp());
+                }
+                if (previous.getTransitiveMemberships() != null && Objects.equals(previous.getMemberOfDns(), userCacheEntry.getMemberOfDns())) {
+                    userCacheEntry.setTransitiveMemberships(previous.getTransitiveMemberships(), previous.getTransitiveMembershipsTimestamp());
+                }
+                if (!previous.getName().equals(userCacheEntry.getName())) {
+                    ldapCacheManager.removeUser(getKey(), previous.getDn());
+                }
+            }
+            ldapCacheManager.cacheUser(getKey(), userCacheEntry);
+        }
+
+        private void groupChanged(SearchResult entry) throws NamingException {
+            boolean isDynamic = groupConfig.isDynamicEnabled() && containsIgnoreCase(getStringValues(entry.getAttributes().get(OBJECTCLASS_ATTRIBUTE)),
+                    groupConfig.getDynamicSearchObjectclass());
+            GroupNameClassPairCallbackHandler handler = new GroupNameClassPairCallbackHandler(null, isDynamic);
+            handler.handleNameClassPair(entry);
+            LDAPGroupCacheEntry groupCacheEntry = handler.getCacheEntry();
+            List<String> memberDns = isDynamic ? Collections.<String>emptyList() : getStringValues(entry.getAttributes().get(groupConfig.getMembersAttribute()));
+            LDAPGroupCacheEntry previous = ldapCacheManager.getGroupCacheEntryByDn(getKey(), groupCacheEntry.getDn());
+            // cached users may be new members of the group, whether the group itself is cached or not
+            invalidateMemberships(groupCacheEntry.getName(), previous, memberDns);
+            if (previous == null) {
+                LDAPGroupCacheEntry negative = ldapCacheManager.getGroupCacheEntryName(getKey(), groupCacheEntry.getName());
+                if (negative == null || negative.getExist() == null || negative.getExist()) {
+                    groupsChanged(isDynamic);
+                    return;
+                }
+            } else {
+                if (previous.getMemberships() != null) {
+                    groupCacheEntry.setMemberships(previous.getMemberships(), previous.getMembershipsTimestamp());
+                }
+                if (previous.getTransitiveMemberships() != null) {
+                    groupCacheEntry.setTransitiveMemberships(previous.getTransitiveMemberships(), previous.getTransitiveMembershipsTimestamp());
+                }
+                if (!previous.getName().equals(groupCacheEntry.getName())) {
+                    ldapCacheManager.removeGroup(getKey(), previous.getDn());
+                }
+            }
+            // the members are loaded again when first needed
+            ldapCacheManager.cacheGroup(getKey(), groupCacheEntry);
+            groupsChanged(isDynamic);
+        }
+
+        /**
+         * @param groupName the name of the changed group, null if not known
+         * @param previous the cached entry of the group before the change, may be null
+         * @param memberDns the DNs of the members after the change
+         */
+        private void invalidateMemberships(String groupName, LDAPGroupCacheEntry previous, List<String> memberDns) {
+            if (previous != null) {
+                List<Member> previousMembers = Collections.emptyList();
+                LDAPMemberIdRegistry memberIdRegistry = ldapCacheManager.getMemberIdRegistry(getKey());
+                if (previous.getOffHeapMembers() != null) {
+                    previousMembers = previous.getOffHeapMembers().toMembers();
+                } else if (previous.getMemberIds() != null && memberIdRegistry != null) {
+                    List<Member> cachedMembers = memberIdRegistry.getMembers(previous.getMemberIds());
+                    // the members of a previous generation of the registry are not known anymore, their memberships
+                    // expire with their time to live
+                    if (cachedMembers != null) {
+                        previousMembers = cachedMembers;
+                    }
+                }
+                for (Member member : previousMembers) {
+                    invalidateMemberships(groupName, member.getType() == Member.MemberType.USER
+                            ? ldapCacheManager.getUserCacheEntryByName(getKey(), member.getName())
+                            : ldapCacheManager.getGroupCacheEntryName(getKey(), member.getName()));
+                }
+            }
+            for (String memberDn : memberDns) {
+                LDAPAbstractCacheEntry memberEntry = ldapCacheManager.getUserCacheEntryByDn(getKey(), memberDn);
+                invalidateMemberships(groupName, memberEntry != null ? memberEntry : ldapCacheManager.getGroupCacheEntryByDn(getKey(), memberDn));
+            }
+        }
+
+        private void invalidateMemberships(String groupName, LDAPAbstractCacheEntry memberEntry) {
+            if (memberEntry == null || memberEntry.getExist() == null || !memberEntry.getExist()) {
+                return;
+            }
+            if (groupName != null && memberEntry instanceof LDAPUserCacheEntry) {
+                ldapCacheManager.removeMembershipTest(getKey(), groupName, memberEntry.getName());
+            }
+            if (memberEntry.getMemberships() != null || memberEntry.getTransitiveMemberships() != null) {
+                memberEntry.setMemberships(null, 0);
+                memberEntry.setTransitiveMemberships(null, 0);
+                if (memberEntry instanceof LDAPUserCacheEntry) {
+                    ldapCacheManager.cacheUser(getKey(), (LDAPUserCacheEntry) memberEntry);
+                } else {
+                    ldapCacheManager.cacheGroup(getKey(), (LDAPGroupCacheEntry) memberEntry);
+                }
+            }
         }
 
-        private GroupNameClassPairCallbackHandler(LDAPGroupCacheEntry cacheEntry, boolean isDynamic) {
-            this.cacheEntry = cacheEntry;
-            this.isDynamic = isDynamic;
+        private void groupsChanged(boolean isDynamic) {
+            LDAPGroupGraph groupGraph = ldapCacheManager.getGroupGraph(getKey());
+            if (groupGraph != null) {
+                groupGraph.clear();
+            }
+            if (isDynamic) {
+                dynamicGroupFilters = null;
+            }
         }
 
-        @Override
-        public void handleNameClassPair(NameClassPair nameClassPair) throws NamingException {
-            if (nameClassPair instanceof SearchResult) {
-                SearchResult searchResult = (SearchResult) nameClassPair;
-                cacheEntry = attributesToGroupCacheEntry(searchResult.getAttributes(), cacheEntry);
-                cacheEntry.setDynamic(isDynamic);
-                if (isDynamic && searchResult.getAttributes().get(groupConfig.getDynamicMembersAttribute()) != null) {
-                    cacheEntry.setDynamicMembersURL(searchResult.getAttributes().get(groupConfig.getDynamicMembersAttribute()).get().toString());
+        private boolean containsIgnoreCase(List<String> values, String value) {
+            for (String v : values) {
+                if (v.equalsIgnoreCase(value)) {
+                    return true;
                 }
-                cacheEntry.setDn(searchResult.getNameInNamespace());
-            } else {
-                logger.error("Unexpected NameClassPair " + nameClassPair + " in " + getClass().getName());
             }
+            return false;
         }
     }
 
     /**
-     * Callback handler for users, retrieve the list of usernames
+     * A group read by the preload scan, with the DNs of its members
      */
-    private class UsersNameClassPairCallbackHandler implements NameClassPairCallbackHandler {
+    private static class ScannedGroup {
+        private final LDAPGroupCacheEntry cacheEntry;
+        private final List<String> memberDns;
 
-        private List<String> names = new ArrayList<String>();
+        private ScannedGroup(LDAPGroupCacheEntry cacheEntry, List<String> memberDns) {
+            this.cacheEntry = cacheEntry;
+            this.memberDns = memberDns;
+        }
+    }
 
-        public List<String> getNames() {
-            return names;
+    /**
+     * Gives the entries of a preload scan to the handler of the base and keeps the last one, to checkpoint the scan.
+     * A scan resumed from a checkpoint first returns the entry of the checkpoint again, it is not handled twice; if the
+     * first entry returned is another one, no entry is handled.
+     */
+    private class PreloadScanHandler implements NameClassPairCallbackHandler {
+        private final NameClassPairCallbackHandler handler;
+        private final String sortAttribute;
+        private String resumedDn;
+        private boolean resumeRefused;
+        private String lastDn;
+        private String lastValue;
+
+        private PreloadScanHandler(NameClassPairCallbackHandler handler, String sortAttribute, LDAPPreloadCheckpoint.Position position) {
+            this.handler = handler;
+            this.sortAttribute = sortAttribute;
+            this.resumedDn = position != null ? ldapCacheManager.getDnCanonicalizer().canonicalize(position.getDn()) : null;
         }
 
         @Override
         public void handleNameClassPair(NameClassPair nameClassPair) throws NamingException {
-            if (nameClassPair instanceof SearchResult) {
-                SearchResult searchResult = (SearchResult) nameClassPair;
-                LDAPUserCacheEntry cacheEntry = ldapCacheManager.getUserCacheEntryByDn(getKey(), searchResult.getNameInNamespace());
-                if (cacheEntry == null || cacheEntry.getExist() ==  null || !cacheEntry.getExist()) {
-                    UserNameClassPairCallbackHandler nameClassPairCallbackHandler = new UserNameClassPairCallbackHandler(cacheEntry);
-                    nameClassPairCallbackHandler.handleNameClassPair(nameClassPair);
-                    cacheEntry = nameClassPairCallbackHandler.getCacheEntry();
-                    if (cacheEntry != null) {
-                        ldapCacheManager.cacheUser(getKey(), cacheEntry);
-                    }
-                }
-                if (cacheEntry != null) {
-                    names.add(cacheEntry.getName());
+            if (resumeRefused) {
+                return;
+            }
+            String dn = nameClassPair.getNameInNamespace();
+            if (resumedDn != null) {
+                resumeRefused = !resumedDn.equals(ldapCacheManager.getDnCanonicalizer().canonicalize(dn));
+                resumedDn = null;
+                if (resumeRefused) {
+                    return;
                 }
             } else {
-                logger.error("Unexpected NameClassPair " + nameClassPair + " in " + getClass().getName());
+                handler.handleNameClassPair(nameClassPair);
+            }
+            Attribute sortValues = nameClassPair instanceof SearchResult && sortAttribute != null
+                    ? ((SearchResult) nameClassPair).getAttributes().get(sortAttribute) : null;
+            // an entry is sorted on the lowest of its values, the checkpoint stays on the previous entry if it has several
+            if (sortValues != null && sortValues.size() == 1) {
+                lastDn = dn;
+                lastValue = sortValues.get().toString();
             }
         }
-    }
-
-    /**
-     * Callback handler for groups, retrieve the list of groupnames
-     */
-    private class GroupsNameClassPairCallbackHandler implements NameClassPairCallbackHandler {
 
-        private List<String> names = new LinkedList<>();
-        private boolean isDynamic;
+        /**
+         * @return true if the first entry returned is not the one of the checkpoint, a search that failed before
+         * returning any entry is not refused and is resumed again
+         */
+        private boolean isResumeRefused() {
+            return resumeRefused;
+        }
 
-        public List<String> getNames() {
-            return names;
+        private String getLastDn() {
+            return lastDn;
         }
 
-        private GroupsNameClassPairCallbackHandler(boolean isDynamic) {
-            this.isDynamic = isDynamic;
+        private String getLastValue() {
+            return lastValue;
         }
+    }
 
-        @Override
-        public void handleNameClassPair(NameClassPair nameClassPair) throws NamingException {
-            if (nameClassPair instanceof SearchResult) {
-                SearchResult searchResult = (SearchResult) nameClassPair;
-                LDAPGroupCacheEntry cacheEntry = ldapCacheManager.getGroupCacheEntryByDn(getKey(), searchResult.getNameInNamespace());
-                if (cacheEntry == null || cacheEntry.getExist() == null || !cacheEntry.getExist().booleanValue()) {
-                    GroupNameClassPairCallbackHandler nameClassPairCallbackHandler = new GroupNameClassPairCallbackHandler(cacheEntry, isDynamic);
-                    nameClassPairCallbackHandler.handleNameClassPair(nameClassPair);
-                    cacheEntry = nameClassPairCallbackHandler.getCacheEntry();
-                    if (cacheEntry != null) {
-                        ldapCacheManager.cacheGroup(getKey(), cacheEntry);
-                    }
+    /**
+     * One range of values of the members attribute, as returned for <code>member;range=start-end</code>
+     */
+    private static class MembersRange {
+        private NamingEnumeration<?> values;
+        private int end;
+        private boolean last = true;
+
+        private static MembersRange of(Attributes attributes, String membersAttribute) throws NamingException {
+            MembersRange range = new MembersRange();
+            NamingEnumeration<? extends Attribute> all = attributes.getAll();
+            while (all.hasMore()) {
+                Attribute attribute = all.next();
+                String id = attribute.getID().toLowerCase();
+                if (!id.startsWith(membersAttribute.toLowerCase())) {
+                    continue;
                 }
-                if (cacheEntry != null) {
-                    names.add(cacheEntry.getName());
+                range.values = attribute.getAll();
+                // the returned id is member;range=start-end, or member;range=start-* for the last range
+                int rangeIndex = id.indexOf(";range=");
+                if (rangeIndex >= 0) {
+                    String end = StringUtils.substringAfter(id.substring(rangeIndex), "-");
+                    if (!"*".equals(end)) {
+                        range.end = Integer.parseInt(end);
+                        range.last = false;
+                    }
                 }
-            } else {
-                logger.error("Unexpected NameClassPair " + nameClassPair + " in " + getClass().getName());
             }
+            return range;
         }
     }
 
+    private static class DynamicGroupFilters {
+        private final long timestamp = System.currentTimeMillis();
+        private final List<LDAPDynamicGroupFilter> filters = new ArrayList<LDAPDynamicGroupFilter>();
+        private final Set<String> attributeIds = new HashSet<String>();
+    }
+
     /**
      * Calback handler for dynamic members, retrieve the list of members
      */
@@ -996,7 +3141,7 @@ public class LDAPUserGroupProvider extends BaseUserGroupProvider {
                 SearchResult searchResult = (SearchResult) nameClassPair;
 
                 // try to know if we deal with a group or a user
-                Boolean isUser = guessUserOrGroupFromDN(searchResult.getNameInNamespace());
+                Boolean isUser = dnClassifier.isUser(searchResult.getNameInNamespace());
 
                 // try to retrieve the object from the cache
                 LDAPAbstractCacheEntry cacheEntry;
@@ -1120,6 +3265,18 @@ public class LDAPUserGroupProvider extends BaseUserGroupProvider {
         }
         userCacheEntry.setExist(true);
         userCacheEntry.setUser(jahiaUser);
+        if (StringUtils.isNotEmpty(userConfig.getMemberofAttribute())) {
+            userCacheEntry.setMemberOfDns(getStringValues(attrs.get(userConfig.getMemberofAttribute())));
+        }
+        Set<String> filterAttributeIds = getFilterAttributeIds();
+        if (!filterAttributeIds.isEmpty()) {
+            Map<String, List<String>> filterAttributes = new HashMap<String, List<String>>();
+            for (String attributeId : filterAttributeIds) {
+                filterAttributes.put(attributeId, getStringValues(attrs.get(attributeId)));
+            }
+            userCacheEntry.setFilterAttributes(filterAttributes);
+        }
+        userCacheEntry.setLoadTimestamp(System.currentTimeMillis());
         return userCacheEntry;
     }
 
@@ -1140,9 +3297,29 @@ public class LDAPUserGroupProvider extends BaseUserGroupProvider {
         }
         groupCacheEntry.setExist(true);
         groupCacheEntry.setGroup(jahiaGroup);
+        groupCacheEntry.setLoadTimestamp(System.currentTimeMillis());
         return groupCacheEntry;
     }
 
+    /**
+     * @param attribute an attribute, may be null
+     * @return the string values of the attribute, empty if the attribute is null
+     * @throws NamingException
+     */
+    private static List<String> getStringValues(Attribute attribute) throws NamingException {
+        List<String> values = new ArrayList<String>();
+        if (attribute != null) {
+            NamingEnumeration<?> all = attribute.getAll();
+            while (all.hasMore()) {
+                Object value = all.next();
+                if (value instanceof String) {
+                    values.add((String) value);
+                }
+            }
+        }
+        return values;
+    }
+
     /**
      * Map ldap attributes to jahia properties
      *
@@ -1400,26 +3577,6 @@ public class LDAPUserGroupProvider extends BaseUserGroupProvider {
         return p;
     }
 
-    /**
-     * Try to guess if the given dn is a user or a group
-     *
-     * @param dn
-     * @return
-     * @throws InvalidNameException
-     */
-    private Boolean guessUserOrGroupFromDN(String dn) throws InvalidNameException {
-        Boolean isUser = null;
-        final LdapName memberLdapName = LdapUtils.newLdapName(dn);
-        if (memberLdapName.startsWith(new LdapName(userConfig.getUidSearchName()))) {
-            // it's a user
-            isUser = distinctBase ? true : null;
-        } else if (memberLdapName.startsWith(new LdapName(groupConfig.getSearchName()))) {
-            // it's a group
-            isUser = distinctBase ? false : null;
-        }
-        return isUser;
-    }
-
     /**
      * get user ldap attributes that need to be return from the ldap
      *
@@ -1428,6 +3585,12 @@ public class LDAPUserGroupProvider extends BaseUserGroupProvider {
     private List<String> getUserAttributes() {
         List<String> attrs = new ArrayList<String>(userConfig.getAttributesMapper().values());
         attrs.add(userConfig.getUidSearchAttribute());
+        if (StringUtils.isNotEmpty(userConfig.getMemberofAttribute())) {
+            attrs.add(userConfig.getMemberofAttribute());
+        }
+        // read with the entry so that the member URLs of the dynamic groups are evaluated from the cache, the entries
+        // read before the filters are compiled ask the LDAP for the members
+        attrs.addAll(getFilterAttributeIds());
         return attrs;
     }
 
@@ -1494,6 +3657,515 @@ public class LDAPUserGroupProvider extends BaseUserGroupProvider {
         this.maxLdapTimeoutCountBeforeDisconnect = maxLdapTimeoutCountBeforeDisconnect;
     }
 
+    /**
+     * Start the preload of the cache in background. The preload is cancelled when the provider is unregistered, its
+     * progress is exposed by the JMX statistics of the provider. A preload started again after a cancellation or a
+     * failure resumes where the previous one stopped, as long as the provider has not been registered again.
+     */
+    public synchronized void startPreload() {
+        final LDAPPreloadProgress progress = new LDAPPreloadProgress(lastPreloadEntryCount);
+        final LDAPPreloadCheckpoint checkpoint = preloadCheckpoint;
+        final Thread previousThread = preloadThread;
+        LDAPPreloadProgress previous = preloadProgress;
+        if (previous != null) {
+            previous.cancel();
+        }
+        preloadProgress = progress;
+        if (statistics != null) {
+            statistics.setPreloadProgress(progress);
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (previousThread != null) {
+                        // the checkpoint is updated by one preload at a time
+                        previousThread.join();
+                    }
+                    preload(progress, checkpoint);
+                } catch (InterruptedException e) {
+                    progress.end(LDAPPreloadProgress.State.CANCELLED);
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    progress.end(LDAPPreloadProgress.State.FAILED);
+                    logger.error("Preload of provider " + getKey() + " failed", e);
+                }
+            }
+        }, "LDAP Preload " + getKey());
+        thread.setDaemon(true);
+        preloadThread = thread;
+        thread.start();
+    }
+
+    /**
+     * Load the users and groups of the bases in the cache with one paged scan of each base, run in parallel. The
+     * members of the groups are then resolved in parallel from the scanned entries, only the members outside of the
+     * bases are looked up. The groups whose members cannot be read with the scan, dynamic groups or groups returning
+     * their members by range, are loaded as usual.
+     * A scan stopped by a previous preload resumes after the last entry it read, the groups it read whose members are
+     * not loaded yet are loaded as usual. A base whose whole content has been read is not scanned again while its
+     * synchronization keeps the cached entries up to date.
+     *
+     * @param progress the progress of the preload, checked for cancellation after each page and each group
+     * @param checkpoint where the previous preloads stopped, updated after each page and each group
+     */
+    private void preload(final LDAPPreloadProgress progress, final LDAPPreloadCheckpoint checkpoint) {
+        long startTime = System.currentTimeMillis();
+        final LDAPDnCanonicalizer dnCanonicalizer = ldapCacheManager.getDnCanonicalizer();
+        final Map<String, Member> membersByDn = new ConcurrentHashMap<String, Member>();
+        // by canonical DN, a page read again after a failure does not add the group twice
+        final Map<String, ScannedGroup> scannedGroups = new ConcurrentHashMap<String, ScannedGroup>();
+        final Set<String> otherGroups = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final Set<String> pendingGroups = checkpoint.getPendingGroups();
+        final AtomicInteger userCount = new AtomicInteger();
+        // the entry count of a preload reading the whole bases estimates the duration of the next one
+        final AtomicBoolean wholeBasesRead = new AtomicBoolean(true);
+        LdapParallelExecutor executor = new LdapParallelExecutor(getKey(), getLdapParallelism(groupConfig.getPreloadThreads()));
+        try {
+            List<Callable<Boolean>> scans = new ArrayList<Callable<Boolean>>();
+            if (isPreloadScanNeeded(PRELOAD_USERS, SYNC_USERS, userConfig, checkpoint)) {
+                scans.add(new Callable<Boolean>() {
+
+                    @Override
+                    public Boolean call() {
+                        List<String> userAttrs = getUserAttributes();
+                        ContainerCriteria query = applyPredefinedUserFilter(query().base(userConfig.getUidSearchName())
+                                .attributes(userAttrs.toArray(new String[userAttrs.size()]))
+                                .where(OBJECTCLASS_ATTRIBUTE).is(userConfig.getSearchObjectclass()), false);
+                        return scan(PRELOAD_USERS, query, userConfig.getUidSearchAttribute(), userConfig.getCacheTtl(), checkpoint, progress,
+                                wholeBasesRead, new NameClassPairCallbackHandler() {
+
+                            @Override
+                            public void handleNameClassPair(NameClassPair nameClassPair) throws NamingException {
+                                progress.entryScanned();
+                                UserNameClassPairCallbackHandler handler = new UserNameClassPairCallbackHandler(null);
+                                handler.handleNameClassPair(nameClassPair);
+                                LDAPUserCacheEntry userCacheEntry = handler.getCacheEntry();
+                                if (userCacheEntry != null) {
+                                    ldapCacheManager.cacheUser(getKey(), userCacheEntry);
+                                    membersByDn.put(dnCanonicalizer.canonicalize(userCacheEntry.getDn()), new Member(userCacheEntry.getName(), Member.MemberType.USER));
+                                    userCount.incrementAndGet();
+                                }
+                            }
+                        });
+                    }
+                });
+            } else {
+                wholeBasesRead.set(false);
+            }
+            for (final boolean isDynamic : groupConfig.isDynamicEnabled() ? new boolean[]{false, true} : new boolean[]{false}) {
+                final String scanName = isDynamic ? PRELOAD_DYNAMIC_GROUPS : PRELOAD_GROUPS;
+                if (!isPreloadScanNeeded(scanName, SYNC_GROUPS, groupConfig, checkpoint)) {
+                    wholeBasesRead.set(false);
+                    continue;
+                }
+                scans.add(new Callable<Boolean>() {
+
+                    @Override
+                    public Boolean call() {
+                        Set<String> groupAttrs = new LinkedHashSet<String>(getGroupAttributes(isDynamic));
+                        if (!isDynamic) {
+                            groupAttrs.add(groupConfig.getMembersAttribute());
+                        }
+                        ContainerCriteria query = applyPredefinedGroupFilter(query().base(groupConfig.getSearchName())
+                                .attributes(groupAttrs.toArray(new String[groupAttrs.size()]))
+                                .where(OBJECTCLASS_ATTRIBUTE).is(isDynamic ? groupConfig.getDynamicSearchObjectclass() : groupConfig.getSearchObjectclass()));
+                        return scan(scanName, query, groupConfig.getSearchAttribute(), groupConfig.getCacheTtl(), checkpoint, progress,
+                                wholeBasesRead, new NameClassPairCallbackHandler() {
+
+                            @Override
+                            public void handleNameClassPair(NameClassPair nameClassPair) throws NamingException {
+                                progress.entryScanned();
+                                GroupNameClassPairCallbackHandler handler = new GroupNameClassPairCallbackHandler(null, isDynamic);
+                                handler.handleNameClassPair(nameClassPair);
+                                LDAPGroupCacheEntry groupCacheEntry = handler.getCacheEntry();
+                                if (groupCacheEntry == null) {
+                                    return;
+                                }
+                                ldapCacheManager.cacheGroup(getKey(), groupCacheEntry);
+                                checkpoint.groupScanned(groupCacheEntry.getName());
+                                String canonicalDn = dnCanonicalizer.canonicalize(groupCacheEntry.getDn());
+                                membersByDn.put(canonicalDn, new Member(groupCacheEntry.getName(), Member.MemberType.GROUP));
+                                Attributes attributes = ((SearchResult) nameClassPair).getAttributes();
+                                Attribute members = attributes.get(groupConfig.getMembersAttribute());
+                                if (isDynamic || (members == null && hasMembersRange(attributes))) {
+                                    otherGroups.add(groupCacheEntry.getName());
+                                } else {
+                                    scannedGroups.put(canonicalDn, new ScannedGroup(groupCacheEntry, getStringValues(members)));
+                                }
+                            }
+                        });
+                    }
+                });
+            }
+            if (scans.isEmpty() && pendingGroups.isEmpty()) {
+                progress.end(LDAPPreloadProgress.State.SKIPPED);
+                logger.info("Preload of provider {} skipped, the entries of the previous preload are kept up to date by the synchronization", getKey());
+                return;
+            }
+            List<Boolean> scanResults = executor.invokeAll(scans);
+            if (progress.isCancelled()) {
+                progress.end(LDAPPreloadProgress.State.CANCELLED);
+                logger.info("Preload of provider {} cancelled after {} entries", getKey(), progress.getScannedEntryCount());
+                return;
+            }
+            boolean complete = !scanResults.contains(null);
+            if (!complete) {
+                logger.warn("Preload of provider {} incomplete, a scan failed", getKey());
+            }
+            long scanTime = System.currentTimeMillis() - startTime;
+
+            // groups read by a previous preload and not scanned again are loaded as usual
+            for (ScannedGroup group : scannedGroups.values()) {
+                pendingGroups.remove(group.cacheEntry.getName());
+            }
+            otherGroups.addAll(pendingGroups);
+            progress.startResolution(scannedGroups.size() + otherGroups.size());
+            List<Callable<Boolean>> resolutions = new ArrayList<Callable<Boolean>>();
+            for (final List<ScannedGroup> groups : Lists.partition(new ArrayList<ScannedGroup>(scannedGroups.values()), PRELOAD_GROUPS_PER_TASK)) {
+                resolutions.add(new Callable<Boolean>() {
+
+                    @Override
+                    public Boolean call() {
+                        for (ScannedGroup group : groups) {
+                            if (progress.isCancelled()) {
+                                return false;
+                            }
+                            List<String> pageDns = getPageDns(group.memberDns);
+                            List<Member> pageMembers = new ArrayList<Member>(pageDns.size());
+                            Map<Integer, String> otherMemberDns = new LinkedHashMap<Integer, String>();
+                            for (String memberDn : pageDns) {
+                                Member member = membersByDn.get(dnCanonicalizer.canonicalize(memberDn));
+                                if (member == null) {
+                                    otherMemberDns.put(pageMembers.size(), memberDn);
+                                }
+                                pageMembers.add(member);
+                            }
+                            if (!otherMemberDns.isEmpty()) {
+                                List<Member> otherMembers = resolveMemberDns(new ArrayList<String>(otherMemberDns.values()));
+                                int index = 0;
+                                for (Integer position : otherMemberDns.keySet()) {
+                                    pageMembers.set(position, otherMembers.get(index++));
+                                }
+                            }
+                            List<Member> members = new ArrayList<Member>(pageMembers);
+                            members.removeAll(Collections.singleton(null));
+                            cacheGroupMembers(group.cacheEntry, members, pageMembers);
+                            checkpoint.groupResolved(group.cacheEntry.getName());
+                            progress.groupResolved();
+                        }
+                        return true;
+                    }
+                });
+            }
+            for (final List<String> groupNames : Lists.partition(new ArrayList<String>(otherGroups), PRELOAD_GROUPS_PER_TASK)) {
+                resolutions.add(new Callable<Boolean>() {
+
+                    @Override
+                    public Boolean call() {
+                        for (String groupName : groupNames) {
+                            if (progress.isCancelled()) {
+                                return false;
+                            }
+                            getGroupMembers(groupName);
+                            checkpoint.groupResolved(groupName);
+                            progress.groupResolved();
+                        }
+                        return true;
+                    }
+                });
+            }
+            executor.invokeAll(resolutions);
+            if (progress.isCancelled()) {
+                progress.end(LDAPPreloadProgress.State.CANCELLED);
+                logger.info("Preload of provider {} cancelled after {} groups", getKey(), progress.getResolvedGroupCount());
+                return;
+            }
+            progress.end(complete ? LDAPPreloadProgress.State.DONE : LDAPPreloadProgress.State.FAILED);
+            if (complete && wholeBasesRead.get()) {
+                lastPreloadEntryCount = progress.getScannedEntryCount();
+            }
+            logger.info("Preload of provider {}: {} users and {} groups in {} ms, {} ms to scan the bases", new Object[]{
+                    getKey(), userCount.get(), scannedGroups.size() + otherGroups.size(), System.currentTimeMillis() - startTime, scanTime});
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * A base whose whole content has been read by a previous preload is only skipped while its entries may still be
+     * cached and its synchronization is running
+     *
+     * @param scanName identifies the scanned base
+     * @param syncSession the name of the synchronization session of the base
+     * @param config the configuration of the base
+     * @param checkpoint where the previous preloads stopped
+     * @return true if the base has to be scanned
+     */
+    private boolean isPreloadScanNeeded(String scanName, String syncSession, AbstractConfig config, LDAPPreloadCheckpoint checkpoint) {
+        if (!checkpoint.isComplete(scanName, config.getCacheTtl())) {
+            return true;
+        }
+        if ((syncClient == null || !syncClient.isRunning(syncSession)) && (dirSyncClient == null || !dirSyncClient.isRunning(syncSession))
+                && (timestampSyncClient == null || !timestampSyncClient.isRunning(syncSession))) {
+            logger.info("Preload of provider {} reads the {} again, they are not synchronized", getKey(), scanName);
+            return true;
+        }
+        logger.info("Preload of provider {} skips the {}, they have been read by the previous preload and are kept up to date by the synchronization",
+                getKey(), scanName);
+        return false;
+    }
+
+    /**
+     * Run a paged search of a whole base for the preload. When the server sorts the entries on the sort attribute,
+     * the last entry handled is kept in the checkpoint after each page: after an error, or when the preload is started
+     * again, the search resumes from this entry on a new connection. The entry has to be the first one returned again,
+     * else the search starts over from the beginning of the base. When the entries are not sorted a failed search
+     * starts over from the beginning, the paged results cookie being only valid on the connection that returned it.
+     *
+     * @param scanName identifies the scanned base in the checkpoint
+     * @param sortAttribute the attribute to sort the entries on, the naming attribute of the base
+     * @param cacheTtl the time to live of the cached entries, in seconds, the checkpoint of an older scan is not used
+     * @param wholeBaseRead set to false when the search resumes a previous preload
+     * @return true if all the pages have been read, false if cancelled, null on error
+     */
+    private Boolean scan(final String scanName, final ContainerCriteria query, final String sortAttribute, int cacheTtl,
+                         final LDAPPreloadCheckpoint checkpoint, final LDAPPreloadProgress progress, AtomicBoolean wholeBaseRead,
+                         final NameClassPairCallbackHandler handler) {
+        final SearchControls searchControls = getSearchControls(query);
+        final int pageSize = Math.max(groupConfig.getPreloadPageSize(), 1);
+        final boolean[] sorted = new boolean[]{StringUtils.isNotEmpty(sortAttribute) && isControlSupported(SortControl.OID)};
+        LDAPPreloadCheckpoint.Position position = sorted[0] ? checkpoint.getPosition(scanName, cacheTtl) : null;
+        if (position != null) {
+            wholeBaseRead.set(false);
+            logger.info("Preload scan of {} on provider {} resumes after {}", new Object[]{query.base(), getKey(), position.getDn()});
+        } else {
+            checkpoint.start(scanName);
+        }
+        final PagedResultsCookie[] cookie = new PagedResultsCookie[1];
+        for (int attempt = 1; ; attempt++) {
+            final String filter = position != null ? new AndFilter().and(query.filter())
+                    .and(new GreaterThanOrEqualsFilter(sortAttribute, position.getValue())).encode() : query.filter().encode();
+            final PreloadScanHandler scanHandler = new PreloadScanHandler(handler, sortAttribute, position);
+            Boolean complete = ldapTemplateWrapper.execute(new BaseLdapActionCallback<Boolean>(getExternalUserGroupService(), getKey()) {
+
+                @Override
+                public Boolean doInLdap(LdapTemplate ldapTemplate) {
+                    return SingleContextSource.doWithSingleContext(ldapTemplate.getContextSource(), new LdapOperationsCallback<Boolean>() {
+
+                        @Override
+                        public Boolean doWithLdapOperations(LdapOperations operations) {
+                            try {
+                                do {
+                                    if (progress.isCancelled()) {
+                                        if (cookie[0] != null && cookie[0].getCookie() != null) {
+                                            abandonPagedSearch(operations, query, filter, searchControls, handler, cookie[0]);
+                                        }
+                                        return false;
+                                    }
+                                    PagedResultsDirContextProcessor pagedProcessor = new PagedResultsDirContextProcessor(pageSize, cookie[0]);
+                                    SortControlDirContextProcessor sortProcessor = null;
+                                    DirContextProcessor processor = pagedProcessor;
+                                    if (sorted[0]) {
+                                        // not critical, the server may return the entries unsorted
+                                        sortProcessor = new SortControlDirContextProcessor(sortAttribute);
+                                        sortProcessor.setCritical(false);
+                                        AggregateDirContextProcessor aggregateProcessor = new AggregateDirContextProcessor();
+                                        aggregateProcessor.addDirContextProcessor(sortProcessor);
+                                        aggregateProcessor.addDirContextProcessor(pagedProcessor);
+                                        processor = aggregateProcessor;
+                                    }
+                                    operations.search(query.base(), filter, searchControls, scanHandler, processor);
+                                    cookie[0] = pagedProcessor.getCookie();
+                                    if (scanHandler.isResumeRefused()) {
+                                        if (cookie[0] != null && cookie[0].getCookie() != null) {
+                                            abandonPagedSearch(operations, query, filter, searchControls, handler, cookie[0]);
+                                        }
+                                        return null;
+                                    }
+                                    if (sortProcessor != null && !sortProcessor.isSorted()) {
+                                        sorted[0] = false;
+                                        checkpoint.clearPosition(scanName);
+                                        logger.info("Entries of {} not sorted by {} on provider {}, the preload scan cannot be resumed from the last entry read",
+                                                new Object[]{query.base(), sortAttribute, getKey()});
+                                    } else if (sorted[0] && scanHandler.getLastDn() != null) {
+                                        checkpoint.setPosition(scanName, scanHandler.getLastDn(), scanHandler.getLastValue());
+                                    }
+                                } while (cookie[0] != null && cookie[0].getCookie() != null);
+                                return true;
+                            } finally {
+                                resetRequestControls(operations);
+                            }
+                        }
+                    });
+                }
+            });
+            if (Boolean.TRUE.equals(complete)) {
+                checkpoint.complete(scanName);
+            }
+            if (scanHandler.isResumeRefused()) {
+                // the entries are not returned in the order of the checkpoint, nothing has been handled
+                logger.info("Preload scan of {} on provider {} cannot resume after {}, it is not the first entry returned, the scan restarts from the beginning",
+                        new Object[]{query.base(), getKey(), position.getDn()});
+                position = null;
+                cookie[0] = null;
+                checkpoint.start(scanName);
+                attempt--;
+                continue;
+            }
+            if (complete != null || progress.isCancelled() || attempt >= PRELOAD_SCAN_ATTEMPTS) {
+                return complete;
+            }
+            String resumption;
+            LDAPPreloadCheckpoint.Position checkpointPosition = sorted[0] ? checkpoint.getPosition(scanName, cacheTtl) : null;
+            if (checkpointPosition != null) {
+                position = checkpointPosition;
+                // the cookie is not valid on another connection, the search resumes from the entry
+                cookie[0] = null;
+                resumption = "resumes after " + position.getDn();
+            } else {
+                // the cookie is not valid on another connection either, the search starts over
+                position = null;
+                cookie[0] = null;
+                checkpoint.start(scanName);
+                resumption = "restarts from the beginning";
+            }
+            logger.info("Preload scan of {} on provider {} failed, attempt {} {}", new Object[]{query.base(), getKey(), attempt + 1, resumption});
+        }
+    }
+
+    /**
+     * @param attributes the attributes of a group
+     * @return true if the members attribute has been returned by range (Active Directory range retrieval)
+     */
+    private boolean hasMembersRange(Attributes attributes) throws NamingException {
+        String rangePrefix = groupConfig.getMembersAttribute().toLowerCase() + ";range=";
+        NamingEnumeration<String> ids = attributes.getIDs();
+        while (ids.hasMore()) {
+            if (ids.next().toLowerCase().startsWith(rangePrefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void register() {
+        memberBatchResolutionDisabled = false;
+        memberBatchResolutionVerified = false;
+        supportedControls = null;
+        virtualListViewDisabled = false;
+        dynamicGroupFilters = null;
+        dnClassifier = new LDAPDnClassifier(ldapCacheManager.getDnCanonicalizer(), userConfig.getUidSearchName(), groupConfig.getSearchName(),
+                distinctBase, userConfig.getUidSearchAttribute(), groupConfig.getSearchAttribute());
+        ldapCacheManager.registerProvider(getKey(), userConfig, groupConfig);
+        // the caches are new, a preload starts over
+        preloadCheckpoint = new LDAPPreloadCheckpoint();
+        cacheRefresher = new LDAPCacheRefresher(getKey());
+        memberResolutionExecutor = new LdapParallelExecutor(getKey(), getLdapParallelism(groupConfig.getMembersResolutionThreads()));
+        startSync();
+        super.register();
+        statistics = new LDAPUserGroupProviderStatistics(this, loadCoalescer, cacheRefresher,
+                ldapCacheManager.getMemberIdRegistry(getKey()), ldapCacheManager.getGroupGraph(getKey()), ldapCacheManager.getOffHeapBudget(getKey()));
+        statistics.setPreloadProgress(preloadProgress);
+        statistics.register();
+    }
+
+    @Override
+    public void unregister() {
+        if (preloadProgress != null) {
+            preloadProgress.cancel();
+        }
+        if (statistics != null) {
+            statistics.unregister();
+            statistics = null;
+        }
+        if (cacheRefresher != null) {
+            cacheRefresher.shutdown();
+            cacheRefresher = null;
+        }
+        if (syncClient != null) {
+            syncClient.shutdown();
+            syncClient = null;
+        }
+        if (dirSyncClient != null) {
+            dirSyncClient.shutdown();
+            dirSyncClient = null;
+        }
+        if (timestampSyncClient != null) {
+            timestampSyncClient.shutdown();
+            timestampSyncClient = null;
+        }
+        if (memberResolutionExecutor != null) {
+            memberResolutionExecutor.shutdown();
+            memberResolutionExecutor = null;
+        }
+        super.unregister();
+        ldapCacheManager.unregisterProvider(getKey());
+    }
+
+    /**
+     * Start the synchronization of the users and of the groups, when configured
+     */
+    private void startSync() {
+        if (userConfig.getSyncInterval() <= 0 && groupConfig.getSyncInterval() <= 0) {
+            return;
+        }
+        LDAPSyncCookieStore cookieStore = new LDAPSyncCookieStore(new File(SettingsBean.getInstance().getJahiaVarDiskPath(), "ldap-sync"));
+        SyncListener listener = new SyncListener();
+        if (userConfig.getSyncInterval() > 0) {
+            List<String> userAttrs = getUserAttributes();
+            String filter = applyPredefinedUserFilter(query().where(OBJECTCLASS_ATTRIBUTE).is(userConfig.getSearchObjectclass()), false).filter().encode();
+            startSync(userConfig, new LDAPSyncSession(SYNC_USERS, userConfig.getUidSearchName(), filter,
+                    userAttrs.toArray(new String[userAttrs.size()]), userConfig.getSyncInterval()), cookieStore, listener);
+        }
+        if (groupConfig.getSyncInterval() > 0) {
+            Set<String> groupAttrs = new LinkedHashSet<String>(getGroupAttributes(groupConfig.isDynamicEnabled()));
+            groupAttrs.add(OBJECTCLASS_ATTRIBUTE);
+            groupAttrs.add(groupConfig.getMembersAttribute());
+            ContainerCriteria objectclassCriteria = query().where(OBJECTCLASS_ATTRIBUTE).is(groupConfig.getSearchObjectclass());
+            if (groupConfig.isDynamicEnabled()) {
+                objectclassCriteria.or(OBJECTCLASS_ATTRIBUTE).is(groupConfig.getDynamicSearchObjectclass());
+            }
+            String filter = applyPredefinedGroupFilter(query().where(groupConfig.getSearchAttribute()).isPresent().and(objectclassCriteria)).filter().encode();
+            startSync(groupConfig, new LDAPSyncSession(SYNC_GROUPS, groupConfig.getSearchName(), filter,
+                    groupAttrs.toArray(new String[groupAttrs.size()]), groupConfig.getSyncInterval(), groupConfig.getMembersAttribute()), cookieStore, listener);
+        }
+    }
+
+    /**
+     * Start a session with the client of the synchronization mode of its configuration
+     */
+    private void startSync(AbstractConfig config, LDAPSyncSession session, LDAPSyncCookieStore cookieStore, SyncListener listener) {
+        if (AbstractConfig.SYNC_MODE_AD.equals(config.getSyncMode())) {
+            if (dirSyncClient == null) {
+                dirSyncClient = new LDAPDirSyncClient(getKey(), ldapTemplateWrapper, cookieStore, listener);
+            }
+            dirSyncClient.start(session);
+        } else if (AbstractConfig.SYNC_MODE_TIMESTAMP.equals(config.getSyncMode())) {
+            if (timestampSyncClient == null) {
+                timestampSyncClient = new LDAPTimestampSyncClient(getKey(), ldapTemplateWrapper, cookieStore, listener);
+            }
+            timestampSyncClient.start(session, config.getSyncSweepInterval());
+        } else {
+            if (syncClient == null) {
+                syncClient = new LDAPSyncClient(getKey(), ldapTemplateWrapper, cookieStore, listener);
+            }
+            syncClient.start(session, config.getSyncSweepInterval());
+        }
+    }
+
+    /**
+     * Members and memberships may have a shorter life than the entry holding them
+     *
+     * @param timestamp the time the list has been loaded
+     * @param ttl the time to live of the list, in seconds
+     * @return true if the list has to be loaded again
+     */
+    private static boolean isExpired(long timestamp, int ttl) {
+        return ttl > 0 && System.currentTimeMillis() - timestamp > ttl * 1000L;
+    }
+
     @Override
     public boolean supportsGroups() {
         return groupConfig.isMinimalSettingsOk();
@@ -1542,6 +4214,15 @@ public class LDAPUserGroupProvider extends BaseUserGroupProvider {
         }
     }
 
+    /**
+     * @param name a user or group name
+     * @return the key matching the name with the entries found by a search on it: the server compares the search
+     * attribute ignoring case and insignificant spaces
+     */
+    private String getNameKey(String name) {
+        return LDAPDnCanonicalizer.normalizeText(decode(name));
+    }
+
     private String decode(String name) {
         return Text.unescapeIllegalJcrChars(name);
     }
@@ -0,0 +1,247 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap;
+
+import org.jahia.services.usermanager.ldap.cache.LDAPCacheRefresher;
+import org.jahia.services.usermanager.ldap.cache.LDAPGroupGraph;
+import org.jahia.services.usermanager.ldap.cache.LDAPLoadCoalescer;
+import org.jahia.services.usermanager.ldap.cache.LDAPMemberIdRegistry;
+import org.jahia.services.usermanager.ldap.cache.LDAPOffHeapBudget;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Exposes the counters of an LDAP provider over JMX, registered under
+ * <code>org.jahia.modules.ldap:type=LDAPUserGroupProvider,key=&lt;provider key&gt;</code>
+ */
+public class LDAPUserGroupProviderStatistics implements LDAPUserGroupProviderStatisticsMBean {
+
+    private static Logger logger = LoggerFactory.getLogger(LDAPUserGroupProviderStatistics.class);
+
+    private final LDAPUserGroupProvider provider;
+    private final String providerKey;
+    private final LDAPLoadCoalescer loadCoalescer;
+    private final LDAPCacheRefresher cacheRefresher;
+    private final LDAPMemberIdRegistry memberIdRegistry;
+    private final LDAPGroupGraph groupGraph;
+    private final LDAPOffHeapBudget offHeapBudget;
+    private volatile LDAPPreloadProgress preloadProgress;
+    private ObjectName objectName;
+
+    public LDAPUserGroupProviderStatistics(LDAPUserGroupProvider provider, LDAPLoadCoalescer loadCoalescer, LDAPCacheRefresher cacheRefresher,
+                                           LDAPMemberIdRegistry memberIdRegistry, LDAPGroupGraph groupGraph, LDAPOffHeapBudget offHeapBudget) {
+        this.provider = provider;
+        this.providerKey = provider.getKey();
+        this.loadCoalescer = loadCoalescer;
+        this.cacheRefresher = cacheRefresher;
+        this.memberIdRegistry = memberIdRegistry;
+        this.groupGraph = groupGraph;
+        this.offHeapBudget = offHeapBudget;
+    }
+
+    /**
+     * @param preloadProgress the progress of the current or last preload, null if none
+     */
+    public void setPreloadProgress(LDAPPreloadProgress preloadProgress) {
+        this.preloadProgress = preloadProgress;
+    }
+
+    public void register() {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName("org.jahia.modules.ldap:type=LDAPUserGroupProvider,key=" + ObjectName.quote(providerKey));
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+            mBeanServer.registerMBean(this, objectName);
+        } catch (JMException e) {
+            logger.warn("Unable to register the JMX statistics of LDAP provider " + providerKey, e);
+            objectName = null;
+        }
+    }
+
+    public void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            logger.warn("Unable to unregister the JMX statistics of LDAP provider " + providerKey, e);
+        }
+        objectName = null;
+    }
+
+    @Override
+    public String getProviderKey() {
+        return providerKey;
+    }
+
+    @Override
+    public long getExecutedLoadCount() {
+        return loadCoalescer.getExecutedLoadCount();
+    }
+
+    @Override
+    public long getCoalescedLoadCount() {
+        return loadCoalescer.getCoalescedLoadCount();
+    }
+
+    @Override
+    public int getInFlightLoadCount() {
+        return loadCoalescer.getInFlightLoadCount();
+    }
+
+    @Override
+    public long getCacheHitCount() {
+        return cacheRefresher.getHitCount();
+    }
+
+    @Override
+    public long getCacheRefreshCount() {
+        return cacheRefresher.getRefreshCount();
+    }
+
+    @Override
+    public long getRejectedCacheRefreshCount() {
+        return cacheRefresher.getRejectedRefreshCount();
+    }
+
+    @Override
+    public int getPendingCacheRefreshCount() {
+        return cacheRefresher.getPendingRefreshCount();
+    }
+
+    @Override
+    public int getMemberIdCount() {
+        return memberIdRegistry.size();
+    }
+
+    @Override
+    public int getMemberIdGeneration() {
+        return memberIdRegistry.getGeneration();
+    }
+
+    @Override
+    public int getGroupGraphNodeCount() {
+        return groupGraph.getNodeCount();
+    }
+
+    @Override
+    public long getGroupMemberIdCount() {
+        return groupGraph.getMemberIdCount();
+    }
+
+    @Override
+    public long getGroupMemberIdsSize() {
+        return groupGraph.getMemberIdsSizeInBytes();
+    }
+
+    @Override
+    public long getOffHeapMembersSize() {
+        return offHeapBudget.getSize();
+    }
+
+    @Override
+    public long getRejectedOffHeapMembersCount() {
+        return offHeapBudget.getRejectedCount();
+    }
+
+    @Override
+    public String getPreloadState() {
+        LDAPPreloadProgress progress = preloadProgress;
+        return progress != null ? progress.getState().name() : null;
+    }
+
+    @Override
+    public long getPreloadScannedEntryCount() {
+        LDAPPreloadProgress progress = preloadProgress;
+        return progress != null ? progress.getScannedEntryCount() : 0;
+    }
+
+    @Override
+    public int getPreloadResolvedGroupCount() {
+        LDAPPreloadProgress progress = preloadProgress;
+        return progress != null ? progress.getResolvedGroupCount() : 0;
+    }
+
+    @Override
+    public double getPreloadRate() {
+        LDAPPreloadProgress progress = preloadProgress;
+        return progress != null ? progress.getRate() : 0;
+    }
+
+    @Override
+    public long getPreloadEta() {
+        LDAPPreloadProgress progress = preloadProgress;
+        return progress != null ? progress.getEta() : -1;
+    }
+
+    @Override
+    public long getPreloadElapsedTime() {
+        LDAPPreloadProgress progress = preloadProgress;
+        return progress != null ? progress.getElapsedTime() : 0;
+    }
+
+    @Override
+    public void startPreload() {
+        provider.startPreload();
+    }
+
+    @Override
+    public void cancelPreload() {
+        LDAPPreloadProgress progress = preloadProgress;
+        if (progress != null) {
+            progress.cancel();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap;
+
+/**
+ * JMX view on the runtime counters of an LDAP user and group provider
+ */
+public interface LDAPUserGroupProviderStatisticsMBean {
+
+    String getProviderKey();
+
+    /**
+     * @return number of LDAP loads (user, group, members, membership) really executed
+     */
+    long getExecutedLoadCount();
+
+    /**
+     * @return number of calls that waited for an identical load already in progress instead of querying the LDAP
+     */
+    long getCoalescedLoadCount();
+
+    /**
+     * @return number of LDAP loads currently in progress
+     */
+    int getInFlightLoadCount();
+
+    /**
+     * @return number of user and group entries served from the cache
+     */
+    long getCacheHitCount();
+
+    /**
+     * @return number of cached entries reloaded in background before their expiration
+     */
+    long getCacheRefreshCount();
+
+    /**
+     * @return number of background reloads dropped because the refresh queue was full
+     */
+    long getRejectedCacheRefreshCount();
+
+    /**
+     * @return number of background reloads waiting or in progress
+     */
+    int getPendingCacheRefreshCount();
+
+    /**
+     * @return number of distinct members of the cached groups having an id in the member id registry
+     */
+    int getMemberIdCount();
+
+    /**
+     * @return number of times all the member ids have been dropped because the registry was full
+     */
+    int getMemberIdGeneration();
+
+    /**
+     * @return number of users and groups whose parents are held by the membership graph
+     */
+    int getGroupGraphNodeCount();
+
+    /**
+     * @return number of member ids in the member sets held by the membership graph
+     */
+    long getGroupMemberIdCount();
+
+    /**
+     * @return approximate heap size of the member sets held by the membership graph, in bytes
+     */
+    long getGroupMemberIdsSize();
+
+    /**
+     * @return direct memory used by the members of the large groups stored outside of the heap, in bytes
+     */
+    long getOffHeapMembersSize();
+
+    /**
+     * @return number of large groups whose members have been kept on the heap because the direct memory budget was
+     * exceeded
+     */
+    long getRejectedOffHeapMembersCount();
+
+    /**
+     * @return state of the current or last preload of the cache, null if the cache has not been preloaded
+     */
+    String getPreloadState();
+
+    /**
+     * @return number of users and groups read by the scans of the preload
+     */
+    long getPreloadScannedEntryCount();
+
+    /**
+     * @return number of groups whose members have been loaded by the preload
+     */
+    int getPreloadResolvedGroupCount();
+
+    /**
+     * @return entries scanned per second while scanning, groups resolved per second while resolving the members
+     */
+    double getPreloadRate();
+
+    /**
+     * @return estimated number of seconds left in the current phase of the preload, -1 if not known
+     */
+    long getPreloadEta();
+
+    /**
+     * @return time spent by the current or last preload, in milliseconds
+     */
+    long getPreloadElapsedTime();
+
+    /**
+     * Start a preload of the cache. A preload cancelled or failed resumes after the last entry it read when the server
+     * sorts the entries of the scan (server side sort control) and the checkpoint is not older than the cache time to
+     * live. The checkpoint is only kept in memory: an unsorted scan, a reload of the configuration, which registers
+     * the provider again, or a restart of the server start the preload over from the beginning.
+     */
+    void startPreload();
+
+    /**
+     * Stop the current preload, the entries already loaded stay in the cache
+     */
+    void cancelPreload();
+}
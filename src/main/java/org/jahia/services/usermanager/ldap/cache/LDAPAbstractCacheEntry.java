@@ -55,7 +55,12 @@ public abstract class LDAPAbstractCacheEntry implements Serializable{
     private Boolean exist = false;
     private String name;
     private String dn;
+    private String canonicalDn;
     private List<String> memberships;
+    private long membershipsTimestamp;
+    private List<String> transitiveMemberships;
+    private long transitiveMembershipsTimestamp;
+    private long loadTimestamp = System.currentTimeMillis();
 
     public Boolean getExist() {
         return exist;
@@ -79,6 +84,66 @@ public abstract class LDAPAbstractCacheEntry implements Serializable{
 
     public void setMemberships(List<String> memberships) {
         this.memberships = memberships;
+        this.membershipsTimestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * Set memberships loaded earlier, keeping the time at which they were loaded
+     *
+     * @param memberships the memberships
+     * @param membershipsTimestamp the time at which they were loaded
+     */
+    public void setMemberships(List<String> memberships, long membershipsTimestamp) {
+        this.memberships = memberships;
+        this.membershipsTimestamp = membershipsTimestamp;
+    }
+
+    /**
+     * @return the time at which the memberships were set
+     */
+    public long getMembershipsTimestamp() {
+        return membershipsTimestamp;
+    }
+
+    /**
+     * @return the groups the entry belongs to directly or through nested groups, when read in one query
+     */
+    public List<String> getTransitiveMemberships() {
+        return transitiveMemberships;
+    }
+
+    public void setTransitiveMemberships(List<String> transitiveMemberships) {
+        this.transitiveMemberships = transitiveMemberships;
+        this.transitiveMembershipsTimestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * Set transitive memberships loaded earlier, keeping the time at which they were loaded
+     *
+     * @param transitiveMemberships the transitive memberships
+     * @param transitiveMembershipsTimestamp the time at which they were loaded
+     */
+    public void setTransitiveMemberships(List<String> transitiveMemberships, long transitiveMembershipsTimestamp) {
+        this.transitiveMemberships = transitiveMemberships;
+        this.transitiveMembershipsTimestamp = transitiveMembershipsTimestamp;
+    }
+
+    /**
+     * @return the time at which the transitive memberships were set
+     */
+    public long getTransitiveMembershipsTimestamp() {
+        return transitiveMembershipsTimestamp;
+    }
+
+    /**
+     * @return the time at which the attributes of the entry were read from the LDAP
+     */
+    public long getLoadTimestamp() {
+        return loadTimestamp;
+    }
+
+    public void setLoadTimestamp(long loadTimestamp) {
+        this.loadTimestamp = loadTimestamp;
     }
 
     public String getDn() {
@@ -87,5 +152,24 @@ public abstract class LDAPAbstractCacheEntry implements Serializable{
 
     public void setDn(String dn) {
         this.dn = dn;
+        this.canonicalDn = null;
+    }
+
+    /**
+     * @return the canonical form of the DN, the key of the entry in the DN index, null until the entry is cached
+     */
+    public String getCanonicalDn() {
+        return canonicalDn;
+    }
+
+    /**
+     * Set the DN with its canonical form
+     *
+     * @param dn the DN as returned by the server
+     * @param canonicalDn the canonical form of the DN
+     */
+    public void setDn(String dn, String canonicalDn) {
+        this.dn = dn;
+        this.canonicalDn = canonicalDn;
     }
 }
@@ -0,0 +1,133 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.cache;
+
+import java.io.Serializable;
+
+/**
+ * Key of the LDAP user and group caches, for an entry, a DN index or a membership test.
+ * The provider is not part of the key, each provider has its own caches.
+ */
+public final class LDAPCacheKey implements Serializable {
+    private static final long serialVersionUID = 2207409476591393306L;
+
+    private static final byte NAME = 0;
+    private static final byte DN = 1;
+    private static final byte MEMBER = 2;
+
+    private final byte kind;
+    private final String value;
+    private final int hash;
+
+    private LDAPCacheKey(byte kind, String value) {
+        this.kind = kind;
+        this.value = value;
+        this.hash = 31 * value.hashCode() + kind;
+    }
+
+    /**
+     * @param name the user or group name
+     * @return the key of the entry holding the user or group
+     */
+    public static LDAPCacheKey byName(String name) {
+        return new LDAPCacheKey(NAME, name);
+    }
+
+    /**
+     * @param dn the user or group DN
+     * @return the key of the index entry pointing to the name of the user or group
+     */
+    public static LDAPCacheKey byDn(String dn) {
+        return new LDAPCacheKey(DN, dn);
+    }
+
+    /**
+     * @param groupName the group name
+     * @param userName the user name
+     * @return the key of the result of the membership test of the user in the group
+     */
+    public static LDAPCacheKey byMember(String groupName, String userName) {
+        return new LDAPCacheKey(MEMBER, groupName + '\u0000' + userName);
+    }
+
+    /**
+     * @return true for the key of a user or group entry
+     */
+    public boolean isName() {
+        return kind == NAME;
+    }
+
+    /**
+     * @return true for the key of a DN index entry
+     */
+    public boolean isDn() {
+        return kind == DN;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof LDAPCacheKey)) {
+            return false;
+        }
+        LDAPCacheKey other = (LDAPCacheKey) o;
+        return hash == other.hash && kind == other.kind && value.equals(other.value);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return (kind == NAME ? "n" : kind == DN ? "d" : "m") + value;
+    }
+}
@@ -48,14 +48,29 @@ import net.sf.ehcache.CacheManager;
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
 import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.MemoryUnit;
+import net.sf.ehcache.config.SizeOfPolicyConfiguration;
+import net.sf.ehcache.event.CacheEventListenerAdapter;
+import org.apache.commons.lang.StringUtils;
 import org.jahia.services.cache.CacheHelper;
 import org.jahia.services.cache.ModuleClassLoaderAwareCacheEntry;
 import org.jahia.services.cache.ehcache.EhCacheProvider;
+import org.jahia.services.usermanager.ldap.config.AbstractConfig;
+import org.jahia.services.usermanager.ldap.config.GroupConfig;
+import org.jahia.services.usermanager.ldap.dn.LDAPDnCanonicalizer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Helper class for LDAP provider related caches.
+ * Each provider gets its own user and group caches, sized and expired according to its configuration.
  *
  * @author kevan
  */
@@ -63,33 +78,97 @@ public class LDAPCacheManager {
     public static final String LDAP_USER_CACHE = "LDAPUsersCache";
     public static final String LDAP_GROUP_CACHE = "LDAPGroupsCache";
 
+    // number of objects walked to size an entry, entries reaching it are only counted for the part walked
+    private static final int SIZE_OF_MAX_DEPTH = 1000;
+
     private static Logger logger = LoggerFactory.getLogger(LDAPCacheManager.class);
 
-    private Ehcache groupCache;
-    private Ehcache userCache;
+    private Map<String, ProviderCaches> providerCaches = new ConcurrentHashMap<String, ProviderCaches>();
     private EhCacheProvider cacheProvider;
+    private final LDAPDnCanonicalizer dnCanonicalizer = new LDAPDnCanonicalizer();
 
     void start(){
+        // caches are created when the providers register
+    }
+
+    void stop(){
+        for (String providerKey : new ArrayList<String>(providerCaches.keySet())) {
+            unregisterProvider(providerKey);
+        }
+    }
+
+    /**
+     * Create the caches of the provider, replacing the ones of a previous registration
+     *
+     * @param providerKey the provider key
+     * @param userConfig the user configuration, for the user cache settings
+     * @param groupConfig the group configuration, for the group cache settings
+     */
+    public void registerProvider(String providerKey, AbstractConfig userConfig, GroupConfig groupConfig) {
+        unregisterProvider(providerKey);
         final CacheManager cacheManager = cacheProvider.getCacheManager();
-        userCache = cacheManager.getCache(LDAP_USER_CACHE);
-        if (userCache == null) {
-            userCache = createLDAPCache(cacheManager, LDAP_USER_CACHE);
-        } else {
-            userCache.removeAll();
+        Ehcache userCache = createLDAPCache(cacheManager, getCacheName(LDAP_USER_CACHE, providerKey), userConfig);
+        Ehcache groupCache = createLDAPCache(cacheManager, getCacheName(LDAP_GROUP_CACHE, providerKey), groupConfig);
+        long offHeapMaxSize = StringUtils.isNotBlank(groupConfig.getMembersOffHeapMaxSize())
+                ? MemoryUnit.parseSizeInBytes(groupConfig.getMembersOffHeapMaxSize().trim()) : 0;
+        ProviderCaches caches = new ProviderCaches(userCache, userConfig.getCacheNegativeTtl(), groupCache, groupConfig.getCacheNegativeTtl(),
+                groupConfig.getCacheMaxMemberIds(), offHeapMaxSize);
+        // the graph only holds the members and memberships of the entries still cached
+        userCache.getCacheEventNotificationService().registerListener(new GroupGraphPruner(caches.groupGraph, false));
+        groupCache.getCacheEventNotificationService().registerListener(new GroupGraphPruner(caches.groupGraph, true));
+        providerCaches.put(providerKey, caches);
+    }
+
+    /**
+     * Remove the caches of the provider
+     *
+     * @param providerKey the provider key
+     */
+    public void unregisterProvider(String providerKey) {
+        ProviderCaches caches = providerCaches.remove(providerKey);
+        if (caches != null) {
+            final CacheManager cacheManager = cacheProvider.getCacheManager();
+            cacheManager.removeCache(caches.userCache.getName());
+            cacheManager.removeCache(caches.groupCache.getName());
         }
-        groupCache = cacheManager.getCache(LDAP_GROUP_CACHE);
-        if (groupCache == null) {
-            groupCache = createLDAPCache(cacheManager, LDAP_GROUP_CACHE);
-        } else  {
-            groupCache.removeAll();
+    }
+
+    /**
+     * Flush the caches of all the providers, on all the cluster nodes
+     */
+    public void flush() {
+        for (ProviderCaches caches : providerCaches.values()) {
+            CacheHelper.flushEhcacheByName(caches.userCache.getName(), true);
+            CacheHelper.flushEhcacheByName(caches.groupCache.getName(), true);
+            caches.groupGraph.clear();
         }
     }
 
-    private Ehcache createLDAPCache(CacheManager cacheManager, String cacheName) {
+    /**
+     * @return the names of the caches currently used by the providers
+     */
+    public List<String> getCacheNames() {
+        List<String> names = new ArrayList<String>();
+        for (ProviderCaches caches : providerCaches.values()) {
+            names.add(caches.userCache.getName());
+            names.add(caches.groupCache.getName());
+        }
+        return names;
+    }
+
+    private Ehcache createLDAPCache(CacheManager cacheManager, String cacheName, AbstractConfig config) {
         CacheConfiguration cacheConfiguration = new CacheConfiguration();
         cacheConfiguration.setName(cacheName);
-        cacheConfiguration.setTimeToIdleSeconds(3600);
+        cacheConfiguration.setTimeToLiveSeconds(config.getCacheTtl());
         cacheConfiguration.setEternal(false);
+        if (StringUtils.isNotBlank(config.getCacheMaxHeap())) {
+            // entries are weighted by their approximate heap size, the walk of an entry is bounded so that a put
+            // does not cost a walk of a whole object graph
+            cacheConfiguration.setMaxBytesLocalHeap(config.getCacheMaxHeap().trim());
+            cacheConfiguration.sizeOfPolicy(new SizeOfPolicyConfiguration().maxDepth(SIZE_OF_MAX_DEPTH).maxDepthExceededBehavior("abort"));
+        } else if (config.getCacheMaxEntries() > 0) {
+            cacheConfiguration.setMaxEntriesLocalHeap(config.getCacheMaxEntries());
+        }
         // Create a new cache with the configuration
         Ehcache cache = new Cache(cacheConfiguration);
         cache.setName(cacheName);
@@ -98,63 +177,374 @@ public class LDAPCacheManager {
         return cacheManager.addCacheIfAbsent(cache);
     }
 
-    void stop(){
-        // flush
-        if (userCache != null) {
-            userCache.removeAll();
-        }
-        if (groupCache != null) {
-            groupCache.removeAll();
-        }
-    }
-
     public void setCacheProvider(EhCacheProvider cacheProvider) {
         this.cacheProvider = cacheProvider;
     }
 
+    /**
+     * @return the component used to compute the canonical form of the DNs used as cache keys
+     */
+    public LDAPDnCanonicalizer getDnCanonicalizer() {
+        return dnCanonicalizer;
+    }
+
+    /**
+     * @param providerKey the provider key
+     * @return the membership graph of the provider, null if the provider is not registered
+     */
+    public LDAPGroupGraph getGroupGraph(String providerKey) {
+        ProviderCaches caches = providerCaches.get(providerKey);
+        return caches != null ? caches.groupGraph : null;
+    }
+
+    /**
+     * @param providerKey the provider key
+     * @return the registry of the member ids used in the group entries of the provider, null if not registered
+     */
+    public LDAPMemberIdRegistry getMemberIdRegistry(String providerKey) {
+        ProviderCaches caches = providerCaches.get(providerKey);
+        return caches != null ? caches.memberIdRegistry : null;
+    }
+
+    /**
+     * @param providerKey the provider key
+     * @return the direct memory allowed to the off-heap member lists of the provider, null if not registered
+     */
+    public LDAPOffHeapBudget getOffHeapBudget(String providerKey) {
+        ProviderCaches caches = providerCaches.get(providerKey);
+        return caches != null ? caches.offHeapBudget : null;
+    }
+
     public LDAPUserCacheEntry getUserCacheEntryByName(String providerKey, String username) {
-        return (LDAPUserCacheEntry) CacheHelper.getObjectValue(userCache, getCacheNameKey(providerKey, username));
+        ProviderCaches caches = providerCaches.get(providerKey);
+        return caches != null ? (LDAPUserCacheEntry) getEntryByName(caches.userCache, username) : null;
     }
 
     public LDAPUserCacheEntry getUserCacheEntryByDn(String providerKey, String dn) {
-        return (LDAPUserCacheEntry) CacheHelper.getObjectValue(userCache, getCacheDnKey(providerKey, dn));
+        ProviderCaches caches = providerCaches.get(providerKey);
+        return caches != null ? (LDAPUserCacheEntry) getEntryByDn(caches.userCache, dnCanonicalizer.canonicalize(dn)) : null;
+    }
+
+    /**
+     * Read several users in one access to the cache
+     *
+     * @param providerKey the provider key
+     * @param usernames the user names
+     * @return the cached entries, positive or negative, by name; the names not cached are absent
+     */
+    public Map<String, LDAPUserCacheEntry> getUserCacheEntriesByName(String providerKey, Collection<String> usernames) {
+        ProviderCaches caches = providerCaches.get(providerKey);
+        return caches != null ? getEntriesByName(caches.userCache, usernames, LDAPUserCacheEntry.class) : new HashMap<String, LDAPUserCacheEntry>();
     }
 
     public void cacheUser(String providerKey, LDAPUserCacheEntry ldapUserCacheEntry) {
+        ProviderCaches caches = providerCaches.get(providerKey);
+        if (caches == null) {
+            return;
+        }
         if (logger.isDebugEnabled()) {
             logger.debug("Caching user: {}", ldapUserCacheEntry.getName());
         }
-        ModuleClassLoaderAwareCacheEntry cacheEntry = new ModuleClassLoaderAwareCacheEntry(ldapUserCacheEntry, "ldap");
-        userCache.put(new Element(getCacheNameKey(providerKey, ldapUserCacheEntry.getName()), cacheEntry));
-        if (ldapUserCacheEntry.getDn() != null) {
-            userCache.put(new Element(getCacheDnKey(providerKey, ldapUserCacheEntry.getDn()), cacheEntry));
-        }
+        cacheEntry(caches.userCache, ldapUserCacheEntry, caches.userNegativeTtl);
     }
 
     public LDAPGroupCacheEntry getGroupCacheEntryName(String providerKey, String groupname) {
-        return (LDAPGroupCacheEntry) CacheHelper.getObjectValue(groupCache, getCacheNameKey(providerKey, groupname));
+        ProviderCaches caches = providerCaches.get(providerKey);
+        return caches != null ? (LDAPGroupCacheEntry) getEntryByName(caches.groupCache, groupname) : null;
     }
 
     public LDAPGroupCacheEntry getGroupCacheEntryByDn(String providerKey, String dn) {
-        return (LDAPGroupCacheEntry) CacheHelper.getObjectValue(groupCache, getCacheDnKey(providerKey, dn));
+        ProviderCaches caches = providerCaches.get(providerKey);
+        return caches != null ? (LDAPGroupCacheEntry) getEntryByDn(caches.groupCache, dnCanonicalizer.canonicalize(dn)) : null;
+    }
+
+    /**
+     * Read several groups in one access to the cache
+     *
+     * @param providerKey the provider key
+     * @param groupnames the group names
+     * @return the cached entries, positive or negative, by name; the names not cached are absent
+     */
+    public Map<String, LDAPGroupCacheEntry> getGroupCacheEntriesByName(String providerKey, Collection<String> groupnames) {
+        ProviderCaches caches = providerCaches.get(providerKey);
+        return caches != null ? getEntriesByName(caches.groupCache, groupnames, LDAPGroupCacheEntry.class) : new HashMap<String, LDAPGroupCacheEntry>();
     }
 
     public void cacheGroup(String providerKey, LDAPGroupCacheEntry ldapGroupCacheEntry) {
+        ProviderCaches caches = providerCaches.get(providerKey);
+        if (caches == null) {
+            return;
+        }
         if (logger.isDebugEnabled()) {
             logger.debug("Caching group: {}", ldapGroupCacheEntry.getName());
         }
-        ModuleClassLoaderAwareCacheEntry cacheEntry = new ModuleClassLoaderAwareCacheEntry(ldapGroupCacheEntry, "ldap");
-        groupCache.put(new Element(getCacheNameKey(providerKey, ldapGroupCacheEntry.getName()), cacheEntry));
-        if (ldapGroupCacheEntry.getDn() != null) {
-            groupCache.put(new Element(getCacheDnKey(providerKey, ldapGroupCacheEntry.getDn()), cacheEntry));
+        cacheEntry(caches.groupCache, ldapGroupCacheEntry, caches.groupNegativeTtl);
+    }
+
+    /**
+     * @param providerKey the provider key
+     * @param groupName the group name
+     * @param userName the user name
+     * @return the cached result of the membership test, null if not cached
+     */
+    public Boolean getMembershipTest(String providerKey, String groupName, String userName) {
+        ProviderCaches caches = providerCaches.get(providerKey);
+        return caches != null ? (Boolean) CacheHelper.getObjectValue(caches.groupCache, LDAPCacheKey.byMember(groupName, userName)) : null;
+    }
+
+    /**
+     * Cache the result of a membership test in the group cache, with its own time to live
+     *
+     * @param providerKey the provider key
+     * @param groupName the group name
+     * @param userName the user name
+     * @param isMember the result of the test
+     * @param ttl the time to live of the result, in seconds
+     */
+    public void cacheMembershipTest(String providerKey, String groupName, String userName, boolean isMember, int ttl) {
+        ProviderCaches caches = providerCaches.get(providerKey);
+        if (caches != null) {
+            caches.groupCache.put(createElement(LDAPCacheKey.byMember(groupName, userName), isMember, ttl));
+        }
+    }
+
+    /**
+     * Remove the user with this DN and its DN index entry
+     *
+     * @param providerKey the provider key
+     * @param dn the DN of the user
+     */
+    public void removeUser(String providerKey, String dn) {
+        ProviderCaches caches = providerCaches.get(providerKey);
+        if (caches != null) {
+            removeEntryByDn(caches.userCache, dnCanonicalizer.canonicalize(dn));
+        }
+    }
+
+    /**
+     * Remove the group with this DN and its DN index entry
+     *
+     * @param providerKey the provider key
+     * @param dn the DN of the group
+     */
+    public void removeGroup(String providerKey, String dn) {
+        ProviderCaches caches = providerCaches.get(providerKey);
+        if (caches != null) {
+            removeEntryByDn(caches.groupCache, dnCanonicalizer.canonicalize(dn));
+        }
+    }
+
+    /**
+     * @param providerKey the provider key
+     * @param groupName the group name
+     * @param userName the user name
+     */
+    public void removeMembershipTest(String providerKey, String groupName, String userName) {
+        ProviderCaches caches = providerCaches.get(providerKey);
+        if (caches != null) {
+            caches.groupCache.remove(LDAPCacheKey.byMember(groupName, userName));
+        }
+    }
+
+    /**
+     * @param providerKey the provider key
+     * @return the canonical DNs of the cached users
+     */
+    public List<String> getUserDns(String providerKey) {
+        ProviderCaches caches = providerCaches.get(providerKey);
+        return caches != null ? getDns(caches.userCache) : new ArrayList<String>();
+    }
+
+    /**
+     * @param providerKey the provider key
+     * @return the canonical DNs of the cached groups
+     */
+    public List<String> getGroupDns(String providerKey) {
+        ProviderCaches caches = providerCaches.get(providerKey);
+        return caches != null ? getDns(caches.groupCache) : new ArrayList<String>();
+    }
+
+    private static List<String> getDns(Ehcache cache) {
+        List<String> dns = new ArrayList<String>();
+        for (Object key : cache.getKeys()) {
+            if (key instanceof LDAPCacheKey && ((LDAPCacheKey) key).isDn()) {
+                dns.add(((LDAPCacheKey) key).getValue());
+            }
         }
+        return dns;
     }
 
-    private String getCacheNameKey(String providerKey, String objectName) {
-        return providerKey + "n" + objectName;
+    private void removeEntryByDn(Ehcache cache, String canonicalDn) {
+        LDAPAbstractCacheEntry cacheEntry = getEntryByDn(cache, canonicalDn);
+        if (cacheEntry != null) {
+            cache.remove(LDAPCacheKey.byName(cacheEntry.getName()));
+        }
+        cache.remove(LDAPCacheKey.byDn(canonicalDn));
+    }
+
+    private static LDAPAbstractCacheEntry getEntryByName(Ehcache cache, String name) {
+        return (LDAPAbstractCacheEntry) CacheHelper.getObjectValue(cache, LDAPCacheKey.byName(name));
+    }
+
+    private static <T extends LDAPAbstractCacheEntry> List<T> getEntries(Ehcache cache, Class<T> entryClass) {
+        List<T> entries = new ArrayList<T>();
+        for (Object key : cache.getKeys()) {
+            if (!(key instanceof LDAPCacheKey) || !((LDAPCacheKey) key).isName()) {
+                continue;
+            }
+            Element element = cache.getQuiet(key);
+            if (element == null || element.isExpired()) {
+                continue;
+            }
+            Object value = element.getObjectValue();
+            if (value instanceof ModuleClassLoaderAwareCacheEntry) {
+                value = ((ModuleClassLoaderAwareCacheEntry) value).getValue();
+            }
+            if (entryClass.isInstance(value)) {
+                entries.add(entryClass.cast(value));
+            }
+        }
+        return entries;
     }
 
-    private String getCacheDnKey(String providerKey, String objectName) {
-        return providerKey + "d" + objectName;
+    private static <T extends LDAPAbstractCacheEntry> Map<String, T> getEntriesByName(Ehcache cache, Collection<String> names, Class<T> entryClass) {
+        List<LDAPCacheKey> keys = new ArrayList<LDAPCacheKey>(names.size());
+        for (String name : names) {
+            keys.add(LDAPCacheKey.byName(name));
+        }
+        Map<String, T> entries = new HashMap<String, T>();
+        for (Element element : cache.getAll(keys).values()) {
+            if (element == null || element.isExpired()) {
+                continue;
+            }
+            Object value = element.getObjectValue();
+            if (value instanceof ModuleClassLoaderAwareCacheEntry) {
+                value = ((ModuleClassLoaderAwareCacheEntry) value).getValue();
+            }
+            if (entryClass.isInstance(value)) {
+                T entry = entryClass.cast(value);
+                entries.put(entry.getName(), entry);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * The DN index only holds the name of the entry, the entry itself is stored once under its name
+     *
+     * @param cache the user or group cache
+     * @param canonicalDn the canonical form of the DN
+     * @return the cached entry, null if not found
+     */
+    private LDAPAbstractCacheEntry getEntryByDn(Ehcache cache, String canonicalDn) {
+        Object name = CacheHelper.getObjectValue(cache, LDAPCacheKey.byDn(canonicalDn));
+        if (name == null) {
+            return null;
+        }
+        LDAPAbstractCacheEntry cacheEntry = getEntryByName(cache, (String) name);
+        // the name may have been reused by another entry since the index was written
+        return cacheEntry != null && canonicalDn.equals(getCanonicalDn(cacheEntry)) ? cacheEntry : null;
+    }
+
+    private String getCanonicalDn(LDAPAbstractCacheEntry cacheEntry) {
+        String canonicalDn = cacheEntry.getCanonicalDn();
+        return canonicalDn != null ? canonicalDn : dnCanonicalizer.canonicalize(cacheEntry.getDn());
+    }
+
+    private void cacheEntry(Ehcache cache, LDAPAbstractCacheEntry ldapCacheEntry, int negativeTtl) {
+        int ttl = isNegative(ldapCacheEntry) ? negativeTtl : 0;
+        String dn = ldapCacheEntry.getDn();
+        if (dn != null && ldapCacheEntry.getCanonicalDn() == null) {
+            // the entry keeps the DN as returned by the server, shared with the other holders of the same DN, and
+            // the canonical form used as key so that the lookups by DN do not compute it again
+            ldapCacheEntry.setDn(dnCanonicalizer.intern(dn), dnCanonicalizer.canonicalize(dn));
+        }
+        cache.put(createElement(LDAPCacheKey.byName(ldapCacheEntry.getName()), new ModuleClassLoaderAwareCacheEntry(ldapCacheEntry, "ldap"), ttl));
+        if (dn != null) {
+            cache.put(createElement(LDAPCacheKey.byDn(ldapCacheEntry.getCanonicalDn()), ldapCacheEntry.getName(), ttl));
+        }
+    }
+
+    private static boolean isNegative(LDAPAbstractCacheEntry cacheEntry) {
+        return cacheEntry.getExist() != null && !cacheEntry.getExist();
+    }
+
+    private static Element createElement(LDAPCacheKey key, Object value, int ttl) {
+        Element element = new Element(key, value);
+        if (ttl > 0) {
+            // overrides the time to live of the cache for this element only
+            element.setTimeToLive(ttl);
+        }
+        return element;
+    }
+
+    private static String getCacheName(String cacheName, String providerKey) {
+        return cacheName + "." + providerKey;
+    }
+
+    private static class ProviderCaches {
+        private final Ehcache userCache;
+        private final int userNegativeTtl;
+        private final Ehcache groupCache;
+        private final int groupNegativeTtl;
+        private final LDAPMemberIdRegistry memberIdRegistry;
+        private final LDAPGroupGraph groupGraph;
+        private final LDAPOffHeapBudget offHeapBudget;
+
+        private ProviderCaches(Ehcache userCache, int userNegativeTtl, Ehcache groupCache, int groupNegativeTtl, int maxMemberIds,
+                               long offHeapMaxSize) {
+            this.userCache = userCache;
+            this.userNegativeTtl = userNegativeTtl;
+            this.groupCache = groupCache;
+            this.groupNegativeTtl = groupNegativeTtl;
+            this.memberIdRegistry = new LDAPMemberIdRegistry(maxMemberIds, new LDAPMemberIdRegistry.CachedGroups() {
+                @Override
+                public Collection<LDAPGroupCacheEntry> getCachedGroups() {
+                    return getEntries(ProviderCaches.this.groupCache, LDAPGroupCacheEntry.class);
+                }
+            });
+            this.groupGraph = new LDAPGroupGraph(memberIdRegistry);
+            this.offHeapBudget = new LDAPOffHeapBudget(offHeapMaxSize);
+        }
+    }
+
+    /**
+     * Removes from the graph the users and groups evicted, expired or removed from a cache
+     */
+    private static class GroupGraphPruner extends CacheEventListenerAdapter {
+        private final LDAPGroupGraph groupGraph;
+        private final boolean isGroup;
+
+        private GroupGraphPruner(LDAPGroupGraph groupGraph, boolean isGroup) {
+            this.groupGraph = groupGraph;
+            this.isGroup = isGroup;
+        }
+
+        @Override
+        public void notifyElementRemoved(Ehcache cache, Element element) {
+            prune(element);
+        }
+
+        @Override
+        public void notifyElementExpired(Ehcache cache, Element element) {
+            prune(element);
+        }
+
+        @Override
+        public void notifyElementEvicted(Ehcache cache, Element element) {
+            prune(element);
+        }
+
+        @Override
+        public void notifyRemoveAll(Ehcache cache) {
+            groupGraph.clear();
+        }
+
+        private void prune(Element element) {
+            Object key = element.getObjectKey();
+            if (key instanceof LDAPCacheKey && ((LDAPCacheKey) key).isName()) {
+                groupGraph.remove(((LDAPCacheKey) key).getValue(), isGroup);
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,180 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.cache;
+
+import org.jahia.services.usermanager.ldap.config.AbstractConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Refresh-ahead of the cached LDAP entries of a provider.
+ * An entry that passed a given fraction of its time to live is still served from the cache, while a small bounded
+ * pool of background threads reloads it. When the pool is saturated the refresh is dropped, the entry then simply
+ * expires and is loaded again by the next request.
+ */
+public class LDAPCacheRefresher {
+
+    private static Logger logger = LoggerFactory.getLogger(LDAPCacheRefresher.class);
+
+    private static final int REFRESH_THREADS = 2;
+    private static final int REFRESH_QUEUE_SIZE = 1000;
+
+    private final String providerKey;
+    private final ThreadPoolExecutor executor;
+    private final Set<String> pendingRefreshes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong rejectedRefreshes = new AtomicLong();
+
+    public LDAPCacheRefresher(final String providerKey) {
+        this.providerKey = providerKey;
+        executor = new ThreadPoolExecutor(REFRESH_THREADS, REFRESH_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(REFRESH_QUEUE_SIZE), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "LDAP cache refresh " + providerKey + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Record a cache hit, and schedule the refresh of the entry if it is close to its expiration
+     *
+     * @param cacheEntry the entry served from the cache
+     * @param config the configuration holding the time to live and refresh-ahead ratio of the entry
+     * @param refreshKey identifies the entry, only one refresh per key is pending at a time
+     * @param refresh reloads the entry and puts it in the cache
+     */
+    public void hit(LDAPAbstractCacheEntry cacheEntry, AbstractConfig config, final String refreshKey, final Runnable refresh) {
+        hits.incrementAndGet();
+        if (!config.isCacheRefreshAhead()
+                || System.currentTimeMillis() - cacheEntry.getLoadTimestamp() < config.getCacheTtl() * config.getCacheRefreshAheadRatio() * 1000) {
+            return;
+        }
+        submit(refreshKey, refresh);
+    }
+
+    /**
+     * Schedule a load in the background threads, dropped if the pool is saturated
+     *
+     * @param refreshKey identifies the load, only one load per key is pending at a time
+     * @param refresh loads the data and puts it in the cache
+     */
+    public void submit(final String refreshKey, final Runnable refresh) {
+        if (!pendingRefreshes.add(refreshKey)) {
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        refreshes.incrementAndGet();
+                        refresh.run();
+                    } catch (Exception e) {
+                        logger.warn("Unable to refresh LDAP entry " + refreshKey + " of provider " + providerKey, e);
+                    } finally {
+                        pendingRefreshes.remove(refreshKey);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingRefreshes.remove(refreshKey);
+            rejectedRefreshes.incrementAndGet();
+        }
+    }
+
+    /**
+     * Stop the background threads, pending refreshes are dropped
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        pendingRefreshes.clear();
+    }
+
+    /**
+     * @return number of entries served from the cache
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of background refreshes executed
+     */
+    public long getRefreshCount() {
+        return refreshes.get();
+    }
+
+    /**
+     * @return number of refreshes dropped because the refresh queue was full
+     */
+    public long getRejectedRefreshCount() {
+        return rejectedRefreshes.get();
+    }
+
+    /**
+     * @return number of refreshes waiting or in progress
+     */
+    public int getPendingRefreshCount() {
+        return pendingRefreshes.size();
+    }
+}
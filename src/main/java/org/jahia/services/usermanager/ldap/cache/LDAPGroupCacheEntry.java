@@ -43,11 +43,9 @@
  */
 package org.jahia.services.usermanager.ldap.cache;
 
-import org.jahia.modules.external.users.Member;
 import org.jahia.services.usermanager.JahiaGroup;
 
 import java.io.Serializable;
-import java.util.List;
 
 /**
  * Represents an entry in the LDAP grouo cache.
@@ -58,7 +56,12 @@ public class LDAPGroupCacheEntry extends LDAPAbstractCacheEntry implements Seria
     private static final long serialVersionUID = -3585067276227107907L;
 
     private JahiaGroup group;
-    private List<Member> members;
+    private LDAPMemberBitmap memberIds;
+    private LDAPMemberPageOrder memberPageOrder;
+    private LDAPOffHeapMemberList offHeapMembers;
+    private long membersTimestamp;
+    private LDAPMemberBitmap transitiveMemberIds;
+    private long transitiveMembersTimestamp;
     private boolean isDynamic = false;
     private String dynamicMembersURL;
 
@@ -66,12 +69,103 @@ public class LDAPGroupCacheEntry extends LDAPAbstractCacheEntry implements Seria
         setName(name);
     }
 
-    public List<Member> getMembers() {
-        return members;
+    /**
+     * @return the ids of the members, in the id registry of the provider, null if not loaded
+     */
+    public LDAPMemberBitmap getMemberIds() {
+        return memberIds;
     }
 
-    public void setMembers(List<Member> members) {
-        this.members = members;
+    public void setMemberIds(LDAPMemberBitmap memberIds) {
+        this.memberIds = memberIds;
+        this.memberPageOrder = null;
+        this.offHeapMembers = null;
+        this.membersTimestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * Set members loaded earlier, keeping the time at which they were loaded
+     *
+     * @param memberIds the ids of the members
+     * @param membersTimestamp the time at which they were loaded
+     */
+    public void setMemberIds(LDAPMemberBitmap memberIds, long membersTimestamp) {
+        this.memberIds = memberIds;
+        this.membersTimestamp = membersTimestamp;
+    }
+
+    /**
+     * @return the order in which the member ids are paged, null if not computed yet; it may be the order of previous
+     * ids, see {@link LDAPMemberPageOrder#isOrderOf(LDAPMemberBitmap)}
+     */
+    public LDAPMemberPageOrder getMemberPageOrder() {
+        return memberPageOrder;
+    }
+
+    public void setMemberPageOrder(LDAPMemberPageOrder memberPageOrder) {
+        this.memberPageOrder = memberPageOrder;
+    }
+
+    /**
+     * @return the members of a large group, stored outside of the heap in place of the ids, null if not loaded
+     */
+    public LDAPOffHeapMemberList getOffHeapMembers() {
+        return offHeapMembers;
+    }
+
+    public void setOffHeapMembers(LDAPOffHeapMemberList offHeapMembers) {
+        this.offHeapMembers = offHeapMembers;
+        this.memberIds = null;
+        this.memberPageOrder = null;
+        this.membersTimestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * Set off-heap members loaded earlier, keeping the time at which they were loaded
+     *
+     * @param offHeapMembers the members
+     * @param membersTimestamp the time at which they were loaded
+     */
+    public void setOffHeapMembers(LDAPOffHeapMemberList offHeapMembers, long membersTimestamp) {
+        this.offHeapMembers = offHeapMembers;
+        this.membersTimestamp = membersTimestamp;
+    }
+
+    /**
+     * @return the time at which the members were set
+     */
+    public long getMembersTimestamp() {
+        return membersTimestamp;
+    }
+
+    /**
+     * @return the ids of the users member of the group directly or through nested groups, null if not loaded
+     */
+    public LDAPMemberBitmap getTransitiveMemberIds() {
+        return transitiveMemberIds;
+    }
+
+    public void setTransitiveMemberIds(LDAPMemberBitmap transitiveMemberIds) {
+        this.transitiveMemberIds = transitiveMemberIds;
+        this.transitiveMembersTimestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * Set transitive members loaded earlier, keeping the time at which they were loaded
+     *
+     * @param transitiveMemberIds the ids of the transitive members
+     * @param transitiveMembersTimestamp the time at which they were loaded
+     */
+    public void setTransitiveMemberIds(LDAPMemberBitmap transitiveMemberIds, long transitiveMembersTimestamp) {
+        this.transitiveMemberIds = transitiveMemberIds;
+        this.transitiveMembersTimestamp = transitiveMembersTimestamp;
+    }
+
+    /**
+     * @return the time at which the transitive members were set
+     */
+    public long getTransitiveMembersTimestamp() {
+        return transitiveMembersTimestamp;
     }
 
     public JahiaGroup getGroup() {
@@ -0,0 +1,350 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In memory graph of the group memberships of a provider, member to parent groups.
+ * Edges are added from the member lists of the groups and from the memberships loaded for a member, and updated
+ * incrementally when one of them is loaded again. The parents of a node are only trusted once its complete
+ * membership has been loaded, other nodes only hold the edges seen from their parent groups.
+ */
+public class LDAPGroupGraph {
+
+    private static Logger logger = LoggerFactory.getLogger(LDAPGroupGraph.class);
+
+    private static final String USER_NODE = "u:";
+    private static final String GROUP_NODE = "g:";
+
+    /**
+     * Loads the direct parent groups of a group unknown by the graph, feeding the graph as a side effect
+     */
+    public interface ParentLoader {
+        List<String> loadParents(String groupName);
+    }
+
+    // node -> names of the parent groups
+    private final Map<String, Set<String>> parents = new HashMap<String, Set<String>>();
+    // group name -> ids of its members, for the groups whose member list has been loaded
+    private final Map<String, LDAPMemberBitmap> members = new HashMap<String, LDAPMemberBitmap>();
+    // node -> time its complete membership has been loaded
+    private final Map<String, Long> resolvedNodes = new HashMap<String, Long>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final LDAPMemberIdRegistry memberIdRegistry;
+
+    /**
+     * @param memberIdRegistry the registry of the ids used by the member bitmaps of the provider
+     */
+    public LDAPGroupGraph(LDAPMemberIdRegistry memberIdRegistry) {
+        this.memberIdRegistry = memberIdRegistry;
+    }
+
+    /**
+     * @param name the user or group name
+     * @param isGroup true for a group
+     * @return the key of the member in the graph
+     */
+    public static String node(String name, boolean isGroup) {
+        return (isGroup ? GROUP_NODE : USER_NODE) + name;
+    }
+
+    /**
+     * Replace the member list of a group, adding and removing the corresponding edges
+     *
+     * @param groupName the group name
+     * @param memberIds the ids of the members of the group
+     */
+    public void setGroupMembers(String groupName, LDAPMemberBitmap memberIds) {
+        lock.writeLock().lock();
+        try {
+            List<String> memberNodes = memberIdRegistry.getNodes(memberIds);
+            if (memberNodes == null) {
+                // the ids have been dropped by the registry meanwhile
+                removeGroupMembers(groupName);
+                return;
+            }
+            LDAPMemberBitmap oldMemberIds = members.put(groupName, memberIds);
+            // the members of a previous generation of the registry are not known anymore, their edges are left
+            // until their parents are loaded again
+            List<String> oldMemberNodes = oldMemberIds != null ? memberIdRegistry.getNodes(oldMemberIds) : null;
+            if (oldMemberNodes != null) {
+                Set<String> newMemberNodes = new HashSet<String>(memberNodes);
+                for (String oldMemberNode : oldMemberNodes) {
+                    if (!newMemberNodes.contains(oldMemberNode)) {
+                        removeEdge(oldMemberNode, groupName);
+                    }
+                }
+            }
+            for (String memberNode : memberNodes) {
+                addEdge(memberNode, groupName);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replace the complete list of the direct parents of a node
+     *
+     * @param node the node of the member
+     * @param parentGroups the names of all the groups the member directly belongs to
+     * @param timestamp the time the list has been loaded
+     */
+    public void setParents(String node, Collection<String> parentGroups, long timestamp) {
+        Set<String> newParents = new HashSet<String>(parentGroups);
+        lock.writeLock().lock();
+        try {
+            Set<String> oldParents = parents.put(node, newParents);
+            if (oldParents != null) {
+                for (String oldParent : oldParents) {
+                    LDAPMemberBitmap groupMemberIds = members.get(oldParent);
+                    if (groupMemberIds != null && !newParents.contains(oldParent)
+                            && !Boolean.FALSE.equals(memberIdRegistry.contains(groupMemberIds, node))) {
+                        // the member list of the group is outdated, its next load adds all its edges again
+                        members.remove(oldParent);
+                    }
+                }
+            }
+            for (String parent : newParents) {
+                LDAPMemberBitmap groupMemberIds = members.get(parent);
+                if (groupMemberIds != null && !Boolean.TRUE.equals(memberIdRegistry.contains(groupMemberIds, node))) {
+                    members.remove(parent);
+                }
+            }
+            resolvedNodes.put(node, timestamp);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param node the node of the member
+     * @param ttl the time to live of a loaded membership, in seconds, 0 or less to never expire
+     * @return the direct parents of the node, null if its complete membership is not known or expired
+     */
+    public List<String> getParents(String node, int ttl) {
+        lock.readLock().lock();
+        try {
+            Long timestamp = resolvedNodes.get(node);
+            if (timestamp == null || (ttl > 0 && System.currentTimeMillis() - timestamp > ttl * 1000L)) {
+                return null;
+            }
+            Set<String> nodeParents = parents.get(node);
+            return nodeParents != null ? new ArrayList<String>(nodeParents) : new ArrayList<String>();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Walk up the graph from the direct parents of a member, level by level. Groups already reached are not walked
+     * again, which stops the cycles, and the walk stops after the given number of levels.
+     *
+     * @param directParents the names of the groups the member directly belongs to
+     * @param maxDepth the maximum number of levels, the direct parents being the first one
+     * @param ttl the time to live of a loaded membership, in seconds
+     * @param loader loads the parents of the groups not known by the graph
+     * @return the names of all the groups the member belongs to, directly or not
+     */
+    public List<String> getTransitiveParents(Collection<String> directParents, int maxDepth, int ttl, ParentLoader loader) {
+        Set<String> reached = new LinkedHashSet<String>(directParents);
+        List<String> level = new ArrayList<String>(reached);
+        for (int depth = 1; depth < maxDepth && !level.isEmpty(); depth++) {
+            List<String> nextLevel = new ArrayList<String>();
+            for (String group : level) {
+                List<String> groupParents = getParents(node(group, true), ttl);
+                if (groupParents == null) {
+                    groupParents = loader.loadParents(group);
+                }
+                if (groupParents == null) {
+                    continue;
+                }
+                for (String parent : groupParents) {
+                    if (reached.add(parent)) {
+                        nextLevel.add(parent);
+                    } else if (logger.isDebugEnabled() && level.contains(parent)) {
+                        logger.debug("Membership cycle between groups {} and {}", group, parent);
+                    }
+                }
+            }
+            level = nextLevel;
+        }
+        if (!level.isEmpty() && logger.isDebugEnabled()) {
+            logger.debug("Membership walk stopped after {} levels, groups {} not expanded", maxDepth, level);
+        }
+        return new ArrayList<String>(reached);
+    }
+
+    /**
+     * Forget a member removed from the cache: its parents and, for a group, the edges to its members
+     *
+     * @param name the user or group name
+     * @param isGroup true for a group
+     */
+    public void remove(String name, boolean isGroup) {
+        String node = node(name, isGroup);
+        lock.writeLock().lock();
+        try {
+            resolvedNodes.remove(node);
+            parents.remove(node);
+            if (isGroup) {
+                removeGroupMembers(name);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forget all the edges
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            parents.clear();
+            members.clear();
+            resolvedNodes.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return number of members having at least one known parent
+     */
+    public int getNodeCount() {
+        lock.readLock().lock();
+        try {
+            return parents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return number of groups whose member list is held by the graph
+     */
+    public int getGroupCount() {
+        lock.readLock().lock();
+        try {
+            return members.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return total number of ids in the member lists held by the graph
+     */
+    public long getMemberIdCount() {
+        lock.readLock().lock();
+        try {
+            long count = 0;
+            for (LDAPMemberBitmap memberIds : members.values()) {
+                count += memberIds.getCardinality();
+            }
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return approximate heap size of the member lists held by the graph, in bytes
+     */
+    public long getMemberIdsSizeInBytes() {
+        lock.readLock().lock();
+        try {
+            long size = 0;
+            for (LDAPMemberBitmap memberIds : members.values()) {
+                size += memberIds.getSizeInBytes();
+            }
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void removeGroupMembers(String groupName) {
+        LDAPMemberBitmap groupMemberIds = members.remove(groupName);
+        List<String> memberNodes = groupMemberIds != null ? memberIdRegistry.getNodes(groupMemberIds) : null;
+        if (memberNodes != null) {
+            for (String memberNode : memberNodes) {
+                removeEdge(memberNode, groupName);
+            }
+        }
+    }
+
+    private void addEdge(String node, String groupName) {
+        Set<String> nodeParents = parents.get(node);
+        if (nodeParents == null) {
+            nodeParents = new HashSet<String>();
+            parents.put(node, nodeParents);
+        }
+        nodeParents.add(groupName);
+    }
+
+    private void removeEdge(String node, String groupName) {
+        Set<String> nodeParents = parents.get(node);
+        if (nodeParents != null) {
+            nodeParents.remove(groupName);
+            if (nodeParents.isEmpty() && !resolvedNodes.containsKey(node)) {
+                parents.remove(node);
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of the LDAP loads currently in progress for a provider.
+ * Only the first caller for a given load type and name executes the loader, concurrent callers for the same key
+ * wait for its result instead of sending the same LDAP search again.
+ */
+public class LDAPLoadCoalescer {
+
+    private final ConcurrentMap<LoadKey, InFlightLoad<?>> inFlightLoads = new ConcurrentHashMap<LoadKey, InFlightLoad<?>>();
+
+    private final AtomicLong executedLoads = new AtomicLong();
+    private final AtomicLong coalescedLoads = new AtomicLong();
+
+    /**
+     * Execute the loader, or wait for the result of the identical load already in progress
+     *
+     * @param type the kind of load (user, group, members, ...)
+     * @param name the name or DN of the loaded object
+     * @param loader the actual LDAP load
+     * @return the result of the load, shared between all the callers of the same key
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T load(String type, String name, Callable<T> loader) {
+        LoadKey key = new LoadKey(type, name);
+        InFlightLoad<T> load = new InFlightLoad<T>(loader);
+        InFlightLoad<?> existing = inFlightLoads.putIfAbsent(key, load);
+        if (existing != null) {
+            if (existing.owner == Thread.currentThread()) {
+                // re-entrant load of the same key, waiting for ourselves would dead lock
+                return call(loader);
+            }
+            coalescedLoads.incrementAndGet();
+            return (T) getResult(existing);
+        }
+
+        executedLoads.incrementAndGet();
+        try {
+            load.run();
+            return getResult(load);
+        } finally {
+            inFlightLoads.remove(key, load);
+        }
+    }
+
+    /**
+     * @return number of loads that were really executed
+     */
+    public long getExecutedLoadCount() {
+        return executedLoads.get();
+    }
+
+    /**
+     * @return number of calls that were served by waiting for a load already in progress
+     */
+    public long getCoalescedLoadCount() {
+        return coalescedLoads.get();
+    }
+
+    /**
+     * @return number of loads currently in progress
+     */
+    public int getInFlightLoadCount() {
+        return inFlightLoads.size();
+    }
+
+    private static <T> T getResult(FutureTask<T> load) {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for an LDAP load", e);
+        } catch (ExecutionException e) {
+            throw propagate(e.getCause());
+        }
+    }
+
+    private static <T> T call(Callable<T> loader) {
+        try {
+            return loader.call();
+        } catch (Exception e) {
+            throw propagate(e);
+        }
+    }
+
+    private static RuntimeException propagate(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new IllegalStateException(t);
+    }
+
+    private static class InFlightLoad<T> extends FutureTask<T> {
+
+        private final Thread owner = Thread.currentThread();
+
+        private InFlightLoad(Callable<T> loader) {
+            super(loader);
+        }
+    }
+
+    private static class LoadKey {
+
+        private final String type;
+        private final String name;
+        private final int hash;
+
+        private LoadKey(String type, String name) {
+            this.type = type;
+            this.name = name;
+            this.hash = 31 * type.hashCode() + (name != null ? name.hashCode() : 0);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof LoadKey)) {
+                return false;
+            }
+            LoadKey other = (LoadKey) o;
+            return hash == other.hash && type.equals(other.type) && (name != null ? name.equals(other.name) : other.name == null);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
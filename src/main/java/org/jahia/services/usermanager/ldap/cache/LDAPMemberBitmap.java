@@ -0,0 +1,240 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.cache;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Immutable compressed set of member ids, organized as Roaring bitmaps are: the ids are split on their 16 high bits,
+ * each chunk of 65536 ids is stored as a sorted array of its 16 low bits while it holds less than 4096 ids, as a
+ * 8 kB bitmap beyond. A member then costs at most 2 bytes, and a membership test is a binary search of the chunk
+ * followed by a binary search or a bit test.
+ */
+public final class LDAPMemberBitmap implements Serializable {
+
+    private static final long serialVersionUID = 3205781127655262436L;
+
+    private static final int ARRAY_MAX_SIZE = 4096;
+    private static final int BITMAP_WORDS = 1024;
+
+    public static final LDAPMemberBitmap EMPTY = new LDAPMemberBitmap(new char[0], new Object[0], 0, 0);
+
+    private final char[] keys;
+    // char[] of sorted low bits, or long[BITMAP_WORDS]
+    private final Object[] containers;
+    private final int cardinality;
+    private final int generation;
+
+    private LDAPMemberBitmap(char[] keys, Object[] containers, int cardinality, int generation) {
+        this.keys = keys;
+        this.containers = containers;
+        this.cardinality = cardinality;
+        this.generation = generation;
+    }
+
+    /**
+     * @param ids the member ids, positive or zero, in any order, duplicates allowed; the array is sorted in place
+     * @return the bitmap of the ids
+     */
+    public static LDAPMemberBitmap of(int[] ids) {
+        return of(ids, ids.length);
+    }
+
+    /**
+     * @param ids the member ids, positive or zero, in any order, duplicates allowed; the array is sorted in place
+     * @param length the number of ids to read from the array
+     * @return the bitmap of the ids
+     */
+    public static LDAPMemberBitmap of(int[] ids, int length) {
+        return of(ids, length, 0);
+    }
+
+    /**
+     * @param ids the member ids, positive or zero, in any order, duplicates allowed; the array is sorted in place
+     * @param length the number of ids to read from the array
+     * @param generation the generation of the registry that assigned the ids, see {@link LDAPMemberIdRegistry}
+     * @return the bitmap of the ids
+     */
+    public static LDAPMemberBitmap of(int[] ids, int length, int generation) {
+        if (length == 0) {
+            return generation == 0 ? EMPTY : new LDAPMemberBitmap(new char[0], new Object[0], 0, generation);
+        }
+        Arrays.sort(ids, 0, length);
+        char[] keys = new char[length];
+        Object[] containers = new Object[length];
+        int chunks = 0;
+        int cardinality = 0;
+        int start = 0;
+        while (start < length) {
+            int high = ids[start] >>> 16;
+            int end = start;
+            int distinct = 0;
+            int previous = -1;
+            while (end < length && ids[end] >>> 16 == high) {
+                if (ids[end] != previous) {
+                    distinct++;
+                    previous = ids[end];
+                }
+                end++;
+            }
+            keys[chunks] = (char) high;
+            containers[chunks] = distinct < ARRAY_MAX_SIZE ? toArrayContainer(ids, start, end, distinct) : toBitmapContainer(ids, start, end);
+            chunks++;
+            cardinality += distinct;
+            start = end;
+        }
+        return new LDAPMemberBitmap(Arrays.copyOf(keys, chunks), Arrays.copyOf(containers, chunks), cardinality, generation);
+    }
+
+    /**
+     * @param id the member id
+     * @return true if the id is in the set
+     */
+    public boolean contains(int id) {
+        if (id < 0) {
+            return false;
+        }
+        int chunk = Arrays.binarySearch(keys, (char) (id >>> 16));
+        if (chunk < 0) {
+            return false;
+        }
+        char low = (char) id;
+        Object container = containers[chunk];
+        if (container instanceof char[]) {
+            return Arrays.binarySearch((char[]) container, low) >= 0;
+        }
+        return (((long[]) container)[low >>> 6] & (1L << low)) != 0;
+    }
+
+    /**
+     * @param generation a generation of the registry in which the ids of the set are still assigned to the same members
+     * @return the same set in that generation, sharing the storage of this one
+     */
+    public LDAPMemberBitmap withGeneration(int generation) {
+        return generation == this.generation ? this : new LDAPMemberBitmap(keys, containers, cardinality, generation);
+    }
+
+    /**
+     * @param other another set
+     * @return true if both sets share their storage, as a set and its copies in other generations do
+     */
+    public boolean hasSameIds(LDAPMemberBitmap other) {
+        return other != null && other.containers == containers;
+    }
+
+    /**
+     * @return the generation of the registry that assigned the ids
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return the number of ids in the set
+     */
+    public int getCardinality() {
+        return cardinality;
+    }
+
+    /**
+     * @return the ids of the set, in increasing order
+     */
+    public int[] toArray() {
+        int[] ids = new int[cardinality];
+        int index = 0;
+        for (int chunk = 0; chunk < keys.length; chunk++) {
+            int high = keys[chunk] << 16;
+            Object container = containers[chunk];
+            if (container instanceof char[]) {
+                for (char low : (char[]) container) {
+                    ids[index++] = high | low;
+                }
+            } else {
+                long[] words = (long[]) container;
+                for (int word = 0; word < words.length; word++) {
+                    long bits = words[word];
+                    while (bits != 0) {
+                        ids[index++] = high | (word << 6) | Long.numberOfTrailingZeros(bits);
+                        bits &= bits - 1;
+                    }
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @return the approximate heap size of the set, in bytes
+     */
+    public long getSizeInBytes() {
+        long size = 16 + 16 + 2L * keys.length + 16 + 4L * containers.length;
+        for (Object container : containers) {
+            size += 16 + (container instanceof char[] ? 2L * ((char[]) container).length : 8L * BITMAP_WORDS);
+        }
+        return size;
+    }
+
+    private static char[] toArrayContainer(int[] sortedIds, int start, int end, int distinct) {
+        char[] container = new char[distinct];
+        int index = 0;
+        int previous = -1;
+        for (int i = start; i < end; i++) {
+            if (sortedIds[i] != previous) {
+                container[index++] = (char) sortedIds[i];
+                previous = sortedIds[i];
+            }
+        }
+        return container;
+    }
+
+    private static long[] toBitmapContainer(int[] sortedIds, int start, int end) {
+        long[] container = new long[BITMAP_WORDS];
+        for (int i = start; i < end; i++) {
+            char low = (char) sortedIds[i];
+            container[low >>> 6] |= 1L << low;
+        }
+        return container;
+    }
+}
@@ -0,0 +1,440 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.cache;
+
+import org.jahia.modules.external.users.Member;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Dense ids of the members of the cached groups. The ids cannot be released one by one since the cached bitmaps
+ * refer to them, so the registry is bounded instead: once it is full, a new generation starts with the next member
+ * list. The ids still used by the member lists of the cached groups are kept in it and their lists carried over, the
+ * others are released and assigned again. The bitmaps of a previous generation are ignored and their members loaded
+ * again.
+ * <p>
+ * If the cached groups still use more than half of the ids, releasing the others would only delay the next generation
+ * by a few lists: all the ids are dropped instead, which reloads the members of every cached group, and a warning is
+ * logged. The limit should then be raised above twice the number of distinct members of the groups the cache holds.
+ */
+public class LDAPMemberIdRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(LDAPMemberIdRegistry.class);
+
+    /**
+     * Gives the groups currently cached, whose member ids are kept by a new generation
+     */
+    public interface CachedGroups {
+
+        /**
+         * @return the cached group entries, read without updating the cache statistics
+         */
+        Collection<LDAPGroupCacheEntry> getCachedGroups();
+    }
+
+    private final int maxSize;
+    private final CachedGroups cachedGroups;
+    private Map<String, Integer> ids = new HashMap<String, Integer>();
+    // indexed by id, null for a released id
+    private List<Member> members = new ArrayList<Member>();
+    private int[] freeIds = new int[0];
+    private int freeCount;
+    private int generation;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * @param maxSize number of ids from which a new generation is started, 0 or less for no limit; the last list
+     * registered may exceed it
+     */
+    public LDAPMemberIdRegistry(int maxSize) {
+        this(maxSize, null);
+    }
+
+    /**
+     * @param maxSize number of ids from which a new generation is started, 0 or less for no limit; the last list
+     * registered may exceed it
+     * @param cachedGroups the groups whose member ids are kept by a new generation, null to drop all the ids
+     */
+    public LDAPMemberIdRegistry(int maxSize, CachedGroups cachedGroups) {
+        this.maxSize = maxSize;
+        this.cachedGroups = cachedGroups;
+    }
+
+    /**
+     * @param member the user or group
+     * @return the id of the member in the current generation, assigned on the first call
+     */
+    public int getOrCreateId(Member member) {
+        String node = LDAPGroupGraph.node(member.getName(), member.getType() == Member.MemberType.GROUP);
+        lock.readLock().lock();
+        try {
+            Integer id = ids.get(node);
+            if (id != null) {
+                return id;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+            Integer id = ids.get(node);
+            if (id == null) {
+                if (freeCount > 0) {
+                    id = freeIds[--freeCount];
+                    members.set(id, member);
+                } else {
+                    id = members.size();
+                    members.add(member);
+                }
+                ids.put(node, id);
+            }
+            return id;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param name the user or group name
+     * @param isGroup true for a group
+     * @return the id of the member, -1 if it has never been seen
+     */
+    public int getId(String name, boolean isGroup) {
+        return getId(LDAPGroupGraph.node(name, isGroup));
+    }
+
+    /**
+     * @param node the node of the member, see {@link LDAPGroupGraph#node(String, boolean)}
+     * @return the id of the member, -1 if it has never been seen
+     */
+    public int getId(String node) {
+        lock.readLock().lock();
+        try {
+            Integer id = ids.get(node);
+            return id != null ? id : -1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param memberIds a set of ids of this registry
+     * @param node the node of the member, see {@link LDAPGroupGraph#node(String, boolean)}
+     * @return true if the member is in the set, null if the set belongs to a previous generation
+     */
+    public Boolean contains(LDAPMemberBitmap memberIds, String node) {
+        lock.readLock().lock();
+        try {
+            if (memberIds.getGeneration() != generation) {
+                return null;
+            }
+            Integer id = ids.get(node);
+            return id != null && memberIds.contains(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param memberIds a set of ids of this registry
+     * @return the nodes of the members of the set, see {@link LDAPGroupGraph#node(String, boolean)}, null if the set
+     * belongs to a previous generation
+     */
+    public List<String> getNodes(LDAPMemberBitmap memberIds) {
+        int[] idArray = memberIds.toArray();
+        List<String> result = new ArrayList<String>(idArray.length);
+        lock.readLock().lock();
+        try {
+            if (memberIds.getGeneration() != generation) {
+                return null;
+            }
+            for (int id : idArray) {
+                Member member = members.get(id);
+                result.add(LDAPGroupGraph.node(member.getName(), member.getType() == Member.MemberType.GROUP));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * @param memberIds a set of ids of this registry
+     * @return the members of the set, shared instances that must not be modified, null if the set belongs to a
+     * previous generation
+     */
+    public List<Member> getMembers(LDAPMemberBitmap memberIds) {
+        int[] idArray = memberIds.toArray();
+        List<Member> result = new ArrayList<Member>(idArray.length);
+        lock.readLock().lock();
+        try {
+            if (memberIds.getGeneration() != generation) {
+                return null;
+            }
+            for (int id : idArray) {
+                result.add(members.get(id));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * @param memberIds a set of ids of this registry
+     * @param pageMembers the members of the set in the order of the pages, null at the position of a member not resolved
+     * @return the page order of the set, null if the set belongs to a previous generation
+     */
+    public LDAPMemberPageOrder getPageOrder(LDAPMemberBitmap memberIds, List<Member> pageMembers) {
+        int[] pageIds = new int[pageMembers.size()];
+        lock.readLock().lock();
+        try {
+            if (memberIds.getGeneration() != generation) {
+                return null;
+            }
+            for (int i = 0; i < pageIds.length; i++) {
+                Member member = pageMembers.get(i);
+                Integer id = member != null ? ids.get(LDAPGroupGraph.node(member.getName(), member.getType() == Member.MemberType.GROUP)) : null;
+                pageIds[i] = id != null ? id : -1;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return new LDAPMemberPageOrder(memberIds, pageIds);
+    }
+
+    /**
+     * @param memberIds a set of ids of this registry
+     * @param comparator the order of the members
+     * @return the page order of the set sorting its members, null if the set belongs to a previous generation
+     */
+    public LDAPMemberPageOrder getPageOrder(LDAPMemberBitmap memberIds, Comparator<Member> comparator) {
+        List<Member> sortedMembers = getMembers(memberIds);
+        if (sortedMembers == null) {
+            return null;
+        }
+        sortedMembers = new ArrayList<Member>(sortedMembers);
+        Collections.sort(sortedMembers, comparator);
+        return getPageOrder(memberIds, sortedMembers);
+    }
+
+    /**
+     * @param memberIds a set of ids of this registry
+     * @param pageIds ids of the set, -1 for a member not resolved
+     * @return the members of the ids, in the same order and skipping the members not resolved, shared instances that
+     * must not be modified, null if the set belongs to a previous generation
+     */
+    public List<Member> getMembers(LDAPMemberBitmap memberIds, int[] pageIds) {
+        List<Member> result = new ArrayList<Member>(pageIds.length);
+        lock.readLock().lock();
+        try {
+            if (memberIds.getGeneration() != generation) {
+                return null;
+            }
+            for (int id : pageIds) {
+                if (id >= 0) {
+                    result.add(members.get(id));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * @param groupMembers a list of members
+     * @return the set of their ids, in the current generation
+     */
+    public LDAPMemberBitmap toBitmap(List<Member> groupMembers) {
+        int[] idArray = new int[groupMembers.size()];
+        while (true) {
+            int bitmapGeneration = reserve();
+            int index = 0;
+            for (Member member : groupMembers) {
+                idArray[index++] = getOrCreateId(member);
+            }
+            if (getGeneration() == bitmapGeneration) {
+                return LDAPMemberBitmap.of(idArray, idArray.length, bitmapGeneration);
+            }
+            // another list started a new generation meanwhile, the ids are assigned again
+        }
+    }
+
+    /**
+     * @return the current generation, the ids assigned by {@link #getOrCreateId(Member)} are only valid in it
+     */
+    public int getGeneration() {
+        lock.readLock().lock();
+        try {
+            return generation;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return number of ids assigned in the current generation
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return members.size() - freeCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Start a new generation if the current one is full
+     *
+     * @return the generation in which the ids of the next list are assigned
+     */
+    private int reserve() {
+        int currentGeneration;
+        lock.readLock().lock();
+        try {
+            if (!isFull()) {
+                return generation;
+            }
+            currentGeneration = generation;
+        } finally {
+            lock.readLock().unlock();
+        }
+        // read out of the lock: reading the cache may notify the listeners of expired entries, which use the registry
+        Collection<LDAPGroupCacheEntry> groups = cachedGroups != null ? cachedGroups.getCachedGroups() : null;
+        lock.writeLock().lock();
+        try {
+            if (generation == currentGeneration && isFull()) {
+                startGeneration(groups);
+            }
+            return generation;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private boolean isFull() {
+        return maxSize > 0 && members.size() - freeCount >= maxSize;
+    }
+
+    /**
+     * Start a new generation keeping the ids of the given groups' members. The ids are only released under the write
+     * lock, so the bitmaps read from the groups are still valid; the ones set since are not carried over.
+     */
+    private void startGeneration(Collection<LDAPGroupCacheEntry> groups) {
+        int nextGeneration = generation + 1;
+        BitSet usedIds = new BitSet(members.size());
+        Map<LDAPMemberBitmap, LDAPMemberBitmap> carried = new IdentityHashMap<LDAPMemberBitmap, LDAPMemberBitmap>();
+        if (groups != null) {
+            for (LDAPGroupCacheEntry group : groups) {
+                collect(group.getMemberIds(), nextGeneration, usedIds, carried);
+                collect(group.getTransitiveMemberIds(), nextGeneration, usedIds, carried);
+            }
+        }
+        int usedCount = usedIds.cardinality();
+        if (usedCount > maxSize / 2) {
+            logger.warn("{} of the {} member ids are used by the cached groups, all the ids are dropped and the members of the " +
+                    "cached groups will be loaded again. Raise cacheMaxMemberIds above twice the number of distinct members " +
+                    "of the cached groups.", usedCount, maxSize);
+            ids = new HashMap<String, Integer>();
+            members = new ArrayList<Member>();
+            freeIds = new int[0];
+            freeCount = 0;
+            generation = nextGeneration;
+            return;
+        }
+
+        // released in decreasing order, so that the lowest ids are assigned first and keep the bitmaps compact
+        freeIds = new int[members.size() - usedCount];
+        freeCount = 0;
+        for (int id = members.size() - 1; id >= 0; id--) {
+            if (!usedIds.get(id)) {
+                Member member = members.get(id);
+                if (member != null) {
+                    ids.remove(LDAPGroupGraph.node(member.getName(), member.getType() == Member.MemberType.GROUP));
+                    members.set(id, null);
+                }
+                freeIds[freeCount++] = id;
+            }
+        }
+        generation = nextGeneration;
+        if (carried.isEmpty()) {
+            return;
+        }
+        for (LDAPGroupCacheEntry group : groups) {
+            LDAPMemberBitmap memberIds = carried.get(group.getMemberIds());
+            if (memberIds != null) {
+                group.setMemberIds(memberIds, group.getMembersTimestamp());
+            }
+            LDAPMemberBitmap transitiveMemberIds = carried.get(group.getTransitiveMemberIds());
+            if (transitiveMemberIds != null) {
+                group.setTransitiveMemberIds(transitiveMemberIds, group.getTransitiveMembersTimestamp());
+            }
+        }
+        logger.debug("Member id generation {} started, {} ids kept for {} member lists", nextGeneration, usedCount, carried.size());
+    }
+
+    private void collect(LDAPMemberBitmap memberIds, int nextGeneration, BitSet usedIds, Map<LDAPMemberBitmap, LDAPMemberBitmap> carried) {
+        if (memberIds == null || memberIds.getGeneration() != generation || carried.containsKey(memberIds)) {
+            return;
+        }
+        for (int id : memberIds.toArray()) {
+            usedIds.set(id);
+        }
+        carried.put(memberIds, memberIds.withGeneration(nextGeneration));
+    }
+}
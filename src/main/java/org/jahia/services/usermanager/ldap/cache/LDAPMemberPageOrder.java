@@ -0,0 +1,95 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.cache;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Order in which the members of a group cached as ids are paged: the ids in the order of the canonical DNs of the
+ * members attribute, -1 for a DN that did not resolve, or in the order of the members when the group has no members
+ * attribute. The order is computed once when the members are cached, so that a page is read without sorting the group.
+ */
+public final class LDAPMemberPageOrder implements Serializable {
+
+    private static final long serialVersionUID = -6010617243406583146L;
+
+    private final LDAPMemberBitmap memberIds;
+    private final int[] ids;
+
+    /**
+     * @param memberIds the ids of the members of the group
+     * @param ids the same ids in the order of the pages, -1 for a member not resolved
+     */
+    public LDAPMemberPageOrder(LDAPMemberBitmap memberIds, int[] ids) {
+        this.memberIds = memberIds;
+        this.ids = ids;
+    }
+
+    /**
+     * @param memberIds the ids of the members of a group
+     * @return true if this is the order of these ids, in any generation of the registry
+     */
+    public boolean isOrderOf(LDAPMemberBitmap memberIds) {
+        return this.memberIds.hasSameIds(memberIds);
+    }
+
+    /**
+     * @return the number of positions, counting the members not resolved
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * @param offset index of the first position read
+     * @param limit maximum number of positions read
+     * @return the ids of the window, -1 for a member not resolved
+     */
+    public int[] getIds(int offset, int limit) {
+        int start = Math.min(Math.max(offset, 0), ids.length);
+        int end = (int) Math.min((long) start + limit, ids.length);
+        return Arrays.copyOfRange(ids, start, end);
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.cache;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Direct memory allowed to the off-heap member lists of a provider. A list is counted from its creation until it is
+ * garbage collected, which is when its direct memory is released.
+ */
+public class LDAPOffHeapBudget {
+
+    private final long maxSize;
+    private final AtomicLong size = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final ReferenceQueue<LDAPOffHeapMemberList> collected = new ReferenceQueue<LDAPOffHeapMemberList>();
+    // keeps the references reachable until their list is collected
+    private final Set<Allocation> allocations = Collections.newSetFromMap(new ConcurrentHashMap<Allocation, Boolean>());
+
+    /**
+     * @param maxSize maximum number of bytes, 0 or less for no limit
+     */
+    public LDAPOffHeapBudget(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Reserve direct memory for a new list
+     *
+     * @param bytes the number of bytes
+     * @return true if the bytes are reserved, false if they would exceed the budget
+     */
+    boolean reserve(int bytes) {
+        releaseCollected();
+        while (true) {
+            long current = size.get();
+            if (maxSize > 0 && current + bytes > maxSize) {
+                rejectedCount.incrementAndGet();
+                return false;
+            }
+            if (size.compareAndSet(current, current + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Release the reserved bytes once the list is garbage collected
+     *
+     * @param list the list using the reserved bytes
+     * @param bytes the number of bytes reserved
+     */
+    void track(LDAPOffHeapMemberList list, int bytes) {
+        allocations.add(new Allocation(list, collected, bytes));
+    }
+
+    /**
+     * @return number of bytes used by the lists not collected yet
+     */
+    public long getSize() {
+        releaseCollected();
+        return size.get();
+    }
+
+    /**
+     * @return number of lists kept on the heap because the budget was exceeded
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    private void releaseCollected() {
+        Reference<? extends LDAPOffHeapMemberList> reference;
+        while ((reference = collected.poll()) != null) {
+            Allocation allocation = (Allocation) reference;
+            if (allocations.remove(allocation)) {
+                size.addAndGet(-allocation.bytes);
+            }
+        }
+    }
+
+    private static class Allocation extends PhantomReference<LDAPOffHeapMemberList> {
+        private final int bytes;
+
+        private Allocation(LDAPOffHeapMemberList list, ReferenceQueue<LDAPOffHeapMemberList> queue, int bytes) {
+            super(list, queue);
+            this.bytes = bytes;
+        }
+    }
+}
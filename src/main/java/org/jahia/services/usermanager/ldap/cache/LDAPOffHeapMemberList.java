@@ -0,0 +1,468 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.cache;
+
+import net.sf.ehcache.pool.sizeof.annotations.IgnoreSizeOf;
+import org.jahia.modules.external.users.Member;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Member list of a large group, stored outside of the Java heap.
+ * The members are sorted by type and name and front-coded by blocks of {@value #BLOCK_SIZE}: the first member of a
+ * block is stored in full, the others as the length of the prefix shared with the previous member and the remaining
+ * UTF-8 bytes. Only the offsets of the blocks stay on the heap. The list is read with a {@link Cursor} that decodes
+ * the members in a reused buffer, or tested with {@link #contains(String, boolean)} by a binary search on the blocks.
+ * A list may also hold the page order of its group, the positions of the members in the order in which the group is
+ * paged, stored outside of the heap as well.
+ * The direct memory is released when the list is garbage collected. The lists are created within the
+ * {@link LDAPOffHeapBudget} of their provider; lists read back from a serialized cache are not counted in it.
+ */
+public final class LDAPOffHeapMemberList implements Serializable {
+
+    private static final long serialVersionUID = -2284730436245853713L;
+
+    private static final int BLOCK_SIZE = 16;
+    private static final byte USER = 'u';
+    private static final byte GROUP = 'g';
+
+    private static final Comparator<byte[]> KEY_ORDER = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] a, byte[] b) {
+            return LDAPOffHeapMemberList.compare(a, a.length, b, b.length);
+        }
+    };
+
+    /**
+     * Order of the members in the list: the groups then the users, each by name in the order of the code points, which
+     * is the order of their UTF-8 bytes
+     */
+    public static final Comparator<Member> MEMBER_ORDER = new Comparator<Member>() {
+        @Override
+        public int compare(Member a, Member b) {
+            boolean aIsGroup = a.getType() == Member.MemberType.GROUP;
+            if (aIsGroup != (b.getType() == Member.MemberType.GROUP)) {
+                return aIsGroup ? -1 : 1;
+            }
+            String aName = a.getName();
+            String bName = b.getName();
+            int i = 0;
+            int j = 0;
+            while (i < aName.length() && j < bName.length()) {
+                int aCodePoint = aName.codePointAt(i);
+                int bCodePoint = bName.codePointAt(j);
+                if (aCodePoint != bCodePoint) {
+                    return aCodePoint < bCodePoint ? -1 : 1;
+                }
+                i += Character.charCount(aCodePoint);
+                j += Character.charCount(bCodePoint);
+            }
+            return (aName.length() - i) - (bName.length() - j);
+        }
+    };
+
+    // the direct memory is not part of the heap size of the cache entry
+    @IgnoreSizeOf
+    private transient ByteBuffer buffer;
+    // positions of the members in the order of the pages, -1 for a member not resolved, null if the list has none
+    @IgnoreSizeOf
+    private transient ByteBuffer pageOrder;
+    private int[] blockOffsets;
+    private int size;
+
+    private LDAPOffHeapMemberList() {
+    }
+
+    /**
+     * @param members the members, in any order, duplicates allowed
+     * @param budget the direct memory allowed to the lists of the provider
+     * @return the off-heap list of the members, null if it does not fit in the budget
+     */
+    public static LDAPOffHeapMemberList of(List<Member> members, LDAPOffHeapBudget budget) {
+        return of(members, null, budget);
+    }
+
+    /**
+     * @param members the members, in any order, duplicates allowed
+     * @param pageMembers the members in the order of the pages of the group, null at the position of a member not
+     * resolved, or null to page the list in its own order
+     * @param budget the direct memory allowed to the lists of the provider
+     * @return the off-heap list of the members, null if it does not fit in the budget
+     */
+    public static LDAPOffHeapMemberList of(List<Member> members, List<Member> pageMembers, LDAPOffHeapBudget budget) {
+        byte[][] keys = new byte[members.size()][];
+        for (int i = 0; i < keys.length; i++) {
+            Member member = members.get(i);
+            keys[i] = toKey(member.getName(), member.getType() == Member.MemberType.GROUP);
+        }
+        Arrays.sort(keys, KEY_ORDER);
+
+        // front-coded bytes, built on the heap once then copied to the direct buffer
+        byte[] encoded = new byte[64];
+        int length = 0;
+        int[] blockOffsets = new int[keys.length / BLOCK_SIZE + 1];
+        int blocks = 0;
+        int size = 0;
+        byte[] previous = null;
+        for (byte[] key : keys) {
+            if (previous != null && Arrays.equals(previous, key)) {
+                continue;
+            }
+            int prefix = 0;
+            if (size % BLOCK_SIZE == 0) {
+                blockOffsets[blocks++] = length;
+            } else {
+                prefix = commonPrefix(previous, key);
+            }
+            int required = length + 10 + key.length - prefix;
+            if (required > encoded.length) {
+                encoded = Arrays.copyOf(encoded, Math.max(encoded.length * 2, required));
+            }
+            length = writeVarInt(encoded, length, prefix);
+            length = writeVarInt(encoded, length, key.length - prefix);
+            System.arraycopy(key, prefix, encoded, length, key.length - prefix);
+            length += key.length - prefix;
+            previous = key;
+            // the distinct keys are kept at the start of the array, for the page order
+            keys[size++] = key;
+        }
+
+        int pageOrderLength = pageMembers != null ? 4 * pageMembers.size() : 0;
+        if (!budget.reserve(length + pageOrderLength)) {
+            return null;
+        }
+        LDAPOffHeapMemberList list = new LDAPOffHeapMemberList();
+        list.buffer = ByteBuffer.allocateDirect(length);
+        list.buffer.put(encoded, 0, length).flip();
+        if (pageMembers != null) {
+            list.pageOrder = ByteBuffer.allocateDirect(pageOrderLength);
+            for (Member member : pageMembers) {
+                int position = member != null
+                        ? Arrays.binarySearch(keys, 0, size, toKey(member.getName(), member.getType() == Member.MemberType.GROUP), KEY_ORDER) : -1;
+                list.pageOrder.putInt(Math.max(position, -1));
+            }
+            list.pageOrder.flip();
+        }
+        list.blockOffsets = Arrays.copyOf(blockOffsets, blocks);
+        list.size = size;
+        budget.track(list, length + pageOrderLength);
+        return list;
+    }
+
+    /**
+     * @return the number of members
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of bytes used outside of the heap
+     */
+    public int getOffHeapSize() {
+        return buffer.capacity() + (pageOrder != null ? pageOrder.capacity() : 0);
+    }
+
+    /**
+     * @return true if the list holds the page order of its group
+     */
+    public boolean hasPageOrder() {
+        return pageOrder != null;
+    }
+
+    /**
+     * @return the number of positions of the page order, counting the members not resolved, or the number of members
+     * if the list has no page order
+     */
+    public int getPageSize() {
+        return pageOrder != null ? pageOrder.capacity() / 4 : size;
+    }
+
+    /**
+     * @param name the user or group name
+     * @param isGroup true for a group
+     * @return true if the member is in the list
+     */
+    public boolean contains(String name, boolean isGroup) {
+        byte[] key = toKey(name, isGroup);
+        Cursor cursor = new Cursor();
+        // last block whose first member is lower or equal to the key
+        int low = 0;
+        int high = blockOffsets.length - 1;
+        int block = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            cursor.seek(middle);
+            cursor.next();
+            int comparison = cursor.compareTo(key);
+            if (comparison == 0) {
+                return true;
+            } else if (comparison < 0) {
+                block = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        if (block < 0) {
+            return false;
+        }
+        cursor.seek(block);
+        cursor.next();
+        for (int i = 1; i < BLOCK_SIZE && cursor.next(); i++) {
+            int comparison = cursor.compareTo(key);
+            if (comparison >= 0) {
+                return comparison == 0;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return a cursor positioned before the first member
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * @return the members, as new instances
+     */
+    public List<Member> toMembers() {
+        List<Member> members = new ArrayList<Member>(size);
+        Cursor cursor = new Cursor();
+        while (cursor.next()) {
+            members.add(new Member(cursor.getName(), cursor.isGroup() ? Member.MemberType.GROUP : Member.MemberType.USER));
+        }
+        return members;
+    }
+
+    /**
+     * @param offset index of the first member returned
+     * @param limit maximum number of members returned
+     * @return the members of the window, as new instances
+     */
+    public List<Member> toMembers(int offset, int limit) {
+        List<Member> members = new ArrayList<Member>();
+        if (offset >= size || limit <= 0) {
+            return members;
+        }
+        Cursor cursor = new Cursor();
+        cursor.seek(offset / BLOCK_SIZE);
+        for (int i = offset / BLOCK_SIZE * BLOCK_SIZE; i < offset && cursor.next(); i++) {
+            // skip to the first member of the window
+        }
+        while (members.size() < limit && cursor.next()) {
+            members.add(new Member(cursor.getName(), cursor.isGroup() ? Member.MemberType.GROUP : Member.MemberType.USER));
+        }
+        return members;
+    }
+
+    /**
+     * Read a window of the page order, or of the list in its own order if it has none
+     *
+     * @param offset index of the first position read
+     * @param limit maximum number of positions read, the members not resolved are skipped
+     * @return the members of the window, as new instances
+     */
+    public List<Member> toPage(int offset, int limit) {
+        if (pageOrder == null) {
+            return toMembers(offset, limit);
+        }
+        List<Member> members = new ArrayList<Member>();
+        int end = (int) Math.min((long) offset + limit, getPageSize());
+        Cursor cursor = new Cursor();
+        for (int i = Math.max(offset, 0); i < end; i++) {
+            int position = pageOrder.getInt(4 * i);
+            if (position < 0) {
+                continue;
+            }
+            cursor.seek(position / BLOCK_SIZE);
+            for (int j = position % BLOCK_SIZE; j >= 0; j--) {
+                cursor.next();
+            }
+            members.add(new Member(cursor.getName(), cursor.isGroup() ? Member.MemberType.GROUP : Member.MemberType.USER));
+        }
+        return members;
+    }
+
+    /**
+     * Forward reader of the list. The current member is decoded in a buffer reused from one member to the next, moving
+     * the cursor does not allocate.
+     */
+    public final class Cursor {
+        private final ByteBuffer view = buffer.duplicate();
+        private byte[] current = new byte[64];
+        private int currentLength = 0;
+
+        private void seek(int block) {
+            view.position(blockOffsets[block]);
+            currentLength = 0;
+        }
+
+        /**
+         * @return true if the cursor moved to a member, false at the end of the list
+         */
+        public boolean next() {
+            if (!view.hasRemaining()) {
+                return false;
+            }
+            int prefix = readVarInt(view);
+            int suffix = readVarInt(view);
+            if (prefix + suffix > current.length) {
+                current = Arrays.copyOf(current, Math.max(current.length * 2, prefix + suffix));
+            }
+            view.get(current, prefix, suffix);
+            currentLength = prefix + suffix;
+            return true;
+        }
+
+        /**
+         * @return true if the current member is a group
+         */
+        public boolean isGroup() {
+            return current[0] == GROUP;
+        }
+
+        /**
+         * @return the name of the current member, as a new string
+         */
+        public String getName() {
+            return new String(current, 1, currentLength - 1, StandardCharsets.UTF_8);
+        }
+
+        private int compareTo(byte[] key) {
+            return compare(current, currentLength, key, key.length);
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        byte[] bytes = new byte[buffer.capacity()];
+        buffer.duplicate().get(bytes);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        if (pageOrder != null) {
+            byte[] pageOrderBytes = new byte[pageOrder.capacity()];
+            pageOrder.duplicate().get(pageOrderBytes);
+            out.writeInt(pageOrderBytes.length);
+            out.write(pageOrderBytes);
+        } else {
+            out.writeInt(-1);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        int pageOrderLength = in.readInt();
+        if (pageOrderLength >= 0) {
+            byte[] pageOrderBytes = new byte[pageOrderLength];
+            in.readFully(pageOrderBytes);
+            pageOrder = ByteBuffer.allocateDirect(pageOrderLength);
+            pageOrder.put(pageOrderBytes).flip();
+        }
+    }
+
+    private static byte[] toKey(String name, boolean isGroup) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        byte[] key = new byte[bytes.length + 1];
+        key[0] = isGroup ? GROUP : USER;
+        System.arraycopy(bytes, 0, key, 1, bytes.length);
+        return key;
+    }
+
+    private static int commonPrefix(byte[] a, byte[] b) {
+        int max = Math.min(a.length, b.length);
+        int i = 0;
+        while (i < max && a[i] == b[i]) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int compare(byte[] a, int aLength, byte[] b, int bLength) {
+        int max = Math.min(aLength, bLength);
+        for (int i = 0; i < max; i++) {
+            int difference = (a[i] & 0xff) - (b[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return aLength - bLength;
+    }
+
+    private static int writeVarInt(byte[] bytes, int offset, int value) {
+        while ((value & ~0x7f) != 0) {
+            bytes[offset++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        bytes[offset++] = (byte) value;
+        return offset;
+    }
+
+    private static int readVarInt(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
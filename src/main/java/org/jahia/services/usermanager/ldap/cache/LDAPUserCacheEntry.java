@@ -46,6 +46,8 @@ package org.jahia.services.usermanager.ldap.cache;
 import org.jahia.services.usermanager.JahiaUser;
 
 import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Represents and entry in the LDAP user cache.
@@ -55,6 +57,8 @@ import java.io.Serializable;
 public class LDAPUserCacheEntry extends LDAPAbstractCacheEntry implements Serializable{
     private static final long serialVersionUID = -1432235243384204528L;
     private JahiaUser user;
+    private Map<String, List<String>> filterAttributes;
+    private List<String> memberOfDns;
 
     public LDAPUserCacheEntry(String name) {
         setName(name);
@@ -67,4 +71,28 @@ public class LDAPUserCacheEntry extends LDAPAbstractCacheEntry implements Serial
     public void setUser(JahiaUser user) {
         this.user = user;
     }
+
+    /**
+     * @return the values of the attributes used by the dynamic group filters, by lower case attribute id, read with
+     * the entry; an attribute the entry does not have is mapped to an empty list, an attribute not read is absent.
+     * Null if no dynamic group filter was known when the entry was read
+     */
+    public Map<String, List<String>> getFilterAttributes() {
+        return filterAttributes;
+    }
+
+    /**
+     * @return the DNs of the groups listed in the member of attribute of the user, null if not read
+     */
+    public List<String> getMemberOfDns() {
+        return memberOfDns;
+    }
+
+    public void setMemberOfDns(List<String> memberOfDns) {
+        this.memberOfDns = memberOfDns;
+    }
+
+    public void setFilterAttributes(Map<String, List<String>> filterAttributes) {
+        this.filterAttributes = filterAttributes;
+    }
 }
@@ -0,0 +1,172 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.communication;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs independent LDAP lookups of a provider in parallel, on a fixed number of threads so that the lookups cannot
+ * take all the connections of the pool. Results are returned in the order of the lookups.
+ */
+public class LdapParallelExecutor {
+
+    private static Logger logger = LoggerFactory.getLogger(LdapParallelExecutor.class);
+
+    private final String providerKey;
+    private final int parallelism;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param providerKey the provider key, used to name the threads
+     * @param parallelism the maximum number of lookups running at the same time
+     */
+    public LdapParallelExecutor(final String providerKey, int parallelism) {
+        this.providerKey = providerKey;
+        this.parallelism = Math.max(parallelism, 1);
+        executor = new ThreadPoolExecutor(this.parallelism, this.parallelism, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "LDAP lookup " + providerKey + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Execute the lookups and wait for all of them
+     *
+     * @param lookups the lookups to execute
+     * @return the results in the order of the lookups, null for a lookup that failed or was cancelled
+     */
+    public <T> List<T> invokeAll(List<? extends Callable<T>> lookups) {
+        List<T> results = new ArrayList<T>(lookups.size());
+        if (lookups.size() == 1 || parallelism == 1) {
+            // not worth a thread switch
+            for (Callable<T> lookup : lookups) {
+                results.add(call(lookup));
+            }
+            return results;
+        }
+
+        List<Future<T>> futures;
+        try {
+            futures = executor.invokeAll(lookups);
+        } catch (RejectedExecutionException e) {
+            logger.debug("Lookups of provider {} rejected, the provider is being unregistered", providerKey);
+            return nulls(lookups.size());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return nulls(lookups.size());
+        }
+        for (Future<T> future : futures) {
+            results.add(get(future));
+        }
+        return results;
+    }
+
+    /**
+     * Stop the threads, lookups not started yet are cancelled
+     */
+    public void shutdown() {
+        for (Runnable pending : executor.shutdownNow()) {
+            if (pending instanceof Future) {
+                ((Future<?>) pending).cancel(false);
+            }
+        }
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    private <T> T call(Callable<T> lookup) {
+        try {
+            return lookup.call();
+        } catch (Exception e) {
+            logger.warn("LDAP lookup failed on provider " + providerKey, e);
+            return null;
+        }
+    }
+
+    private <T> T get(Future<T> future) {
+        try {
+            return future.get();
+        } catch (CancellationException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            logger.warn("LDAP lookup failed on provider " + providerKey, e.getCause());
+            return null;
+        }
+    }
+
+    private static <T> List<T> nulls(int size) {
+        List<T> results = new ArrayList<T>(size);
+        for (int i = 0; i < size; i++) {
+            results.add(null);
+        }
+        return results;
+    }
+}
@@ -56,6 +56,15 @@ import java.util.Set;
 public abstract class AbstractConfig {
     private static final int DEFAULT_SEARCH_COUNT_LIMIT = 100;
     private static final int DEFAULT_MAX_TIMEOUT_COUNT = 3;
+    private static final int DEFAULT_CACHE_TTL = 3600;
+    private static final int DEFAULT_CACHE_NEGATIVE_TTL = 300;
+    private static final long DEFAULT_CACHE_MAX_ENTRIES = 100000;
+    private static final int DEFAULT_LOOKUP_BATCH_SIZE = 50;
+    private static final int DEFAULT_SYNC_SWEEP_INTERVAL = 3600;
+
+    public static final String SYNC_MODE_SYNCREPL = "syncrepl";
+    public static final String SYNC_MODE_AD = "ad";
+    public static final String SYNC_MODE_TIMESTAMP = "timestamp";
 
     private String url;
     private String publicBindDn;
@@ -102,6 +111,47 @@ public abstract class AbstractConfig {
 
     private String targetSite;
 
+    /**
+     * Maximum number of cached elements, 0 for no limit. Ignored when a maximum heap size is set.
+     */
+    private long cacheMaxEntries = DEFAULT_CACHE_MAX_ENTRIES;
+    /**
+     * Maximum heap used by the cached entries (e.g. "64M"). Approximate: entries are weighted by a bounded walk of
+     * their objects, and the off-heap member lists, member id registry and membership graph are not counted.
+     */
+    private String cacheMaxHeap;
+    private int cacheTtl = DEFAULT_CACHE_TTL;
+    private int cacheNegativeTtl = DEFAULT_CACHE_NEGATIVE_TTL;
+    private int cacheMembershipTtl = DEFAULT_CACHE_TTL;
+    /**
+     * Fraction of the time to live after which a cached entry is refreshed in background, 0 to disable.
+     */
+    private double cacheRefreshAheadRatio = 0;
+    /**
+     * Page size of the searches using the paged results control, 0 to search without paging.
+     */
+    private int searchPageSize = 0;
+    /**
+     * Attribute on which the server sorts the search results to return a window of them (sort and VLV controls).
+     */
+    private String searchSortAttribute;
+    /**
+     * Number of names OR-ed in one filter when several entries are looked up at once.
+     */
+    private int lookupBatchSize = DEFAULT_LOOKUP_BATCH_SIZE;
+    /**
+     * Interval in seconds of the content synchronization (RFC 4533) of the entries, 0 to disable.
+     */
+    private int syncInterval = 0;
+    /**
+     * How the changes are read: {@link #SYNC_MODE_SYNCREPL}, {@link #SYNC_MODE_AD} or {@link #SYNC_MODE_TIMESTAMP}.
+     */
+    private String syncMode = SYNC_MODE_SYNCREPL;
+    /**
+     * Interval in seconds of the search of the deleted entries, in {@link #SYNC_MODE_TIMESTAMP} and {@link #SYNC_MODE_SYNCREPL} modes.
+     */
+    private int syncSweepInterval = DEFAULT_SYNC_SWEEP_INTERVAL;
+
     public String getUrl() {
         return url;
     }
@@ -374,6 +424,161 @@ public abstract class AbstractConfig {
         this.targetSite = targetSite;
     }
 
+    public long getCacheMaxEntries() {
+        return cacheMaxEntries;
+    }
+
+    public void setCacheMaxEntries(long cacheMaxEntries) {
+        this.cacheMaxEntries = cacheMaxEntries;
+    }
+
+    public String getCacheMaxHeap() {
+        return cacheMaxHeap;
+    }
+
+    public void setCacheMaxHeap(String cacheMaxHeap) {
+        this.cacheMaxHeap = cacheMaxHeap;
+    }
+
+    /**
+     * Returns the time to live, in seconds, of the entries found in the LDAP
+     *
+     * @return the time to live of the existing entries
+     */
+    public int getCacheTtl() {
+        return cacheTtl;
+    }
+
+    public void setCacheTtl(int cacheTtl) {
+        this.cacheTtl = cacheTtl;
+    }
+
+    /**
+     * Returns the time to live, in seconds, of the entries not found in the LDAP
+     *
+     * @return the time to live of the negative entries
+     */
+    public int getCacheNegativeTtl() {
+        return cacheNegativeTtl;
+    }
+
+    public void setCacheNegativeTtl(int cacheNegativeTtl) {
+        this.cacheNegativeTtl = cacheNegativeTtl;
+    }
+
+    /**
+     * Returns the time, in seconds, after which the cached members and memberships of an entry are reloaded.
+     * Only effective when lower than the time to live of the entry itself.
+     *
+     * @return the time to live of the members and memberships
+     */
+    public int getCacheMembershipTtl() {
+        return cacheMembershipTtl;
+    }
+
+    public void setCacheMembershipTtl(int cacheMembershipTtl) {
+        this.cacheMembershipTtl = cacheMembershipTtl;
+    }
+
+    /**
+     * Returns the fraction of the time to live after which a cached entry is still served but reloaded in background,
+     * e.g. 0.8 reloads an entry during the last 20% of its life. 0 or any value outside ]0,1[ disables the refresh.
+     *
+     * @return the refresh-ahead ratio
+     */
+    public double getCacheRefreshAheadRatio() {
+        return cacheRefreshAheadRatio;
+    }
+
+    public void setCacheRefreshAheadRatio(double cacheRefreshAheadRatio) {
+        this.cacheRefreshAheadRatio = cacheRefreshAheadRatio;
+    }
+
+    /**
+     * Returns the page size used to search with the paged results control (RFC 2696).
+     * When paging, a search is no more truncated by the count limit when an explicit limit is requested.
+     *
+     * @return the page size, 0 if paging is disabled
+     */
+    public int getSearchPageSize() {
+        return searchPageSize;
+    }
+
+    public void setSearchPageSize(int searchPageSize) {
+        this.searchPageSize = searchPageSize;
+    }
+
+    /**
+     * Returns the attribute used to sort the search results on the server side. When set, and if the server supports the
+     * sort and Virtual List View controls, a search with an offset and a limit only returns the requested window.
+     *
+     * @return the sort attribute, null to keep the server order
+     */
+    public String getSearchSortAttribute() {
+        return searchSortAttribute;
+    }
+
+    public void setSearchSortAttribute(String searchSortAttribute) {
+        this.searchSortAttribute = searchSortAttribute;
+    }
+
+    public int getLookupBatchSize() {
+        return lookupBatchSize;
+    }
+
+    public void setLookupBatchSize(int lookupBatchSize) {
+        this.lookupBatchSize = lookupBatchSize;
+    }
+
+    /**
+     * When set, the changes of the entries are read from the server at this interval with the LDAP Content
+     * Synchronization Operation and applied to the cached entries.
+     *
+     * @return the interval in seconds, 0 if the synchronization is disabled
+     */
+    public int getSyncInterval() {
+        return syncInterval;
+    }
+
+    public void setSyncInterval(int syncInterval) {
+        this.syncInterval = syncInterval;
+    }
+
+    /**
+     * @return {@link #SYNC_MODE_SYNCREPL} for the content synchronization (RFC 4533), {@link #SYNC_MODE_AD} for the
+     * Active Directory DirSync control, or uSNChanged searches when DirSync is refused, {@link #SYNC_MODE_TIMESTAMP}
+     * for modifyTimestamp searches on the other servers
+     */
+    public String getSyncMode() {
+        return syncMode;
+    }
+
+    public void setSyncMode(String syncMode) {
+        this.syncMode = syncMode;
+    }
+
+    /**
+     * The modifyTimestamp searches do not return the deleted entries, and the content synchronization only lists some
+     * of them in messages JNDI does not read: the DNs of all the entries are read at this interval, the cached entries
+     * that are not found any more are removed.
+     *
+     * @return the interval in seconds, 0 to never search the deleted entries
+     */
+    public int getSyncSweepInterval() {
+        return syncSweepInterval;
+    }
+
+    public void setSyncSweepInterval(int syncSweepInterval) {
+        this.syncSweepInterval = syncSweepInterval;
+    }
+
+    /**
+     * @return true if cached entries are refreshed in background before they expire
+     */
+    public boolean isCacheRefreshAhead() {
+        return cacheRefreshAheadRatio > 0 && cacheRefreshAheadRatio < 1 && cacheTtl > 0;
+    }
+
     /**
      * Returns fixed query filter that is used when searching for users/groups to filter out "unwanted" entries.
      * 
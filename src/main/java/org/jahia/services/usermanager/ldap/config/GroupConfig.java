@@ -57,6 +57,8 @@ import javax.naming.directory.BasicAttributes;
  */
 public class GroupConfig extends AbstractConfig{
     private boolean preload = false;
+    private int preloadThreads = 4;
+    private int preloadPageSize = 500;
     private boolean dynamicEnabled = false;
     private String refferal = "ignore";
     private int adRangeStep = 0;
@@ -65,6 +67,15 @@ public class GroupConfig extends AbstractConfig{
     private String membersAttribute = "uniqueMember";
     private String dynamicSearchObjectclass = "groupOfURLs";
     private String dynamicMembersAttribute = "memberurl";
+    private String membersDnAttribute;
+    private int membersBatchSize = 100;
+    private int membersResolutionThreads = 4;
+    private int membershipMaxDepth = 10;
+    private int cacheIsMemberTtl = 300;
+    private boolean adMatchingRuleInChain = false;
+    private int membersOffHeapThreshold = 0;
+    private String membersOffHeapMaxSize = "256M";
+    private int cacheMaxMemberIds = 1000000;
 
     public GroupConfig() {
     }
@@ -90,6 +101,29 @@ public class GroupConfig extends AbstractConfig{
         this.preload = preload;
     }
 
+    /**
+     * Number of threads scanning the bases and resolving the members of the groups during the preload, capped to half
+     * of the connection pool size when it is bounded
+     */
+    public int getPreloadThreads() {
+        return preloadThreads;
+    }
+
+    public void setPreloadThreads(int preloadThreads) {
+        this.preloadThreads = preloadThreads;
+    }
+
+    /**
+     * Page size of the scans of the bases during the preload
+     */
+    public int getPreloadPageSize() {
+        return preloadPageSize;
+    }
+
+    public void setPreloadPageSize(int preloadPageSize) {
+        this.preloadPageSize = preloadPageSize;
+    }
+
     public String getRefferal() {
         return refferal;
     }
@@ -98,6 +132,10 @@ public class GroupConfig extends AbstractConfig{
         this.refferal = refferal;
     }
 
+    /**
+     * Size of the ranges used to read the members attribute on Active Directory, 0 to read it at once, a negative
+     * value to let the server return its MaxValRange values per range
+     */
     public int getAdRangeStep() {
         return adRangeStep;
     }
@@ -146,6 +184,109 @@ public class GroupConfig extends AbstractConfig{
         this.dynamicMembersAttribute = dynamicMembersAttribute;
     }
 
+    /**
+     * Attribute holding the DN of an entry and usable in a search filter (e.g. entryDN, distinguishedName).
+     * When set, the members not found in cache are resolved by batches of OR-ed DNs instead of one search per member.
+     */
+    public String getMembersDnAttribute() {
+        return membersDnAttribute;
+    }
+
+    public void setMembersDnAttribute(String membersDnAttribute) {
+        this.membersDnAttribute = membersDnAttribute;
+    }
+
+    public int getMembersBatchSize() {
+        return membersBatchSize;
+    }
+
+    public void setMembersBatchSize(int membersBatchSize) {
+        this.membersBatchSize = membersBatchSize;
+    }
+
+    /**
+     * Maximum number of members resolved in parallel, capped to half of the connection pool size when it is bounded
+     */
+    public int getMembersResolutionThreads() {
+        return membersResolutionThreads;
+    }
+
+    public void setMembersResolutionThreads(int membersResolutionThreads) {
+        this.membersResolutionThreads = membersResolutionThreads;
+    }
+
+    /**
+     * Maximum number of levels of nested groups walked to compute the transitive membership of a member
+     */
+    public int getMembershipMaxDepth() {
+        return membershipMaxDepth;
+    }
+
+    public void setMembershipMaxDepth(int membershipMaxDepth) {
+        this.membershipMaxDepth = membershipMaxDepth;
+    }
+
+    /**
+     * Time to live, in seconds, of the result of a membership test done on the LDAP server
+     */
+    public int getCacheIsMemberTtl() {
+        return cacheIsMemberTtl;
+    }
+
+    public void setCacheIsMemberTtl(int cacheIsMemberTtl) {
+        this.cacheIsMemberTtl = cacheIsMemberTtl;
+    }
+
+    /**
+     * Active Directory only: resolve nested memberships and members in one query with the
+     * LDAP_MATCHING_RULE_IN_CHAIN (1.2.840.113556.1.4.1941) matching rule
+     */
+    public boolean isAdMatchingRuleInChain() {
+        return adMatchingRuleInChain;
+    }
+
+    public void setAdMatchingRuleInChain(boolean adMatchingRuleInChain) {
+        this.adMatchingRuleInChain = adMatchingRuleInChain;
+    }
+
+    /**
+     * Number of members from which the members of a group are stored outside of the Java heap, 0 to keep them all on
+     * the heap
+     */
+    public int getMembersOffHeapThreshold() {
+        return membersOffHeapThreshold;
+    }
+
+    public void setMembersOffHeapThreshold(int membersOffHeapThreshold) {
+        this.membersOffHeapThreshold = membersOffHeapThreshold;
+    }
+
+    /**
+     * Maximum direct memory used by the members stored outside of the heap (e.g. "256M"), empty for no limit. Beyond
+     * it the members of the large groups are kept on the heap
+     */
+    public String getMembersOffHeapMaxSize() {
+        return membersOffHeapMaxSize;
+    }
+
+    public void setMembersOffHeapMaxSize(String membersOffHeapMaxSize) {
+        this.membersOffHeapMaxSize = membersOffHeapMaxSize;
+    }
+
+    /**
+     * Number of distinct members of the cached groups from which the member ids are assigned again, 0 for no limit.
+     * The ids still used by the cached groups are kept; if they are more than half of the limit, all the ids are
+     * dropped and the members of every cached group reloaded, so it should be at least twice the number of distinct
+     * members of the groups the cache holds.
+     */
+    public int getCacheMaxMemberIds() {
+        return cacheMaxMemberIds;
+    }
+
+    public void setCacheMaxMemberIds(int cacheMaxMemberIds) {
+        this.cacheMaxMemberIds = cacheMaxMemberIds;
+    }
+
     public boolean isDynamicEnabled() {
         return dynamicEnabled;
     }
@@ -53,6 +53,7 @@ import org.apache.commons.lang.StringUtils;
 public class UserConfig extends AbstractConfig{
     private String uidSearchName;
     private String uidSearchAttribute = "cn";
+    private String memberofAttribute;
 
     public UserConfig() {
     }
@@ -92,4 +93,16 @@ public class UserConfig extends AbstractConfig{
     public void setUidSearchAttribute(String uidSearchAttribute) {
         this.uidSearchAttribute = uidSearchAttribute;
     }
+
+    /**
+     * Attribute of the user entries listing the DNs of their groups (memberOf, isMemberOf). When set, it is read
+     * with the other user attributes and the memberships are derived from it instead of searching the group base.
+     */
+    public String getMemberofAttribute() {
+        return memberofAttribute;
+    }
+
+    public void setMemberofAttribute(String memberofAttribute) {
+        this.memberofAttribute = memberofAttribute;
+    }
 }
@@ -0,0 +1,154 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.control;
+
+import java.util.Arrays;
+
+/**
+ * Minimal BER decoder for the values of the LDAP response controls JNDI does not provide
+ */
+public class BerReader {
+
+    private final byte[] buffer;
+    private final int end;
+    private int position;
+
+    public BerReader(byte[] buffer) {
+        this(buffer, 0, buffer.length);
+    }
+
+    private BerReader(byte[] buffer, int start, int end) {
+        this.buffer = buffer;
+        this.position = start;
+        this.end = end;
+    }
+
+    /**
+     * @return true if there is an element left to read
+     */
+    public boolean hasMore() {
+        return position < end;
+    }
+
+    /**
+     * @return the tag of the next element, without consuming it
+     */
+    public int peekTag() {
+        checkAvailable(1);
+        return buffer[position] & 0xFF;
+    }
+
+    /**
+     * Read a constructed element
+     *
+     * @return a reader over the content of the element
+     */
+    public BerReader readSequence() {
+        position++;
+        int length = readLength();
+        BerReader reader = new BerReader(buffer, position, position + length);
+        position += length;
+        return reader;
+    }
+
+    public long readInteger() {
+        position++;
+        int length = readLength();
+        checkAvailable(length);
+        long value = length > 0 && buffer[position] < 0 ? -1 : 0;
+        for (int i = 0; i < length; i++) {
+            value = (value << 8) | (buffer[position++] & 0xFF);
+        }
+        return value;
+    }
+
+    public boolean readBoolean() {
+        position++;
+        int length = readLength();
+        checkAvailable(length);
+        boolean value = length > 0 && buffer[position] != 0;
+        position += length;
+        return value;
+    }
+
+    public byte[] readOctetString() {
+        position++;
+        int length = readLength();
+        checkAvailable(length);
+        byte[] value = Arrays.copyOfRange(buffer, position, position + length);
+        position += length;
+        return value;
+    }
+
+    /**
+     * Skip the next element, whatever its type
+     */
+    public void skip() {
+        position++;
+        int length = readLength();
+        checkAvailable(length);
+        position += length;
+    }
+
+    private int readLength() {
+        checkAvailable(1);
+        int first = buffer[position++] & 0xFF;
+        if (first < 0x80) {
+            return first;
+        }
+        int size = first & 0x7F;
+        checkAvailable(size);
+        int length = 0;
+        for (int i = 0; i < size; i++) {
+            length = (length << 8) | (buffer[position++] & 0xFF);
+        }
+        return length;
+    }
+
+    private void checkAvailable(int length) {
+        if (length < 0 || position + length > end) {
+            throw new IllegalArgumentException("Truncated BER value");
+        }
+    }
+}
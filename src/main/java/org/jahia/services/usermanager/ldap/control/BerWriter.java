@@ -0,0 +1,152 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.control;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Minimal BER encoder for the values of the LDAP controls JNDI does not provide
+ */
+public class BerWriter {
+
+    public static final int TAG_BOOLEAN = 0x01;
+    public static final int TAG_INTEGER = 0x02;
+    public static final int TAG_OCTET_STRING = 0x04;
+    public static final int TAG_ENUMERATED = 0x0A;
+    public static final int TAG_SEQUENCE = 0x30;
+
+    private final Deque<Sequence> sequences = new ArrayDeque<Sequence>();
+    private ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    /**
+     * Start a constructed element, the following values are its content until {@link #endSequence()}
+     *
+     * @param tag the tag of the element, {@link #TAG_SEQUENCE} or a context specific constructed tag
+     * @return this writer
+     */
+    public BerWriter beginSequence(int tag) {
+        sequences.push(new Sequence(tag, out));
+        out = new ByteArrayOutputStream();
+        return this;
+    }
+
+    public BerWriter endSequence() {
+        Sequence sequence = sequences.pop();
+        byte[] content = out.toByteArray();
+        out = sequence.parent;
+        writeElement(sequence.tag, content);
+        return this;
+    }
+
+    public BerWriter writeInteger(long value) {
+        return writeInteger(TAG_INTEGER, value);
+    }
+
+    public BerWriter writeInteger(int tag, long value) {
+        int size = 1;
+        while (size < 8 && (value >> (size * 8 - 1)) != 0 && (value >> (size * 8 - 1)) != -1) {
+            size++;
+        }
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[size - 1 - i] = (byte) (value >> (i * 8));
+        }
+        writeElement(tag, content);
+        return this;
+    }
+
+    public BerWriter writeBoolean(boolean value) {
+        writeElement(TAG_BOOLEAN, new byte[]{value ? (byte) 0xFF : 0});
+        return this;
+    }
+
+    public BerWriter writeOctetString(byte[] value) {
+        return writeOctetString(TAG_OCTET_STRING, value);
+    }
+
+    public BerWriter writeOctetString(int tag, byte[] value) {
+        writeElement(tag, value != null ? value : new byte[0]);
+        return this;
+    }
+
+    /**
+     * @return the encoded value, all the sequences must have been ended
+     */
+    public byte[] toByteArray() {
+        if (!sequences.isEmpty()) {
+            throw new IllegalStateException("Unterminated BER sequence");
+        }
+        return out.toByteArray();
+    }
+
+    private void writeElement(int tag, byte[] content) {
+        out.write(tag);
+        int length = content.length;
+        if (length < 0x80) {
+            out.write(length);
+        } else {
+            int size = 0;
+            for (int l = length; l > 0; l >>= 8) {
+                size++;
+            }
+            out.write(0x80 | size);
+            for (int i = size - 1; i >= 0; i--) {
+                out.write(length >> (i * 8));
+            }
+        }
+        out.write(content, 0, length);
+    }
+
+    private static class Sequence {
+        private final int tag;
+        private final ByteArrayOutputStream parent;
+
+        private Sequence(int tag, ByteArrayOutputStream parent) {
+            this.tag = tag;
+            this.parent = parent;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.control;
+
+import org.springframework.ldap.core.DirContextProcessor;
+
+import javax.naming.NamingException;
+import javax.naming.OperationNotSupportedException;
+import javax.naming.directory.DirContext;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+
+/**
+ * Sends a DirSync control with a search and reads the DirSync control of the response. The request control is
+ * removed from the context once the search is done.
+ */
+public class DirSyncDirContextProcessor implements DirContextProcessor {
+
+    private final int flags;
+    private final byte[] cookie;
+
+    private DirSyncResponse response;
+
+    /**
+     * @param flags the flags of the request, see {@link DirSyncRequestControl}
+     * @param cookie the cookie of the previous search, null for the initial content
+     */
+    public DirSyncDirContextProcessor(int flags, byte[] cookie) {
+        this.flags = flags;
+        this.cookie = cookie;
+    }
+
+    @Override
+    public void preProcess(DirContext ctx) throws NamingException {
+        if (!(ctx instanceof LdapContext)) {
+            throw new OperationNotSupportedException("DirSync requires an LdapContext, got " + ctx.getClass().getName());
+        }
+        ((LdapContext) ctx).setRequestControls(new Control[]{new DirSyncRequestControl(flags, 0, cookie)});
+    }
+
+    @Override
+    public void postProcess(DirContext ctx) throws NamingException {
+        LdapContext ldapContext = (LdapContext) ctx;
+        try {
+            Control[] responseControls = ldapContext.getResponseControls();
+            if (responseControls != null) {
+                for (Control control : responseControls) {
+                    if (DirSyncResponse.OID.equals(control.getID())) {
+                        response = DirSyncResponse.decode(control.getEncodedValue());
+                    }
+                }
+            }
+        } finally {
+            ldapContext.setRequestControls(null);
+        }
+    }
+
+    /**
+     * @return the DirSync control of the response, null if the server did not send one
+     */
+    public DirSyncResponse getResponse() {
+        return response;
+    }
+}
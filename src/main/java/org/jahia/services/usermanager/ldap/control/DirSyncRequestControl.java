@@ -0,0 +1,83 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.control;
+
+import javax.naming.ldap.BasicControl;
+
+/**
+ * Active Directory DirSync control, returning the objects changed since a cookie
+ */
+public class DirSyncRequestControl extends BasicControl {
+    private static final long serialVersionUID = -6418230968250417311L;
+
+    public static final String OID = "1.2.840.113556.1.4.841";
+
+    /**
+     * Only return the objects and attributes the bound account can read, no replication right needed
+     */
+    public static final int OBJECT_SECURITY = 0x00000001;
+    /**
+     * Return the values added to and removed from a linked attribute instead of all its values
+     */
+    public static final int INCREMENTAL_VALUES = 0x80000000;
+
+    /**
+     * @param flags a combination of {@link #OBJECT_SECURITY} and {@link #INCREMENTAL_VALUES}
+     * @param maxBytes maximum size of the attributes returned by one search, 0 for the server default
+     * @param cookie the cookie of the previous synchronization, null for the initial content
+     */
+    public DirSyncRequestControl(int flags, int maxBytes, byte[] cookie) {
+        super(OID, CRITICAL, encode(flags, maxBytes, cookie));
+    }
+
+    private static byte[] encode(int flags, int maxBytes, byte[] cookie) {
+        // the flags are a 32 bits value, encoded as a signed integer
+        return new BerWriter()
+                .beginSequence(BerWriter.TAG_SEQUENCE)
+                .writeInteger(flags)
+                .writeInteger(maxBytes)
+                .writeOctetString(cookie)
+                .endSequence().toByteArray();
+    }
+}
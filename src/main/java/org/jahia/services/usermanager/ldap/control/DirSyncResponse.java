@@ -0,0 +1,87 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.control;
+
+/**
+ * Decoded Active Directory DirSync response control
+ */
+public class DirSyncResponse {
+
+    public static final String OID = DirSyncRequestControl.OID;
+
+    private final boolean moreResults;
+    private final byte[] cookie;
+
+    private DirSyncResponse(boolean moreResults, byte[] cookie) {
+        this.moreResults = moreResults;
+        this.cookie = cookie;
+    }
+
+    /**
+     * @param encodedValue the value of the control
+     * @return the decoded control
+     */
+    public static DirSyncResponse decode(byte[] encodedValue) {
+        BerReader reader = new BerReader(encodedValue).readSequence();
+        boolean moreResults = reader.readInteger() != 0;
+        // unused size
+        reader.skip();
+        byte[] cookie = reader.readOctetString();
+        return new DirSyncResponse(moreResults, cookie.length > 0 ? cookie : null);
+    }
+
+    /**
+     * @return true if more changes are available, to read with the new cookie
+     */
+    public boolean hasMoreResults() {
+        return moreResults;
+    }
+
+    /**
+     * @return the cookie to resume from the end of this search, null if the server did not send one
+     */
+    public byte[] getCookie() {
+        return cookie;
+    }
+}
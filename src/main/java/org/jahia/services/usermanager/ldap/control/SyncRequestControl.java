@@ -0,0 +1,76 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.control;
+
+import javax.naming.ldap.BasicControl;
+
+/**
+ * Sync Request control of the LDAP Content Synchronization Operation (RFC 4533)
+ */
+public class SyncRequestControl extends BasicControl {
+    private static final long serialVersionUID = 4530815285318052453L;
+
+    public static final String OID = "1.3.6.1.4.1.4203.1.9.1.1";
+
+    public static final int REFRESH_ONLY = 1;
+    public static final int REFRESH_AND_PERSIST = 3;
+
+    /**
+     * @param mode {@link #REFRESH_ONLY} or {@link #REFRESH_AND_PERSIST}
+     * @param cookie the cookie of the previous synchronization, null for the initial content
+     */
+    public SyncRequestControl(int mode, byte[] cookie) {
+        super(OID, CRITICAL, encode(mode, cookie));
+    }
+
+    private static byte[] encode(int mode, byte[] cookie) {
+        BerWriter writer = new BerWriter()
+                .beginSequence(BerWriter.TAG_SEQUENCE)
+                .writeInteger(BerWriter.TAG_ENUMERATED, mode);
+        if (cookie != null) {
+            writer.writeOctetString(cookie);
+        }
+        return writer.endSequence().toByteArray();
+    }
+}
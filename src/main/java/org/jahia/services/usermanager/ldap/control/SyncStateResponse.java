@@ -0,0 +1,97 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.control;
+
+/**
+ * Decoded Sync State control, sent with each entry of a content synchronization (RFC 4533)
+ */
+public class SyncStateResponse {
+
+    public static final String OID = "1.3.6.1.4.1.4203.1.9.1.2";
+
+    public static final int PRESENT = 0;
+    public static final int ADD = 1;
+    public static final int MODIFY = 2;
+    public static final int DELETE = 3;
+
+    private final int state;
+    private final byte[] entryUUID;
+    private final byte[] cookie;
+
+    private SyncStateResponse(int state, byte[] entryUUID, byte[] cookie) {
+        this.state = state;
+        this.entryUUID = entryUUID;
+        this.cookie = cookie;
+    }
+
+    /**
+     * @param encodedValue the value of the control
+     * @return the decoded control
+     */
+    public static SyncStateResponse decode(byte[] encodedValue) {
+        BerReader reader = new BerReader(encodedValue).readSequence();
+        int state = (int) reader.readInteger();
+        byte[] entryUUID = reader.readOctetString();
+        byte[] cookie = reader.hasMore() ? reader.readOctetString() : null;
+        return new SyncStateResponse(state, entryUUID, cookie);
+    }
+
+    /**
+     * @return {@link #PRESENT}, {@link #ADD}, {@link #MODIFY} or {@link #DELETE}
+     */
+    public int getState() {
+        return state;
+    }
+
+    public byte[] getEntryUUID() {
+        return entryUUID;
+    }
+
+    /**
+     * @return the cookie to resume from this entry, null if the server did not send one
+     */
+    public byte[] getCookie() {
+        return cookie;
+    }
+}
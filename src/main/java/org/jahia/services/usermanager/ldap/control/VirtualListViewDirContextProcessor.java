@@ -0,0 +1,126 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.control;
+
+import org.springframework.ldap.core.DirContextProcessor;
+
+import javax.naming.NamingException;
+import javax.naming.OperationNotSupportedException;
+import javax.naming.directory.DirContext;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.SortControl;
+import java.io.IOException;
+
+/**
+ * Sends a sort control and a Virtual List View control with a search, so that the server only returns a window of the
+ * sorted result. The request controls are removed from the context once the search is done.
+ */
+public class VirtualListViewDirContextProcessor implements DirContextProcessor {
+
+    private final String[] sortKeys;
+    private final int offset;
+    private final int count;
+
+    private VirtualListViewResponse response;
+
+    /**
+     * @param sortKeys the attributes to sort on
+     * @param offset the number of entries to skip
+     * @param count the number of entries of the window
+     */
+    public VirtualListViewDirContextProcessor(String[] sortKeys, int offset, int count) {
+        this.sortKeys = sortKeys;
+        this.offset = offset;
+        this.count = count;
+    }
+
+    @Override
+    public void preProcess(DirContext ctx) throws NamingException {
+        if (!(ctx instanceof LdapContext)) {
+            throw new OperationNotSupportedException("Virtual list view requires an LdapContext, got " + ctx.getClass().getName());
+        }
+        try {
+            ((LdapContext) ctx).setRequestControls(new Control[]{
+                    new SortControl(sortKeys, Control.CRITICAL),
+                    new VirtualListViewRequestControl(offset + 1, 0, Math.max(count - 1, 0), 0, null)
+            });
+        } catch (IOException e) {
+            NamingException namingException = new NamingException("Unable to encode the sort control");
+            namingException.setRootCause(e);
+            throw namingException;
+        }
+    }
+
+    @Override
+    public void postProcess(DirContext ctx) throws NamingException {
+        LdapContext ldapContext = (LdapContext) ctx;
+        try {
+            Control[] responseControls = ldapContext.getResponseControls();
+            if (responseControls != null) {
+                for (Control control : responseControls) {
+                    if (VirtualListViewResponse.OID.equals(control.getID())) {
+                        response = VirtualListViewResponse.decode(control.getEncodedValue());
+                    }
+                }
+            }
+        } finally {
+            ldapContext.setRequestControls(null);
+        }
+    }
+
+    /**
+     * @return true if the server returned the requested window
+     */
+    public boolean isSuccess() {
+        return response != null && response.getResult() == VirtualListViewResponse.SUCCESS;
+    }
+
+    /**
+     * @return the response of the server, null if it did not send one
+     */
+    public VirtualListViewResponse getResponse() {
+        return response;
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.control;
+
+import javax.naming.ldap.BasicControl;
+
+/**
+ * Virtual List View request control (draft-ietf-ldapext-ldapv3-vlv), selecting a window of a sorted search result by offset.
+ * Must be sent along with a sort control.
+ */
+public class VirtualListViewRequestControl extends BasicControl {
+    private static final long serialVersionUID = -4289587313917286571L;
+
+    public static final String OID = "2.16.840.1.113730.3.4.9";
+
+    private static final int TAG_BY_OFFSET = 0xA0;
+
+    /**
+     * @param offset the position of the first entry of the window, starting at 1
+     * @param beforeCount number of entries before the target
+     * @param afterCount number of entries after the target
+     * @param contentCount the estimated size of the result, 0 if unknown
+     * @param contextId the context returned by the previous response, may be null
+     */
+    public VirtualListViewRequestControl(int offset, int beforeCount, int afterCount, int contentCount, byte[] contextId) {
+        super(OID, CRITICAL, encode(offset, beforeCount, afterCount, contentCount, contextId));
+    }
+
+    private static byte[] encode(int offset, int beforeCount, int afterCount, int contentCount, byte[] contextId) {
+        BerWriter writer = new BerWriter()
+                .beginSequence(BerWriter.TAG_SEQUENCE)
+                .writeInteger(beforeCount)
+                .writeInteger(afterCount)
+                .beginSequence(TAG_BY_OFFSET)
+                .writeInteger(offset)
+                .writeInteger(contentCount)
+                .endSequence();
+        if (contextId != null) {
+            writer.writeOctetString(contextId);
+        }
+        return writer.endSequence().toByteArray();
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.control;
+
+/**
+ * Decoded Virtual List View response control
+ */
+public class VirtualListViewResponse {
+
+    public static final String OID = "2.16.840.1.113730.3.4.10";
+
+    public static final int SUCCESS = 0;
+
+    private final int targetPosition;
+    private final int contentCount;
+    private final int result;
+    private final byte[] contextId;
+
+    private VirtualListViewResponse(int targetPosition, int contentCount, int result, byte[] contextId) {
+        this.targetPosition = targetPosition;
+        this.contentCount = contentCount;
+        this.result = result;
+        this.contextId = contextId;
+    }
+
+    /**
+     * @param encodedValue the value of the response control
+     * @return the decoded response
+     */
+    public static VirtualListViewResponse decode(byte[] encodedValue) {
+        BerReader reader = new BerReader(encodedValue).readSequence();
+        int targetPosition = (int) reader.readInteger();
+        int contentCount = (int) reader.readInteger();
+        int result = (int) reader.readInteger();
+        byte[] contextId = reader.hasMore() ? reader.readOctetString() : null;
+        return new VirtualListViewResponse(targetPosition, contentCount, result, contextId);
+    }
+
+    /**
+     * @return the position of the first entry of the window in the whole result, starting at 1
+     */
+    public int getTargetPosition() {
+        return targetPosition;
+    }
+
+    /**
+     * @return the size of the whole result, as estimated by the server
+     */
+    public int getContentCount() {
+        return contentCount;
+    }
+
+    /**
+     * @return the LDAP result code of the window request, {@link #SUCCESS} if the window was returned
+     */
+    public int getResult() {
+        return result;
+    }
+
+    public byte[] getContextId() {
+        return contextId;
+    }
+}
@@ -0,0 +1,249 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.dn;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.InvalidNameException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Computes a canonical form of the DNs returned by the LDAP servers, so that the variants of the same DN
+ * (<code>CN=John,OU=People</code>, <code>cn=john, ou=people</code>, ...) end up on the same cache key.
+ * <p>
+ * Canonical form: attribute types and values lower-cased, insignificant spaces removed, values escaped the same way,
+ * multi-valued RDNs sorted. It is only meant to be used as a lookup key, the DN sent to the server stays the original one.
+ * <p>
+ * The canonical strings go through a bounded pool so that a DN seen many times (typically as a member of many groups)
+ * is held by a single instance, the DNs in their original form can be shared the same way with {@link #intern(String)}. The pool is a direct-mapped table: a colliding DN replaces the previous one, which
+ * keeps its size fixed without any locking.
+ */
+public class LDAPDnCanonicalizer {
+
+    private static Logger logger = LoggerFactory.getLogger(LDAPDnCanonicalizer.class);
+
+    private static final int DEFAULT_POOL_SIZE = 1 << 16;
+
+    private final CanonicalDn[] pool;
+    private final int mask;
+
+    public LDAPDnCanonicalizer() {
+        this(DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * @param poolSize maximum number of pooled DNs, rounded up to a power of two
+     */
+    public LDAPDnCanonicalizer(int poolSize) {
+        int size = Integer.highestOneBit(Math.max(poolSize, 2) - 1) << 1;
+        pool = new CanonicalDn[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Get the canonical form of a DN
+     *
+     * @param dn the DN as returned by the server
+     * @return the shared canonical DN, or the DN itself if it cannot be parsed
+     */
+    public String canonicalize(String dn) {
+        if (dn == null) {
+            return null;
+        }
+        int slot = spread(dn.hashCode()) & mask;
+        CanonicalDn pooled = pool[slot];
+        if (pooled != null && (pooled.raw.equals(dn) || pooled.canonical.equals(dn))) {
+            return pooled.canonical;
+        }
+
+        String canonical = toCanonical(dn);
+        // a DN already canonical is pooled under its own slot, reuse the instance if present
+        int canonicalSlot = spread(canonical.hashCode()) & mask;
+        CanonicalDn canonicalPooled = pool[canonicalSlot];
+        if (canonicalPooled != null && canonicalPooled.canonical.equals(canonical)) {
+            canonical = canonicalPooled.canonical;
+        } else {
+            pool[canonicalSlot] = new CanonicalDn(canonical, canonical);
+        }
+        if (slot != canonicalSlot) {
+            pool[slot] = new CanonicalDn(dn, canonical);
+        }
+        return canonical;
+    }
+
+    /**
+     * Get a shared instance of a DN, in the form returned by the server
+     *
+     * @param dn the DN as returned by the server
+     * @return the pooled instance equal to the DN, or the DN itself once pooled
+     */
+    public String intern(String dn) {
+        if (dn == null) {
+            return null;
+        }
+        CanonicalDn pooled = pool[spread(dn.hashCode()) & mask];
+        if (pooled != null) {
+            if (pooled.raw.equals(dn)) {
+                return pooled.raw;
+            }
+            if (pooled.canonical.equals(dn)) {
+                return pooled.canonical;
+            }
+        }
+        String canonical = canonicalize(dn);
+        return canonical.equals(dn) ? canonical : dn;
+    }
+
+    /**
+     * @param dn1 a DN
+     * @param dn2 another DN
+     * @return true if both DNs have the same canonical form
+     */
+    public boolean isSameDn(String dn1, String dn2) {
+        if (dn1 == null || dn2 == null) {
+            return dn1 == dn2;
+        }
+        return dn1.equals(dn2) || canonicalize(dn1).equals(canonicalize(dn2));
+    }
+
+    private static String toCanonical(String dn) {
+        LdapName ldapName;
+        try {
+            ldapName = new LdapName(dn);
+        } catch (InvalidNameException e) {
+            logger.debug("Unable to parse DN {}, using it as is", dn);
+            return dn;
+        }
+        List<Rdn> rdns = ldapName.getRdns();
+        StringBuilder canonical = new StringBuilder(dn.length());
+        // the RDNs are listed from the right most one
+        for (int i = rdns.size() - 1; i >= 0; i--) {
+            if (canonical.length() > 0) {
+                canonical.append(',');
+            }
+            appendRdn(canonical, rdns.get(i));
+        }
+        return canonical.toString();
+    }
+
+    private static void appendRdn(StringBuilder canonical, Rdn rdn) {
+        // the attributes of a multi-valued RDN are iterated in sorted order
+        boolean first = true;
+        NamingEnumeration<? extends Attribute> attributes = rdn.toAttributes().getAll();
+        try {
+            TreeMap<String, String> sorted = new TreeMap<String, String>();
+            while (attributes.hasMore()) {
+                Attribute attribute = attributes.next();
+                String type = attribute.getID().trim().toLowerCase(Locale.ENGLISH);
+                sorted.put(type, normalizeValue(attribute.get()));
+            }
+            for (Map.Entry<String, String> entry : sorted.entrySet()) {
+                if (!first) {
+                    canonical.append('+');
+                }
+                first = false;
+                canonical.append(entry.getKey()).append('=').append(entry.getValue());
+            }
+        } catch (NamingException e) {
+            // not expected from in-memory attributes
+            canonical.append(rdn.toString().toLowerCase(Locale.ENGLISH));
+        }
+    }
+
+    private static String normalizeValue(Object value) {
+        if (!(value instanceof String)) {
+            // binary value, keep its escaped hexadecimal form
+            return Rdn.escapeValue(value).toLowerCase(Locale.ENGLISH);
+        }
+        return Rdn.escapeValue(normalizeText((String) value));
+    }
+
+    /**
+     * Normalize a value as a case-ignore matching rule compares it, independently of the default locale
+     *
+     * @param value an attribute value, unescaped
+     * @return the value lower-cased, trimmed, with its inner runs of spaces replaced by a single space
+     */
+    public static String normalizeText(String value) {
+        String stringValue = value.trim();
+        StringBuilder normalized = new StringBuilder(stringValue.length());
+        boolean space = false;
+        for (int i = 0; i < stringValue.length(); i++) {
+            char c = stringValue.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = true;
+            } else {
+                if (space) {
+                    normalized.append(' ');
+                    space = false;
+                }
+                normalized.append(Character.toLowerCase(c));
+            }
+        }
+        return normalized.toString();
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static final class CanonicalDn {
+        private final String raw;
+        private final String canonical;
+
+        private CanonicalDn(String raw, String canonical) {
+            this.raw = raw;
+            this.canonical = canonical;
+        }
+    }
+}
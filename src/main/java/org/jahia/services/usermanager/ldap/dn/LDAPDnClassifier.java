@@ -0,0 +1,391 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.dn;
+
+import org.apache.commons.lang.StringUtils;
+
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Tells whether a DN is a user or a group of a provider, and extracts its name, from the configured search bases.
+ * Built once per provider configuration: the RDNs of the bases are normalized up front, a DN is then matched by walking
+ * its RDNs from the right most one and comparing them in place with the ones of the bases, without parsing or copying it.
+ * The DNs this walk cannot compare (quoted values, non ASCII escapes, bases with multi-valued RDNs) are matched on their
+ * canonical form instead.
+ */
+public class LDAPDnClassifier {
+
+    private static final int MATCH = 0;
+    private static final int MISMATCH = 1;
+    private static final int UNSUPPORTED = 2;
+
+    private final LDAPDnCanonicalizer dnCanonicalizer;
+    private final Base userBase;
+    private final Base groupBase;
+    private final boolean distinctBase;
+    private final String userNamingAttribute;
+    private final String groupNamingAttribute;
+
+    /**
+     * @param dnCanonicalizer the canonicalizer shared with the cache manager
+     * @param userBase the user search base
+     * @param groupBase the group search base
+     * @param distinctBase true if users and groups are stored under distinct bases
+     * @param userNamingAttribute the attribute holding the user name
+     * @param groupNamingAttribute the attribute holding the group name
+     */
+    public LDAPDnClassifier(LDAPDnCanonicalizer dnCanonicalizer, String userBase, String groupBase, boolean distinctBase,
+                            String userNamingAttribute, String groupNamingAttribute) {
+        this.dnCanonicalizer = dnCanonicalizer;
+        this.userBase = userBase != null ? new Base(dnCanonicalizer, userBase) : null;
+        this.groupBase = groupBase != null ? new Base(dnCanonicalizer, groupBase) : null;
+        this.distinctBase = distinctBase;
+        this.userNamingAttribute = userNamingAttribute;
+        this.groupNamingAttribute = groupNamingAttribute;
+    }
+
+    /**
+     * Try to guess if the given dn is a user or a group
+     *
+     * @param dn the DN
+     * @return true for a user, false for a group, null if it cannot be told from the DN
+     */
+    public Boolean isUser(String dn) {
+        if (dn == null) {
+            return null;
+        }
+        int userMatch = depth(dn, userBase);
+        int groupMatch = depth(dn, groupBase);
+        if (userMatch < 0 && groupMatch < 0) {
+            return null;
+        }
+        if (!distinctBase) {
+            return null;
+        }
+        // when a base contains the other one, the most specific base wins
+        return userMatch >= groupMatch;
+    }
+
+    /**
+     * @param dn the DN
+     * @return true if the DN is under the user search base
+     */
+    public boolean isInUserBase(String dn) {
+        return dn != null && depth(dn, userBase) >= 0;
+    }
+
+    /**
+     * @param dn the DN
+     * @return true if the DN is under the group search base
+     */
+    public boolean isInGroupBase(String dn) {
+        return dn != null && depth(dn, groupBase) >= 0;
+    }
+
+    /**
+     * Retrieve the naming attribute value from the left most RDN of a dn
+     *
+     * @param dn the DN
+     * @param isUser true to extract the user naming attribute, false for the group one
+     * @return the name, null if the left most RDN does not hold the naming attribute
+     */
+    public String getName(String dn, boolean isUser) {
+        String attribute = isUser ? userNamingAttribute : groupNamingAttribute;
+        if (dn == null || attribute == null) {
+            return null;
+        }
+        int length = dn.length();
+        int start = 0;
+        while (start < length) {
+            int equals = indexOfUnescaped(dn, '=', start);
+            if (equals < 0) {
+                return null;
+            }
+            int end = indexOfUnescaped(dn, ',', equals + 1);
+            int plus = indexOfUnescaped(dn, '+', equals + 1);
+            boolean lastOfRdn = plus < 0 || (end >= 0 && plus > end);
+            if (!lastOfRdn) {
+                end = plus;
+            } else if (end < 0) {
+                end = length;
+            }
+            if (regionEqualsIgnoreCase(dn, start, equals, attribute)) {
+                String value = dn.substring(equals + 1, end).trim();
+                if (value.isEmpty() || value.charAt(0) == '#') {
+                    // binary value, the name cannot be told from the DN
+                    return null;
+                }
+                return value.indexOf('\\') >= 0 || value.indexOf('"') >= 0 ? Rdn.unescapeValue(value).toString() : value;
+            }
+            if (lastOfRdn) {
+                return null;
+            }
+            start = end + 1;
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of RDNs of the base if the DN is under it, -1 otherwise
+     */
+    private int depth(String dn, Base base) {
+        if (base == null) {
+            return -1;
+        }
+        if (base.rdns != null) {
+            int match = matchRdns(dn, base.rdns);
+            if (match != UNSUPPORTED) {
+                return match == MATCH ? base.rdns.length : -1;
+            }
+        }
+        return suffixLength(dnCanonicalizer.canonicalize(dn), base.canonical) >= 0 ? base.depth : -1;
+    }
+
+    /**
+     * Compare the right most RDNs of the DN with the RDNs of a base, from the right most one
+     */
+    private static int matchRdns(String dn, BaseRdn[] rdns) {
+        if (dn.indexOf('"') >= 0) {
+            // a quoted value may hold unescaped separators, the DN cannot be split from the right
+            return UNSUPPORTED;
+        }
+        int end = dn.length();
+        for (BaseRdn rdn : rdns) {
+            if (end < 0) {
+                return MISMATCH;
+            }
+            int separator = lastSeparator(dn, end);
+            int match = matchRdn(dn, separator + 1, end, rdn);
+            if (match != MATCH) {
+                return match;
+            }
+            end = separator;
+        }
+        return MATCH;
+    }
+
+    /**
+     * Compare an RDN of the DN with an RDN of a base, the value being unescaped and normalized as in the canonical
+     * form while it is read
+     */
+    private static int matchRdn(String dn, int start, int end, BaseRdn rdn) {
+        int equals = indexOfUnescaped(dn, '=', start);
+        if (equals < 0 || equals >= end) {
+            return UNSUPPORTED;
+        }
+        if (!regionEqualsIgnoreCase(dn, start, equals, rdn.type)) {
+            return MISMATCH;
+        }
+
+        String expected = rdn.value;
+        int position = 0;
+        boolean started = false;
+        boolean space = false;
+        int i = equals + 1;
+        while (i < end) {
+            char c = dn.charAt(i++);
+            if (c == '\\') {
+                if (i >= end) {
+                    return UNSUPPORTED;
+                }
+                char next = dn.charAt(i++);
+                int high = Character.digit(next, 16);
+                int low = i < end ? Character.digit(dn.charAt(i), 16) : -1;
+                if (high >= 0 && low >= 0) {
+                    if (high >= 8) {
+                        // part of a multi-byte UTF-8 sequence
+                        return UNSUPPORTED;
+                    }
+                    c = (char) (high << 4 | low);
+                    i++;
+                } else {
+                    c = next;
+                }
+            } else if (c == '+' || (c == '#' && !started)) {
+                // multi-valued RDN or binary value, never equal to the single string value of the base
+                return MISMATCH;
+            }
+            if (!started) {
+                if (c <= ' ') {
+                    continue;
+                }
+                started = true;
+            }
+            if (Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if (c < ' ') {
+                return UNSUPPORTED;
+            }
+            if (space) {
+                if (position >= expected.length() || expected.charAt(position++) != ' ') {
+                    return MISMATCH;
+                }
+                space = false;
+            }
+            if (position >= expected.length() || expected.charAt(position++) != Character.toLowerCase(c)) {
+                return MISMATCH;
+            }
+        }
+        return position == expected.length() ? MATCH : MISMATCH;
+    }
+
+    /**
+     * @return true if the region of the string, trimmed, is the given string ignoring case
+     */
+    private static boolean regionEqualsIgnoreCase(String s, int start, int end, String expected) {
+        while (start < end && s.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && s.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end - start == expected.length() && s.regionMatches(true, start, expected, 0, expected.length());
+    }
+
+    /**
+     * @return the position of the last unescaped RDN separator before the end, -1 if none
+     */
+    private static int lastSeparator(String dn, int end) {
+        for (int i = end - 1; i >= 0; i--) {
+            char c = dn.charAt(i);
+            if ((c == ',' || c == ';') && !isEscaped(dn, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the length of the matched base, or -1 if the DN is not under the base
+     */
+    private static int suffixLength(String canonicalDn, String base) {
+        if (StringUtils.isEmpty(base)) {
+            return 0;
+        }
+        if (!canonicalDn.endsWith(base)) {
+            return -1;
+        }
+        int separator = canonicalDn.length() - base.length() - 1;
+        if (separator < 0) {
+            return base.length();
+        }
+        if (canonicalDn.charAt(separator) != ',' || isEscaped(canonicalDn, separator)) {
+            return -1;
+        }
+        return base.length();
+    }
+
+    private static int indexOfUnescaped(String s, char c, int from) {
+        boolean quoted = false;
+        for (int i = from; i < s.length(); i++) {
+            char current = s.charAt(i);
+            if (current == '\\') {
+                i++;
+            } else if (current == '"') {
+                quoted = !quoted;
+            } else if (current == c && !quoted) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isEscaped(String s, int index) {
+        int backslashes = 0;
+        for (int i = index - 1; i >= 0 && s.charAt(i) == '\\'; i--) {
+            backslashes++;
+        }
+        return backslashes % 2 == 1;
+    }
+
+    /**
+     * A search base, as RDNs normalized for the comparison in place and as canonical DN for the other DNs
+     */
+    private static final class Base {
+        private final String canonical;
+        private final int depth;
+        // from the right most RDN, null if they cannot be compared in place
+        private final BaseRdn[] rdns;
+
+        private Base(LDAPDnCanonicalizer dnCanonicalizer, String base) {
+            canonical = dnCanonicalizer.canonicalize(base);
+            BaseRdn[] baseRdns = null;
+            int rdnCount = 0;
+            try {
+                List<Rdn> parsedRdns = new LdapName(base).getRdns();
+                rdnCount = parsedRdns.size();
+                baseRdns = new BaseRdn[rdnCount];
+                for (int i = 0; i < rdnCount; i++) {
+                    Rdn rdn = parsedRdns.get(i);
+                    if (rdn.size() != 1 || !(rdn.getValue() instanceof String)) {
+                        baseRdns = null;
+                        break;
+                    }
+                    baseRdns[i] = new BaseRdn(rdn.getType().trim().toLowerCase(Locale.ENGLISH),
+                            LDAPDnCanonicalizer.normalizeText((String) rdn.getValue()));
+                }
+            } catch (InvalidNameException e) {
+                baseRdns = null;
+            }
+            rdns = baseRdns;
+            depth = rdnCount;
+        }
+    }
+
+    private static final class BaseRdn {
+        private final String type;
+        private final String value;
+
+        private BaseRdn(String type, String value) {
+            this.type = type;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.filter;
+
+import com.sun.jndi.ldap.LdapURL;
+import org.apache.commons.lang.StringUtils;
+import org.jahia.services.usermanager.ldap.dn.LDAPDnCanonicalizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.InvalidNameException;
+import javax.naming.NamingException;
+import javax.naming.ldap.LdapName;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The member URL of a dynamic group, compiled once into a base, a scope and a filter, to tell whether an entry is a
+ * member of the group from its DN and attributes without searching the LDAP.
+ */
+public class LDAPDynamicGroupFilter {
+
+    private static Logger logger = LoggerFactory.getLogger(LDAPDynamicGroupFilter.class);
+
+    private static final String DEFAULT_FILTER = "(objectClass=*)";
+
+    private final String groupName;
+    private final LdapName base;
+    private final String scope;
+    private final LDAPFilter filter;
+    private final Set<String> attributeIds;
+    private final LDAPDnCanonicalizer dnCanonicalizer;
+
+    private LDAPDynamicGroupFilter(String groupName, LdapName base, String scope, LDAPFilter filter, LDAPDnCanonicalizer dnCanonicalizer) {
+        this.groupName = groupName;
+        this.base = base;
+        this.scope = scope;
+        this.filter = filter;
+        this.dnCanonicalizer = dnCanonicalizer;
+        Set<String> ids = new HashSet<String>();
+        if (filter != null) {
+            filter.collectAttributeIds(ids);
+        }
+        this.attributeIds = Collections.unmodifiableSet(ids);
+    }
+
+    /**
+     * @param groupName the name of the dynamic group
+     * @param memberUrl the member URL of the group, may be null
+     * @param dnCanonicalizer the canonicalizer of the provider
+     * @return the compiled member URL, never evaluated locally if it cannot be parsed
+     */
+    public static LDAPDynamicGroupFilter compile(String groupName, String memberUrl, LDAPDnCanonicalizer dnCanonicalizer) {
+        if (StringUtils.isEmpty(memberUrl)) {
+            return new LDAPDynamicGroupFilter(groupName, null, null, null, dnCanonicalizer);
+        }
+        try {
+            LdapURL ldapURL = new LdapURL(memberUrl);
+            LdapName base = new LdapName(dnCanonicalizer.canonicalize(StringUtils.defaultString(ldapURL.getDN())));
+            String scope = StringUtils.defaultIfEmpty(ldapURL.getScope(), "base").toLowerCase();
+            LDAPFilter filter = LDAPFilterParser.parse(StringUtils.defaultIfEmpty(ldapURL.getFilter(), DEFAULT_FILTER), dnCanonicalizer);
+            return new LDAPDynamicGroupFilter(groupName, base, scope, filter, dnCanonicalizer);
+        } catch (NamingException | IllegalArgumentException e) {
+            logger.debug("Member URL {} of group {} will be evaluated by the LDAP server: {}", new Object[]{memberUrl, groupName, e.getMessage()});
+            return new LDAPDynamicGroupFilter(groupName, null, null, null, dnCanonicalizer);
+        }
+    }
+
+    /**
+     * @return the name of the dynamic group
+     */
+    public String getGroupName() {
+        return groupName;
+    }
+
+    /**
+     * @return the lower case ids of the attributes needed to evaluate the filter
+     */
+    public Set<String> getAttributeIds() {
+        return attributeIds;
+    }
+
+    /**
+     * @param dn the DN of the entry
+     * @param attributes the values of the entry by lower case attribute id, see {@link LDAPFilter#matches(Map)}
+     * @return true if the entry is a member of the group, null if it cannot be told locally
+     */
+    public Boolean matches(String dn, Map<String, List<String>> attributes) {
+        if (filter == null || dn == null) {
+            return null;
+        }
+        LdapName name;
+        try {
+            name = new LdapName(dnCanonicalizer.canonicalize(dn));
+        } catch (InvalidNameException e) {
+            return null;
+        }
+        if (!name.startsWith(base)) {
+            return Boolean.FALSE;
+        }
+        if ("one".equals(scope) && name.size() != base.size() + 1) {
+            return Boolean.FALSE;
+        }
+        if ("base".equals(scope) && name.size() != base.size()) {
+            return Boolean.FALSE;
+        }
+        return filter.matches(attributes);
+    }
+}
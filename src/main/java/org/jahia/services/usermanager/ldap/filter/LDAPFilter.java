@@ -0,0 +1,377 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.filter;
+
+import org.jahia.services.usermanager.ldap.dn.LDAPDnCanonicalizer;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compiled LDAP search filter, evaluated against attribute values held in memory.
+ * The evaluation is three-valued: a filter using an attribute that has not been read, or a matching the server does
+ * with rules unknown here (ordering, approximate, extensible), cannot be told and the caller has to ask the server.
+ * Values are only compared for the attributes known to use the case ignore matching rules, where case and repeated spaces
+ * are not significant, and for the DN valued attributes, compared on their canonical form. The other attributes
+ * (case exact, numeric, telephone numbers, ...) are matched by rules the server may apply differently, so their
+ * assertions are left to the server.
+ */
+public abstract class LDAPFilter {
+
+    // attributes of the standard and Active Directory schemas matched with caseIgnoreMatch or caseIgnoreIA5Match
+    private static final Set<String> CASE_IGNORE_ATTRIBUTES = new HashSet<String>(Arrays.asList(
+            "businesscategory", "c", "cn", "co", "commonname", "company", "countryname", "dc", "department",
+            "departmentnumber", "description", "displayname", "division", "domaincomponent", "employeetype",
+            "givenname", "initials", "l", "localityname", "mail", "o", "organizationalunitname", "organizationname",
+            "ou", "physicaldeliveryofficename", "rfc822mailbox", "samaccountname", "sn", "st", "stateorprovincename",
+            "street", "streetaddress", "surname", "title", "uid", "userid", "userprincipalname"));
+
+    // attributes of the standard and Active Directory schemas matched with distinguishedNameMatch
+    private static final Set<String> DN_ATTRIBUTES = new HashSet<String>(Arrays.asList(
+            "directreports", "distinguishedname", "entrydn", "ismemberof", "manager", "member", "memberof", "owner",
+            "roleoccupant", "secretary", "seealso"));
+
+    private static final String OBJECTCLASS_ATTRIBUTE = "objectclass";
+
+    /**
+     * @param attributeId the attribute id of an assertion
+     * @return true if the values of the attribute are compared as the case ignore matching rules do
+     */
+    static boolean isCaseIgnore(String attributeId) {
+        return CASE_IGNORE_ATTRIBUTES.contains(attributeId.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * @param attributeId the attribute id of an assertion
+     * @return true if the values of the attribute are DNs
+     */
+    static boolean isDn(String attributeId) {
+        return DN_ATTRIBUTES.contains(attributeId.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * @param attributeId the attribute id of an assertion
+     * @return true for the object class attribute
+     */
+    static boolean isObjectClass(String attributeId) {
+        return OBJECTCLASS_ATTRIBUTE.equalsIgnoreCase(attributeId);
+    }
+
+    /**
+     * @param attributes values of the entry by lower case attribute id, an attribute read but absent from the entry
+     *                   is mapped to an empty list
+     * @return true or false, null if the filter cannot be evaluated on these attributes
+     */
+    public abstract Boolean matches(Map<String, List<String>> attributes);
+
+    /**
+     * @param attributeIds collects the lower case ids of the attributes used by the filter
+     */
+    public abstract void collectAttributeIds(Set<String> attributeIds);
+
+    static String normalize(String value) {
+        StringBuilder normalized = new StringBuilder(value.length());
+        boolean space = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = normalized.length() > 0;
+            } else {
+                if (space) {
+                    normalized.append(' ');
+                    space = false;
+                }
+                normalized.append(c);
+            }
+        }
+        return normalized.toString().toLowerCase(Locale.ENGLISH);
+    }
+
+    static class And extends LDAPFilter {
+        private final Collection<LDAPFilter> filters;
+
+        And(Collection<LDAPFilter> filters) {
+            this.filters = filters;
+        }
+
+        @Override
+        public Boolean matches(Map<String, List<String>> attributes) {
+            Boolean result = Boolean.TRUE;
+            for (LDAPFilter filter : filters) {
+                Boolean matches = filter.matches(attributes);
+                if (matches == null) {
+                    result = null;
+                } else if (!matches) {
+                    return Boolean.FALSE;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public void collectAttributeIds(Set<String> attributeIds) {
+            for (LDAPFilter filter : filters) {
+                filter.collectAttributeIds(attributeIds);
+            }
+        }
+    }
+
+    static class Or extends LDAPFilter {
+        private final Collection<LDAPFilter> filters;
+
+        Or(Collection<LDAPFilter> filters) {
+            this.filters = filters;
+        }
+
+        @Override
+        public Boolean matches(Map<String, List<String>> attributes) {
+            Boolean result = Boolean.FALSE;
+            for (LDAPFilter filter : filters) {
+                Boolean matches = filter.matches(attributes);
+                if (matches == null) {
+                    result = null;
+                } else if (matches) {
+                    return Boolean.TRUE;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public void collectAttributeIds(Set<String> attributeIds) {
+            for (LDAPFilter filter : filters) {
+                filter.collectAttributeIds(attributeIds);
+            }
+        }
+    }
+
+    static class Not extends LDAPFilter {
+        private final LDAPFilter filter;
+
+        Not(LDAPFilter filter) {
+            this.filter = filter;
+        }
+
+        @Override
+        public Boolean matches(Map<String, List<String>> attributes) {
+            Boolean matches = filter.matches(attributes);
+            return matches != null ? !matches : null;
+        }
+
+        @Override
+        public void collectAttributeIds(Set<String> attributeIds) {
+            filter.collectAttributeIds(attributeIds);
+        }
+    }
+
+    /**
+     * Base class of the filters testing the values of one attribute
+     */
+    abstract static class AttributeFilter extends LDAPFilter {
+        protected final String attributeId;
+
+        AttributeFilter(String attributeId) {
+            this.attributeId = attributeId.toLowerCase(Locale.ENGLISH);
+        }
+
+        @Override
+        public Boolean matches(Map<String, List<String>> attributes) {
+            List<String> values = attributes.get(attributeId);
+            if (values == null) {
+                return null;
+            }
+            for (String value : values) {
+                if (matches(normalize(value))) {
+                    return Boolean.TRUE;
+                }
+            }
+            return Boolean.FALSE;
+        }
+
+        protected abstract boolean matches(String normalizedValue);
+
+        @Override
+        public void collectAttributeIds(Set<String> attributeIds) {
+            attributeIds.add(attributeId);
+        }
+    }
+
+    static class Equality extends AttributeFilter {
+        private final String value;
+
+        Equality(String attributeId, String value) {
+            super(attributeId);
+            this.value = normalize(value);
+        }
+
+        @Override
+        protected boolean matches(String normalizedValue) {
+            return value.equals(normalizedValue);
+        }
+    }
+
+    /**
+     * Equality of a DN valued attribute, the values are compared on their canonical form
+     */
+    static class DnEquality extends LDAPFilter {
+        private final String attributeId;
+        private final String value;
+        private final LDAPDnCanonicalizer dnCanonicalizer;
+
+        DnEquality(String attributeId, String value, LDAPDnCanonicalizer dnCanonicalizer) {
+            this.attributeId = attributeId.toLowerCase(Locale.ENGLISH);
+            this.value = dnCanonicalizer.canonicalize(value);
+            this.dnCanonicalizer = dnCanonicalizer;
+        }
+
+        @Override
+        public Boolean matches(Map<String, List<String>> attributes) {
+            List<String> values = attributes.get(attributeId);
+            if (values == null) {
+                return null;
+            }
+            for (String dn : values) {
+                if (value.equals(dnCanonicalizer.canonicalize(dn))) {
+                    return Boolean.TRUE;
+                }
+            }
+            return Boolean.FALSE;
+        }
+
+        @Override
+        public void collectAttributeIds(Set<String> attributeIds) {
+            attributeIds.add(attributeId);
+        }
+    }
+
+    /**
+     * Equality on the object class: a class listed by the entry matches, but the server may also match the
+     * super classes it does not list, or the class by its OID, so a class not listed is left to the server
+     */
+    static class ObjectClassEquality extends Equality {
+
+        ObjectClassEquality(String attributeId, String value) {
+            super(attributeId, value);
+        }
+
+        @Override
+        public Boolean matches(Map<String, List<String>> attributes) {
+            return Boolean.TRUE.equals(super.matches(attributes)) ? Boolean.TRUE : null;
+        }
+    }
+
+    static class Presence extends AttributeFilter {
+
+        Presence(String attributeId) {
+            super(attributeId);
+        }
+
+        @Override
+        public Boolean matches(Map<String, List<String>> attributes) {
+            List<String> values = attributes.get(attributeId);
+            return values != null ? !values.isEmpty() : null;
+        }
+
+        @Override
+        protected boolean matches(String normalizedValue) {
+            return true;
+        }
+    }
+
+    static class Substring extends AttributeFilter {
+        private final String initial;
+        private final List<String> any;
+        private final String last;
+
+        Substring(String attributeId, String initial, List<String> any, String last) {
+            super(attributeId);
+            this.initial = initial != null ? normalize(initial) : null;
+            for (int i = 0; i < any.size(); i++) {
+                any.set(i, normalize(any.get(i)));
+            }
+            this.any = any;
+            this.last = last != null ? normalize(last) : null;
+        }
+
+        @Override
+        protected boolean matches(String normalizedValue) {
+            int position = 0;
+            if (initial != null) {
+                if (!normalizedValue.startsWith(initial)) {
+                    return false;
+                }
+                position = initial.length();
+            }
+            for (String part : any) {
+                int index = normalizedValue.indexOf(part, position);
+                if (index < 0) {
+                    return false;
+                }
+                position = index + part.length();
+            }
+            return last == null || (normalizedValue.length() - last.length() >= position && normalizedValue.endsWith(last));
+        }
+    }
+
+    /**
+     * Filter the server evaluates with rules not known here
+     */
+    static class Unsupported extends LDAPFilter {
+
+        @Override
+        public Boolean matches(Map<String, List<String>> attributes) {
+            return null;
+        }
+
+        @Override
+        public void collectAttributeIds(Set<String> attributeIds) {
+            // nothing to read, the filter is never evaluated locally
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.filter;
+
+import org.jahia.services.usermanager.ldap.dn.LDAPDnCanonicalizer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parser of the string representation of LDAP search filters (RFC 4515) into {@link LDAPFilter}.
+ * Equality, presence, substrings, and, or and not are compiled, the other item types, and the assertions on
+ * attributes whose matching rules are not known, are kept as filters that can only be evaluated by the server.
+ */
+public final class LDAPFilterParser {
+
+    private final String filter;
+    private final LDAPDnCanonicalizer dnCanonicalizer;
+    private int position;
+
+    private LDAPFilterParser(String filter, LDAPDnCanonicalizer dnCanonicalizer) {
+        this.filter = filter;
+        this.dnCanonicalizer = dnCanonicalizer;
+    }
+
+    /**
+     * @param filter the filter, with or without the enclosing parentheses
+     * @param dnCanonicalizer the canonicalizer used to compare the values of the DN valued attributes
+     * @return the compiled filter
+     * @throws IllegalArgumentException if the filter is malformed
+     */
+    public static LDAPFilter parse(String filter, LDAPDnCanonicalizer dnCanonicalizer) {
+        String trimmed = filter.trim();
+        if (!trimmed.startsWith("(")) {
+            trimmed = "(" + trimmed + ")";
+        }
+        LDAPFilterParser parser = new LDAPFilterParser(trimmed, dnCanonicalizer);
+        LDAPFilter compiled = parser.parseFilter();
+        if (parser.position != trimmed.length()) {
+            throw parser.error("unexpected characters after the filter");
+        }
+        return compiled;
+    }
+
+    private LDAPFilter parseFilter() {
+        expect('(');
+        LDAPFilter compiled;
+        char c = current();
+        if (c == '&') {
+            position++;
+            compiled = new LDAPFilter.And(parseFilterList());
+        } else if (c == '|') {
+            position++;
+            compiled = new LDAPFilter.Or(parseFilterList());
+        } else if (c == '!') {
+            position++;
+            compiled = new LDAPFilter.Not(parseFilter());
+        } else {
+            compiled = parseItem();
+        }
+        expect(')');
+        return compiled;
+    }
+
+    private List<LDAPFilter> parseFilterList() {
+        List<LDAPFilter> filters = new ArrayList<LDAPFilter>();
+        while (current() == '(') {
+            filters.add(parseFilter());
+        }
+        return filters;
+    }
+
+    private LDAPFilter parseItem() {
+        int start = position;
+        while (position < filter.length() && "=~<>:()".indexOf(filter.charAt(position)) < 0) {
+            position++;
+        }
+        String attributeId = filter.substring(start, position).trim();
+        char c = current();
+        if (c == ':' || c == '~' || c == '<' || c == '>') {
+            // extensible, approximate and ordering matches depend on server side matching rules
+            skipValue();
+            return new LDAPFilter.Unsupported();
+        }
+        expect('=');
+        if (attributeId.isEmpty()) {
+            throw error("missing attribute description");
+        }
+
+        List<String> parts = new ArrayList<String>();
+        ByteArrayOutputStream part = new ByteArrayOutputStream();
+        while (current() != ')') {
+            c = filter.charAt(position++);
+            if (c == '*') {
+                parts.add(decode(part));
+                part.reset();
+            } else if (c == '\\') {
+                if (position + 2 > filter.length()) {
+                    throw error("truncated escape sequence");
+                }
+                try {
+                    part.write(Integer.parseInt(filter.substring(position, position + 2), 16));
+                } catch (NumberFormatException e) {
+                    throw error("invalid escape sequence");
+                }
+                position += 2;
+            } else if (c == '(') {
+                throw error("unescaped parenthesis in value");
+            } else {
+                int end = Character.isHighSurrogate(c) && position < filter.length() ? position + 1 : position;
+                byte[] bytes = filter.substring(position - 1, end).getBytes(StandardCharsets.UTF_8);
+                part.write(bytes, 0, bytes.length);
+                position = end;
+            }
+        }
+        String lastPart = decode(part);
+        if (parts.size() == 1 && parts.get(0).isEmpty() && lastPart.isEmpty()) {
+            return new LDAPFilter.Presence(attributeId);
+        }
+        if (parts.isEmpty()) {
+            if (LDAPFilter.isDn(attributeId)) {
+                return new LDAPFilter.DnEquality(attributeId, lastPart, dnCanonicalizer);
+            }
+            if (LDAPFilter.isObjectClass(attributeId)) {
+                return new LDAPFilter.ObjectClassEquality(attributeId, lastPart);
+            }
+        }
+        if (!LDAPFilter.isCaseIgnore(attributeId)) {
+            // the server matches these values with rules not known here
+            return new LDAPFilter.Unsupported();
+        }
+        if (parts.isEmpty()) {
+            return new LDAPFilter.Equality(attributeId, lastPart);
+        }
+        String initial = parts.get(0).isEmpty() ? null : parts.get(0);
+        List<String> any = new ArrayList<String>();
+        for (String anyPart : parts.subList(1, parts.size())) {
+            if (!anyPart.isEmpty()) {
+                any.add(anyPart);
+            }
+        }
+        return new LDAPFilter.Substring(attributeId, initial, any, lastPart.isEmpty() ? null : lastPart);
+    }
+
+    private void skipValue() {
+        while (current() != ')') {
+            position++;
+        }
+    }
+
+    private char current() {
+        if (position >= filter.length()) {
+            throw error("unexpected end of filter");
+        }
+        return filter.charAt(position);
+    }
+
+    private void expect(char c) {
+        if (current() != c) {
+            throw error("'" + c + "' expected");
+        }
+        position++;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Invalid LDAP filter " + filter + " at " + position + ": " + message);
+    }
+
+    private static String decode(ByteArrayOutputStream part) {
+        return new String(part.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,321 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.sync;
+
+import org.jahia.services.usermanager.ldap.communication.LdapTemplateCallback;
+import org.jahia.services.usermanager.ldap.communication.LdapTemplateWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ldap.control.PagedResultsCookie;
+import org.springframework.ldap.control.PagedResultsDirContextProcessor;
+import org.springframework.ldap.core.ContextExecutor;
+import org.springframework.ldap.core.LdapOperations;
+import org.springframework.ldap.core.LdapTemplate;
+import org.springframework.ldap.core.NameClassPairCallbackHandler;
+import org.springframework.ldap.core.support.LdapOperationsCallback;
+import org.springframework.ldap.core.support.SingleContextSource;
+
+import javax.naming.NameClassPair;
+import javax.naming.NamingException;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchControls;
+import javax.naming.ldap.LdapContext;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Base class of the clients reading the changes of the entries from the server. Each session is polled at its own
+ * interval by a background thread, the state reached by a poll is kept in the cookie store so that the next poll,
+ * possibly after a restart, only reads the later changes.
+ */
+public abstract class LDAPAbstractSyncClient {
+
+    private static Logger logger = LoggerFactory.getLogger(LDAPAbstractSyncClient.class);
+
+    private static final int PAGE_SIZE = 500;
+    private static final String NO_ATTRIBUTES = "1.1";
+
+    protected final String providerKey;
+    protected final LdapTemplateWrapper ldapTemplateWrapper;
+    protected final LDAPSyncCookieStore cookieStore;
+    private final ScheduledThreadPoolExecutor executor;
+    private final Map<String, ScheduledFuture<?>> sessions = new ConcurrentHashMap<String, ScheduledFuture<?>>();
+    private final Map<String, Integer> sweepIntervals = new ConcurrentHashMap<String, Integer>();
+    private final Map<String, Long> lastSweeps = new ConcurrentHashMap<String, Long>();
+
+    protected final AtomicLong polls = new AtomicLong();
+    protected final AtomicLong changes = new AtomicLong();
+
+    protected LDAPAbstractSyncClient(final String providerKey, LdapTemplateWrapper ldapTemplateWrapper, LDAPSyncCookieStore cookieStore) {
+        this.providerKey = providerKey;
+        this.ldapTemplateWrapper = ldapTemplateWrapper;
+        this.cookieStore = cookieStore;
+        executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "LDAP sync " + providerKey);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Start polling a session, the first poll is done immediately
+     *
+     * @param session the session
+     */
+    public void start(final LDAPSyncSession session) {
+        sessions.put(session.getName(), executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    poll(session);
+                } catch (Exception e) {
+                    logger.warn("Unable to sync LDAP session " + session.getName() + " of provider " + providerKey, e);
+                }
+            }
+        }, 0, session.getInterval(), TimeUnit.SECONDS));
+    }
+
+    /**
+     * Start polling a session, the first poll is done immediately
+     *
+     * @param session the session
+     * @param sweepInterval the interval of the search of the deleted entries, in seconds, 0 to never search them
+     */
+    public void start(LDAPSyncSession session, int sweepInterval) {
+        sweepIntervals.put(session.getName(), sweepInterval);
+        // the cached entries are read after the start, there is nothing deleted to look for yet
+        lastSweeps.put(session.getName(), System.currentTimeMillis());
+        start(session);
+    }
+
+    /**
+     * Stop all the sessions, the cookies are kept
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        sessions.clear();
+    }
+
+    /**
+     * @param sessionName the name of the session
+     * @return true if the session is polled
+     */
+    public boolean isRunning(String sessionName) {
+        return sessions.containsKey(sessionName);
+    }
+
+    /**
+     * @return number of polls done
+     */
+    public long getPollCount() {
+        return polls.get();
+    }
+
+    /**
+     * @return number of added, modified and deleted entries received
+     */
+    public long getChangeCount() {
+        return changes.get();
+    }
+
+    /**
+     * Read the changes of a session since its last cookie
+     *
+     * @param session the session
+     */
+    abstract void poll(LDAPSyncSession session);
+
+    /**
+     * @param session the session
+     * @return the key of the cookie of the session in the store
+     */
+    protected String getCookieKey(LDAPSyncSession session) {
+        return providerKey + "." + session.getName();
+    }
+
+    /**
+     * Stop polling a session, its cookie is kept
+     *
+     * @param session the session
+     */
+    protected void stop(LDAPSyncSession session) {
+        ScheduledFuture<?> future = sessions.remove(session.getName());
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * @param session the session
+     * @return true if the session has a sweep interval and it elapsed since the last sweep
+     */
+    protected boolean isSweepDue(LDAPSyncSession session) {
+        Integer sweepInterval = sweepIntervals.get(session.getName());
+        Long lastSweep = lastSweeps.get(session.getName());
+        return sweepInterval != null && sweepInterval > 0 && (lastSweep == null || System.currentTimeMillis() - lastSweep >= sweepInterval * 1000L);
+    }
+
+    /**
+     * Note that the listener has just been given all the entries of a session, the next sweep is due one interval later
+     *
+     * @param session the session
+     */
+    protected void swept(LDAPSyncSession session) {
+        lastSweeps.put(session.getName(), System.currentTimeMillis());
+    }
+
+    /**
+     * Read the DNs of all the entries of a session and give them to the listener, which removes the cached entries
+     * that are not listed
+     *
+     * @param session the session
+     * @param listener the listener
+     */
+    protected void sweep(LDAPSyncSession session, LDAPSyncListener listener) {
+        final Set<String> dns = new HashSet<String>();
+        SearchControls searchControls = new SearchControls(SearchControls.SUBTREE_SCOPE, 0, 0, new String[]{NO_ATTRIBUTES}, false, false);
+        long startTime = System.currentTimeMillis();
+        boolean validLdapCall = searchPages(session, session.getFilter(), searchControls, new NameClassPairCallbackHandler() {
+
+            @Override
+            public void handleNameClassPair(NameClassPair nameClassPair) throws NamingException {
+                dns.add(nameClassPair.getNameInNamespace());
+            }
+        });
+        // an incomplete list would remove entries that still exist
+        if (!validLdapCall) {
+            return;
+        }
+        swept(session);
+        listener.entriesPresent(session, dns);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Sweep of LDAP session {} of provider {}: {} entries in {} ms", new Object[]{
+                    session.getName(), providerKey, dns.size(), System.currentTimeMillis() - startTime});
+        }
+    }
+
+    /**
+     * Search all the pages of a session on a single connection
+     *
+     * @return true if all the pages have been read
+     */
+    protected boolean searchPages(final LDAPSyncSession session, final String filter, final SearchControls searchControls,
+                                  final NameClassPairCallbackHandler handler) {
+        return ldapTemplateWrapper.execute(new LdapTemplateCallback<Boolean>() {
+
+            @Override
+            public Boolean doInLdap(LdapTemplate ldapTemplate) {
+                return SingleContextSource.doWithSingleContext(ldapTemplate.getContextSource(), new LdapOperationsCallback<Boolean>() {
+
+                    @Override
+                    public Boolean doWithLdapOperations(LdapOperations operations) {
+                        pagedSearch(operations, session.getBase(), filter, searchControls, handler);
+                        return true;
+                    }
+                });
+            }
+
+            @Override
+            public void onSuccess() {
+            }
+
+            @Override
+            public Boolean onError(Exception e) {
+                logger.warn("Unable to sync LDAP session {} of provider {}: {}", new Object[]{session.getName(), providerKey, e.getMessage()});
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Search page by page with the paged results control, on the single context of the operations
+     *
+     * @param operations operations bound to a single context
+     * @param base the search base
+     * @param filter the search filter
+     * @param searchControls the search controls
+     * @param handler the handler of the results
+     */
+    protected static void pagedSearch(LdapOperations operations, String base, String filter, SearchControls searchControls,
+                                      NameClassPairCallbackHandler handler) {
+        PagedResultsCookie cookie = null;
+        try {
+            do {
+                PagedResultsDirContextProcessor processor = new PagedResultsDirContextProcessor(PAGE_SIZE, cookie);
+                operations.search(base, filter, searchControls, handler, processor);
+                cookie = processor.getCookie();
+            } while (cookie != null && cookie.getCookie() != null);
+        } finally {
+            resetRequestControls(operations);
+        }
+    }
+
+    private static void resetRequestControls(LdapOperations operations) {
+        try {
+            operations.executeReadOnly(new ContextExecutor<Object>() {
+
+                @Override
+                public Object executeWithContext(DirContext ctx) throws NamingException {
+                    if (ctx instanceof LdapContext) {
+                        ((LdapContext) ctx).setRequestControls(null);
+                    }
+                    return null;
+                }
+            });
+        } catch (org.springframework.ldap.NamingException e) {
+            logger.debug("Unable to reset the request controls", e);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.sync;
+
+import java.util.List;
+
+/**
+ * Applies the changes read by a change tracker that only tells which entries changed, not their new content
+ */
+public interface LDAPChangeListener {
+
+    /**
+     * @param session the session
+     * @param dn the DN of an entry added or modified since the previous poll, to read again
+     */
+    void entryModified(LDAPSyncSession session, String dn);
+
+    /**
+     * @param session the session
+     * @param dn the DN of an entry deleted since the previous poll
+     */
+    void entryDeleted(LDAPSyncSession session, String dn);
+
+    /**
+     * Called for the sessions of groups only
+     *
+     * @param session the session
+     * @param dn the DN of a group whose members changed since the previous poll
+     * @param addedDns the DNs of the members added, null if the changes of the members are not known
+     * @param removedDns the DNs of the members removed, null if the changes of the members are not known
+     */
+    void membersChanged(LDAPSyncSession session, String dn, List<String> addedDns, List<String> removedDns);
+}
@@ -0,0 +1,457 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.sync;
+
+import org.jahia.services.usermanager.ldap.communication.LdapTemplateCallback;
+import org.jahia.services.usermanager.ldap.communication.LdapTemplateWrapper;
+import org.jahia.services.usermanager.ldap.control.DirSyncDirContextProcessor;
+import org.jahia.services.usermanager.ldap.control.DirSyncRequestControl;
+import org.jahia.services.usermanager.ldap.control.DirSyncResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ldap.core.ContextExecutor;
+import org.springframework.ldap.core.LdapOperations;
+import org.springframework.ldap.core.LdapTemplate;
+import org.springframework.ldap.core.NameClassPairCallbackHandler;
+import org.springframework.ldap.core.support.LdapOperationsCallback;
+import org.springframework.ldap.core.support.SingleContextSource;
+
+import javax.naming.NameClassPair;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Active Directory change tracker. Each poll of a session reads the objects changed since the previous one with the
+ * DirSync control: only the changed attributes are returned, and for the members attribute only the values added and
+ * removed, so that the listener reads again the modified entries and patches the members of the groups. Deleted
+ * objects are returned as tombstones, their DN is rebuilt from their last known parent.
+ * When the server refuses DirSync for a session the changes are read with <code>uSNChanged</code> searches instead,
+ * on the domain controller that gave the last USN. These searches do not return the deleted objects, nor the changes
+ * of the members: the listener is told that the members of a changed group are unknown.
+ */
+public class LDAPDirSyncClient extends LDAPAbstractSyncClient {
+
+    private static Logger logger = LoggerFactory.getLogger(LDAPDirSyncClient.class);
+
+    private static final int DIRSYNC_FLAGS = DirSyncRequestControl.OBJECT_SECURITY | DirSyncRequestControl.INCREMENTAL_VALUES;
+    private static final String DIRSYNC_COOKIE_SUFFIX = ".dirsync";
+    private static final String USN_COOKIE_SUFFIX = ".usn";
+
+    private static final String DEFAULT_NAMING_CONTEXT = "defaultNamingContext";
+    private static final String DS_SERVICE_NAME = "dsServiceName";
+    private static final String HIGHEST_COMMITTED_USN = "highestCommittedUSN";
+    private static final String USN_CHANGED = "uSNChanged";
+    private static final String IS_DELETED = "isDeleted";
+    private static final String LAST_KNOWN_PARENT = "lastKnownParent";
+    // the RDN of a tombstone is its former value followed by this marker and the object GUID
+    private static final String DELETED_MARKER = "\nDEL:";
+    private static final String ADDED_VALUES_RANGE = ";range=1-1";
+    private static final String REMOVED_VALUES_RANGE = ";range=0-0";
+    // returned by DirSync with every object, they do not tell what changed
+    private static final Set<String> DIRSYNC_ATTRIBUTES = new HashSet<String>(Arrays.asList(
+            "objectguid", "instancetype", "parentguid", "isdeleted", "lastknownparent"));
+
+    private final LDAPChangeListener listener;
+    private final Set<String> usnSessions = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile String namingContext;
+
+    public LDAPDirSyncClient(String providerKey, LdapTemplateWrapper ldapTemplateWrapper, LDAPSyncCookieStore cookieStore, LDAPChangeListener listener) {
+        super(providerKey, ldapTemplateWrapper, cookieStore);
+        this.listener = listener;
+    }
+
+    @Override
+    void poll(final LDAPSyncSession session) {
+        polls.incrementAndGet();
+        if (usnSessions.contains(session.getName())) {
+            pollUsn(session);
+            return;
+        }
+        // DirSync only searches from the root of a naming context
+        final String base = getNamingContext();
+        if (base == null) {
+            return;
+        }
+        String cookieKey = getCookieKey(session) + DIRSYNC_COOKIE_SUFFIX;
+        byte[] cookie = cookieStore.load(cookieKey);
+        // the initial content only gives the first cookie, the cached entries have been read after it
+        boolean initial = cookie == null;
+        Set<String> attributes = new LinkedHashSet<String>(Arrays.asList(session.getAttributes()));
+        attributes.add(IS_DELETED);
+        attributes.add(LAST_KNOWN_PARENT);
+        final SearchControls searchControls = new SearchControls(SearchControls.SUBTREE_SCOPE, 0, 0,
+                attributes.toArray(new String[attributes.size()]), false, false);
+        long startTime = System.currentTimeMillis();
+        int changeCount = 0;
+        while (true) {
+            final DirSyncHandler handler = new DirSyncHandler(session, !initial);
+            final DirSyncDirContextProcessor processor = new DirSyncDirContextProcessor(DIRSYNC_FLAGS, cookie);
+            boolean validLdapCall = ldapTemplateWrapper.execute(new LdapTemplateCallback<Boolean>() {
+
+                @Override
+                public Boolean doInLdap(LdapTemplate ldapTemplate) {
+                    ldapTemplate.search(base, session.getFilter(), searchControls, handler, processor);
+                    return true;
+                }
+
+                @Override
+                public void onSuccess() {
+                }
+
+                @Override
+                public Boolean onError(Exception e) {
+                    if (isRefused(e)) {
+                        logger.info("DirSync refused by the LDAP server of provider {}, session {} falls back to uSNChanged searches: {}",
+                                new Object[]{providerKey, session.getName(), e.getMessage()});
+                        usnSessions.add(session.getName());
+                    } else {
+                        logger.warn("Unable to sync LDAP session {} of provider {}: {}", new Object[]{session.getName(), providerKey, e.getMessage()});
+                    }
+                    return false;
+                }
+            });
+            if (!validLdapCall) {
+                return;
+            }
+            changeCount += handler.changeCount;
+            DirSyncResponse response = processor.getResponse();
+            if (response == null) {
+                logger.warn("No DirSync response from the LDAP server of provider {} for session {}", providerKey, session.getName());
+                return;
+            }
+            if (response.getCookie() != null) {
+                cookie = response.getCookie();
+                cookieStore.store(cookieKey, cookie);
+            }
+            if (!response.hasMoreResults()) {
+                break;
+            }
+        }
+        if (initial) {
+            logger.info("Initial DirSync of session {} of provider {} done in {} ms", new Object[]{
+                    session.getName(), providerKey, System.currentTimeMillis() - startTime});
+        } else if (logger.isDebugEnabled()) {
+            logger.debug("DirSync of LDAP session {} of provider {}: {} changes in {} ms", new Object[]{
+                    session.getName(), providerKey, changeCount, System.currentTimeMillis() - startTime});
+        }
+    }
+
+    /**
+     * Read the objects of a session whose uSNChanged is above the one stored in the cookie. The first poll, and the
+     * first one on another domain controller, only store the highest USN of the server.
+     *
+     * @param session the session
+     */
+    private void pollUsn(final LDAPSyncSession session) {
+        final String cookieKey = getCookieKey(session) + USN_COOKIE_SUFFIX;
+        byte[] cookie = cookieStore.load(cookieKey);
+        // server and USN, separated by a new line
+        final String[] previous = cookie != null ? new String(cookie, StandardCharsets.UTF_8).split("\n") : null;
+        final UsnHandler handler = new UsnHandler(session);
+        long startTime = System.currentTimeMillis();
+        String[] state = ldapTemplateWrapper.execute(new LdapTemplateCallback<String[]>() {
+
+            @Override
+            public String[] doInLdap(LdapTemplate ldapTemplate) {
+                // the USNs are local to a domain controller, they are read and searched on the same connection
+                return SingleContextSource.doWithSingleContext(ldapTemplate.getContextSource(), new LdapOperationsCallback<String[]>() {
+
+                    @Override
+                    public String[] doWithLdapOperations(LdapOperations operations) {
+                        String[] server = operations.executeReadOnly(new ContextExecutor<String[]>() {
+
+                            @Override
+                            public String[] executeWithContext(DirContext ctx) throws NamingException {
+                                Attributes rootDse = ctx.getAttributes("", new String[]{DS_SERVICE_NAME, HIGHEST_COMMITTED_USN});
+                                return new String[]{String.valueOf(rootDse.get(DS_SERVICE_NAME).get()), String.valueOf(rootDse.get(HIGHEST_COMMITTED_USN).get())};
+                            }
+                        });
+                        if (previous == null || previous.length != 2 || !previous[0].equals(server[0])) {
+                            return server;
+                        }
+                        handler.maxUsn = Math.max(Long.parseLong(previous[1]), Long.parseLong(server[1]));
+                        String filter = "(&" + session.getFilter() + "(" + USN_CHANGED + ">=" + (Long.parseLong(previous[1]) + 1) + "))";
+                        SearchControls searchControls = new SearchControls(SearchControls.SUBTREE_SCOPE, 0, 0, new String[]{USN_CHANGED}, false, false);
+                        pagedSearch(operations, session.getBase(), filter, searchControls, handler);
+                        return new String[]{server[0], String.valueOf(handler.maxUsn)};
+                    }
+                });
+            }
+
+            @Override
+            public void onSuccess() {
+            }
+
+            @Override
+            public String[] onError(Exception e) {
+                logger.warn("Unable to sync LDAP session {} of provider {}: {}", new Object[]{session.getName(), providerKey, e.getMessage()});
+                return null;
+            }
+        });
+        if (state == null) {
+            return;
+        }
+        if (previous != null && !previous[0].equals(state[0])) {
+            logger.info("LDAP session {} of provider {} restarts from the USN of domain controller {}, the changes since the previous poll are not read",
+                    new Object[]{session.getName(), providerKey, state[0]});
+        }
+        if (previous == null || !Arrays.equals(previous, state)) {
+            cookieStore.store(cookieKey, (state[0] + "\n" + state[1]).getBytes(StandardCharsets.UTF_8));
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("uSNChanged sync of LDAP session {} of provider {}: {} changes in {} ms", new Object[]{
+                    session.getName(), providerKey, handler.changeCount, System.currentTimeMillis() - startTime});
+        }
+    }
+
+    /**
+     * @return the default naming context of the server, read once, null on error
+     */
+    private String getNamingContext() {
+        if (namingContext == null) {
+            namingContext = ldapTemplateWrapper.execute(new LdapTemplateCallback<String>() {
+
+                @Override
+                public String doInLdap(LdapTemplate ldapTemplate) {
+                    return ldapTemplate.executeReadOnly(new ContextExecutor<String>() {
+
+                        @Override
+                        public String executeWithContext(DirContext ctx) throws NamingException {
+                            Attribute attribute = ctx.getAttributes("", new String[]{DEFAULT_NAMING_CONTEXT}).get(DEFAULT_NAMING_CONTEXT);
+                            return attribute != null ? String.valueOf(attribute.get()) : null;
+                        }
+                    });
+                }
+
+                @Override
+                public void onSuccess() {
+                }
+
+                @Override
+                public String onError(Exception e) {
+                    logger.warn("Unable to read the naming context of the LDAP server of provider {}: {}", providerKey, e.getMessage());
+                    return null;
+                }
+            });
+        }
+        return namingContext;
+    }
+
+    /**
+     * @param e the error of a DirSync search
+     * @return true if the server does not support DirSync or does not allow it to the bound account
+     */
+    private static boolean isRefused(Exception e) {
+        return e instanceof org.springframework.ldap.OperationNotSupportedException || e instanceof org.springframework.ldap.NoPermissionException
+                || e.getCause() instanceof javax.naming.OperationNotSupportedException || e.getCause() instanceof javax.naming.NoPermissionException;
+    }
+
+    private static List<String> getValues(Attribute attribute) throws NamingException {
+        List<String> values = new ArrayList<String>(attribute.size());
+        NamingEnumeration<?> all = attribute.getAll();
+        while (all.hasMore()) {
+            values.add(String.valueOf(all.next()));
+        }
+        return values;
+    }
+
+    /**
+     * @param dn the DN of a tombstone
+     * @param lastKnownParent the lastKnownParent attribute of the tombstone
+     * @return the DN of the object before its deletion, null if it cannot be told
+     */
+    private static String getDeletedObjectDn(String dn, Attribute lastKnownParent) throws NamingException {
+        if (lastKnownParent == null) {
+            return null;
+        }
+        LdapName name = new LdapName(dn);
+        Rdn rdn = name.getRdn(name.size() - 1);
+        String value = String.valueOf(rdn.getValue());
+        int marker = value.indexOf(DELETED_MARKER);
+        if (marker < 0) {
+            return null;
+        }
+        LdapName originalName = new LdapName(String.valueOf(lastKnownParent.get()));
+        originalName.add(new Rdn(rdn.getType(), value.substring(0, marker)));
+        return originalName.toString();
+    }
+
+    /**
+     * Tells the listener which objects changed, from the attributes returned by DirSync
+     */
+    private class DirSyncHandler implements NameClassPairCallbackHandler {
+
+        private final LDAPSyncSession session;
+        private final String membersAttribute;
+        private final boolean notify;
+        private int changeCount = 0;
+
+        private DirSyncHandler(LDAPSyncSession session, boolean notify) {
+            this.session = session;
+            this.membersAttribute = session.getMembersAttribute() != null ? session.getMembersAttribute().toLowerCase(Locale.ENGLISH) : null;
+            this.notify = notify;
+        }
+
+        @Override
+        public void handleNameClassPair(NameClassPair nameClassPair) throws NamingException {
+            if (!(nameClassPair instanceof SearchResult)) {
+                logger.error("Unexpected NameClassPair " + nameClassPair + " in " + getClass().getName());
+                return;
+            }
+            if (!notify) {
+                return;
+            }
+            SearchResult searchResult = (SearchResult) nameClassPair;
+            String dn = searchResult.getNameInNamespace();
+            try {
+                Attributes attributes = searchResult.getAttributes();
+                Attribute isDeleted = attributes.get(IS_DELETED);
+                if (isDeleted != null && Boolean.parseBoolean(String.valueOf(isDeleted.get()))) {
+                    String deletedDn = getDeletedObjectDn(dn, attributes.get(LAST_KNOWN_PARENT));
+                    if (deletedDn != null) {
+                        changed();
+                        listener.entryDeleted(session, deletedDn);
+                    }
+                    return;
+                }
+
+                boolean modified = false;
+                boolean allMembers = false;
+                List<String> addedDns = Collections.emptyList();
+                List<String> removedDns = Collections.emptyList();
+                NamingEnumeration<? extends Attribute> all = attributes.getAll();
+                while (all.hasMore()) {
+                    Attribute attribute = all.next();
+                    String id = attribute.getID().toLowerCase(Locale.ENGLISH);
+                    if (membersAttribute != null && id.equals(membersAttribute)) {
+                        allMembers = true;
+                    } else if (membersAttribute != null && id.startsWith(membersAttribute + ";")) {
+                        if (id.endsWith(ADDED_VALUES_RANGE)) {
+                            addedDns = getValues(attribute);
+                        } else if (id.endsWith(REMOVED_VALUES_RANGE)) {
+                            removedDns = getValues(attribute);
+                        } else {
+                            allMembers = true;
+                        }
+                    } else if (!DIRSYNC_ATTRIBUTES.contains(id)) {
+                        modified = true;
+                    }
+                }
+                if (modified || allMembers || !addedDns.isEmpty() || !removedDns.isEmpty()) {
+                    changed();
+                }
+                if (modified) {
+                    listener.entryModified(session, dn);
+                }
+                if (allMembers) {
+                    listener.membersChanged(session, dn, null, null);
+                } else if (!addedDns.isEmpty() || !removedDns.isEmpty()) {
+                    listener.membersChanged(session, dn, addedDns, removedDns);
+                }
+            } catch (Exception e) {
+                logger.warn("Unable to apply LDAP change of " + dn + " on provider " + providerKey, e);
+            }
+        }
+
+        private void changed() {
+            changeCount++;
+            changes.incrementAndGet();
+        }
+    }
+
+    /**
+     * Tells the listener which objects changed, and keeps the highest USN seen
+     */
+    private class UsnHandler implements NameClassPairCallbackHandler {
+
+        private final LDAPSyncSession session;
+        private long maxUsn;
+        private int changeCount = 0;
+
+        private UsnHandler(LDAPSyncSession session) {
+            this.session = session;
+        }
+
+        @Override
+        public void handleNameClassPair(NameClassPair nameClassPair) throws NamingException {
+            if (!(nameClassPair instanceof SearchResult)) {
+                logger.error("Unexpected NameClassPair " + nameClassPair + " in " + getClass().getName());
+                return;
+            }
+            SearchResult searchResult = (SearchResult) nameClassPair;
+            String dn = searchResult.getNameInNamespace();
+            Attribute usnChanged = searchResult.getAttributes().get(USN_CHANGED);
+            if (usnChanged != null) {
+                maxUsn = Math.max(maxUsn, Long.parseLong(String.valueOf(usnChanged.get())));
+            }
+            changeCount++;
+            changes.incrementAndGet();
+            try {
+                listener.entryModified(session, dn);
+                if (session.getMembersAttribute() != null) {
+                    listener.membersChanged(session, dn, null, null);
+                }
+            } catch (Exception e) {
+                logger.warn("Unable to apply LDAP change of " + dn + " on provider " + providerKey, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.sync;
+
+import org.jahia.services.usermanager.ldap.communication.LdapTemplateCallback;
+import org.jahia.services.usermanager.ldap.communication.LdapTemplateWrapper;
+import org.jahia.services.usermanager.ldap.control.SyncDoneResponse;
+import org.jahia.services.usermanager.ldap.control.SyncRequestControl;
+import org.jahia.services.usermanager.ldap.control.SyncRequestDirContextProcessor;
+import org.jahia.services.usermanager.ldap.control.SyncStateResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ldap.core.LdapTemplate;
+import org.springframework.ldap.core.NameClassPairCallbackHandler;
+
+import javax.naming.NameClassPair;
+import javax.naming.NamingException;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.HasControls;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Client of the LDAP Content Synchronization Operation (RFC 4533) in refreshOnly mode.
+ * At each poll of a session the server returns the entries changed since the cookie of the previous poll, the changes
+ * are given to the listener and the new cookie is stored. Without a cookie, or when the server asks for a full
+ * refresh, the whole content of the session is read once. The deleted entries the server only lists in Sync Info
+ * messages are not seen through JNDI, they are found by a periodic sweep that only reads the DNs of the entries.
+ */
+public class LDAPSyncClient extends LDAPAbstractSyncClient {
+
+    private static Logger logger = LoggerFactory.getLogger(LDAPSyncClient.class);
+
+    // e-syncRefreshRequired: the cookie is too old, the session has to restart from the initial content
+    private static final String SYNC_REFRESH_REQUIRED = "error code 4096";
+
+    private final LDAPSyncListener listener;
+
+    public LDAPSyncClient(String providerKey, LdapTemplateWrapper ldapTemplateWrapper, LDAPSyncCookieStore cookieStore, LDAPSyncListener listener) {
+        super(providerKey, ldapTemplateWrapper, cookieStore);
+        this.listener = listener;
+    }
+
+    @Override
+    void poll(final LDAPSyncSession session) {
+        final String cookieKey = getCookieKey(session);
+        final byte[] cookie = cookieStore.load(cookieKey);
+        final SyncHandler handler = new SyncHandler(session);
+        final SyncRequestDirContextProcessor processor = new SyncRequestDirContextProcessor(SyncRequestControl.REFRESH_ONLY, cookie);
+        final SearchControls searchControls = new SearchControls(SearchControls.SUBTREE_SCOPE, 0, 0, session.getAttributes(), false, false);
+        long startTime = System.currentTimeMillis();
+        polls.incrementAndGet();
+        boolean validLdapCall = ldapTemplateWrapper.execute(new LdapTemplateCallback<Boolean>() {
+
+            @Override
+            public Boolean doInLdap(LdapTemplate ldapTemplate) {
+                ldapTemplate.search(session.getBase(), session.getFilter(), searchControls, handler, processor);
+                return true;
+            }
+
+            @Override
+            public void onSuccess() {
+            }
+
+            @Override
+            public Boolean onError(Exception e) {
+                if (e instanceof org.springframework.ldap.OperationNotSupportedException || e.getCause() instanceof javax.naming.OperationNotSupportedException) {
+                    logger.warn("Content synchronization not supported by the LDAP server of provider {}, session {} stopped: {}",
+                            new Object[]{providerKey, session.getName(), e.getMessage()});
+                    stop(session);
+                } else if (String.valueOf(e.getMessage()).contains(SYNC_REFRESH_REQUIRED)) {
+                    logger.info("LDAP server of provider {} requires a full refresh of session {}", providerKey, session.getName());
+                    cookieStore.remove(cookieKey);
+                } else {
+                    logger.warn("Unable to sync LDAP session {} of provider {}: {}", new Object[]{session.getName(), providerKey, e.getMessage()});
+                }
+                return false;
+            }
+        });
+        if (!validLdapCall) {
+            return;
+        }
+
+        byte[] newCookie = handler.cookie;
+        SyncDoneResponse syncDone = processor.getResponse();
+        if (syncDone != null) {
+            if (syncDone.getCookie() != null) {
+                newCookie = syncDone.getCookie();
+            }
+            // only a refresh without cookie returns every entry as a search result: after a cookie the unchanged
+            // entries come as syncIdSet intermediate messages, which JNDI drops, and their absence means nothing
+            if (cookie == null && !syncDone.isRefreshDeletes()) {
+                swept(session);
+                listener.entriesPresent(session, handler.presentDns);
+            }
+        }
+        if (newCookie != null && !Arrays.equals(newCookie, cookie)) {
+            cookieStore.store(cookieKey, newCookie);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Sync of LDAP session {} of provider {}: {} changes in {} ms", new Object[]{
+                    session.getName(), providerKey, handler.changeCount, System.currentTimeMillis() - startTime});
+        }
+        if (isSweepDue(session)) {
+            sweep(session, listener);
+        }
+    }
+
+    /**
+     * Gives each entry to the listener according to its sync state, and collects the DNs of the present entries
+     */
+    private class SyncHandler implements NameClassPairCallbackHandler {
+
+        private final LDAPSyncSession session;
+        private final Set<String> presentDns = new HashSet<String>();
+        private byte[] cookie;
+        private int changeCount = 0;
+
+        private SyncHandler(LDAPSyncSession session) {
+            this.session = session;
+        }
+
+        @Override
+        public void handleNameClassPair(NameClassPair nameClassPair) throws NamingException {
+            if (!(nameClassPair instanceof SearchResult)) {
+                logger.error("Unexpected NameClassPair " + nameClassPair + " in " + getClass().getName());
+                return;
+            }
+            SearchResult searchResult = (SearchResult) nameClassPair;
+            SyncStateResponse syncState = getSyncState(searchResult);
+            int state = syncState != null ? syncState.getState() : SyncStateResponse.ADD;
+            if (syncState != null && syncState.getCookie() != null) {
+                cookie = syncState.getCookie();
+            }
+            String dn = searchResult.getNameInNamespace();
+            try {
+                if (state == SyncStateResponse.DELETE) {
+                    changeCount++;
+                    changes.incrementAndGet();
+                    listener.entryDeleted(session, dn);
+                } else {
+                    presentDns.add(dn);
+                    if (state != SyncStateResponse.PRESENT) {
+                        changeCount++;
+                        changes.incrementAndGet();
+                        listener.entryChanged(session, searchResult);
+                    }
+                }
+            } catch (Exception e) {
+                logger.warn("Unable to apply LDAP change of " + dn + " on provider " + providerKey, e);
+            }
+        }
+
+        private SyncStateResponse getSyncState(SearchResult searchResult) throws NamingException {
+            if (searchResult instanceof HasControls) {
+                Control[] controls = ((HasControls) searchResult).getControls();
+                if (controls != null) {
+                    for (Control control : controls) {
+                        if (SyncStateResponse.OID.equals(control.getID())) {
+                            return SyncStateResponse.decode(control.getEncodedValue());
+                        }
+                    }
+                }
+            }
+            return null;
+        }
+    }
+}
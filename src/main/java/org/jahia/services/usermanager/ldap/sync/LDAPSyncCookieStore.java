@@ -0,0 +1,114 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.sync;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Keeps the cookies of the synchronization sessions on disk, so that a session resumes where it stopped after a
+ * restart
+ */
+public class LDAPSyncCookieStore {
+
+    private static Logger logger = LoggerFactory.getLogger(LDAPSyncCookieStore.class);
+
+    private final File directory;
+
+    /**
+     * @param directory the directory of the cookie files, created when the first cookie is stored
+     */
+    public LDAPSyncCookieStore(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param key identifies the session
+     * @return the cookie stored for the session, null if none
+     */
+    public byte[] load(String key) {
+        File file = getFile(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            return FileUtils.readFileToByteArray(file);
+        } catch (IOException e) {
+            logger.warn("Unable to read LDAP sync cookie " + file + ", the session restarts from the initial content", e);
+            return null;
+        }
+    }
+
+    /**
+     * @param key identifies the session
+     * @param cookie the cookie to store
+     */
+    public void store(String key, byte[] cookie) {
+        File file = getFile(key);
+        File tempFile = new File(directory, file.getName() + ".tmp");
+        try {
+            FileUtils.writeByteArrayToFile(tempFile, cookie);
+            if (file.exists() && !file.delete() || !tempFile.renameTo(file)) {
+                throw new IOException("Unable to rename " + tempFile + " to " + file);
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to store LDAP sync cookie " + file, e);
+        }
+    }
+
+    /**
+     * @param key identifies the session
+     */
+    public void remove(String key) {
+        FileUtils.deleteQuietly(getFile(key));
+    }
+
+    private File getFile(String key) {
+        return new File(directory, key.replaceAll("[^A-Za-z0-9._-]", "_") + ".cookie");
+    }
+}
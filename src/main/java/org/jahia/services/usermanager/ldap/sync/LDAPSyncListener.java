@@ -0,0 +1,75 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.sync;
+
+import javax.naming.NamingException;
+import javax.naming.directory.SearchResult;
+import java.util.Set;
+
+/**
+ * Applies the changes read by a content synchronization session
+ */
+public interface LDAPSyncListener {
+
+    /**
+     * @param session the session
+     * @param entry an entry added or modified since the previous synchronization, with the attributes of the session
+     */
+    void entryChanged(LDAPSyncSession session, SearchResult entry) throws NamingException;
+
+    /**
+     * @param session the session
+     * @param dn the DN of an entry deleted since the previous synchronization
+     */
+    void entryDeleted(LDAPSyncSession session, String dn);
+
+    /**
+     * Called with all the remaining entries of a session, after a full refresh or a sweep of the DNs: the entries of
+     * the session that are not listed have been deleted
+     *
+     * @param session the session
+     * @param dns the DNs of all the entries of the session
+     */
+    void entriesPresent(LDAPSyncSession session, Set<String> dns);
+}
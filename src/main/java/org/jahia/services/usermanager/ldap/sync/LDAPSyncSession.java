@@ -0,0 +1,112 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.sync;
+
+/**
+ * The entries kept in sync by one content synchronization session: a search base, a filter and the attributes read
+ */
+public class LDAPSyncSession {
+
+    private final String name;
+    private final String base;
+    private final String filter;
+    private final String[] attributes;
+    private final int interval;
+    private final String membersAttribute;
+
+    /**
+     * @param name the name of the session, unique for a provider
+     * @param base the search base
+     * @param filter the search filter
+     * @param attributes the attributes returned with the added and modified entries
+     * @param interval the delay between two synchronizations, in seconds
+     */
+    public LDAPSyncSession(String name, String base, String filter, String[] attributes, int interval) {
+        this(name, base, filter, attributes, interval, null);
+    }
+
+    /**
+     * @param name the name of the session, unique for a provider
+     * @param base the search base
+     * @param filter the search filter
+     * @param attributes the attributes returned with the added and modified entries
+     * @param interval the delay between two synchronizations, in seconds
+     * @param membersAttribute the attribute holding the DNs of the members, for a session of groups
+     */
+    public LDAPSyncSession(String name, String base, String filter, String[] attributes, int interval, String membersAttribute) {
+        this.name = name;
+        this.base = base;
+        this.filter = filter;
+        this.attributes = attributes;
+        this.interval = interval;
+        this.membersAttribute = membersAttribute;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getBase() {
+        return base;
+    }
+
+    public String getFilter() {
+        return filter;
+    }
+
+    public String[] getAttributes() {
+        return attributes;
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    /**
+     * @return the attribute holding the DNs of the members, null for a session of users
+     */
+    public String getMembersAttribute() {
+        return membersAttribute;
+    }
+}
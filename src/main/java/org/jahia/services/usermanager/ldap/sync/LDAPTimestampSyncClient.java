@@ -0,0 +1,167 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.sync;
+
+import org.jahia.services.usermanager.ldap.communication.LdapTemplateWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ldap.core.NameClassPairCallbackHandler;
+
+import javax.naming.NameClassPair;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * Change tracker for the servers supporting neither the content synchronization nor DirSync. Each poll of a session
+ * searches the entries whose modifyTimestamp is not before the highest one seen so far, page by page, and gives them
+ * to the listener with the attributes of the session. The deleted entries are found by a periodic sweep that only
+ * reads the DNs of the entries of the session.
+ */
+public class LDAPTimestampSyncClient extends LDAPAbstractSyncClient {
+
+    private static Logger logger = LoggerFactory.getLogger(LDAPTimestampSyncClient.class);
+
+    private static final String MODIFY_TIMESTAMP = "modifyTimestamp";
+    private static final String TIMESTAMP_COOKIE_SUFFIX = ".timestamp";
+    private static final String GENERALIZED_TIME_FORMAT = "yyyyMMddHHmmss";
+    // the first timestamp comes from the local clock, which may be ahead of the server
+    private static final long CLOCK_SKEW_MARGIN = 5 * 60 * 1000L;
+
+    private final LDAPSyncListener listener;
+
+    public LDAPTimestampSyncClient(String providerKey, LdapTemplateWrapper ldapTemplateWrapper, LDAPSyncCookieStore cookieStore, LDAPSyncListener listener) {
+        super(providerKey, ldapTemplateWrapper, cookieStore);
+        this.listener = listener;
+    }
+
+    @Override
+    void poll(final LDAPSyncSession session) {
+        polls.incrementAndGet();
+        String cookieKey = getCookieKey(session) + TIMESTAMP_COOKIE_SUFFIX;
+        byte[] cookie = cookieStore.load(cookieKey);
+        if (cookie == null) {
+            // the cached entries are read after this time
+            cookieStore.store(cookieKey, toGeneralizedTime(System.currentTimeMillis() - CLOCK_SKEW_MARGIN).getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        String since = new String(cookie, StandardCharsets.UTF_8);
+        final TimestampHandler handler = new TimestampHandler(session, since);
+        Set<String> attributes = new LinkedHashSet<String>(Arrays.asList(session.getAttributes()));
+        attributes.add(MODIFY_TIMESTAMP);
+        final SearchControls searchControls = new SearchControls(SearchControls.SUBTREE_SCOPE, 0, 0,
+                attributes.toArray(new String[attributes.size()]), false, false);
+        // entries of the same second as the last one seen are read again, applying a change twice is harmless
+        final String filter = "(&" + session.getFilter() + "(" + MODIFY_TIMESTAMP + ">=" + since + "))";
+        long startTime = System.currentTimeMillis();
+        boolean validLdapCall = searchPages(session, filter, searchControls, handler);
+        if (validLdapCall && !handler.lastTimestamp.equals(since)) {
+            cookieStore.store(cookieKey, handler.lastTimestamp.getBytes(StandardCharsets.UTF_8));
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("modifyTimestamp sync of LDAP session {} of provider {}: {} changes in {} ms", new Object[]{
+                    session.getName(), providerKey, handler.changeCount, System.currentTimeMillis() - startTime});
+        }
+
+        if (isSweepDue(session)) {
+            sweep(session, listener);
+        }
+    }
+
+    private static String toGeneralizedTime(long time) {
+        SimpleDateFormat format = new SimpleDateFormat(GENERALIZED_TIME_FORMAT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(time)) + "Z";
+    }
+
+    /**
+     * Gives the changed entries to the listener, and keeps the highest modifyTimestamp seen
+     */
+    private class TimestampHandler implements NameClassPairCallbackHandler {
+
+        private final LDAPSyncSession session;
+        private String lastTimestamp;
+        private int changeCount = 0;
+
+        private TimestampHandler(LDAPSyncSession session, String since) {
+            this.session = session;
+            this.lastTimestamp = since;
+        }
+
+        @Override
+        public void handleNameClassPair(NameClassPair nameClassPair) throws NamingException {
+            if (!(nameClassPair instanceof SearchResult)) {
+                logger.error("Unexpected NameClassPair " + nameClassPair + " in " + getClass().getName());
+                return;
+            }
+            SearchResult searchResult = (SearchResult) nameClassPair;
+            Attribute modifyTimestamp = searchResult.getAttributes().get(MODIFY_TIMESTAMP);
+            if (modifyTimestamp != null) {
+                // generalized time in UTC, the fraction of second some servers add is dropped
+                String value = String.valueOf(modifyTimestamp.get());
+                if (value.length() >= GENERALIZED_TIME_FORMAT.length() && value.endsWith("Z")) {
+                    String timestamp = value.substring(0, GENERALIZED_TIME_FORMAT.length()) + "Z";
+                    if (timestamp.compareTo(lastTimestamp) > 0) {
+                        lastTimestamp = timestamp;
+                    }
+                }
+            }
+            changeCount++;
+            changes.incrementAndGet();
+            try {
+                listener.entryChanged(session, searchResult);
+            } catch (Exception e) {
+                logger.warn("Unable to apply LDAP change of " + searchResult.getNameInNamespace() + " on provider " + providerKey, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.interceptor.InMemoryOperationInterceptor;
+import com.unboundid.ldap.sdk.LDAPException;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.Configuration;
+import org.jahia.modules.external.users.ExternalUserGroupService;
+import org.jahia.services.cache.ehcache.EhCacheProvider;
+import org.jahia.services.usermanager.ldap.cache.LDAPCacheManager;
+import org.jahia.services.usermanager.ldap.communication.LdapTemplateWrapper;
+import org.jahia.services.usermanager.ldap.config.GroupConfig;
+import org.jahia.services.usermanager.ldap.config.UserConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.mockito.Mockito;
+import org.springframework.ldap.core.LdapTemplate;
+import org.springframework.ldap.core.support.LdapContextSource;
+
+/**
+ * Runs a registered provider against an in-memory directory with a users and a groups base, and its own cache
+ * manager. The tests add their entries and adjust the configuration of the bases.
+ */
+public abstract class LDAPAbstractUserGroupProviderTest {
+
+    protected static final String BASE = "dc=example,dc=com";
+    protected static final String USERS = "ou=users," + BASE;
+    protected static final String GROUPS = "ou=groups," + BASE;
+
+    private final String providerKey;
+
+    protected InMemoryDirectoryServer server;
+    protected CacheManager cacheManager;
+    protected LDAPCacheManager ldapCacheManager;
+    protected LDAPUserGroupProvider provider;
+
+    protected LDAPAbstractUserGroupProviderTest(String providerKey) {
+        this.providerKey = providerKey;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(BASE);
+        config.setSchema(null);
+        InMemoryOperationInterceptor interceptor = getInterceptor();
+        if (interceptor != null) {
+            config.addInMemoryOperationInterceptor(interceptor);
+        }
+        server = new InMemoryDirectoryServer(config);
+        server.add("dn: " + BASE, "objectClass: domain", "dc: example");
+        server.add("dn: " + USERS, "objectClass: organizationalUnit", "ou: users");
+        server.add("dn: " + GROUPS, "objectClass: organizationalUnit", "ou: groups");
+        addEntries();
+        server.startListening();
+
+        LdapContextSource contextSource = new LdapContextSource();
+        contextSource.setUrl("ldap://localhost:" + server.getListenPort());
+        contextSource.afterPropertiesSet();
+
+        cacheManager = new CacheManager(new Configuration().name(providerKey));
+        ldapCacheManager = new LDAPCacheManager();
+        ldapCacheManager.setCacheProvider(new EhCacheProvider() {
+
+            @Override
+            public CacheManager getCacheManager() {
+                return cacheManager;
+            }
+        });
+
+        UserConfig userConfig = new UserConfig();
+        userConfig.setUidSearchName(USERS);
+        userConfig.setUidSearchAttribute("uid");
+        GroupConfig groupConfig = new GroupConfig();
+        groupConfig.setSearchName(GROUPS);
+        groupConfig.setSearchObjectclass("groupOfNames");
+        groupConfig.setMembersAttribute("member");
+        configure(userConfig, groupConfig);
+        userConfig.handleDefaults();
+        groupConfig.handleDefaults();
+
+        provider = new LDAPUserGroupProvider();
+        provider.setKey(providerKey);
+        provider.setExternalUserGroupService(Mockito.mock(ExternalUserGroupService.class));
+        provider.setUserConfig(userConfig);
+        provider.setGroupConfig(groupConfig);
+        provider.setLdapTemplateWrapper(new LdapTemplateWrapper(new LdapTemplate(contextSource)));
+        provider.setContextSource(contextSource);
+        provider.setLdapCacheManager(ldapCacheManager);
+        provider.register();
+    }
+
+    @After
+    public void tearDown() {
+        provider.unregister();
+        cacheManager.shutdown();
+        server.shutDown(true);
+    }
+
+    /**
+     * @return the interceptor of the operations of the directory, null for none
+     */
+    protected InMemoryOperationInterceptor getInterceptor() {
+        return null;
+    }
+
+    /**
+     * Add the users and groups of the test to the directory, which already holds the bases
+     */
+    protected abstract void addEntries() throws LDAPException;
+
+    /**
+     * Adjust the configuration of the bases before the defaults are applied
+     */
+    protected void configure(UserConfig userConfig, GroupConfig groupConfig) {
+    }
+}
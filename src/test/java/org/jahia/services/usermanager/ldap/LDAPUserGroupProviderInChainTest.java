@@ -0,0 +1,218 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap;
+
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedSearchRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryOperationInterceptor;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.Filter;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.SearchRequest;
+import com.unboundid.ldap.sdk.SearchResultEntry;
+import com.unboundid.ldap.sdk.SearchScope;
+import org.jahia.modules.external.users.Member;
+import org.jahia.services.usermanager.ldap.cache.LDAPGroupGraph;
+import org.jahia.services.usermanager.ldap.cache.LDAPUserCacheEntry;
+import org.jahia.services.usermanager.ldap.config.GroupConfig;
+import org.jahia.services.usermanager.ldap.config.UserConfig;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Memberships and members with the Active Directory matching rule in chain, against an in-memory directory that
+ * emulates the rule: alice is member of engineers, engineers is member of staff.
+ */
+public class LDAPUserGroupProviderInChainTest extends LDAPAbstractUserGroupProviderTest {
+
+    private static final String IN_CHAIN = "1.2.840.113556.1.4.1941";
+    private static final String PROVIDER_KEY = "inchain";
+
+    public LDAPUserGroupProviderInChainTest() {
+        super(PROVIDER_KEY);
+    }
+
+    @Override
+    protected InMemoryOperationInterceptor getInterceptor() {
+        return new InChainInterceptor();
+    }
+
+    @Override
+    protected void addEntries() throws LDAPException {
+        server.add("dn: uid=alice," + USERS, "objectClass: person", "uid: alice", "cn: Alice", "sn: Alice",
+                "memberOf: cn=engineers," + GROUPS);
+        server.add("dn: cn=engineers," + GROUPS, "objectClass: groupOfNames", "cn: engineers", "member: uid=alice," + USERS);
+        server.add("dn: cn=staff," + GROUPS, "objectClass: groupOfNames", "cn: staff", "member: cn=engineers," + GROUPS);
+    }
+
+    @Override
+    protected void configure(UserConfig userConfig, GroupConfig groupConfig) {
+        userConfig.setCanGroupContainSubGroups(true);
+        groupConfig.setCanGroupContainSubGroups(true);
+        groupConfig.setAdMatchingRuleInChain(true);
+    }
+
+    @Test
+    public void cachesMembershipsInChainApartFromDirectOnes() {
+        Member alice = new Member("alice", Member.MemberType.USER);
+
+        assertEquals(set("engineers", "staff"), new HashSet<String>(provider.getTransitiveMembership(alice)));
+        assertEquals(Collections.singletonList("engineers"), provider.getMembership(alice));
+
+        LDAPUserCacheEntry cacheEntry = ldapCacheManager.getUserCacheEntryByName(PROVIDER_KEY, "alice");
+        assertEquals(Collections.singletonList("engineers"), cacheEntry.getMemberships());
+        assertEquals(set("engineers", "staff"), new HashSet<String>(cacheEntry.getTransitiveMemberships()));
+        // served from the cache
+        assertEquals(set("engineers", "staff"), new HashSet<String>(provider.getTransitiveMembership(alice)));
+    }
+
+    @Test
+    public void feedsTheGraphWithDirectParentsOnly() {
+        provider.getTransitiveMembership(new Member("alice", Member.MemberType.USER));
+
+        LDAPGroupGraph groupGraph = ldapCacheManager.getGroupGraph(PROVIDER_KEY);
+        assertEquals(Collections.singletonList("engineers"), groupGraph.getParents(LDAPGroupGraph.node("alice", false), 0));
+    }
+
+    @Test
+    public void readsTransitiveMembersInChain() {
+        assertEquals(Collections.singletonList(new Member("engineers", Member.MemberType.GROUP)), provider.getGroupMembers("staff"));
+        assertEquals(Collections.singletonList(new Member("alice", Member.MemberType.USER)), provider.getTransitiveGroupMembers("staff"));
+    }
+
+    private static Set<String> set(String... values) {
+        return new HashSet<String>(Arrays.asList(values));
+    }
+
+    /**
+     * Replaces the extensible matches using the matching rule in chain by the equivalent OR of equality filters:
+     * on member, the groups containing the value or one of its parent groups; on memberOf, the entries member of
+     * the value or of one of its nested groups.
+     */
+    private class InChainInterceptor extends InMemoryOperationInterceptor {
+
+        @Override
+        public void processSearchRequest(InMemoryInterceptedSearchRequest request) throws LDAPException {
+            SearchRequest searchRequest = request.getRequest().duplicate();
+            searchRequest.setFilter(rewrite(searchRequest.getFilter()));
+            request.setRequest(searchRequest);
+        }
+
+        private Filter rewrite(Filter filter) throws LDAPException {
+            switch (filter.getFilterType()) {
+                case Filter.FILTER_TYPE_AND:
+                    return Filter.createANDFilter(rewrite(filter.getComponents()));
+                case Filter.FILTER_TYPE_OR:
+                    return Filter.createORFilter(rewrite(filter.getComponents()));
+                case Filter.FILTER_TYPE_NOT:
+                    return Filter.createNOTFilter(rewrite(filter.getNOTComponent()));
+                case Filter.FILTER_TYPE_EXTENSIBLE_MATCH:
+                    if (IN_CHAIN.equals(filter.getMatchingRuleID())) {
+                        String attribute = filter.getAttributeName();
+                        String dn = filter.getAssertionValue();
+                        List<Filter> equalities = new ArrayList<Filter>();
+                        for (String value : "member".equalsIgnoreCase(attribute) ? withParentGroups(dn) : withNestedGroups(dn)) {
+                            equalities.add(Filter.createEqualityFilter(attribute, value));
+                        }
+                        return Filter.createORFilter(equalities);
+                    }
+                    return filter;
+                default:
+                    return filter;
+            }
+        }
+
+        private List<Filter> rewrite(Filter[] filters) throws LDAPException {
+            List<Filter> rewritten = new ArrayList<Filter>(filters.length);
+            for (Filter filter : filters) {
+                rewritten.add(rewrite(filter));
+            }
+            return rewritten;
+        }
+
+        private Set<String> withParentGroups(String dn) throws LDAPException {
+            Set<String> dns = new LinkedHashSet<String>(Collections.singleton(dn));
+            List<String> level = Collections.singletonList(dn);
+            while (!level.isEmpty()) {
+                List<String> nextLevel = new ArrayList<String>();
+                for (String member : level) {
+                    for (SearchResultEntry group : server.search(GROUPS, SearchScope.SUB, Filter.createEqualityFilter("member", member)).getSearchEntries()) {
+                        if (dns.add(group.getDN())) {
+                            nextLevel.add(group.getDN());
+                        }
+                    }
+                }
+                level = nextLevel;
+            }
+            return dns;
+        }
+
+        private Set<String> withNestedGroups(String dn) throws LDAPException {
+            Set<String> dns = new LinkedHashSet<String>(Collections.singleton(dn));
+            List<String> level = Collections.singletonList(dn);
+            while (!level.isEmpty()) {
+                List<String> nextLevel = new ArrayList<String>();
+                for (String group : level) {
+                    Entry entry = server.getEntry(group);
+                    String[] members = entry != null ? entry.getAttributeValues("member") : null;
+                    for (String member : members != null ? members : new String[0]) {
+                        if (server.getEntry(member).hasObjectClass("groupOfNames") && dns.add(member)) {
+                            nextLevel.add(member);
+                        }
+                    }
+                }
+                level = nextLevel;
+            }
+            return dns;
+        }
+    }
+}
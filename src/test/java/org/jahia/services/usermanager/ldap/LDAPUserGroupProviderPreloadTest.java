@@ -0,0 +1,157 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap;
+
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedSearchRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryOperationInterceptor;
+import com.unboundid.ldap.sdk.Control;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.ResultCode;
+import com.unboundid.ldap.sdk.controls.SimplePagedResultsControl;
+import org.jahia.services.usermanager.ldap.config.GroupConfig;
+import org.jahia.services.usermanager.ldap.config.UserConfig;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.JMX;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Preload of the cache against an in-memory directory whose users base fails after the first page of each search
+ */
+public class LDAPUserGroupProviderPreloadTest extends LDAPAbstractUserGroupProviderTest {
+
+    private static final String PROVIDER_KEY = "preload";
+    private static final String[] USER_NAMES = {"alice", "bob", "carol", "dave", "eve"};
+
+    private final FailingInterceptor interceptor = new FailingInterceptor();
+    private LDAPUserGroupProviderStatisticsMBean statistics;
+
+    public LDAPUserGroupProviderPreloadTest() {
+        super(PROVIDER_KEY);
+    }
+
+    @Override
+    protected InMemoryOperationInterceptor getInterceptor() {
+        return interceptor;
+    }
+
+    @Override
+    protected void addEntries() throws LDAPException {
+        for (String userName : USER_NAMES) {
+            server.add("dn: uid=" + userName + "," + USERS, "objectClass: person", "uid: " + userName, "cn: " + userName, "sn: " + userName);
+        }
+        server.add("dn: cn=staff," + GROUPS, "objectClass: groupOfNames", "cn: staff", "member: uid=alice," + USERS, "member: uid=eve," + USERS);
+    }
+
+    @Override
+    protected void configure(UserConfig userConfig, GroupConfig groupConfig) {
+        groupConfig.setPreloadPageSize(2);
+    }
+
+    @Before
+    public void setUpStatistics() throws Exception {
+        statistics = JMX.newMBeanProxy(ManagementFactory.getPlatformMBeanServer(), new ObjectName(
+                "org.jahia.modules.ldap:type=LDAPUserGroupProvider,key=" + ObjectName.quote(PROVIDER_KEY)), LDAPUserGroupProviderStatisticsMBean.class);
+    }
+
+    @Test
+    public void resumesAfterTheLastEntryRead() throws Exception {
+        interceptor.failing = true;
+        provider.startPreload();
+        assertEquals("FAILED", waitForPreload());
+        // each of the 3 attempts reads one more page, from the last entry read by the previous one
+        assertEquals(4 + 1, statistics.getPreloadScannedEntryCount());
+
+        interceptor.failing = false;
+        statistics.startPreload();
+        assertEquals("DONE", waitForPreload());
+        // eve, and the groups base which is not synchronized
+        assertEquals(1 + 1, statistics.getPreloadScannedEntryCount());
+        for (String userName : USER_NAMES) {
+            assertNotNull(userName, ldapCacheManager.getUserCacheEntryByName(PROVIDER_KEY, userName));
+        }
+    }
+
+    @Test
+    public void readsTheWholeBasesAgainWhenNotSynchronized() throws Exception {
+        provider.startPreload();
+        assertEquals("DONE", waitForPreload());
+        assertEquals(USER_NAMES.length + 1, statistics.getPreloadScannedEntryCount());
+
+        statistics.startPreload();
+        assertEquals("DONE", waitForPreload());
+        assertEquals(USER_NAMES.length + 1, statistics.getPreloadScannedEntryCount());
+    }
+
+    private String waitForPreload() throws InterruptedException {
+        long timeout = System.currentTimeMillis() + 10000;
+        String state = statistics.getPreloadState();
+        while (("SCANNING".equals(state) || "RESOLVING".equals(state)) && System.currentTimeMillis() < timeout) {
+            Thread.sleep(20);
+            state = statistics.getPreloadState();
+        }
+        return state;
+    }
+
+    /**
+     * Refuses the searches of the users base asking for a page after the first one
+     */
+    private static class FailingInterceptor extends InMemoryOperationInterceptor {
+        private volatile boolean failing;
+
+        @Override
+        public void processSearchRequest(InMemoryInterceptedSearchRequest request) throws LDAPException {
+            Control control = request.getRequest().getControl(SimplePagedResultsControl.PAGED_RESULTS_OID);
+            if (failing && control != null && USERS.equalsIgnoreCase(request.getRequest().getBaseDN())
+                    && new SimplePagedResultsControl(control.getOID(), control.isCritical(), control.getValue()).getCookie().getValueLength() > 0) {
+                throw new LDAPException(ResultCode.OTHER, "second page refused");
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.cache;
+
+import org.jahia.modules.external.users.Member;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LDAPOffHeapMemberListTest {
+
+    private static final Member ALICE = new Member("alice", Member.MemberType.USER);
+    private static final Member BOB = new Member("bob", Member.MemberType.USER);
+    private static final Member ADMINS = new Member("admins", Member.MemberType.GROUP);
+
+    @Test
+    public void pagesInThePageOrderSkippingMembersNotResolved() {
+        List<Member> pageMembers = Arrays.asList(BOB, null, ADMINS, ALICE);
+        LDAPOffHeapMemberList list = LDAPOffHeapMemberList.of(Arrays.asList(ALICE, ADMINS, BOB, BOB), pageMembers, new LDAPOffHeapBudget(0));
+
+        assertTrue(list.hasPageOrder());
+        assertEquals(3, list.size());
+        assertEquals(4, list.getPageSize());
+        assertEquals(Arrays.asList("bob", "admins", "alice"), names(list.toPage(0, 10)));
+        assertEquals(Collections.singletonList("bob"), names(list.toPage(0, 2)));
+        assertEquals(Arrays.asList("admins", "alice"), names(list.toPage(2, 2)));
+        assertTrue(list.toPage(4, 10).isEmpty());
+    }
+
+    @Test
+    public void pagesGroupsThenUsersByNameWithoutPageOrder() {
+        LDAPOffHeapMemberList list = LDAPOffHeapMemberList.of(Arrays.asList(BOB, ALICE, ADMINS), new LDAPOffHeapBudget(0));
+
+        assertFalse(list.hasPageOrder());
+        assertEquals(3, list.getPageSize());
+        assertEquals(Arrays.asList("admins", "alice", "bob"), names(list.toPage(0, 10)));
+        assertEquals(Collections.singletonList("alice"), names(list.toPage(1, 1)));
+    }
+
+    private static List<String> names(List<Member> members) {
+        List<String> names = new ArrayList<String>();
+        for (Member member : members) {
+            names.add(member.getName());
+        }
+        return names;
+    }
+}
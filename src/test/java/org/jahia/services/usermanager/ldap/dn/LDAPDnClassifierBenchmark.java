@@ -0,0 +1,166 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.dn;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Classification of member DNs and extraction of their names, as done for each member of a group not found in cache:
+ * the {@link LDAPDnClassifier} against the previous code, which parsed the DN and both bases for each member.
+ * Run with <code>mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.jahia.services.usermanager.ldap.dn.LDAPDnClassifierBenchmark</code>
+ * or from the IDE.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LDAPDnClassifierBenchmark {
+
+    private static final int DN_COUNT = 10000;
+    private static final String USER_BASE = "ou=People,dc=example,dc=com";
+    private static final String GROUP_BASE = "ou=Groups,dc=example,dc=com";
+
+    private String[] dns;
+    private LDAPDnClassifier classifier;
+    private LDAPDnClassifier coldClassifier;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        dns = new String[DN_COUNT];
+        for (int i = 0; i < DN_COUNT; i++) {
+            // mostly users, a few nested groups, and the case variants returned by some servers
+            if (random.nextInt(5) == 0) {
+                dns[i] = "cn=group" + i + ",ou=Groups,dc=example,dc=com";
+            } else if (random.nextInt(4) == 0) {
+                dns[i] = "UID=user" + i + ",OU=People,DC=Example,DC=com";
+            } else {
+                dns[i] = "uid=user" + i + ",ou=People,dc=example,dc=com";
+            }
+        }
+        classifier = new LDAPDnClassifier(new LDAPDnCanonicalizer(), USER_BASE, GROUP_BASE, true, "uid", "cn");
+        // a pool too small to hold the DNs, as with groups of many more members than the pool size: the DNs are
+        // compared in place, the timings should not depend on it
+        coldClassifier = new LDAPDnClassifier(new LDAPDnCanonicalizer(2), USER_BASE, GROUP_BASE, true, "uid", "cn");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DN_COUNT)
+    public void parseEachTime(Blackhole blackhole) throws InvalidNameException {
+        for (String dn : dns) {
+            Boolean isUser = guessUserOrGroupFromDN(dn);
+            blackhole.consume(isUser);
+            if (isUser != null) {
+                blackhole.consume(getNameFromDn(dn, isUser));
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DN_COUNT)
+    public void classifier(Blackhole blackhole) {
+        classify(classifier, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DN_COUNT)
+    public void classifierWithoutPooledDns(Blackhole blackhole) {
+        classify(coldClassifier, blackhole);
+    }
+
+    private void classify(LDAPDnClassifier dnClassifier, Blackhole blackhole) {
+        for (String dn : dns) {
+            Boolean isUser = dnClassifier.isUser(dn);
+            blackhole.consume(isUser);
+            if (isUser != null) {
+                blackhole.consume(dnClassifier.getName(dn, isUser));
+            }
+        }
+    }
+
+    private static Boolean guessUserOrGroupFromDN(String dn) throws InvalidNameException {
+        LdapName memberLdapName = new LdapName(dn);
+        if (memberLdapName.startsWith(new LdapName(USER_BASE))) {
+            return true;
+        } else if (memberLdapName.startsWith(new LdapName(GROUP_BASE))) {
+            return false;
+        }
+        return null;
+    }
+
+    private static String getNameFromDn(String dn, boolean isUser) throws InvalidNameException {
+        for (Rdn rdn : new LdapName(dn).getRdns()) {
+            if (rdn.getType().equalsIgnoreCase(isUser ? "uid" : "cn")) {
+                return rdn.getValue().toString();
+            }
+        }
+        return null;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(LDAPDnClassifierBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2017 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.services.usermanager.ldap.dn;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LDAPDnClassifierTest {
+
+    private static final String USER_BASE = "ou=People,dc=example,dc=com";
+    private static final String GROUP_BASE = "ou=Groups,dc=example,dc=com";
+
+    private final LDAPDnClassifier classifier = new LDAPDnClassifier(new LDAPDnCanonicalizer(), USER_BASE, GROUP_BASE, true, "uid", "cn");
+
+    @Test
+    public void classifiesByBase() {
+        assertTrue(classifier.isUser("uid=jdoe,ou=People,dc=example,dc=com"));
+        assertFalse(classifier.isUser("cn=admins,ou=Groups,dc=example,dc=com"));
+        assertNull(classifier.isUser("cn=printer,ou=Devices,dc=example,dc=com"));
+        assertNull(classifier.isUser("uid=jdoe,ou=People,dc=other,dc=com"));
+        assertNull(classifier.isUser(null));
+    }
+
+    @Test
+    public void classifiesCaseAndSpacingVariants() {
+        assertTrue(classifier.isUser("UID=jdoe, OU=people,  DC=Example,dc=COM"));
+        assertFalse(classifier.isUser("CN=Admins,OU=GROUPS,DC=EXAMPLE,DC=COM"));
+        assertTrue(classifier.isInUserBase("uid=jdoe,OU=People,DC=example,DC=com"));
+        assertFalse(classifier.isInGroupBase("uid=jdoe,OU=People,DC=example,DC=com"));
+    }
+
+    @Test
+    public void doesNotClassifyWithoutDistinctBases() {
+        LDAPDnClassifier sameBase = new LDAPDnClassifier(new LDAPDnCanonicalizer(), "dc=example,dc=com", "dc=example,dc=com", false, "uid", "cn");
+        assertNull(sameBase.isUser("uid=jdoe,ou=People,dc=example,dc=com"));
+        assertTrue(sameBase.isInUserBase("uid=jdoe,ou=People,dc=example,dc=com"));
+        assertTrue(sameBase.isInGroupBase("uid=jdoe,ou=People,dc=example,dc=com"));
+    }
+
+    @Test
+    public void mostSpecificNestedBaseWins() {
+        LDAPDnClassifier nested = new LDAPDnClassifier(new LDAPDnCanonicalizer(), "dc=example,dc=com", GROUP_BASE, true, "uid", "cn");
+        assertFalse(nested.isUser("cn=admins,ou=Groups,dc=example,dc=com"));
+        assertFalse(nested.isUser("cn=admins,ou=Sub,ou=Groups,dc=example,dc=com"));
+        assertTrue(nested.isUser("uid=jdoe,ou=People,dc=example,dc=com"));
+
+        LDAPDnClassifier nestedUsers = new LDAPDnClassifier(new LDAPDnCanonicalizer(), USER_BASE, "dc=example,dc=com", true, "uid", "cn");
+        assertTrue(nestedUsers.isUser("uid=jdoe,ou=People,dc=example,dc=com"));
+        assertFalse(nestedUsers.isUser("cn=admins,ou=Groups,dc=example,dc=com"));
+    }
+
+    @Test
+    public void matchesBasesOnWholeRdns() {
+        // same characters as the base, but ending inside a value
+        assertNull(classifier.isUser("uid=jdoe,ou=OtherPeople,dc=example,dc=com"));
+        assertNull(classifier.isUser("uid=jdoe\\,ou=People,dc=example,dc=com"));
+        // escaped backslash right before the separator
+        assertTrue(classifier.isUser("uid=jdoe\\\\,ou=People,dc=example,dc=com"));
+    }
+
+    @Test
+    public void classifiesEscapedDns() {
+        assertTrue(classifier.isUser("uid=Doe\\, John,ou=People,dc=example,dc=com"));
+        assertTrue(classifier.isUser("uid=a\\+b,ou=People,dc=example,dc=com"));
+        assertFalse(classifier.isUser("cn=R\\26D,ou=Groups,dc=example,dc=com"));
+    }
+
+    @Test
+    public void readsNameFromLeftMostRdn() {
+        assertEquals("jdoe", classifier.getName("uid=jdoe,ou=People,dc=example,dc=com", true));
+        assertEquals("admins", classifier.getName("cn=admins,cn=groups,ou=Groups,dc=example,dc=com", false));
+        assertEquals("admins", classifier.getName(" CN = admins ,ou=Groups,dc=example,dc=com", false));
+        // the naming attribute only appears in a parent RDN
+        assertNull(classifier.getName("ou=admins,cn=groups,ou=Groups,dc=example,dc=com", false));
+        assertNull(classifier.getName("cn=jdoe,ou=People,dc=example,dc=com", true));
+        assertNull(classifier.getName(null, true));
+    }
+
+    @Test
+    public void readsEscapedNames() {
+        assertEquals("Doe, John", classifier.getName("uid=Doe\\, John,ou=People,dc=example,dc=com", true));
+        assertEquals("Doe, John", classifier.getName("uid=\"Doe, John\",ou=People,dc=example,dc=com", true));
+        assertEquals("a+b=c", classifier.getName("uid=a\\+b\\=c,ou=People,dc=example,dc=com", true));
+        assertEquals("R&D", classifier.getName("cn=R\\26D,ou=Groups,dc=example,dc=com", false));
+        assertEquals("back\\slash", classifier.getName("uid=back\\\\slash,ou=People,dc=example,dc=com", true));
+        // binary values cannot be read from the DN
+        assertNull(classifier.getName("uid=#04024869,ou=People,dc=example,dc=com", true));
+    }
+
+    @Test
+    public void readsNamesOfMultiValuedRdns() {
+        String dn = "cn=John Doe+uid=jdoe,ou=People,dc=example,dc=com";
+        assertTrue(classifier.isUser(dn));
+        assertEquals("jdoe", classifier.getName(dn, true));
+        assertEquals("John Doe", classifier.getName(dn, false));
+        assertEquals("jdoe", classifier.getName("uid=jdoe+cn=John Doe,ou=People,dc=example,dc=com", true));
+        assertEquals("Doe+John", classifier.getName("cn=x+uid=Doe\\+John,ou=People,dc=example,dc=com", true));
+        assertNull(classifier.getName("cn=John Doe+mail=jdoe@example.com,ou=People,dc=example,dc=com", true));
+    }
+
+    @Test
+    public void classifiesWithoutCanonicalizingTheDns() {
+        CountingCanonicalizer canonicalizer = new CountingCanonicalizer();
+        LDAPDnClassifier counted = new LDAPDnClassifier(canonicalizer, USER_BASE, GROUP_BASE, true, "uid", "cn");
+        canonicalizer.count = 0;
+        assertTrue(counted.isUser("UID=jdoe, OU=people,  DC=Example,dc=COM"));
+        assertFalse(counted.isUser("cn=R\\26D,ou=Groups,dc=example,dc=com"));
+        assertNull(counted.isUser("cn=John Doe+uid=jdoe,ou=Devices,dc=example,dc=com"));
+        assertTrue(counted.isInUserBase("uid=a\\,b;ou=People;dc=example;dc=com"));
+        assertEquals(0, canonicalizer.count);
+    }
+
+    @Test
+    public void classifiesDnsNotComparedInPlace() {
+        CountingCanonicalizer canonicalizer = new CountingCanonicalizer();
+        LDAPDnClassifier counted = new LDAPDnClassifier(canonicalizer, USER_BASE, "ou=Gr\\C3\\A9s,dc=example,dc=com", true, "uid", "cn");
+        canonicalizer.count = 0;
+        // quoted value and non ASCII escape, matched on the canonical form
+        assertTrue(counted.isUser("uid=\"Doe, John\",ou=People,dc=example,dc=com"));
+        assertFalse(counted.isUser("cn=admins,ou=gr\\c3\\a9s,dc=example,dc=com"));
+        assertFalse(counted.isUser("cn=admins,ou=Gr\u00e9s,dc=example,dc=com"));
+        assertEquals(3, canonicalizer.count);
+    }
+
+    @Test
+    public void matchesMultiValuedBases() {
+        LDAPDnClassifier multiValued = new LDAPDnClassifier(new LDAPDnCanonicalizer(), "ou=People+l=Paris,dc=example,dc=com", GROUP_BASE, true, "uid", "cn");
+        assertTrue(multiValued.isUser("uid=jdoe,L=paris+OU=people,dc=example,dc=com"));
+        assertNull(multiValued.isUser("uid=jdoe,ou=People,dc=example,dc=com"));
+    }
+
+    @Test
+    public void doesNotMatchValuesOfOtherLengthsOrTypes() {
+        assertNull(classifier.isUser("uid=jdoe,ou=Peoples,dc=example,dc=com"));
+        assertNull(classifier.isUser("uid=jdoe,ou=Peopl,dc=example,dc=com"));
+        assertNull(classifier.isUser("uid=jdoe,o=People,dc=example,dc=com"));
+        assertNull(classifier.isUser("uid=jdoe,ou=Peo ple,dc=example,dc=com"));
+        assertNull(classifier.isUser("uid=jdoe,ou=#0406506567706c65,dc=example,dc=com"));
+        assertNull(classifier.isUser("dc=example,dc=com"));
+        assertTrue(classifier.isUser("ou=People,dc=example,dc=com"));
+        assertTrue(classifier.isUser("uid=jdoe,ou=\\50eople,dc=example,dc=com"));
+    }
+
+    private static class CountingCanonicalizer extends LDAPDnCanonicalizer {
+        private int count;
+
+        @Override
+        public String canonicalize(String dn) {
+            count++;
+            return super.canonicalize(dn);
+        }
+    }
+}